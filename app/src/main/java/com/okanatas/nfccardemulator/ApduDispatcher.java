@@ -0,0 +1,119 @@
+package com.okanatas.nfccardemulator;
+
+/**
+ * This class was created to select the response of a command APDU from the file in use.
+ * It works directly on the command bytes and returns shared arrays, so that answering
+ * a command APDU does not allocate any memory.
+ * A command of the file without wildcards wins over the commands with wildcards, which win over the first command with the same INS.
+ */
+public class ApduDispatcher {
+
+    /**
+     * This method selects the response of the command APDU from the given table.
+     * The returned array is shared and must not be modified.
+     * @param table commands and responses of the file in use.
+     * @param commandApdu command APDU in byte array format.
+     * @return response APDU in byte array format.
+     */
+    static byte[] dispatch(ApduProfile table, byte[] commandApdu) {
+        return dispatch(table, null, commandApdu);
+    }
+
+    /**
+     * This method selects the response of the command APDU in the order of a recorded session.
+     * A command answers with the response of its next step in the session instead of its first one,
+     * and the commands matched by INS are matched exactly first, so that each of them follows its own steps.
+     * The returned array is shared and must not be modified.
+     * @param table commands and responses of the file in use.
+     * @param replay steps reached in the session of the file in use, or null to answer with the first matching response.
+     * @param commandApdu command APDU in byte array format.
+     * @return response APDU in byte array format.
+     */
+    static byte[] dispatch(ApduProfile table, ReplayStateMachine.Session replay, byte[] commandApdu) {
+        if (commandApdu == null || commandApdu.length < ISOProtocol.MIN_APDU_SIZE) {
+            return ISOProtocol.SW_COMMAND_ABORTED;
+        }
+
+        /* Switch for INS : this is the index 1 for commandApdu byte array */
+        switch (commandApdu[ISOProtocol.INS_INDEX]) {
+            case ISOProtocol.INS_SELECT:
+                return exactMatch(table, replay, commandApdu, ISOProtocol.SW_FILE_NOT_FOUND);
+            case ISOProtocol.INS_READ_RECORD:
+                return exactMatch(table, replay, commandApdu, ISOProtocol.SW_RECORD_NOT_FOUND);
+            case ISOProtocol.INS_GET_PROCESSING_OPTIONS:
+                return exactMatch(table, replay, commandApdu, ISOProtocol.SW_COMMAND_ABORTED);
+            case ISOProtocol.INS_READ_BINARY:
+                return insMatch(table, replay, commandApdu, ISOProtocol.SW_RECORD_NOT_FOUND);
+            case ISOProtocol.INS_WRITE_BINARY:
+            case ISOProtocol.INS_UPDATE_BINARY:
+            case ISOProtocol.INS_READ_NDEF:
+            case ISOProtocol.INS_PERFORM_SECURITY_OPERATION:
+            case ISOProtocol.INS_GENERATE_APPLICATION_CRYPTOGRAM:
+            case ISOProtocol.INS_GET_DATA:
+                return insMatch(table, replay, commandApdu, ISOProtocol.SW_COMMAND_ABORTED);
+            default:
+                return ISOProtocol.SW_INS_NOT_SUPPORTED_OR_INVALID;
+        }
+    }
+
+    /**
+     * This method gets the response of the first entry with exactly the same command, or of the pattern matching it.
+     * @param table commands and responses of the file in use.
+     * @param replay steps reached in the session, or null.
+     * @param commandApdu command APDU in byte array format.
+     * @param notFound status word to return if there is no such entry.
+     * @return response APDU in byte array format.
+     */
+    private static byte[] exactMatch(ApduProfile table, ReplayStateMachine.Session replay, byte[] commandApdu, byte[] notFound) {
+        int index = table.indexOf(commandApdu);
+        if (index == ApduProfile.NOT_FOUND) {
+            return patternMatch(table, commandApdu, notFound);
+        }
+        return response(table, replay, index, notFound);
+    }
+
+    /**
+     * This method gets the response of the first entry with the same INS byte,
+     * unless the command is matched exactly or by a pattern of the file.
+     * @param table commands and responses of the file in use.
+     * @param replay steps reached in the session, or null.
+     * @param commandApdu command APDU in byte array format.
+     * @param notFound status word to return if there is no such entry.
+     * @return response APDU in byte array format.
+     */
+    private static byte[] insMatch(ApduProfile table, ReplayStateMachine.Session replay, byte[] commandApdu, byte[] notFound) {
+        boolean hasPatterns = table.getPatternCount() > 0;
+        // without patterns, the exact command is looked up only for the replay, the first entry with the same INS answers anyway
+        int index = (replay != null || hasPatterns) ? table.indexOf(commandApdu) : ApduProfile.NOT_FOUND;
+        if (index == ApduProfile.NOT_FOUND && hasPatterns) {
+            int pattern = table.matchPattern(commandApdu);
+            if (pattern != ApduProfile.NOT_FOUND) {
+                return table.getPatternResponse(pattern);
+            }
+        }
+        if (index == ApduProfile.NOT_FOUND) {
+            index = table.firstIndexOfIns(commandApdu[ISOProtocol.INS_INDEX]);
+        }
+        return response(table, replay, index, notFound);
+    }
+
+    /**
+     * This method gets the response of the pattern of the file that wins among the patterns matching the command.
+     * The patterns answer the same response each time, the replay of a session does not apply to them.
+     * @param table commands and responses of the file in use.
+     * @param commandApdu command APDU in byte array format.
+     * @param notFound status word to return if there is no such pattern.
+     * @return response APDU in byte array format.
+     */
+    private static byte[] patternMatch(ApduProfile table, byte[] commandApdu, byte[] notFound) {
+        int pattern = table.matchPattern(commandApdu);
+        return (pattern == ApduProfile.NOT_FOUND) ? notFound : table.getPatternResponse(pattern);
+    }
+
+    private static byte[] response(ApduProfile table, ReplayStateMachine.Session replay, int index, byte[] notFound) {
+        if (index == ApduProfile.NOT_FOUND) {
+            return notFound;
+        }
+        return table.getResponse((replay != null) ? replay.advance(index) : index);
+    }
+}
@@ -0,0 +1,109 @@
+package com.okanatas.nfccardemulator;
+
+import android.util.Log;
+
+/**
+ * This class was created to keep the logging of the APDU path as cheap as the chosen level allows.
+ * Each APDU goes through several log calls, and building their text costs more than answering the command from memory.
+ * The messages are therefore given as bytes or as a {@link Message} that builds the text,
+ * and nothing is built, looked up or sent to Logcat unless the level asks for it.
+ */
+final class ApduLogger {
+
+    /** Nothing is logged on the APDU path, neither in the application nor in Logcat. */
+    static final int LEVEL_PERFORMANCE = 0;
+    /** The APDUs are kept in the communication logs of the application, as bytes, nothing is sent to Logcat. */
+    static final int LEVEL_COMMUNICATION = 1;
+    /** The APDUs are kept in the communication logs of the application and also sent to Logcat. */
+    static final int LEVEL_DEBUG = 2;
+
+    private static final String TAG = "ApduLogger";
+
+    private static volatile int level = LEVEL_DEBUG;
+
+    /**
+     * A log message whose text is built only when it is logged.
+     */
+    interface Message {
+        String get();
+    }
+
+    private ApduLogger() {
+    }
+
+    /**
+     * This method sets the level of the logging on the APDU path.
+     * @param newLevel LEVEL_PERFORMANCE, LEVEL_COMMUNICATION or LEVEL_DEBUG.
+     */
+    static void setLevel(int newLevel) {
+        if (newLevel < LEVEL_PERFORMANCE || newLevel > LEVEL_DEBUG) {
+            throw new IllegalArgumentException("Invalid log level: " + newLevel);
+        }
+        if (newLevel != level) {
+            Log.d(TAG, "Log level: " + newLevel);
+            level = newLevel;
+        }
+    }
+
+    static int getLevel() {
+        return level;
+    }
+
+    /**
+     * This method checks whether the messages of a level are logged.
+     * @param messageLevel LEVEL_COMMUNICATION or LEVEL_DEBUG.
+     * @return true if the current level is the same or higher.
+     */
+    static boolean isLoggable(int messageLevel) {
+        return level >= messageLevel;
+    }
+
+    /**
+     * This method sends a message to Logcat at the debug level.
+     * @param tag tag of the message.
+     * @param message text of the message, it should be a constant so that nothing is built when it is not logged.
+     */
+    static void d(String tag, String message) {
+        if (level >= LEVEL_DEBUG) {
+            Log.d(tag, message);
+        }
+    }
+
+    /**
+     * This method sends a message built on demand to Logcat at the debug level.
+     * @param tag tag of the message.
+     * @param message builder of the text, it is not called when the message is not logged.
+     */
+    static void d(String tag, Message message) {
+        if (level >= LEVEL_DEBUG) {
+            Log.d(tag, message.get());
+        }
+    }
+
+    /**
+     * This method sends an APDU to Logcat at the debug level, its bytes are converted to hexadecimal only when it is logged.
+     * @param tag tag of the message.
+     * @param prefix text written before the APDU.
+     * @param apdu APDU in byte array format.
+     */
+    static void d(String tag, String prefix, byte[] apdu) {
+        if (level >= LEVEL_DEBUG) {
+            Log.d(tag, prefix + Utils.toHexString(apdu));
+        }
+    }
+
+    /**
+     * This method adds a command and its response to the communication logs of the application.
+     * The bytes are kept as they are, the arrays must not be modified afterwards.
+     * @param commandTag tag of the command APDU.
+     * @param commandApdu command APDU in byte array format, or null if no command was received.
+     * @param responseTag tag of the response APDU.
+     * @param responseApdu response APDU in byte array format.
+     */
+    static void logExchange(String commandTag, byte[] commandApdu, String responseTag, byte[] responseApdu) {
+        if (level >= LEVEL_COMMUNICATION) {
+            InformationTransferManager.appendApduLogMessage(LogStore.KIND_COMMAND, commandTag, commandApdu);
+            InformationTransferManager.appendApduLogMessage(LogStore.KIND_RESPONSE, responseTag, responseApdu);
+        }
+    }
+}
@@ -0,0 +1,534 @@
+package com.okanatas.nfccardemulator;
+
+import java.io.DataOutput;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * This class was created to index the commands and responses of the file currently in use,
+ * so that a command APDU can be matched in constant time whatever the size of the file.
+ * All the commands and responses are decoded once and packed one after the other in a single byte array,
+ * a primitive index gives the boundaries of each of them. There is no object per command or response.
+ * A response given to several commands is stored once, recorded sessions answer the same commands with the same responses.
+ * The commands with wildcards are kept aside as patterns, in a matcher of their own.
+ * The table is built once when a file is loaded and is never modified afterwards.
+ */
+public class ApduLookupTable implements ApduProfile {
+
+    /** An empty table, used when no file is in use. */
+    static final ApduLookupTable EMPTY = new Builder().build();
+
+    /** The commands packed one after the other, followed by the distinct responses packed one after the other. */
+    private final byte[] arena;
+    /** Start of each command in the arena, command i spans from commandBoundaries[i] to commandBoundaries[i + 1]. */
+    private final int[] commandBoundaries;
+    /** The distinct response of each entry. */
+    private final int[] responseIds;
+    /** Start of each distinct response in the arena, response j spans from responseBoundaries[j] to responseBoundaries[j + 1]. */
+    private final int[] responseBoundaries;
+    private final int size;
+
+    /** Open addressing hash table, each slot holds an index of the entries or NOT_FOUND. */
+    private final int[] slots;
+    private final int slotMask;
+    /** Most slots read by indexOf to find a command of the table. */
+    private final int maxProbeCount;
+
+    /** For each INS value, the index of the first command carrying that INS or NOT_FOUND. */
+    private final int[] firstIndexByIns = new int[256];
+
+    /** Distinct responses copied out of the arena the first time they are answered, the terminal needs its own array. */
+    private final AtomicReferenceArray<byte[]> responseArrays;
+
+    /** The commands with wildcards, matched when no command is exactly the same. */
+    private final ApduPatternMatcher patterns;
+    /** The distinct response of each pattern. */
+    private final int[] patternResponseIds;
+
+    /**
+     * This constructor indexes the given commands and responses.
+     * Commands and responses are matched by position, extra elements of the longer array are ignored.
+     * @param commands command APDUs in byte array format.
+     * @param responses response APDUs in byte array format.
+     */
+    ApduLookupTable(byte[][] commands, byte[][] responses) {
+        this(Builder.of(commands, responses));
+    }
+
+    private ApduLookupTable(Builder builder) {
+        size = builder.size;
+        int commandArenaSize = builder.commandBoundaries[size];
+        int responseArenaSize = builder.responseBoundaries[builder.responseCount];
+        if (commandArenaSize + responseArenaSize < 0) {
+            throw new IllegalStateException("Profile too large");
+        }
+        arena = new byte[commandArenaSize + responseArenaSize];
+        System.arraycopy(builder.commandArena, 0, arena, 0, commandArenaSize);
+        System.arraycopy(builder.responseArena, 0, arena, commandArenaSize, responseArenaSize);
+        commandBoundaries = Arrays.copyOf(builder.commandBoundaries, size + 1);
+        responseIds = Arrays.copyOf(builder.responseIds, size);
+        responseBoundaries = new int[builder.responseCount + 1];
+        for (int j = 0; j < responseBoundaries.length; j++) {
+            responseBoundaries[j] = commandArenaSize + builder.responseBoundaries[j];
+        }
+        responseArrays = new AtomicReferenceArray<>(builder.responseCount);
+        patterns = builder.patterns.isEmpty() ? ApduPatternMatcher.EMPTY : new ApduPatternMatcher(builder.patterns);
+        patternResponseIds = Arrays.copyOf(builder.patternResponseIds, builder.patterns.size());
+
+        // keep the load factor at or below 0.5 so that probe sequences stay short
+        int capacity = 2;
+        while (capacity < size * 2) {
+            capacity <<= 1;
+        }
+        slots = new int[capacity];
+        slotMask = capacity - 1;
+        Arrays.fill(slots, NOT_FOUND);
+        Arrays.fill(firstIndexByIns, NOT_FOUND);
+
+        int maxProbes = 0;
+        for (int i = 0; i < size; i++) {
+            int start = commandBoundaries[i];
+            int length = commandBoundaries[i + 1] - start;
+
+            if (length > ISOProtocol.INS_INDEX && firstIndexByIns[arena[start + ISOProtocol.INS_INDEX] & 0xFF] == NOT_FOUND) {
+                firstIndexByIns[arena[start + ISOProtocol.INS_INDEX] & 0xFF] = i;
+            }
+
+            // the first occurrence of a command wins, just like the former linear scan
+            int slot = hash(arena, start, length) & slotMask;
+            int probes = 1;
+            while (slots[slot] != NOT_FOUND && !commandEquals(slots[slot], arena, start, length)) {
+                slot = (slot + 1) & slotMask;
+                probes++;
+            }
+            if (slots[slot] == NOT_FOUND) {
+                slots[slot] = i;
+            }
+            maxProbes = Math.max(maxProbes, probes);
+        }
+        maxProbeCount = maxProbes;
+    }
+
+    /**
+     * This method builds a table from the hexadecimal commands and responses read from a file.
+     * @param commands commands in hexadecimal format.
+     * @param responses responses in hexadecimal format.
+     * @return lookup table of the given commands and responses.
+     */
+    static ApduLookupTable fromHexStrings(List<String> commands, List<String> responses) {
+        Builder builder = new Builder();
+        for (int i = 0, size = Math.min(commands.size(), responses.size()); i < size; i++) {
+            builder.add(Utils.hexStringToByteArray(commands.get(i)), Utils.hexStringToByteArray(responses.get(i)));
+        }
+        return builder.build();
+    }
+
+    /**
+     * This method finds the first entry whose command is exactly the given command.
+     * @param command command APDU in byte array format.
+     * @return index of the entry or NOT_FOUND.
+     */
+    @Override
+    public int indexOf(byte[] command) {
+        int slot = hash(command, 0, command.length) & slotMask;
+        int index;
+        while ((index = slots[slot]) != NOT_FOUND) {
+            if (commandEquals(index, command, 0, command.length)) {
+                return index;
+            }
+            slot = (slot + 1) & slotMask;
+        }
+        return NOT_FOUND;
+    }
+
+    /**
+     * This method gets the longest probe sequence of indexOf over the commands of the table.
+     * @return most slots read to find a command of the table, 0 if the table is empty.
+     */
+    int getMaxProbeCount() {
+        return maxProbeCount;
+    }
+
+    /**
+     * This method finds the first entry whose command has the given INS byte.
+     * @param ins INS byte of the command APDU.
+     * @return index of the entry or NOT_FOUND.
+     */
+    @Override
+    public int firstIndexOfIns(byte ins) {
+        return firstIndexByIns[ins & 0xFF];
+    }
+
+    @Override
+    public byte[] getCommand(int index) {
+        return Arrays.copyOfRange(arena, commandBoundaries[index], commandBoundaries[index + 1]);
+    }
+
+    /**
+     * This method gets the response of an entry.
+     * It is copied out of the arena the first time only, the returned array is shared by all callers and must not be modified.
+     * The entries that have the same response share the same array.
+     * @param index index of the entry.
+     * @return response APDU in byte array format.
+     */
+    @Override
+    public byte[] getResponse(int index) {
+        return getDistinctResponse(responseIds[index]);
+    }
+
+    @Override
+    public int matchPattern(byte[] command) {
+        return patterns.match(command);
+    }
+
+    /**
+     * This method gets the response of a pattern.
+     * The returned array is shared by all callers and must not be modified, it is the same array as the entries with the same response.
+     * @param pattern index of the pattern.
+     * @return response APDU in byte array format.
+     */
+    @Override
+    public byte[] getPatternResponse(int pattern) {
+        return getDistinctResponse(patternResponseIds[pattern]);
+    }
+
+    @Override
+    public int getPatternCount() {
+        return patterns.size();
+    }
+
+    /**
+     * This method gets a pattern of the table.
+     * @param pattern index of the pattern.
+     * @return the pattern.
+     */
+    ApduPattern getPattern(int pattern) {
+        return patterns.getPattern(pattern);
+    }
+
+    /**
+     * This method gets a read-only view of the response of a pattern, nothing is copied.
+     * @param pattern index of the pattern.
+     * @return response APDU, from position 0 to its limit.
+     */
+    ByteBuffer getPatternResponseSlice(int pattern) {
+        int responseId = patternResponseIds[pattern];
+        return slice(responseBoundaries[responseId], responseBoundaries[responseId + 1]);
+    }
+
+    private byte[] getDistinctResponse(int responseId) {
+        byte[] response = responseArrays.get(responseId);
+        if (response == null) {
+            response = Arrays.copyOfRange(arena, responseBoundaries[responseId], responseBoundaries[responseId + 1]);
+            responseArrays.lazySet(responseId, response);
+        }
+        return response;
+    }
+
+    /**
+     * This method gets a read-only view of the command of an entry, nothing is copied.
+     * @param index index of the entry.
+     * @return command APDU, from position 0 to its limit.
+     */
+    ByteBuffer getCommandSlice(int index) {
+        return slice(commandBoundaries[index], commandBoundaries[index + 1]);
+    }
+
+    /**
+     * This method gets a read-only view of the response of an entry, nothing is copied.
+     * @param index index of the entry.
+     * @return response APDU, from position 0 to its limit.
+     */
+    ByteBuffer getResponseSlice(int index) {
+        int responseId = responseIds[index];
+        return slice(responseBoundaries[responseId], responseBoundaries[responseId + 1]);
+    }
+
+    /**
+     * This method gets the number of command and response pairs in the table.
+     * @return number of entries.
+     */
+    @Override
+    public int size() {
+        return size;
+    }
+
+    /**
+     * This method gets the number of distinct responses, each of them is stored once.
+     * @return number of distinct responses.
+     */
+    int getResponseCount() {
+        return responseBoundaries.length - 1;
+    }
+
+    /**
+     * This method gets the memory used by the arrays of the table, array headers excluded.
+     * @return number of bytes.
+     */
+    @Override
+    public long getStorageSize() {
+        long patternSize = 0;
+        for (int p = 0; p < patterns.size(); p++) {
+            patternSize += 2L * patterns.getPattern(p).length();
+        }
+        return arena.length + 4L * (commandBoundaries.length + responseIds.length + responseBoundaries.length
+                + slots.length + firstIndexByIns.length + responseArrays.length() + patternResponseIds.length)
+                + patterns.getStorageSize() + patternSize;
+    }
+
+    int getSlotCount() {
+        return slots.length;
+    }
+
+    int getArenaSize() {
+        return arena.length;
+    }
+
+    /**
+     * This method writes the index and the arena of the table, in the order of the sections of a compiled file:
+     * first index of each INS, hash slots, command boundaries, response of each entry, response boundaries, arena and patterns.
+     * Each pattern is written as its response, whether it ends with *, its length, its bytes and the mask of its bytes.
+     * @param output destination of the sections.
+     * @throws IOException if the sections cannot be written.
+     */
+    void writeSections(DataOutput output) throws IOException {
+        for (int index : firstIndexByIns) {
+            output.writeInt(index);
+        }
+        for (int index : slots) {
+            output.writeInt(index);
+        }
+        for (int boundary : commandBoundaries) {
+            output.writeInt(boundary);
+        }
+        for (int responseId : responseIds) {
+            output.writeInt(responseId);
+        }
+        for (int boundary : responseBoundaries) {
+            output.writeInt(boundary);
+        }
+        output.write(arena);
+        for (int p = 0; p < patterns.size(); p++) {
+            ApduPattern pattern = patterns.getPattern(p);
+            output.writeInt(patternResponseIds[p]);
+            output.writeByte(pattern.isPrefix() ? 1 : 0);
+            output.writeShort(pattern.length());
+            for (int i = 0; i < pattern.length(); i++) {
+                output.writeByte(pattern.getValue(i));
+            }
+            for (int i = 0; i < pattern.length(); i++) {
+                output.writeByte(pattern.getMask(i));
+            }
+        }
+    }
+
+    private ByteBuffer slice(int start, int end) {
+        return ByteBuffer.wrap(arena, start, end - start).slice().asReadOnlyBuffer();
+    }
+
+    /**
+     * This method compares the command of an entry with the given bytes.
+     */
+    private boolean commandEquals(int index, byte[] data, int offset, int length) {
+        int start = commandBoundaries[index];
+        if (commandBoundaries[index + 1] - start != length) {
+            return false;
+        }
+        for (int i = 0; i < length; i++) {
+            if (arena[start + i] != data[offset + i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * This method calculates the hash of a command APDU, the same as Arrays.hashCode on the command alone.
+     * @param data array holding the command.
+     * @param offset position of the command.
+     * @param length length of the command.
+     * @return hash value with its high bits spread to the low bits.
+     */
+    static int hash(byte[] data, int offset, int length) {
+        int h = 1;
+        for (int i = offset, end = offset + length; i < end; i++) {
+            h = 31 * h + data[i];
+        }
+        return h ^ (h >>> 16);
+    }
+
+    /**
+     * This class collects the commands and responses of a file before they are indexed.
+     * Each response is looked up among the responses already collected, so that it is copied once.
+     */
+    static class Builder {
+        private byte[] commandArena = new byte[1024];
+        private int[] commandBoundaries = new int[65];
+        private int[] responseIds = new int[64];
+        private int size = 0;
+
+        private byte[] responseArena = new byte[1024];
+        private int[] responseBoundaries = new int[65];
+        private int responseCount = 0;
+        /** Open addressing hash table of the distinct responses, each slot holds a response or NOT_FOUND. */
+        private int[] responseSlots = newSlots(64);
+
+        private final List<ApduPattern> patterns = new ArrayList<>();
+        private int[] patternResponseIds = new int[8];
+
+        static Builder of(byte[][] commands, byte[][] responses) {
+            Builder builder = new Builder();
+            for (int i = 0, size = Math.min(commands.length, responses.length); i < size; i++) {
+                builder.add(commands[i], responses[i]);
+            }
+            return builder;
+        }
+
+        Builder add(byte[] command, byte[] response) {
+            return add(command, command.length, response, response.length);
+        }
+
+        /**
+         * This method copies a command at the end of the arena, and its response too unless the same response was already added.
+         * @param command array holding the command from position 0.
+         * @param commandLength length of the command.
+         * @param response array holding the response from position 0.
+         * @param responseLength length of the response.
+         * @return this builder.
+         */
+        Builder add(byte[] command, int commandLength, byte[] response, int responseLength) {
+            int responseId = internResponse(response, responseLength);
+
+            int commandArenaSize = commandBoundaries[size];
+            commandArena = ensureCapacity(commandArena, commandArenaSize, commandLength);
+            if (size + 2 > commandBoundaries.length) {
+                commandBoundaries = Arrays.copyOf(commandBoundaries, commandBoundaries.length * 2);
+                responseIds = Arrays.copyOf(responseIds, commandBoundaries.length);
+            }
+            System.arraycopy(command, 0, commandArena, commandArenaSize, commandLength);
+            responseIds[size] = responseId;
+            size++;
+            commandBoundaries[size] = commandArenaSize + commandLength;
+            return this;
+        }
+
+        /**
+         * This method adds a command with wildcards, its response is added unless the same response was already added.
+         * @param pattern command with wildcards.
+         * @param response array holding the response from position 0.
+         * @param responseLength length of the response.
+         * @return this builder.
+         */
+        Builder addPattern(ApduPattern pattern, byte[] response, int responseLength) {
+            if (patterns.size() == patternResponseIds.length) {
+                patternResponseIds = Arrays.copyOf(patternResponseIds, patternResponseIds.length * 2);
+            }
+            patternResponseIds[patterns.size()] = internResponse(response, responseLength);
+            patterns.add(pattern);
+            return this;
+        }
+
+        Builder addPattern(ApduPattern pattern, byte[] response) {
+            return addPattern(pattern, response, response.length);
+        }
+
+        int size() {
+            return size;
+        }
+
+        int getPatternCount() {
+            return patterns.size();
+        }
+
+        /**
+         * This method gets the number of distinct responses added so far.
+         * @return number of distinct responses.
+         */
+        int getResponseCount() {
+            return responseCount;
+        }
+
+        ApduLookupTable build() {
+            return new ApduLookupTable(this);
+        }
+
+        /**
+         * This method finds a response among the distinct responses, or adds it.
+         * @return index of the distinct response.
+         */
+        private int internResponse(byte[] response, int responseLength) {
+            int mask = responseSlots.length - 1;
+            int slot = hash(response, 0, responseLength) & mask;
+            int responseId;
+            while ((responseId = responseSlots[slot]) != NOT_FOUND) {
+                if (responseEquals(responseId, response, responseLength)) {
+                    return responseId;
+                }
+                slot = (slot + 1) & mask;
+            }
+
+            int responseArenaSize = responseBoundaries[responseCount];
+            responseArena = ensureCapacity(responseArena, responseArenaSize, responseLength);
+            if (responseCount + 2 > responseBoundaries.length) {
+                responseBoundaries = Arrays.copyOf(responseBoundaries, responseBoundaries.length * 2);
+            }
+            System.arraycopy(response, 0, responseArena, responseArenaSize, responseLength);
+            responseId = responseCount++;
+            responseBoundaries[responseCount] = responseArenaSize + responseLength;
+            responseSlots[slot] = responseId;
+
+            // keep the load factor at or below 0.5, like the index of the commands
+            if (responseCount * 2 > responseSlots.length) {
+                rehashResponses(responseSlots.length * 2);
+            }
+            return responseId;
+        }
+
+        private void rehashResponses(int capacity) {
+            responseSlots = newSlots(capacity);
+            int mask = capacity - 1;
+            for (int j = 0; j < responseCount; j++) {
+                int start = responseBoundaries[j];
+                int slot = hash(responseArena, start, responseBoundaries[j + 1] - start) & mask;
+                while (responseSlots[slot] != NOT_FOUND) {
+                    slot = (slot + 1) & mask;
+                }
+                responseSlots[slot] = j;
+            }
+        }
+
+        private boolean responseEquals(int responseId, byte[] response, int responseLength) {
+            int start = responseBoundaries[responseId];
+            if (responseBoundaries[responseId + 1] - start != responseLength) {
+                return false;
+            }
+            for (int i = 0; i < responseLength; i++) {
+                if (responseArena[start + i] != response[i]) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        private static int[] newSlots(int capacity) {
+            int[] slots = new int[capacity];
+            Arrays.fill(slots, NOT_FOUND);
+            return slots;
+        }
+
+        private static byte[] ensureCapacity(byte[] array, int used, int length) {
+            int required = used + length;
+            if (required < 0) {
+                throw new IllegalStateException("Profile too large");
+            }
+            if (required > array.length) {
+                return Arrays.copyOf(array, (int) Math.min(Integer.MAX_VALUE - 8, Math.max(required, array.length * 2L)));
+            }
+            return array;
+        }
+    }
+}
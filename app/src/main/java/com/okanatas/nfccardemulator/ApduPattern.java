@@ -0,0 +1,155 @@
+package com.okanatas.nfccardemulator;
+
+import java.util.Arrays;
+
+/**
+ * This class was created to represent a command of a file that matches several command APDUs,
+ * such as a GPO or a GENERATE AC whose data is generated by the terminal for each transaction.
+ * In a file, a ? stands for any hexadecimal digit, ?? for any byte, and a trailing * for any remaining bytes.
+ * <pre>
+ * c-apdu : 80A8000023832136????????????????????????????????????????????????????????????????????????????????00
+ * c-apdu : 80AE8000*
+ * </pre>
+ * A pattern is never modified once it is created.
+ */
+final class ApduPattern {
+
+    /** A pattern longer than the longest short command APDU is not valid, this also bounds the depth of the matcher. */
+    static final int MAX_PATTERN_SIZE = 5 + 255 + 1;
+
+    /** The fixed bits of each byte, the other bits are 0. */
+    private final byte[] value;
+    /** The fixed bits of each byte are 1, the bits that match anything are 0. */
+    private final byte[] mask;
+    /** True if any bytes may follow the pattern. */
+    private final boolean isPrefix;
+
+    /**
+     * This constructor creates a pattern, the arrays are copied.
+     * @param value bytes of the pattern, the bits out of the mask are ignored.
+     * @param mask fixed bits of each byte.
+     * @param length number of bytes of the pattern.
+     * @param isPrefix true if any bytes may follow the pattern.
+     */
+    ApduPattern(byte[] value, byte[] mask, int length, boolean isPrefix) {
+        if (length > MAX_PATTERN_SIZE) {
+            throw new IllegalArgumentException("Pattern too long: " + length + " bytes");
+        }
+        this.value = new byte[length];
+        this.mask = Arrays.copyOf(mask, length);
+        for (int i = 0; i < length; i++) {
+            this.value[i] = (byte) (value[i] & mask[i]);
+        }
+        this.isPrefix = isPrefix;
+    }
+
+    /**
+     * This method reads a pattern written like in a file.
+     * @param text hexadecimal digits, ? for any digit and an optional trailing *.
+     * @return the pattern.
+     * @throws IllegalArgumentException if the text is not a pattern.
+     */
+    static ApduPattern parse(String text) {
+        boolean isPrefix = text.endsWith("*");
+        int digits = isPrefix ? text.length() - 1 : text.length();
+        if ((digits & 1) != 0) {
+            throw new IllegalArgumentException("Odd number of digits: " + text);
+        }
+        byte[] value = new byte[digits / 2];
+        byte[] mask = new byte[digits / 2];
+        for (int i = 0; i < digits; i++) {
+            char c = text.charAt(i);
+            int shift = ((i & 1) == 0) ? 4 : 0;
+            if (c != '?') {
+                int digit = Character.digit(c, 16);
+                if (digit < 0) {
+                    throw new IllegalArgumentException("Not a pattern: " + text);
+                }
+                value[i / 2] |= (byte) (digit << shift);
+                mask[i / 2] |= (byte) (0x0F << shift);
+            }
+        }
+        return new ApduPattern(value, mask, value.length, isPrefix);
+    }
+
+    /**
+     * This method checks a command APDU against the pattern, byte by byte.
+     * The matcher gets the same result without checking each pattern.
+     * @param command command APDU in byte array format.
+     * @return true if the command matches.
+     */
+    boolean matches(byte[] command) {
+        if (command.length < value.length || (!isPrefix && command.length != value.length)) {
+            return false;
+        }
+        for (int i = 0; i < value.length; i++) {
+            if ((command[i] & mask[i]) != value[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    int length() {
+        return value.length;
+    }
+
+    byte getValue(int index) {
+        return value[index];
+    }
+
+    byte getMask(int index) {
+        return mask[index];
+    }
+
+    boolean isPrefix() {
+        return isPrefix;
+    }
+
+    /**
+     * This method counts the fixed bits of the pattern, the more fixed bits the more specific the pattern.
+     * @return number of fixed bits.
+     */
+    int getFixedBitCount() {
+        int count = 0;
+        for (byte b : mask) {
+            count += Integer.bitCount(b & 0xFF);
+        }
+        return count;
+    }
+
+    @Override
+    public boolean equals(Object other) {
+        if (!(other instanceof ApduPattern)) {
+            return false;
+        }
+        ApduPattern pattern = (ApduPattern) other;
+        return isPrefix == pattern.isPrefix && Arrays.equals(value, pattern.value) && Arrays.equals(mask, pattern.mask);
+    }
+
+    @Override
+    public int hashCode() {
+        return 31 * (31 * Arrays.hashCode(value) + Arrays.hashCode(mask)) + (isPrefix ? 1 : 0);
+    }
+
+    /**
+     * This method writes the pattern like in a file.
+     * @return hexadecimal digits, ? for any digit and a trailing * for a prefix.
+     */
+    @Override
+    public String toString() {
+        StringBuilder text = new StringBuilder(value.length * 2 + 1);
+        for (int i = 0; i < value.length; i++) {
+            appendDigit(text, value[i] >> 4, mask[i] >> 4);
+            appendDigit(text, value[i], mask[i]);
+        }
+        if (isPrefix) {
+            text.append('*');
+        }
+        return text.toString();
+    }
+
+    private static void appendDigit(StringBuilder text, int value, int mask) {
+        text.append(((mask & 0x0F) == 0) ? '?' : Character.toUpperCase(Character.forDigit(value & 0x0F, 16)));
+    }
+}
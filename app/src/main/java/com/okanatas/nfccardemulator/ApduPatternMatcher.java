@@ -0,0 +1,292 @@
+package com.okanatas.nfccardemulator;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * This class was created to match a command APDU against all the patterns of a file at once.
+ * The patterns are compiled into a trie over their bytes: the fixed bytes of all the patterns share their path,
+ * so a command APDU only walks down the branches it matches, whatever the number of patterns.
+ * The trie is flattened into primitive arrays, there is no object per node, and matching does not allocate any memory.
+ * When several patterns match, the precedence is:
+ * <ol>
+ * <li>the pattern with the most fixed bits wins, it is the most specific one;</li>
+ * <li>then a pattern of fixed length wins over a pattern ending with *;</li>
+ * <li>then the pattern found first in the file wins.</li>
+ * </ol>
+ * An entry of the file without any wildcard always wins over the patterns, this is checked by the dispatcher.
+ * The matcher is never modified once it is built.
+ */
+class ApduPatternMatcher {
+
+    /** A matcher without any pattern. */
+    static final ApduPatternMatcher EMPTY = new ApduPatternMatcher(Collections.<ApduPattern>emptyList());
+
+    /** Rank of the terminals without any pattern, worse than all the ranks. */
+    private static final int NO_RANK = Integer.MAX_VALUE;
+
+    private final ApduPattern[] patterns;
+    /** The pattern of each rank, rank 0 wins over all the others. */
+    private final int[] patternOfRank;
+
+    /* nodes of the trie, node 0 is the root */
+    /** Edges of node n span from edgeStart[n] to edgeStart[n + 1], fixed bytes first, sorted by value. */
+    private final int[] edgeStart;
+    /** Edges of node n that match some bits only start at partialEdgeStart[n]. */
+    private final int[] partialEdgeStart;
+    /** Best rank of the patterns ending at each node, the command must end there too. */
+    private final int[] exactRanks;
+    /** Best rank of the patterns ending with * at each node, the command may go on. */
+    private final int[] prefixRanks;
+    /** Best rank of the patterns of each node and its descendants, the branches that cannot win are skipped. */
+    private final int[] subtreeRanks;
+
+    /* edges of the trie */
+    private final byte[] edgeValues;
+    private final byte[] edgeMasks;
+    private final int[] edgeTargets;
+
+    /**
+     * This constructor compiles the given patterns, in the order of the file.
+     * @param patterns patterns of the file.
+     */
+    ApduPatternMatcher(List<ApduPattern> patterns) {
+        this.patterns = patterns.toArray(new ApduPattern[0]);
+        patternOfRank = rankPatterns(this.patterns);
+
+        Node root = new Node();
+        int nodeCount = 1;
+        int edgeCount = 0;
+        for (int rank = 0; rank < patternOfRank.length; rank++) {
+            ApduPattern pattern = this.patterns[patternOfRank[rank]];
+            Node node = root;
+            node.subtreeRank = Math.min(node.subtreeRank, rank);
+            for (int i = 0; i < pattern.length(); i++) {
+                Node child = node.find(pattern.getValue(i), pattern.getMask(i));
+                if (child == null) {
+                    child = node.add(pattern.getValue(i), pattern.getMask(i));
+                    nodeCount++;
+                    edgeCount++;
+                }
+                node = child;
+                node.subtreeRank = Math.min(node.subtreeRank, rank);
+            }
+            // the patterns are added from the best rank, so the first one at a terminal is the best
+            if (pattern.isPrefix()) {
+                node.prefixRank = Math.min(node.prefixRank, rank);
+            } else {
+                node.exactRank = Math.min(node.exactRank, rank);
+            }
+        }
+
+        edgeStart = new int[nodeCount + 1];
+        partialEdgeStart = new int[nodeCount];
+        exactRanks = new int[nodeCount];
+        prefixRanks = new int[nodeCount];
+        subtreeRanks = new int[nodeCount];
+        edgeValues = new byte[edgeCount];
+        edgeMasks = new byte[edgeCount];
+        edgeTargets = new int[edgeCount];
+        flatten(root);
+    }
+
+    /**
+     * This method finds the pattern that wins among the patterns matching the command.
+     * @param command command APDU in byte array format.
+     * @return index of the pattern, in the order of the file, or ApduProfile.NOT_FOUND.
+     */
+    int match(byte[] command) {
+        if (patterns.length == 0) {
+            return ApduProfile.NOT_FOUND;
+        }
+        int rank = search(0, command, 0, NO_RANK, null);
+        return (rank == NO_RANK) ? ApduProfile.NOT_FOUND : patternOfRank[rank];
+    }
+
+    /**
+     * This method matches the command like match and counts the nodes of the trie it walks through.
+     * @param command command APDU in byte array format.
+     * @return number of nodes visited, the root included.
+     */
+    int countVisitedNodes(byte[] command) {
+        int[] visitCount = new int[1];
+        if (patterns.length > 0) {
+            search(0, command, 0, NO_RANK, visitCount);
+        }
+        return visitCount[0];
+    }
+
+    /**
+     * This method gets a pattern.
+     * @param index index of the pattern, in the order of the file.
+     * @return the pattern.
+     */
+    ApduPattern getPattern(int index) {
+        return patterns[index];
+    }
+
+    int size() {
+        return patterns.length;
+    }
+
+    int getNodeCount() {
+        return exactRanks.length;
+    }
+
+    /**
+     * This method gets the memory used by the arrays of the trie, array headers and patterns excluded.
+     * @return number of bytes.
+     */
+    long getStorageSize() {
+        return 4L * (patternOfRank.length + edgeStart.length + partialEdgeStart.length + exactRanks.length
+                + prefixRanks.length + subtreeRanks.length + edgeTargets.length) + edgeValues.length + edgeMasks.length;
+    }
+
+    /**
+     * This method walks down the branches of a node that match the command.
+     * The depth is bounded by the longest pattern, not by the length of the command.
+     * @param node node reached.
+     * @param command command APDU.
+     * @param depth number of bytes of the command matched so far.
+     * @param best best rank found so far.
+     * @param visitCount number of nodes visited, incremented for this node, or null when they are not counted.
+     * @return best rank found in the branches and before.
+     */
+    private int search(int node, byte[] command, int depth, int best, int[] visitCount) {
+        if (visitCount != null) {
+            visitCount[0]++;
+        }
+        if (subtreeRanks[node] >= best) {
+            return best;
+        }
+        best = Math.min(best, prefixRanks[node]);
+        if (depth == command.length) {
+            return Math.min(best, exactRanks[node]);
+        }
+
+        byte b = command[depth];
+        int edge = Arrays.binarySearch(edgeValues, edgeStart[node], partialEdgeStart[node], b);
+        if (edge >= 0) {
+            best = search(edgeTargets[edge], command, depth + 1, best, visitCount);
+        }
+        for (edge = partialEdgeStart[node]; edge < edgeStart[node + 1]; edge++) {
+            if ((b & edgeMasks[edge]) == edgeValues[edge]) {
+                best = search(edgeTargets[edge], command, depth + 1, best, visitCount);
+            }
+        }
+        return best;
+    }
+
+    /**
+     * This method sorts the patterns by precedence.
+     * @return the index of the pattern of each rank.
+     */
+    private static int[] rankPatterns(final ApduPattern[] patterns) {
+        Integer[] order = new Integer[patterns.length];
+        final int[] fixedBits = new int[patterns.length];
+        for (int i = 0; i < patterns.length; i++) {
+            order[i] = i;
+            fixedBits[i] = patterns[i].getFixedBitCount();
+        }
+        Arrays.sort(order, new Comparator<Integer>() {
+            @Override
+            public int compare(Integer first, Integer second) {
+                if (fixedBits[first] != fixedBits[second]) {
+                    return (fixedBits[first] > fixedBits[second]) ? -1 : 1;
+                }
+                if (patterns[first].isPrefix() != patterns[second].isPrefix()) {
+                    return patterns[first].isPrefix() ? 1 : -1;
+                }
+                return Integer.compare(first, second);
+            }
+        });
+        int[] patternOfRank = new int[patterns.length];
+        for (int rank = 0; rank < patterns.length; rank++) {
+            patternOfRank[rank] = order[rank];
+        }
+        return patternOfRank;
+    }
+
+    /**
+     * This method numbers the nodes in breadth first order and copies them into the arrays.
+     */
+    private void flatten(Node root) {
+        List<Node> queue = new ArrayList<>();
+        queue.add(root);
+        int edge = 0;
+        for (int n = 0; n < queue.size(); n++) {
+            Node node = queue.get(n);
+            exactRanks[n] = node.exactRank;
+            prefixRanks[n] = node.prefixRank;
+            subtreeRanks[n] = node.subtreeRank;
+            edgeStart[n] = edge;
+
+            Collections.sort(node.edges, new Comparator<Edge>() {
+                @Override
+                public int compare(Edge first, Edge second) {
+                    boolean isFirstFixed = first.mask == (byte) 0xFF;
+                    boolean isSecondFixed = second.mask == (byte) 0xFF;
+                    if (isFirstFixed != isSecondFixed) {
+                        return isFirstFixed ? -1 : 1;
+                    }
+                    return isFirstFixed ? Byte.compare(first.value, second.value) : 0;
+                }
+            });
+            partialEdgeStart[n] = edge + node.edges.size();
+            for (Edge e : node.edges) {
+                if (e.mask != (byte) 0xFF && partialEdgeStart[n] > edge) {
+                    partialEdgeStart[n] = edge;
+                }
+                edgeValues[edge] = e.value;
+                edgeMasks[edge] = e.mask;
+                edgeTargets[edge] = queue.size();
+                queue.add(e.target);
+                edge++;
+            }
+        }
+        edgeStart[queue.size()] = edge;
+    }
+
+    /**
+     * A node of the trie while it is built.
+     */
+    private static final class Node {
+        final List<Edge> edges = new ArrayList<>(1);
+        int exactRank = NO_RANK;
+        int prefixRank = NO_RANK;
+        int subtreeRank = NO_RANK;
+
+        Node find(byte value, byte mask) {
+            for (Edge edge : edges) {
+                if (edge.value == value && edge.mask == mask) {
+                    return edge.target;
+                }
+            }
+            return null;
+        }
+
+        Node add(byte value, byte mask) {
+            Node child = new Node();
+            edges.add(new Edge(value, mask, child));
+            return child;
+        }
+    }
+
+    /**
+     * An edge of the trie while it is built, it matches a byte whose bits in the mask are the value.
+     */
+    private static final class Edge {
+        final byte value;
+        final byte mask;
+        final Node target;
+
+        Edge(byte value, byte mask, Node target) {
+            this.value = value;
+            this.mask = mask;
+            this.target = target;
+        }
+    }
+}
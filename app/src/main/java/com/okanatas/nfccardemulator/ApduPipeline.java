@@ -0,0 +1,206 @@
+package com.okanatas.nfccardemulator;
+
+import java.util.Locale;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * This class was created to handle command APDUs that are answered asynchronously.
+ * Commands are run one by one on a single worker thread in the order they were received,
+ * the queue is bounded and commands of a previous communication are dropped.
+ * An optional delay is waited on the worker thread, never on the thread that submits the command.
+ */
+public class ApduPipeline {
+
+    private final ThreadPoolExecutor executor;
+
+    /** Identifier of the current communication, it changes each time the NFC link is deactivated. */
+    private final AtomicLong session = new AtomicLong();
+
+    /* statistics */
+    private final AtomicInteger maxQueueDepth = new AtomicInteger();
+    private final AtomicLong totalWaitNanos = new AtomicLong();
+    private final AtomicLong maxWaitNanos = new AtomicLong();
+    private final AtomicLong completedCount = new AtomicLong();
+    private final AtomicLong droppedCount = new AtomicLong();
+    private final AtomicLong rejectedCount = new AtomicLong();
+
+    /**
+     * This constructor creates the pipeline and its worker thread.
+     * @param capacity maximum number of commands waiting in the queue.
+     * @param name name of the worker thread.
+     */
+    ApduPipeline(int capacity, String name) {
+        executor = new ThreadPoolExecutor(1, 1, 0L, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(capacity), runnable -> {
+                    Thread thread = new Thread(runnable, name);
+                    thread.setDaemon(true);
+                    return thread;
+                });
+    }
+
+    /**
+     * This method queues a command to be handled after the given delay.
+     * The delay is counted from now, so the commands waiting in the queue do not add up their delays.
+     * @param work work to run on the worker thread.
+     * @param delayMillis delay in milliseconds before the work is run.
+     * @return true if the command was queued, false if the queue is full or the pipeline is shut down.
+     */
+    boolean submit(Runnable work, long delayMillis) {
+        long now = System.nanoTime();
+        Job job = new Job(work, session.get(), now, now + TimeUnit.MILLISECONDS.toNanos(Math.max(0, delayMillis)));
+        try {
+            executor.execute(job);
+        } catch (RejectedExecutionException e) {
+            rejectedCount.incrementAndGet();
+            return false;
+        }
+        updateMax(maxQueueDepth, executor.getQueue().size());
+        return true;
+    }
+
+    /**
+     * This method starts a new communication, the commands of the previous one that are still waiting are dropped.
+     */
+    void startNewSession() {
+        session.incrementAndGet();
+    }
+
+    /**
+     * This method stops the worker thread, commands that are still waiting are not run.
+     */
+    void shutdown() {
+        executor.shutdownNow();
+    }
+
+    /**
+     * This method gets the number of commands waiting in the queue.
+     * @return queue depth.
+     */
+    int getQueueDepth() {
+        return executor.getQueue().size();
+    }
+
+    /**
+     * This method gets the highest number of commands that waited in the queue.
+     * @return maximum queue depth.
+     */
+    int getMaxQueueDepth() {
+        return maxQueueDepth.get();
+    }
+
+    /**
+     * This method gets the average time between queueing a command and starting to handle it, including the delay.
+     * @return average wait time in milliseconds.
+     */
+    double getAverageWaitMillis() {
+        long completed = completedCount.get();
+        return completed == 0 ? 0 : totalWaitNanos.get() / (completed * 1_000_000.0);
+    }
+
+    /**
+     * This method gets the longest time between queueing a command and starting to handle it, including the delay.
+     * @return maximum wait time in milliseconds.
+     */
+    double getMaxWaitMillis() {
+        return maxWaitNanos.get() / 1_000_000.0;
+    }
+
+    /**
+     * This method gets the number of commands that were handled.
+     * @return number of handled commands.
+     */
+    long getCompletedCount() {
+        return completedCount.get();
+    }
+
+    /**
+     * This method gets the number of commands dropped because their communication had ended.
+     * @return number of dropped commands.
+     */
+    long getDroppedCount() {
+        return droppedCount.get();
+    }
+
+    /**
+     * This method gets the number of commands refused because the queue was full.
+     * @return number of refused commands.
+     */
+    long getRejectedCount() {
+        return rejectedCount.get();
+    }
+
+    /**
+     * This method gets the statistics of the pipeline in a readable format.
+     * @return statistics of the pipeline.
+     */
+    String getStatistics() {
+        return "completed=" + getCompletedCount()
+                + " dropped=" + getDroppedCount()
+                + " rejected=" + getRejectedCount()
+                + " queue=" + getQueueDepth() + "/" + getMaxQueueDepth()
+                + String.format(Locale.US, " wait avg=%.2fms max=%.2fms", getAverageWaitMillis(), getMaxWaitMillis());
+    }
+
+    private static void updateMax(AtomicInteger max, int value) {
+        int current;
+        while (value > (current = max.get()) && !max.compareAndSet(current, value)) {
+            // retry until the maximum is stored
+        }
+    }
+
+    private static void updateMax(AtomicLong max, long value) {
+        long current;
+        while (value > (current = max.get()) && !max.compareAndSet(current, value)) {
+            // retry until the maximum is stored
+        }
+    }
+
+    /**
+     * A queued command together with its communication and timing information.
+     */
+    private class Job implements Runnable {
+        private final Runnable work;
+        private final long jobSession;
+        private final long queuedAt;
+        private final long dueAt;
+
+        Job(Runnable work, long jobSession, long queuedAt, long dueAt) {
+            this.work = work;
+            this.jobSession = jobSession;
+            this.queuedAt = queuedAt;
+            this.dueAt = dueAt;
+        }
+
+        @Override
+        public void run() {
+            long remaining;
+            while ((remaining = dueAt - System.nanoTime()) > 0) {
+                if (jobSession != session.get()) {
+                    break;
+                }
+                LockSupport.parkNanos(remaining);
+            }
+
+            // the terminal that sent this command is gone, there is no one to answer
+            if (jobSession != session.get()) {
+                droppedCount.incrementAndGet();
+                return;
+            }
+
+            long waited = System.nanoTime() - queuedAt;
+            totalWaitNanos.addAndGet(waited);
+            updateMax(maxWaitNanos, waited);
+            try {
+                work.run();
+            } finally {
+                completedCount.incrementAndGet();
+            }
+        }
+    }
+}
@@ -0,0 +1,73 @@
+package com.okanatas.nfccardemulator;
+
+/**
+ * This interface represents the commands and responses of the file in use, whatever the way they are stored.
+ * A profile is never modified once it is loaded, so it can be read from several threads.
+ */
+interface ApduProfile {
+
+    /** Returned by the lookup methods when there is no matching command. */
+    int NOT_FOUND = -1;
+
+    /**
+     * This method finds the first entry whose command is exactly the given command.
+     * @param command command APDU in byte array format.
+     * @return index of the entry or NOT_FOUND.
+     */
+    int indexOf(byte[] command);
+
+    /**
+     * This method finds the first entry whose command has the given INS byte.
+     * @param ins INS byte of the command APDU.
+     * @return index of the entry or NOT_FOUND.
+     */
+    int firstIndexOfIns(byte ins);
+
+    /**
+     * This method gets a copy of the command of an entry.
+     * @param index index of the entry.
+     * @return command APDU in byte array format.
+     */
+    byte[] getCommand(int index);
+
+    /**
+     * This method gets the response of an entry.
+     * The returned array may be shared by all callers and must not be modified.
+     * @param index index of the entry.
+     * @return response APDU in byte array format.
+     */
+    byte[] getResponse(int index);
+
+    /**
+     * This method finds the pattern that wins among the patterns of the profile matching the command.
+     * @param command command APDU in byte array format.
+     * @return index of the pattern or NOT_FOUND.
+     */
+    int matchPattern(byte[] command);
+
+    /**
+     * This method gets the response of a pattern.
+     * The returned array may be shared by all callers and must not be modified.
+     * @param pattern index of the pattern.
+     * @return response APDU in byte array format.
+     */
+    byte[] getPatternResponse(int pattern);
+
+    /**
+     * This method gets the number of commands of the profile with wildcards.
+     * @return number of patterns.
+     */
+    int getPatternCount();
+
+    /**
+     * This method gets the number of command and response pairs of the profile, the patterns excluded.
+     * @return number of entries.
+     */
+    int size();
+
+    /**
+     * This method gets the memory used by the commands, responses and index of the profile.
+     * @return number of bytes.
+     */
+    long getStorageSize();
+}
@@ -0,0 +1,385 @@
+package com.okanatas.nfccardemulator;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+/**
+ * This class was created to import many trace files at once, from a zip archive or a directory tree.
+ * The files are imported in parallel on a pool of one thread per core, each of them is copied, parsed and compiled
+ * into the application files like a file imported alone. The import ends with a report of each file.
+ * The files are named after their path in the archive or the directory, without extension, such as visa_sample.txt.
+ */
+class BatchImporter {
+
+    /**
+     * The receiver of the progress of a batch, it is called on the importing threads.
+     */
+    interface Listener {
+        /**
+         * @param report report of the file that was imported or not.
+         * @param doneCount number of files done so far.
+         * @param totalCount number of files of the batch.
+         */
+        void onFileDone(FileReport report, int doneCount, int totalCount);
+    }
+
+    private static final String TEXT_EXTENSION = ".txt";
+    private static final int COPY_BUFFER_SIZE = 8192;
+
+    private final File targetDirectory;
+    private final int threadCount;
+    private final String commandKeyword;
+    private final String responseKeyword;
+
+    /**
+     * This constructor creates an importer with one thread per core.
+     * @param targetDirectory directory of the application files.
+     * @param commandKeyword keyword of the command lines.
+     * @param responseKeyword keyword of the response lines.
+     */
+    BatchImporter(File targetDirectory, String commandKeyword, String responseKeyword) {
+        this(targetDirectory, commandKeyword, responseKeyword, Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * This constructor creates an importer with the given number of threads.
+     * @param targetDirectory directory of the application files.
+     * @param commandKeyword keyword of the command lines.
+     * @param responseKeyword keyword of the response lines.
+     * @param threadCount number of files imported at the same time.
+     */
+    BatchImporter(File targetDirectory, String commandKeyword, String responseKeyword, int threadCount) {
+        this.targetDirectory = targetDirectory;
+        this.commandKeyword = commandKeyword;
+        this.responseKeyword = responseKeyword;
+        this.threadCount = Math.max(1, threadCount);
+    }
+
+    /**
+     * This method imports the files of a zip archive read from a stream. The archive is copied into the temporary directory
+     * first, a zip archive can only be read in parallel from a file. The copy is deleted at the end.
+     * @param input content of the archive, it is not closed.
+     * @param temporaryDirectory directory of the copy, such as the cache directory.
+     * @param listener receiver of the progress, or null.
+     * @return report of the batch.
+     * @throws IOException if the archive cannot be read.
+     */
+    Report importZip(InputStream input, File temporaryDirectory, Listener listener) throws IOException {
+        File archive = File.createTempFile("batch", ".zip", temporaryDirectory);
+        try {
+            try (OutputStream output = new FileOutputStream(archive)) {
+                byte[] buffer = new byte[COPY_BUFFER_SIZE];
+                int count;
+                while ((count = input.read(buffer)) != -1) {
+                    output.write(buffer, 0, count);
+                }
+            }
+            return importZip(archive, listener);
+        } finally {
+            if (!archive.delete()) {
+                archive.deleteOnExit();
+            }
+        }
+    }
+
+    /**
+     * This method imports the files of a zip archive.
+     * @param archive zip archive.
+     * @param listener receiver of the progress, or null.
+     * @return report of the batch.
+     * @throws IOException if the archive cannot be read.
+     */
+    Report importZip(File archive, Listener listener) throws IOException {
+        try (final ZipFile zipFile = new ZipFile(archive)) {
+            List<Source> sources = new ArrayList<>();
+            Enumeration<? extends ZipEntry> entries = zipFile.entries();
+            while (entries.hasMoreElements()) {
+                final ZipEntry entry = entries.nextElement();
+                if (!entry.isDirectory() && isTraceFile(entry.getName())) {
+                    sources.add(new Source(entry.getName(), entry.getSize()) {
+                        @Override
+                        InputStream open() throws IOException {
+                            // a zip file can be read by several threads, each entry has its own stream
+                            return zipFile.getInputStream(entry);
+                        }
+                    });
+                }
+            }
+            return importAll(sources, listener);
+        }
+    }
+
+    /**
+     * This method imports the files of a directory and of all its subdirectories.
+     * @param directory root of the directory tree.
+     * @param listener receiver of the progress, or null.
+     * @return report of the batch.
+     * @throws IOException if the directory cannot be read.
+     */
+    Report importDirectory(File directory, Listener listener) throws IOException {
+        if (!directory.isDirectory()) {
+            throw new IOException("Not a directory: " + directory);
+        }
+        List<Source> sources = new ArrayList<>();
+        collectFiles(directory, "", sources);
+        return importAll(sources, listener);
+    }
+
+    private void collectFiles(File directory, String path, List<Source> sources) {
+        File[] files = directory.listFiles();
+        if (files == null) {
+            return;
+        }
+        for (final File file : files) {
+            String name = path + file.getName();
+            if (file.isDirectory()) {
+                collectFiles(file, name + "/", sources);
+            } else if (isTraceFile(name)) {
+                sources.add(new Source(name, file.length()) {
+                    @Override
+                    InputStream open() throws IOException {
+                        return new FileInputStream(file);
+                    }
+                });
+            }
+        }
+    }
+
+    /**
+     * This method imports the files on the pool and waits for all of them.
+     */
+    private Report importAll(List<Source> sources, final Listener listener) throws IOException {
+        long start = System.nanoTime();
+        assignFileNames(sources);
+        final int totalCount = sources.size();
+        final AtomicInteger doneCount = new AtomicInteger();
+
+        final AtomicInteger threadNumber = new AtomicInteger();
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(threadCount, threadCount, 0L, TimeUnit.MILLISECONDS,
+                new LinkedBlockingQueue<>(), runnable -> {
+                    Thread thread = new Thread(runnable, "BatchImporter-" + threadNumber.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                });
+        try {
+            List<Future<FileReport>> futures = new ArrayList<>(totalCount);
+            for (final Source source : sources) {
+                futures.add(executor.submit(() -> {
+                    FileReport report = importFile(source);
+                    if (listener != null) {
+                        listener.onFileDone(report, doneCount.incrementAndGet(), totalCount);
+                    }
+                    return report;
+                }));
+            }
+
+            // the reports keep the order of the archive or the directory
+            List<FileReport> reports = new ArrayList<>(totalCount);
+            for (Future<FileReport> future : futures) {
+                reports.add(future.get());
+            }
+            return new Report(reports, System.nanoTime() - start);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Batch import interrupted", e);
+        } catch (ExecutionException e) {
+            // importFile reports the failures of the files, anything else is a bug
+            throw new IllegalStateException(e.getCause());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private FileReport importFile(Source source) {
+        long start = System.nanoTime();
+        File target = new File(targetDirectory, source.fileName);
+        ProfileImporter importer = new ProfileImporter(commandKeyword, responseKeyword);
+        try (InputStream input = source.open()) {
+            ApduLookupTable table = importer.importProfile(input, source.size, target, null);
+            return new FileReport(source.name, target.getName(), table.size(), importer.getParser(),
+                    importer.getImportedBytes(), System.nanoTime() - start, importer.getCompileError());
+        } catch (IOException | RuntimeException e) {
+            return new FileReport(source.name, target.getName(), e, System.nanoTime() - start);
+        }
+    }
+
+    /**
+     * This method names each file after its path, a name used twice gets a number.
+     */
+    private static void assignFileNames(List<Source> sources) {
+        Set<String> usedNames = new HashSet<>();
+        for (Source source : sources) {
+            String path = source.name;
+            int extension = path.lastIndexOf('.');
+            if (extension > path.lastIndexOf('/')) {
+                path = path.substring(0, extension);
+            }
+            String baseName = path.replaceAll("[^A-Za-z0-9_\\-]", "_");
+            String fileName = baseName + TEXT_EXTENSION;
+            for (int i = 2; !usedNames.add(fileName.toLowerCase(Locale.US)); i++) {
+                fileName = baseName + "_" + i + TEXT_EXTENSION;
+            }
+            source.fileName = fileName;
+        }
+    }
+
+    /**
+     * Hidden files and the metadata some archivers add are skipped.
+     */
+    private static boolean isTraceFile(String path) {
+        String name = path.substring(path.lastIndexOf('/') + 1);
+        return !name.isEmpty() && !name.startsWith(".") && !path.startsWith("__MACOSX/");
+    }
+
+    /**
+     * A file of the batch.
+     */
+    private abstract static class Source {
+        final String name;
+        final long size;
+        String fileName;
+
+        Source(String name, long size) {
+            this.name = name;
+            this.size = size;
+        }
+
+        abstract InputStream open() throws IOException;
+    }
+
+    /**
+     * The result of the import of a file of the batch.
+     */
+    static final class FileReport {
+        /** Path of the file in the archive or the directory. */
+        final String sourceName;
+        /** Name of the file in the application files. */
+        final String fileName;
+        final int pairCount;
+        final int invalidCount;
+        final int unpairedCount;
+        final long bytes;
+        final long elapsedNanos;
+        /** Reason why the file was not imported, null if it was imported. */
+        final Exception error;
+        /** Reason why the file was not compiled, null if it was compiled or not imported. */
+        final IOException compileError;
+
+        FileReport(String sourceName, String fileName, int pairCount, ProfileParser parser, long bytes, long elapsedNanos, IOException compileError) {
+            this.sourceName = sourceName;
+            this.fileName = fileName;
+            this.pairCount = pairCount;
+            this.invalidCount = parser.getInvalidCommandCount() + parser.getInvalidResponseCount();
+            this.unpairedCount = parser.getUnpairedCount();
+            this.bytes = bytes;
+            this.elapsedNanos = elapsedNanos;
+            this.error = null;
+            this.compileError = compileError;
+        }
+
+        FileReport(String sourceName, String fileName, Exception error, long elapsedNanos) {
+            this.sourceName = sourceName;
+            this.fileName = fileName;
+            this.pairCount = 0;
+            this.invalidCount = 0;
+            this.unpairedCount = 0;
+            this.bytes = 0;
+            this.elapsedNanos = elapsedNanos;
+            this.error = error;
+            this.compileError = null;
+        }
+
+        boolean isImported() {
+            return error == null;
+        }
+
+        @Override
+        public String toString() {
+            if (!isImported()) {
+                return String.format(Locale.US, "%s -> %s FAILED: %s", sourceName, fileName, error);
+            }
+            return String.format(Locale.US, "%s -> %s pairs=%d invalid=%d unpaired=%d bytes=%d time=%d ms%s",
+                    sourceName, fileName, pairCount, invalidCount, unpairedCount, bytes, elapsedNanos / 1_000_000,
+                    (compileError != null) ? " notCompiled" : "");
+        }
+    }
+
+    /**
+     * The result of the import of a batch.
+     */
+    static final class Report {
+        private final List<FileReport> files;
+        private final long elapsedNanos;
+
+        Report(List<FileReport> files, long elapsedNanos) {
+            this.files = Collections.unmodifiableList(files);
+            this.elapsedNanos = elapsedNanos;
+        }
+
+        List<FileReport> getFiles() {
+            return files;
+        }
+
+        long getElapsedNanos() {
+            return elapsedNanos;
+        }
+
+        int getImportedCount() {
+            int count = 0;
+            for (FileReport file : files) {
+                if (file.isImported()) {
+                    count++;
+                }
+            }
+            return count;
+        }
+
+        int getFailedCount() {
+            return files.size() - getImportedCount();
+        }
+
+        long getPairCount() {
+            long count = 0;
+            for (FileReport file : files) {
+                count += file.pairCount;
+            }
+            return count;
+        }
+
+        long getBytes() {
+            long bytes = 0;
+            for (FileReport file : files) {
+                bytes += file.bytes;
+            }
+            return bytes;
+        }
+
+        /**
+         * This method gets the totals of the batch in a single line, for the log messages.
+         * @return totals of the batch.
+         */
+        String getSummary() {
+            return String.format(Locale.US, "files=%d imported=%d failed=%d pairs=%d bytes=%d time=%d ms",
+                    files.size(), getImportedCount(), getFailedCount(), getPairCount(), getBytes(), elapsedNanos / 1_000_000);
+        }
+    }
+}
@@ -0,0 +1,162 @@
+package com.okanatas.nfccardemulator;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.view.Choreographer;
+import android.view.LayoutInflater;
+import android.view.ViewGroup;
+
+import androidx.annotation.NonNull;
+import androidx.recyclerview.widget.LinearLayoutManager;
+import androidx.recyclerview.widget.RecyclerView;
+
+import com.okanatas.nfccardemulator.databinding.ItemLogEntryBinding;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * This class was created to show the communication logs in a RecyclerView, one row for each command or response APDU.
+ * A row is formatted only when it becomes visible. The view is updated at most once per frame:
+ * the updates asked for from any thread are gathered, and the new entries are taken from the log store on the next frame.
+ */
+class CommunicationLogAdapter extends RecyclerView.Adapter<CommunicationLogAdapter.ViewHolder> implements Choreographer.FrameCallback {
+
+    private final LogEntryIndex index;
+    private final String commandPrefix;
+    private final String responsePrefix;
+    private final int responsePadding;
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+    /** True from the first update asked for until the frame that does it. */
+    private final AtomicBoolean isUpdateScheduled = new AtomicBoolean();
+    private final Runnable scheduleFrame = () -> Choreographer.getInstance().postFrameCallback(this);
+    private RecyclerView recyclerView;
+    private boolean isStopped = false;
+
+    /**
+     * This constructor creates the adapter, its rows are taken from the store on the first update.
+     * @param store store of the log messages.
+     * @param capacity number of rows kept, the oldest ones are dropped beyond it.
+     * @param responsePadding space below a response, in pixels, so that each exchange stands apart.
+     */
+    CommunicationLogAdapter(LogStore store, int capacity, int responsePadding) {
+        index = new LogEntryIndex(store, capacity, InformationTransferManager.getLogMessagesStart());
+        commandPrefix = InformationTransferManager.getStringResource(R.string.apdu_c);
+        responsePrefix = InformationTransferManager.getStringResource(R.string.apdu_r);
+        this.responsePadding = responsePadding;
+    }
+
+    /**
+     * This method asks for the rows to be updated on the next frame, it can be called from any thread and as often as needed.
+     */
+    void requestUpdate() {
+        if (!isStopped && isUpdateScheduled.compareAndSet(false, true)) {
+            mainHandler.post(scheduleFrame);
+        }
+    }
+
+    /**
+     * This method shows only the rows of a communication and of an INS byte.
+     * @param session number of the communication, or LogEntryIndex.ANY.
+     * @param ins INS byte from 0 to 255, or LogEntryIndex.ANY.
+     */
+    void setFilter(int session, int ins) {
+        index.setFilter(session, ins);
+        notifyDataSetChanged();
+        scrollToLastRow();
+    }
+
+    /**
+     * This method stops the updates, it is called on the main thread when the view is destroyed.
+     */
+    void stop() {
+        isStopped = true;
+        mainHandler.removeCallbacks(scheduleFrame);
+        Choreographer.getInstance().removeFrameCallback(this);
+    }
+
+    /**
+     * This method is called on the main thread before the next frame is drawn, after an update was asked for.
+     * @param frameTimeNanos time the frame started to be rendered.
+     */
+    @Override
+    public void doFrame(long frameTimeNanos) {
+        isUpdateScheduled.set(false);
+        if (isStopped) {
+            return;
+        }
+        int oldSize = index.size();
+        long oldFirstId = (oldSize > 0) ? index.getId(0) : -1;
+        boolean wasAtEnd = isLastRowVisible(oldSize);
+        if (!index.update(InformationTransferManager.getLogMessagesStart())) {
+            return;
+        }
+        int newSize = index.size();
+        if (oldSize > 0 && newSize >= oldSize && index.getId(0) == oldFirstId) {
+            // the rows were only added after the last one
+            notifyItemRangeInserted(oldSize, newSize - oldSize);
+        } else {
+            notifyDataSetChanged();
+        }
+        if (wasAtEnd) {
+            scrollToLastRow();
+        }
+    }
+
+    @Override
+    public void onAttachedToRecyclerView(@NonNull RecyclerView recyclerView) {
+        this.recyclerView = recyclerView;
+    }
+
+    @Override
+    public void onDetachedFromRecyclerView(@NonNull RecyclerView recyclerView) {
+        this.recyclerView = null;
+    }
+
+    @NonNull
+    @Override
+    public ViewHolder onCreateViewHolder(@NonNull ViewGroup parent, int viewType) {
+        return new ViewHolder(ItemLogEntryBinding.inflate(LayoutInflater.from(parent.getContext()), parent, false));
+    }
+
+    @Override
+    public void onBindViewHolder(@NonNull ViewHolder holder, int position) {
+        LogStore.Entry entry = index.get(position);
+        boolean isCommand = entry.kind == LogStore.KIND_COMMAND;
+        holder.binding.logEntryText.setText((isCommand ? commandPrefix : responsePrefix) + entry.getText());
+        holder.binding.logEntryText.setPadding(0, 0, 0, isCommand ? 0 : responsePadding);
+    }
+
+    @Override
+    public int getItemCount() {
+        return index.size();
+    }
+
+    /**
+     * This method checks whether the user is looking at the last rows, the view then follows the new rows.
+     */
+    private boolean isLastRowVisible(int size) {
+        if (recyclerView == null || size == 0) {
+            return true;
+        }
+        LinearLayoutManager layoutManager = (LinearLayoutManager) recyclerView.getLayoutManager();
+        return layoutManager == null || layoutManager.findLastVisibleItemPosition() >= size - 1;
+    }
+
+    private void scrollToLastRow() {
+        if (recyclerView != null && index.size() > 0) {
+            recyclerView.scrollToPosition(index.size() - 1);
+        }
+    }
+
+    /**
+     * A row of the communication logs.
+     */
+    static class ViewHolder extends RecyclerView.ViewHolder {
+        final ItemLogEntryBinding binding;
+
+        ViewHolder(ItemLogEntryBinding binding) {
+            super(binding.getRoot());
+            this.binding = binding;
+        }
+    }
+}
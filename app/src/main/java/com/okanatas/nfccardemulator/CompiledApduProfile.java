@@ -0,0 +1,379 @@
+package com.okanatas.nfccardemulator;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * This class was created to load the commands and responses of a file without reading its text.
+ * A txt file is compiled once into a binary file holding the lookup table as it is in memory,
+ * the binary file is then mapped with FileChannel.map and the command APDUs are matched straight in the mapped region.
+ * Opening a compiled file takes the same time whatever its size, only the pages that are used are read.
+ * The txt file remains the editable source, the compiled file records its length and modification time to detect changes.
+ * <pre>
+ * header     magic "NFCP" | version (3) | reserved (2) | pair count (4) | slot count (4) | response count (4) | pattern count (4)
+ *            | source length (8) | source modified (8)
+ * index      first index of each INS (256 x 4) | hash slots (slot count x 4) | command boundaries ((pair count + 1) x 4)
+ *            | response of each pair (pair count x 4) | response boundaries ((response count + 1) x 4)
+ * payload    commands packed one after the other, then the distinct responses packed one after the other
+ * patterns   for each pattern: response (4) | ends with * (1) | length (2) | bytes (length) | masks (length)
+ * </pre>
+ * All the values are big endian. The patterns are few, they are read when the file is opened and compiled into their matcher.
+ */
+class CompiledApduProfile implements ApduProfile {
+
+    /** Extension of the compiled files. */
+    static final String EXTENSION = ".nfcp";
+    /** Directory of the compiled files, next to their txt files. */
+    static final String DIRECTORY = "compiled";
+
+    static final int MAGIC = 0x4E464350; // "NFCP"
+    static final short VERSION = 3;
+    static final int HEADER_SIZE = 40;
+    private static final int MAX_PAIRS = Integer.MAX_VALUE / 32;
+
+    private static final int PAIR_COUNT_OFFSET = 8;
+    private static final int SLOT_COUNT_OFFSET = 12;
+    private static final int RESPONSE_COUNT_OFFSET = 16;
+    private static final int PATTERN_COUNT_OFFSET = 20;
+    private static final int SOURCE_LENGTH_OFFSET = 24;
+    private static final int SOURCE_MODIFIED_OFFSET = 32;
+
+    /** Number of responses kept as arrays, the terminal needs its own array and the same responses are asked again and again. */
+    private static final int RESPONSE_CACHE_SIZE = 64;
+
+    private final MappedByteBuffer buffer;
+    private final int size;
+    private final int responseCount;
+    private final int slotMask;
+    private final long sourceLength;
+    private final long sourceLastModified;
+
+    /* positions of the sections in the file */
+    private final int firstIndexByInsOffset;
+    private final int slotsOffset;
+    private final int commandBoundariesOffset;
+    private final int responseIdsOffset;
+    private final int responseBoundariesOffset;
+    private final int payloadOffset;
+
+    private final AtomicReferenceArray<CachedResponse> responseCache = new AtomicReferenceArray<>(RESPONSE_CACHE_SIZE);
+
+    /** The commands with wildcards, they are read by open before the profile is used. */
+    private ApduPatternMatcher patterns = ApduPatternMatcher.EMPTY;
+    /** The distinct response of each pattern. */
+    private int[] patternResponseIds = new int[0];
+
+    private CompiledApduProfile(MappedByteBuffer buffer, int size, int slotCount, int responseCount, long sourceLength, long sourceLastModified) {
+        this.buffer = buffer;
+        this.size = size;
+        this.responseCount = responseCount;
+        this.slotMask = slotCount - 1;
+        this.sourceLength = sourceLength;
+        this.sourceLastModified = sourceLastModified;
+        firstIndexByInsOffset = HEADER_SIZE;
+        slotsOffset = firstIndexByInsOffset + 256 * 4;
+        commandBoundariesOffset = slotsOffset + slotCount * 4;
+        responseIdsOffset = commandBoundariesOffset + (size + 1) * 4;
+        responseBoundariesOffset = responseIdsOffset + size * 4;
+        payloadOffset = responseBoundariesOffset + (responseCount + 1) * 4;
+    }
+
+    /**
+     * This method gets the compiled file of a txt file.
+     * @param source txt file.
+     * @return compiled file, it may not exist.
+     */
+    static File getCompiledFile(File source) {
+        return new File(new File(source.getParentFile(), DIRECTORY), source.getName() + EXTENSION);
+    }
+
+    /**
+     * This method writes the compiled file of a lookup table.
+     * The file is written aside and renamed when it is complete, so that a compiled file is never partially written.
+     * @param table lookup table of the txt file.
+     * @param source txt file the table was read from.
+     * @param target compiled file.
+     * @throws IOException if the compiled file cannot be written.
+     */
+    static void compile(ApduLookupTable table, File source, File target) throws IOException {
+        File directory = target.getParentFile();
+        // several files may be compiled at the same time, another one may create the directory meanwhile
+        if (directory != null && !directory.mkdirs() && !directory.isDirectory()) {
+            throw new IOException("Cannot create " + directory);
+        }
+
+        File temporary = new File(directory, target.getName() + ".tmp");
+        try {
+            try (DataOutputStream output = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temporary), 64 * 1024))) {
+                output.writeInt(MAGIC);
+                output.writeShort(VERSION);
+                output.writeShort(0);
+                output.writeInt(table.size());
+                output.writeInt(table.getSlotCount());
+                output.writeInt(table.getResponseCount());
+                output.writeInt(table.getPatternCount());
+                output.writeLong(source.length());
+                output.writeLong(source.lastModified());
+                table.writeSections(output);
+            }
+            if (!temporary.renameTo(target)) {
+                // some file systems do not replace an existing file
+                if (!target.delete() || !temporary.renameTo(target)) {
+                    throw new IOException("Cannot rename " + temporary + " to " + target);
+                }
+            }
+        } finally {
+            if (temporary.exists() && !temporary.delete()) {
+                temporary.deleteOnExit();
+            }
+        }
+    }
+
+    /**
+     * This method maps a compiled file. Only the header is validated and the patterns are read, nothing else is read.
+     * @param file compiled file.
+     * @return profile served from the mapped file.
+     * @throws IOException if the file cannot be mapped or it is not a compiled file of this version.
+     */
+    static CompiledApduProfile open(File file) throws IOException {
+        MappedByteBuffer buffer;
+        try (RandomAccessFile randomAccessFile = new RandomAccessFile(file, "r")) {
+            FileChannel channel = randomAccessFile.getChannel();
+            long fileSize = channel.size();
+            if (fileSize < HEADER_SIZE || fileSize > Integer.MAX_VALUE) {
+                throw new IOException("Not a compiled profile: " + file);
+            }
+            // the mapping remains valid after the channel is closed
+            buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, fileSize);
+        }
+
+        if (buffer.getInt(0) != MAGIC || buffer.getShort(4) != VERSION) {
+            throw new IOException("Not a compiled profile of version " + VERSION + ": " + file);
+        }
+        int size = buffer.getInt(PAIR_COUNT_OFFSET);
+        int slotCount = buffer.getInt(SLOT_COUNT_OFFSET);
+        int responseCount = buffer.getInt(RESPONSE_COUNT_OFFSET);
+        int patternCount = buffer.getInt(PATTERN_COUNT_OFFSET);
+        // the sections of a larger profile could not be mapped at once
+        if (size < 0 || size > MAX_PAIRS || slotCount < 2 || slotCount > 4 * MAX_PAIRS || Integer.bitCount(slotCount) != 1
+                || slotCount < size || responseCount < 0 || responseCount > size + patternCount || patternCount < 0) {
+            throw new IOException("Corrupt compiled profile: " + file);
+        }
+
+        CompiledApduProfile profile = new CompiledApduProfile(buffer, size, slotCount, responseCount,
+                buffer.getLong(SOURCE_LENGTH_OFFSET), buffer.getLong(SOURCE_MODIFIED_OFFSET));
+        // the payload ends with the last response, the boundaries are offsets in the payload, the patterns follow
+        if (profile.payloadOffset > buffer.capacity()
+                || (long) profile.payloadOffset + profile.responseBoundary(responseCount) > buffer.capacity()
+                || profile.readPatterns(profile.payloadOffset + profile.responseBoundary(responseCount), patternCount) != buffer.capacity()) {
+            throw new IOException("Corrupt compiled profile: " + file);
+        }
+        return profile;
+    }
+
+    /**
+     * This method checks whether the profile was compiled from the current content of a txt file.
+     * @param source txt file.
+     * @return true if the txt file has not changed since it was compiled.
+     */
+    boolean isCompiledFrom(File source) {
+        return source.length() == sourceLength && source.lastModified() == sourceLastModified;
+    }
+
+    @Override
+    public int indexOf(byte[] command) {
+        int slot = ApduLookupTable.hash(command, 0, command.length) & slotMask;
+        int index;
+        while ((index = buffer.getInt(slotsOffset + slot * 4)) != NOT_FOUND) {
+            if (commandEquals(index, command)) {
+                return index;
+            }
+            slot = (slot + 1) & slotMask;
+        }
+        return NOT_FOUND;
+    }
+
+    @Override
+    public int firstIndexOfIns(byte ins) {
+        return buffer.getInt(firstIndexByInsOffset + (ins & 0xFF) * 4);
+    }
+
+    @Override
+    public byte[] getCommand(int index) {
+        int start = commandBoundary(index);
+        byte[] command = new byte[commandBoundary(index + 1) - start];
+        for (int i = 0; i < command.length; i++) {
+            command[i] = buffer.get(payloadOffset + start + i);
+        }
+        return command;
+    }
+
+    /**
+     * This method gets the response of an entry.
+     * The last responses are kept as arrays, the returned array is shared by all callers and must not be modified.
+     * @param index index of the entry.
+     * @return response APDU in byte array format.
+     */
+    @Override
+    public byte[] getResponse(int index) {
+        return getDistinctResponse(buffer.getInt(responseIdsOffset + index * 4));
+    }
+
+    @Override
+    public int matchPattern(byte[] command) {
+        return patterns.match(command);
+    }
+
+    /**
+     * This method gets the response of a pattern.
+     * The returned array is shared by all callers and must not be modified.
+     * @param pattern index of the pattern.
+     * @return response APDU in byte array format.
+     */
+    @Override
+    public byte[] getPatternResponse(int pattern) {
+        return getDistinctResponse(patternResponseIds[pattern]);
+    }
+
+    @Override
+    public int getPatternCount() {
+        return patterns.size();
+    }
+
+    private byte[] getDistinctResponse(int responseId) {
+        // the entries that have the same response share the same cached array
+        int cacheSlot = responseId & (RESPONSE_CACHE_SIZE - 1);
+        CachedResponse cached = responseCache.get(cacheSlot);
+        if (cached != null && cached.responseId == responseId) {
+            return cached.response;
+        }
+
+        int start = responseBoundary(responseId);
+        byte[] response = new byte[responseBoundary(responseId + 1) - start];
+        for (int i = 0; i < response.length; i++) {
+            response[i] = buffer.get(payloadOffset + start + i);
+        }
+        responseCache.lazySet(cacheSlot, new CachedResponse(responseId, response));
+        return response;
+    }
+
+    /**
+     * This method gets a read-only view of the response of an entry in the mapped file, nothing is copied.
+     * @param index index of the entry.
+     * @return response APDU, from position 0 to its limit.
+     */
+    ByteBuffer getResponseSlice(int index) {
+        int responseId = buffer.getInt(responseIdsOffset + index * 4);
+        ByteBuffer slice = buffer.duplicate();
+        slice.limit(payloadOffset + responseBoundary(responseId + 1));
+        slice.position(payloadOffset + responseBoundary(responseId));
+        return slice.slice().asReadOnlyBuffer();
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    /**
+     * This method gets the size of the mapped file, its pages are loaded in memory as they are used.
+     * @return number of bytes.
+     */
+    @Override
+    public long getStorageSize() {
+        return buffer.capacity();
+    }
+
+    /**
+     * This method gets the number of distinct responses, each of them is stored once.
+     * @return number of distinct responses.
+     */
+    int getResponseCount() {
+        return responseCount;
+    }
+
+    /**
+     * This method reads the patterns that follow the payload and compiles them into their matcher.
+     * @param position start of the patterns in the file.
+     * @param patternCount number of patterns.
+     * @return end of the patterns in the file, or -1 if they go past the end of the file.
+     */
+    private int readPatterns(int position, int patternCount) {
+        if (patternCount == 0) {
+            return position;
+        }
+        List<ApduPattern> patternList = new ArrayList<>(patternCount);
+        int[] responseIds = new int[patternCount];
+        for (int p = 0; p < patternCount; p++) {
+            if (position + 7 > buffer.capacity()) {
+                return -1;
+            }
+            responseIds[p] = buffer.getInt(position);
+            boolean isPrefix = buffer.get(position + 4) != 0;
+            int length = buffer.getShort(position + 5) & 0xFFFF;
+            position += 7;
+            if (responseIds[p] < 0 || responseIds[p] >= responseCount || length > ApduPattern.MAX_PATTERN_SIZE
+                    || position + 2 * length > buffer.capacity()) {
+                return -1;
+            }
+            byte[] value = new byte[length];
+            byte[] mask = new byte[length];
+            ByteBuffer section = buffer.duplicate();
+            section.position(position);
+            section.get(value).get(mask);
+            position += 2 * length;
+            patternList.add(new ApduPattern(value, mask, length, isPrefix));
+        }
+        patterns = new ApduPatternMatcher(patternList);
+        patternResponseIds = responseIds;
+        return position;
+    }
+
+    private int commandBoundary(int index) {
+        return buffer.getInt(commandBoundariesOffset + index * 4);
+    }
+
+    private int responseBoundary(int responseId) {
+        return buffer.getInt(responseBoundariesOffset + responseId * 4);
+    }
+
+    /**
+     * This method compares the command of an entry with the given command.
+     */
+    private boolean commandEquals(int index, byte[] command) {
+        int start = commandBoundary(index);
+        if (commandBoundary(index + 1) - start != command.length) {
+            return false;
+        }
+        int position = payloadOffset + start;
+        for (int i = 0; i < command.length; i++) {
+            if (buffer.get(position + i) != command[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * A response copied out of the mapped file.
+     */
+    private static final class CachedResponse {
+        final int responseId;
+        final byte[] response;
+
+        CachedResponse(int responseId, byte[] response) {
+            this.responseId = responseId;
+            this.response = response;
+        }
+    }
+}
@@ -0,0 +1,153 @@
+package com.okanatas.nfccardemulator;
+
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * This class was created to bound the time a command APDU waits for the relay server.
+ * Each INS has its own time budget, when the relay server does not answer in time, or cannot be reached,
+ * the command is answered from the file in use or with a configured status word, so the terminal is never left waiting.
+ */
+class DeadlineRelay {
+
+    /**
+     * The exchange with the relay server.
+     */
+    interface Exchanger {
+        /**
+         * @param command command APDU in byte array format.
+         * @param timeoutMillis maximum time to wait for the response.
+         * @return response APDU, or null if it did not arrive in time or the relay server cannot be reached.
+         */
+        byte[] exchange(byte[] command, long timeoutMillis);
+    }
+
+    private final Exchanger exchanger;
+    /** Time budget of each INS in milliseconds, indexed by the unsigned INS byte. */
+    private final AtomicLongArray budgetsMillis = new AtomicLongArray(256);
+    /** Status word of the late commands, null to answer them from the file in use. */
+    private volatile byte[] fallbackStatusWord;
+
+    /* statistics */
+    private final AtomicLong exchangeCount = new AtomicLong();
+    private final AtomicLong deadlineMissCount = new AtomicLong();
+    private final AtomicLong unavailableCount = new AtomicLong();
+    private final AtomicLongArray deadlineMissCountByIns = new AtomicLongArray(256);
+
+    /**
+     * This constructor creates the relay with the same budget for all INS.
+     * @param exchanger exchange with the relay server.
+     * @param defaultBudgetMillis time budget of the commands in milliseconds.
+     */
+    DeadlineRelay(Exchanger exchanger, long defaultBudgetMillis) {
+        this.exchanger = exchanger;
+        for (int i = 0; i < 256; i++) {
+            budgetsMillis.set(i, defaultBudgetMillis);
+        }
+    }
+
+    /**
+     * This method sets the time budget of the commands with the given INS.
+     * @param ins INS byte.
+     * @param budgetMillis time budget in milliseconds.
+     */
+    void setBudgetMillis(byte ins, long budgetMillis) {
+        budgetsMillis.set(ins & 0xFF, budgetMillis);
+    }
+
+    long getBudgetMillis(byte ins) {
+        return budgetsMillis.get(ins & 0xFF);
+    }
+
+    /**
+     * This method sets the answer of the commands the relay server did not answer in time.
+     * @param statusWord status word to answer with, or null to answer from the file in use.
+     */
+    void setFallbackStatusWord(byte[] statusWord) {
+        fallbackStatusWord = statusWord;
+    }
+
+    /**
+     * This method sends the command to the relay server and waits for its response at most the rest of the budget of its INS.
+     * The budget starts when the command was received from the terminal, so the time it waited behind the previous commands
+     * is counted. When nothing is left of it, the command is not sent and is answered right away.
+     * @param commandApdu command APDU in byte array format, at least ISOProtocol.MIN_APDU_SIZE long.
+     * @param receivedNanos time the command was received, from System.nanoTime().
+     * @param profile commands and responses of the file in use, used when the relay server does not answer in time.
+     * @return response APDU, never null.
+     */
+    byte[] exchange(byte[] commandApdu, long receivedNanos, ApduProfile profile) {
+        return exchange(commandApdu, receivedNanos, 0, profile);
+    }
+
+    /**
+     * This method sends the command to the relay server like exchange, after a network delay set by the user.
+     * The budget starts at the end of the delay, so a delay longer than the budget still sends the commands.
+     * @param commandApdu command APDU in byte array format, at least ISOProtocol.MIN_APDU_SIZE long.
+     * @param receivedNanos time the command was received, from System.nanoTime().
+     * @param delayMillis network delay waited after the command was received, in milliseconds.
+     * @param profile commands and responses of the file in use, used when the relay server does not answer in time.
+     * @return response APDU, never null.
+     */
+    byte[] exchange(byte[] commandApdu, long receivedNanos, long delayMillis, ApduProfile profile) {
+        exchangeCount.incrementAndGet();
+        byte ins = commandApdu[ISOProtocol.INS_INDEX];
+        long deadlineNanos = receivedNanos + TimeUnit.MILLISECONDS.toNanos(Math.max(0, delayMillis) + getBudgetMillis(ins));
+
+        long remainingNanos = deadlineNanos - System.nanoTime();
+        byte[] responseApdu = null;
+        if (remainingNanos > 0) {
+            // rounded up, so that a budget of less than a millisecond still waits
+            responseApdu = exchanger.exchange(commandApdu, (remainingNanos + 999_999) / 1_000_000);
+        }
+        if (responseApdu != null) {
+            return responseApdu;
+        }
+
+        if (System.nanoTime() - deadlineNanos >= 0) {
+            deadlineMissCount.incrementAndGet();
+            deadlineMissCountByIns.incrementAndGet(ins & 0xFF);
+        } else {
+            // no connection or the connection was lost, the command is answered right away
+            unavailableCount.incrementAndGet();
+        }
+
+        byte[] statusWord = fallbackStatusWord;
+        return (statusWord != null) ? statusWord : ApduDispatcher.dispatch(profile, commandApdu);
+    }
+
+    long getExchangeCount() {
+        return exchangeCount.get();
+    }
+
+    long getDeadlineMissCount() {
+        return deadlineMissCount.get();
+    }
+
+    long getDeadlineMissCount(byte ins) {
+        return deadlineMissCountByIns.get(ins & 0xFF);
+    }
+
+    long getUnavailableCount() {
+        return unavailableCount.get();
+    }
+
+    /**
+     * This method gets the statistics of the relay in a single line, for the log messages.
+     * @return statistics of the relay.
+     */
+    String getStatistics() {
+        StringBuilder missesByIns = new StringBuilder();
+        for (int i = 0; i < 256; i++) {
+            long misses = deadlineMissCountByIns.get(i);
+            if (misses > 0) {
+                missesByIns.append(String.format(Locale.US, " %02X:%d", i, misses));
+            }
+        }
+        return String.format(Locale.US, "exchanges=%d deadlineMisses=%d unavailable=%d",
+                getExchangeCount(), getDeadlineMissCount(), getUnavailableCount())
+                + (missesByIns.length() > 0 ? " missesByIns=" + missesByIns.toString().trim() : "");
+    }
+}
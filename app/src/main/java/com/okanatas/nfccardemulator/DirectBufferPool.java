@@ -0,0 +1,64 @@
+package com.okanatas.nfccardemulator;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * This class was created to reuse direct byte buffers instead of allocating new ones for each connection.
+ * Direct buffers are read and written by the socket without an extra copy, but they are expensive to allocate.
+ */
+class DirectBufferPool {
+
+    private final int bufferSize;
+    private final ArrayBlockingQueue<ByteBuffer> availableBuffers;
+    private final AtomicLong allocatedCount = new AtomicLong();
+
+    /**
+     * This constructor creates the pool, buffers are allocated the first time they are needed.
+     * @param capacity maximum number of buffers kept for reuse.
+     * @param bufferSize size of each buffer in bytes.
+     */
+    DirectBufferPool(int capacity, int bufferSize) {
+        this.bufferSize = bufferSize;
+        this.availableBuffers = new ArrayBlockingQueue<>(capacity);
+    }
+
+    /**
+     * This method takes a cleared buffer from the pool, or allocates one if the pool is empty.
+     * @return a direct buffer of the size of the pool.
+     */
+    ByteBuffer acquire() {
+        ByteBuffer buffer = availableBuffers.poll();
+        if (buffer == null) {
+            allocatedCount.incrementAndGet();
+            buffer = ByteBuffer.allocateDirect(bufferSize);
+        }
+        return buffer;
+    }
+
+    /**
+     * This method gives a buffer back to the pool, it is dropped if the pool is already full.
+     * @param buffer buffer that was taken from this pool.
+     */
+    void release(ByteBuffer buffer) {
+        buffer.clear();
+        availableBuffers.offer(buffer);
+    }
+
+    /**
+     * This method gets the number of buffers the pool had to allocate.
+     * @return number of allocated buffers.
+     */
+    long getAllocatedCount() {
+        return allocatedCount.get();
+    }
+
+    /**
+     * This method gets the number of buffers waiting to be reused.
+     * @return number of available buffers.
+     */
+    int getAvailableCount() {
+        return availableBuffers.size();
+    }
+}
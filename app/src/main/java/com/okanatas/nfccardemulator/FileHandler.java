@@ -1,6 +1,21 @@
 package com.okanatas.nfccardemulator;
 
-import java.util.ArrayList;
+import android.util.Log;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.io.StringReader;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 
 /**
  * This class was created to detect apdu commands and apdu responses in txt files uploaded by the user.
@@ -10,90 +25,576 @@ import java.util.ArrayList;
  */
 public class FileHandler {
 
-    /** This ArrayList holds the commands of the file currently in use. */
-    public static ArrayList<String> commands = new ArrayList<>();
+    private static final String TAG = "FileHandler";
+
+    /**
+     * The commands and responses of the file currently in use. A profile is never modified once it is built,
+     * loading another file builds a new profile and replaces this reference with a single write.
+     * The service threads read it without locking, they see either the former profile or the new one as a whole.
+     */
+    private static volatile ApduProfile activeProfile = ApduLookupTable.EMPTY;
+
+    /** The state machine of the profile in use, compiled when the session is replayed in order, null otherwise. */
+    private static volatile ReplayStateMachine activeReplay;
+    /** True while the sessions are replayed in order, the state machine of each file loaded is then compiled with it. */
+    private static volatile boolean isReplayCompiled = false;
+
+    /** Number of recent profiles kept in memory. */
+    private static final int PROFILE_CACHE_SIZE = 8;
+    /** Memory the recent profiles can use, in bytes. */
+    private static final long PROFILE_CACHE_BUDGET = 32L * 1024 * 1024;
+
+    /** The last profiles in use, so that switching back to a recent file does not read it again. */
+    private static final ProfileCache profileCache = new ProfileCache(PROFILE_CACHE_SIZE, PROFILE_CACHE_BUDGET);
+
+    /** The conflicts of a merge written to the log messages, the others are counted only. */
+    private static final int MAX_LOGGED_CONFLICTS = 20;
+
+    /** Loads and imports the files one after the other, off the main thread, the last file selected is the last one in use. */
+    private static final ExecutorService profileLoader = new ThreadPoolExecutor(1, 1, 0L, TimeUnit.MILLISECONDS,
+            new LinkedBlockingQueue<>(), runnable -> {
+                Thread thread = new Thread(runnable, "ProfileLoader");
+                thread.setDaemon(true);
+                return thread;
+            });
+
+    /**
+     * The receiver of the result of a file loaded off the main thread, it is called on the loading thread.
+     */
+    interface ProfileLoadListener {
+        /**
+         * @param source txt file.
+         * @param profile profile now in use.
+         */
+        void onProfileLoaded(File source, ApduProfile profile);
+
+        /**
+         * @param source txt file.
+         * @param e reason of the failure, the profile in use did not change.
+         */
+        void onProfileLoadFailed(File source, IOException e);
+    }
+
+    /**
+     * The receiver of the progress and the result of a file imported off the main thread, it is called on the importing thread.
+     */
+    interface ImportListener {
+        /**
+         * @param importedBytes number of bytes copied and parsed so far.
+         * @param totalBytes size of the file, or -1 if it is not known.
+         */
+        void onImportProgress(long importedBytes, long totalBytes);
 
-    /** This ArrayList holds the responses of the file currently in use. */
-    public static ArrayList<String> responses = new ArrayList<>();
+        /**
+         * @param target imported file.
+         * @param pairCount number of valid command and response pairs of the file.
+         */
+        void onImportFinished(File target, int pairCount);
 
-    /** Command keyword for the txt file */
-    private static final String COMMAND_KEYWORD = InformationTransferManager.getStringResource(R.string.c_apdu_keyword);
-    /** Response keyword for the txt file */
-    private static final String RESPONSE_KEYWORD = InformationTransferManager.getStringResource(R.string.r_apdu_keyword);
+        /**
+         * @param target file that was not imported.
+         * @param e reason of the failure.
+         */
+        void onImportFailed(File target, IOException e);
+    }
 
     /**
-     * This method was created to save commands and responses to the ArrayList.
+     * The receiver of the progress and the result of an archive imported off the main thread, it is called on the importing threads.
+     */
+    interface BatchImportListener extends BatchImporter.Listener {
+        /**
+         * @param report report of each file of the archive.
+         */
+        void onBatchFinished(BatchImporter.Report report);
+
+        /**
+         * @param e reason why the archive could not be read.
+         */
+        void onBatchFailed(IOException e);
+    }
+
+    /**
+     * The receiver of the result of a merge done off the main thread, it is called on the loader thread.
+     */
+    interface MergeListener {
+        /**
+         * @param target merged txt file.
+         * @param merger merger holding the totals and the conflicts.
+         */
+        void onMergeFinished(File target, ProfileMerger merger);
+
+        /**
+         * @param target txt file that was not written.
+         * @param e reason why the files could not be merged.
+         */
+        void onMergeFailed(File target, IOException e);
+    }
+
+    /**
+     * The receiver of the end of a learn mode recording, it is called on the loader thread.
+     */
+    interface CaptureListener {
+        /**
+         * @param file txt file holding the recorded exchanges, it can be loaded.
+         */
+        void onCaptureClosed(File file);
+    }
+
+    /**
+     * The receiver of the result of a trace converted off the main thread, it is called on the loader thread.
+     */
+    interface TraceListener {
+        /**
+         * @param target txt file holding the recorded pairs.
+         * @param pairCount number of pairs written.
+         */
+        void onTraceConverted(File target, long pairCount);
+
+        /**
+         * @param target txt file that was not written.
+         * @param e reason why the trace could not be converted.
+         */
+        void onTraceFailed(File target, IOException e);
+    }
+
+    /** Command keyword for the txt file, resolved when it is first needed. */
+    private static String commandKeyword;
+    /** Response keyword for the txt file, resolved when it is first needed. */
+    private static String responseKeyword;
+
+    static String getCommandKeyword() {
+        if (commandKeyword == null) {
+            commandKeyword = InformationTransferManager.getStringResource(R.string.c_apdu_keyword);
+        }
+        return commandKeyword;
+    }
+
+    static String getResponseKeyword() {
+        if (responseKeyword == null) {
+            responseKeyword = InformationTransferManager.getStringResource(R.string.r_apdu_keyword);
+        }
+        return responseKeyword;
+    }
+
+    /**
+     * This method was created to save commands and responses of a file.
      * @param fileContentInText file content in String format.
      */
     public static void setCommandsAndResponses(String fileContentInText){
-        // clear ArrayList elements for a new file initialization
-        commands.clear();
-        responses.clear();
-
-        // remove all white spaces for organization purpose
-        fileContentInText = fileContentInText.replaceAll("\\s","");
+        try {
+            setCommandsAndResponses(new StringReader(fileContentInText));
+        } catch (IOException e) {
+            // a StringReader does not throw
+            throw new IllegalStateException(e);
+        }
+    }
 
-        // send the keywords for searching commands and responses
-        fileContentInText = searchAndOrganize(fileContentInText, COMMAND_KEYWORD, RESPONSE_KEYWORD);
+    /**
+     * This method was created to save commands and responses of a file while it is read.
+     * The text is read once, the pairs go straight from the parser to the lookup table.
+     * @param reader file content, it is not closed.
+     * @throws IOException if the file cannot be read.
+     */
+    public static void setCommandsAndResponses(Reader reader) throws IOException {
+        activeProfile = readCommandsAndResponses(reader);
+    }
 
-        // store the organized content line by line
-        String[] lines = fileContentInText.split("\\r?\\n");
+    /**
+     * This method gets the commands and responses of the file currently in use.
+     * The caller should read it once and use that profile for the whole command APDU.
+     * @return profile in use.
+     */
+    static ApduProfile getActiveProfile() {
+        return activeProfile;
+    }
 
-        // determine which line is command and which is response and store it to ArrayList.
-        for (String line : lines) {
-            String[] parsedLine = line.split(":");
+    /**
+     * This method puts a profile in use, the one in use is replaced as a whole.
+     * @param profile profile that will not be modified anymore.
+     */
+    static void setActiveProfile(ApduProfile profile) {
+        activeProfile = profile;
+    }
 
-            if (parsedLine[0].equalsIgnoreCase(COMMAND_KEYWORD)) {
-                if((parsedLine[1].length() % 2 == 0) || (parsedLine[1].length() >= ISOProtocol.MIN_APDU_LENGTH)){
-                    commands.add(parsedLine[1]);
-                    Utils.showLogDMessage(InformationTransferManager.getStringResource(R.string.command_from_file_text), parsedLine[1], false);
-                }else{
-                    Utils.showLogDMessage(InformationTransferManager.getStringResource(R.string.command_from_file_text), InformationTransferManager.getStringResource(R.string.invalid_message_1), false);
+    /**
+     * This method was created to use a file of the application files without blocking the main thread.
+     * The file is loaded as in loadProfile, the service goes on with the former profile until the new one is complete.
+     * @param source txt file.
+     * @param listener receiver of the result.
+     */
+    public static void loadProfileInBackground(final File source, final ProfileLoadListener listener) {
+        profileLoader.execute(() -> {
+            try {
+                ApduProfile profile = loadProfile(source);
+                if (isReplayCompiled) {
+                    // compiled here rather than on the first command APDU
+                    getReplayStateMachine(profile);
                 }
+                listener.onProfileLoaded(source, profile);
+            } catch (IOException e) {
+                listener.onProfileLoadFailed(source, e);
             }
+        });
+    }
 
-            if (parsedLine[0].equalsIgnoreCase(RESPONSE_KEYWORD)) {
-                if((parsedLine[1].length() % 2) == 0){
-                    responses.add(parsedLine[1]);
-                    Utils.showLogDMessage(InformationTransferManager.getStringResource(R.string.response_from_file_text), parsedLine[1], false);
-                }else {
-                    Utils.showLogDMessage(InformationTransferManager.getStringResource(R.string.response_from_file_text), InformationTransferManager.getStringResource(R.string.invalid_message_2), false);
-                }
+    /**
+     * This method was created to replay the sessions in order. The state machine of the profile in use is compiled
+     * off the main thread right away, and the state machine of each file loaded afterwards is compiled with it.
+     * @param isReplayCompiled true when the sessions are replayed in order.
+     */
+    public static void setReplayCompiled(boolean isReplayCompiled) {
+        FileHandler.isReplayCompiled = isReplayCompiled;
+        if (isReplayCompiled) {
+            profileLoader.execute(() -> getReplayStateMachine(activeProfile));
+        } else {
+            activeReplay = null;
+        }
+    }
+
+    /**
+     * This method gets the state machine of a profile, it is compiled if it is not the one of the profile in use.
+     * @param profile commands and responses of a session, usually the profile in use.
+     * @return state machine of the profile.
+     */
+    static ReplayStateMachine getReplayStateMachine(ApduProfile profile) {
+        ReplayStateMachine replay = activeReplay;
+        if (replay == null || replay.getProfile() != profile) {
+            long start = System.nanoTime();
+            replay = ReplayStateMachine.compile(profile);
+            Log.d(TAG, "Replay compiled: " + replay.getStepCount() + " steps, " + replay.getCommandCount() + " commands in "
+                    + (System.nanoTime() - start) / 1000 + " us");
+            if (profile == activeProfile) {
+                activeReplay = replay;
             }
         }
+        return replay;
     }
 
     /**
-     *
-     * @param fileContentInText file content in String format.
-     * @param commandKeyword command keyword for the txt file.
-     * @param responseKeyword response keyword for the txt file.
-     * @return organized content.
-     */
-    public static String searchAndOrganize(String fileContentInText, String commandKeyword, String responseKeyword)
-    {
-        StringBuilder organizedContent = new StringBuilder();
-        ArrayList<Integer> indexes = new ArrayList<>();
-        boolean isCharC = true;
-        char searchFor;
-
-        // search for command and response keywords and set their index into indexes ArrayList.
-        for (int i = 0; i < fileContentInText.length(); i++){
-            searchFor = isCharC ? Character.toUpperCase(commandKeyword.charAt(0)) : Character.toUpperCase(responseKeyword.charAt(0));
-            if ((Character.toUpperCase(fileContentInText.charAt(i)) == searchFor) && ( i + (isCharC ? commandKeyword.length() : responseKeyword.length()) <= fileContentInText.length())){
-                if(fileContentInText.substring(i, i + (isCharC ? commandKeyword.length() : responseKeyword.length())).equalsIgnoreCase(isCharC ? commandKeyword : responseKeyword)){
-                    indexes.add(i);
-                    isCharC = !isCharC;
+     * This method was created to use a file of the application files.
+     * A recent file that has not changed is taken from memory. Otherwise the compiled file of the txt file is mapped
+     * if it is up to date, or the txt file is read and compiled for the next time.
+     * @param source txt file.
+     * @return profile now in use.
+     * @throws IOException if the txt file cannot be read.
+     */
+    public static ApduProfile loadProfile(File source) throws IOException {
+        ApduProfile profile = profileCache.get(source);
+        if (profile != null) {
+            activeProfile = profile;
+            Utils.showLogDMessage(InformationTransferManager.getStringResource(R.string.profile_cache_tag), "\"" + source.getName() + "\" "
+                    + InformationTransferManager.getStringResource(R.string.profile_cache_hit), false);
+        } else {
+            // taken before the file is read, a file modified meanwhile is read again next time
+            long sourceLength = source.length();
+            long sourceLastModified = source.lastModified();
+            profile = readProfile(source);
+            activeProfile = profile;
+            profileCache.put(source, sourceLength, sourceLastModified, profile);
+        }
+        Utils.showLogDMessage(InformationTransferManager.getStringResource(R.string.profile_cache_tag), profileCache.getStatistics(), false);
+        return profile;
+    }
+
+    /**
+     * This method reads the profile of a txt file from its compiled file if it is up to date, from its text otherwise.
+     * @param source txt file.
+     * @return profile of the txt file.
+     * @throws IOException if the txt file cannot be read.
+     */
+    private static ApduProfile readProfile(File source) throws IOException {
+        File compiledFile = CompiledApduProfile.getCompiledFile(source);
+        if (compiledFile.isFile()) {
+            try {
+                CompiledApduProfile compiledProfile = CompiledApduProfile.open(compiledFile);
+                if (compiledProfile.isCompiledFrom(source)) {
+                    Utils.showLogDMessage(InformationTransferManager.getStringResource(R.string.compiled_profile_tag), "\"" + source.getName() + "\" "
+                            + InformationTransferManager.getStringResource(R.string.compiled_profile_loaded), false);
+                    return compiledProfile;
                 }
+            } catch (IOException e) {
+                // compiled by another version or damaged, it is compiled again
+                Log.e(TAG, "Compiled file not usable: " + compiledFile, e);
             }
         }
 
-        // write each command and response to StringBuilder on separate lines.
-        for(int i = 0; i < indexes.size(); i++){
-            organizedContent.append(fileContentInText, indexes.get(i), ((i+1 < indexes.size()) ? indexes.get(i+1) : fileContentInText.length())).append("\n");
+        ApduLookupTable table = readCommandsAndResponses(source);
+        writeCompiledFile(table, source, compiledFile);
+        return table;
+    }
+
+    /**
+     * This method was created to import a file without blocking the main thread, the input stream is closed at the end.
+     * @param input content of the chosen file.
+     * @param totalBytes size of the chosen file, or -1 if it is not known.
+     * @param target txt file to create in the application files.
+     * @param listener receiver of the progress and the result.
+     */
+    public static void importProfileInBackground(final InputStream input, final long totalBytes, final File target, final ImportListener listener) {
+        profileLoader.execute(() -> {
+            try (InputStream closedInput = input) {
+                int pairCount = importProfile(closedInput, totalBytes, target, listener).size();
+                listener.onImportFinished(target, pairCount);
+            } catch (IOException e) {
+                listener.onImportFailed(target, e);
+            }
+        });
+    }
+
+    /**
+     * This method was created to import the files of a zip archive in parallel without blocking the main thread,
+     * the input stream is closed at the end. The report of each file is written to the log messages.
+     * @param input content of the zip archive.
+     * @param temporaryDirectory directory where the archive is copied while it is imported, such as the cache directory.
+     * @param listener receiver of the progress and the result.
+     */
+    public static void importArchiveInBackground(final InputStream input, final File temporaryDirectory, final BatchImportListener listener) {
+        profileLoader.execute(() -> {
+            BatchImporter.Report report;
+            try (InputStream closedInput = input) {
+                BatchImporter importer = new BatchImporter(new File(InformationTransferManager.getAppFilesDirectory()),
+                        getCommandKeyword(), getResponseKeyword());
+                report = importer.importZip(closedInput, temporaryDirectory, listener);
+            } catch (IOException e) {
+                Log.e(TAG, "Archive not imported", e);
+                listener.onBatchFailed(e);
+                return;
+            }
+
+            for (BatchImporter.FileReport file : report.getFiles()) {
+                // a file imported again under the same name is not taken from memory anymore
+                profileCache.remove(new File(InformationTransferManager.getAppFilesDirectory(), file.fileName));
+                Utils.showLogDMessage(InformationTransferManager.getStringResource(R.string.batch_import_tag), file.toString(), false);
+            }
+            Utils.showLogDMessage(InformationTransferManager.getStringResource(R.string.batch_import_tag), report.getSummary(), false);
+            listener.onBatchFinished(report);
+        });
+    }
+
+    /**
+     * This method was created to import a file in a single pass, see ProfileImporter.
+     * @param input content of the chosen file, it is not closed.
+     * @param totalBytes size of the chosen file, or -1 if it is not known.
+     * @param target txt file to create in the application files.
+     * @param listener receiver of the progress.
+     * @return profile of the imported file.
+     * @throws IOException if the file cannot be read or written.
+     */
+    static ApduLookupTable importProfile(InputStream input, long totalBytes, File target, ImportListener listener) throws IOException {
+        ProfileImporter importer = new ProfileImporter(getCommandKeyword(), getResponseKeyword());
+        ApduLookupTable table = importer.importProfile(input, totalBytes, target, listener);
+
+        logParserSummary(importer.getParser());
+        // a file imported again under the same name is not taken from memory anymore
+        profileCache.remove(target);
+        logCompileResult(target, importer.getCompileError());
+        return table;
+    }
+
+    /**
+     * This method was created to merge txt files without blocking the main thread, see mergeProfiles.
+     * @param sources txt files to merge, in order.
+     * @param target merged txt file, it may be one of the sources.
+     * @param listener receiver of the result.
+     */
+    public static void mergeProfilesInBackground(final List<File> sources, final File target, final MergeListener listener) {
+        profileLoader.execute(() -> {
+            try {
+                listener.onMergeFinished(target, mergeProfiles(sources, target));
+            } catch (IOException e) {
+                Log.e(TAG, "Files not merged into " + target, e);
+                listener.onMergeFailed(target, e);
+            }
+        });
+    }
+
+    /**
+     * This method was created to close a learn mode recording without blocking the main thread,
+     * the exchanges that are not written yet are written before the file is closed.
+     * @param recorder recorder that no exchange is given to anymore, see ResponseHandler.stopCapture.
+     * @param listener receiver of the end of the recording, or null.
+     */
+    public static void closeCaptureInBackground(final ProfileRecorder recorder, final CaptureListener listener) {
+        profileLoader.execute(() -> {
+            recorder.close();
+            // the file may have been loaded while it was being written
+            profileCache.remove(recorder.getFile());
+            Log.d(TAG, "Learn mode stopped: " + recorder.getWrittenCount() + " exchanges written to "
+                    + recorder.getFile().getName() + ", " + recorder.getDroppedCount() + " dropped");
+            if (listener != null) {
+                listener.onCaptureClosed(recorder.getFile());
+            }
+        });
+    }
+
+    /**
+     * This method was created to close a trace recording and convert its segments to a txt file without blocking
+     * the main thread, see TraceReader. The APDUs that are not written yet are written before the segments are closed.
+     * @param recorder recorder that no APDU is given to anymore, see ResponseHandler.stopTrace.
+     * @param target txt file, it is replaced if it exists.
+     * @param listener receiver of the result.
+     */
+    public static void convertTraceInBackground(final TraceRecorder recorder, final File target, final TraceListener listener) {
+        profileLoader.execute(() -> {
+            try {
+                closeTrace(recorder);
+                long pairCount = TraceReader.writeProfile(recorder.getSegments(), target, getCommandKeyword(), getResponseKeyword());
+                profileCache.remove(target);
+                Utils.showLogDMessage(InformationTransferManager.getStringResource(R.string.trace_tag), "\"" + target.getName() + "\" "
+                        + pairCount + " " + InformationTransferManager.getStringResource(R.string.trace_pairs_text), false);
+                listener.onTraceConverted(target, pairCount);
+            } catch (IOException e) {
+                Log.e(TAG, "Trace not converted into " + target, e);
+                listener.onTraceFailed(target, e);
+            }
+        });
+    }
+
+    /**
+     * This method was created to close a trace recording without blocking the main thread, its segments are kept.
+     * @param recorder recorder that no APDU is given to anymore, see ResponseHandler.stopTrace.
+     */
+    public static void closeTraceInBackground(final TraceRecorder recorder) {
+        profileLoader.execute(() -> closeTrace(recorder));
+    }
+
+    private static void closeTrace(TraceRecorder recorder) {
+        recorder.close();
+        Log.d(TAG, "Trace recording stopped: " + recorder.getWrittenCount() + " APDUs written to "
+                + recorder.getSegments().size() + " segments, " + recorder.getDroppedCount() + " dropped");
+    }
+
+    /**
+     * This method was created to merge recorded sessions into one compact txt file, see ProfileMerger.
+     * The merged file is compiled, and the totals and the conflicts are written to the log messages.
+     * The profile in use is not replaced, it answers the same as the merged file.
+     * @param sources txt files to merge, in order.
+     * @param target merged txt file, it may be one of the sources.
+     * @return merger holding the totals and the conflicts.
+     * @throws IOException if a file cannot be read or the merged file cannot be written.
+     */
+    static ProfileMerger mergeProfiles(List<File> sources, File target) throws IOException {
+        ProfileMerger merger = new ProfileMerger(getCommandKeyword(), getResponseKeyword());
+        for (File source : sources) {
+            merger.add(source);
+        }
+        ApduLookupTable table = merger.writeProfile(target);
+        profileCache.remove(target);
+
+        String tag = InformationTransferManager.getStringResource(R.string.merge_tag);
+        Utils.showLogDMessage(tag, "\"" + target.getName() + "\" " + merger.getSummary(), false);
+        List<ProfileMerger.Conflict> conflicts = merger.getConflicts();
+        for (int i = 0; i < Math.min(conflicts.size(), MAX_LOGGED_CONFLICTS); i++) {
+            Utils.showLogDMessage(tag, InformationTransferManager.getStringResource(R.string.merge_conflict_text) + " " + conflicts.get(i), false);
+        }
+        if (conflicts.size() > MAX_LOGGED_CONFLICTS) {
+            Utils.showLogDMessage(tag, (conflicts.size() - MAX_LOGGED_CONFLICTS) + " "
+                    + InformationTransferManager.getStringResource(R.string.merge_conflict_more_text), false);
+        }
+        writeCompiledFile(table, target, CompiledApduProfile.getCompiledFile(target));
+        return merger;
+    }
+
+    /**
+     * This method was created to delete the compiled file and forget the profile of a txt file that is deleted.
+     * It runs after the loads already queued, so that a load of the deleted file cannot put its profile back
+     * in use or in the cache once it is forgotten.
+     * @param source txt file.
+     * @param isInUse true if the txt file is the one in use, its commands and responses are then removed.
+     */
+    public static void deleteProfileDataInBackground(final File source, final boolean isInUse) {
+        profileLoader.execute(() -> {
+            if (isInUse) {
+                clearCommandsAndResponses();
+            }
+            profileCache.remove(source);
+            File compiledFile = CompiledApduProfile.getCompiledFile(source);
+            if (compiledFile.exists() && !compiledFile.delete()) {
+                Log.e(TAG, "Compiled file not deleted: " + compiledFile);
+            }
+        });
+    }
+
+    private static void writeCompiledFile(ApduLookupTable table, File source, File compiledFile) {
+        IOException compileError = null;
+        try {
+            CompiledApduProfile.compile(table, source, compiledFile);
+        } catch (IOException e) {
+            compileError = e;
+        }
+        logCompileResult(source, compileError);
+    }
+
+    private static void logCompileResult(File source, IOException compileError) {
+        if (compileError == null) {
+            Utils.showLogDMessage(InformationTransferManager.getStringResource(R.string.compiled_profile_tag), "\"" + source.getName() + "\" "
+                    + InformationTransferManager.getStringResource(R.string.compiled_profile_written) + " \""
+                    + CompiledApduProfile.getCompiledFile(source).getName() + "\".", false);
+        } else {
+            // the table read from the txt file is used anyway
+            Log.e(TAG, "Compiled file not written: " + CompiledApduProfile.getCompiledFile(source), compileError);
+            Utils.showLogDMessage(InformationTransferManager.getStringResource(R.string.compiled_profile_tag), "\"" + source.getName() + "\" "
+                    + InformationTransferManager.getStringResource(R.string.compiled_profile_failed), false);
+        }
+    }
+
+    private static ApduLookupTable readCommandsAndResponses(File source) throws IOException {
+        try (Reader reader = new BufferedReader(new InputStreamReader(new FileInputStream(source), StandardCharsets.UTF_8))) {
+            return readCommandsAndResponses(reader);
         }
+    }
+
+    private static ApduLookupTable readCommandsAndResponses(Reader reader) throws IOException {
+        final ApduLookupTable.Builder builder = new ApduLookupTable.Builder();
+
+        // the pairs are decoded once and packed into the table, nothing else is kept from the file
+        ProfileParser parser = new ProfileParser(getCommandKeyword(), getResponseKeyword(), builder::add, builder::addPattern);
+        parser.parse(reader);
+
+        // index the commands once, so that each command APDU is answered without scanning the file
+        ApduLookupTable table = builder.build();
+        logParserSummary(parser);
+        return table;
+    }
 
-        return organizedContent.toString();
+    /**
+     * This method writes the number of valid pairs and of the values skipped to the log messages.
+     * @param parser parser that read a whole file.
+     */
+    private static void logParserSummary(ProfileParser parser) {
+        Utils.showLogDMessage(InformationTransferManager.getStringResource(R.string.command_from_file_text),
+                parser.getPairCount() + " " + InformationTransferManager.getStringResource(R.string.valid_pairs_text), false);
+        if (parser.getPatternCount() > 0) {
+            Utils.showLogDMessage(InformationTransferManager.getStringResource(R.string.command_from_file_text),
+                    parser.getPatternCount() + " " + InformationTransferManager.getStringResource(R.string.pattern_pairs_text), false);
+        }
+        if (parser.getInvalidCommandCount() > 0) {
+            Utils.showLogDMessage(InformationTransferManager.getStringResource(R.string.command_from_file_text),
+                    parser.getInvalidCommandCount() + " x " + InformationTransferManager.getStringResource(R.string.invalid_message_1), false);
+        }
+        if (parser.getInvalidResponseCount() > 0) {
+            Utils.showLogDMessage(InformationTransferManager.getStringResource(R.string.response_from_file_text),
+                    parser.getInvalidResponseCount() + " x " + InformationTransferManager.getStringResource(R.string.invalid_message_2), false);
+        }
+        if (parser.getUnpairedCount() > 0) {
+            Utils.showLogDMessage(InformationTransferManager.getStringResource(R.string.command_from_file_text),
+                    parser.getUnpairedCount() + " " + InformationTransferManager.getStringResource(R.string.unpaired_values_text), false);
+        }
+    }
+
+    /**
+     * This method gets the number of command and response pairs of the file currently in use.
+     * @return number of pairs.
+     */
+    public static int getPairCount(){
+        return activeProfile.size();
+    }
+
+    /**
+     * This method was created to remove the commands and responses of the file currently in use.
+     */
+    public static void clearCommandsAndResponses(){
+        activeProfile = ApduLookupTable.EMPTY;
     }
 
 }
@@ -2,7 +2,6 @@ package com.okanatas.nfccardemulator;
 
 import android.nfc.cardemulation.HostApduService;
 import android.os.Bundle;
-import android.util.Log;
 
 /**
  * This class was created for the Host Based Card Emulator Service.
@@ -15,9 +14,19 @@ public class HostCardEmulatorService extends HostApduService {
 
     private static final String C_TAG = InformationTransferManager.getStringResource(R.string.command_tag);
     private static final String R_TAG = InformationTransferManager.getStringResource(R.string.response_tag);
+    private static final String TAG = "HostCardEmulatorService";
     private static final String COM_TAG = "\n" + InformationTransferManager.getStringResource(R.string.communication_tag);
     private static boolean isNewCommunication = true;
 
+    /**
+     * This method is called when the service is bound by the system, before the terminal sends its first command.
+     */
+    @Override
+    public void onCreate() {
+        super.onCreate();
+        ResponseHandler.onServiceCreated();
+    }
+
     /**
      * This method was created to take that command the terminal sends,
      * and then send back a response in the format that the terminal requires.
@@ -28,33 +37,42 @@ public class HostCardEmulatorService extends HostApduService {
      */
     @Override
     public byte[] processCommandApdu(byte[] commandApdu, Bundle extras) {
+        long receivedNanos = System.nanoTime();
         byte[] responseApdu;
+        int source = TraceRecorder.SOURCE_FILE;
+
         if (commandApdu != null) {
-            Log.d("HostCardEmulatorService", "Got APDU: " + Utils.toHexString(commandApdu));
-            String hexCommandApdu = Utils.toHexString(commandApdu);
+            ApduLogger.d(TAG, "Got APDU: ", commandApdu);
 
-            if ((hexCommandApdu.length() < ISOProtocol.MIN_APDU_LENGTH) || (hexCommandApdu.length() % 2 != 0)) {
-                responseApdu = Utils.hexStringToByteArray(ISOProtocol.SW_COMMAND_ABORTED);
-                ResponseHandler.setSelectedInsDescription(InformationTransferManager.getStringResource(R.string.command_aborted_with_reason));
+            if (commandApdu.length < ISOProtocol.MIN_APDU_SIZE) {
+                responseApdu = ISOProtocol.SW_COMMAND_ABORTED;
+                ResponseHandler.setSelectedInsDescription(R.string.command_aborted_with_reason);
+            } else if (!ResponseHandler.isUsingNetwork()) {
+                // the file in use is already in memory, so the response is returned directly
+                responseApdu = ResponseHandler.getFileHandlerResponse(commandApdu);
+            } else if ((responseApdu = ResponseHandler.getCachedNetworkResponse(commandApdu)) != null) {
+                // the relay server already answered this command, it is answered from memory
+                source = TraceRecorder.SOURCE_CACHE;
+                ApduLogger.d(TAG, "Cached network response");
             } else {
-                Runnable response = ResponseHandler.getResponse(commandApdu, (apdu)->{
+                // only the network relay has to wait, it answers later with sendResponseApdu
+                boolean isQueued = ResponseHandler.getResponse(commandApdu, receivedNanos, (apdu)->{
                     this.sendResponseApdu(apdu);
-                    String commandApduIndex = (commandApdu != null) ? (Utils.toHexString(commandApdu)) : (InformationTransferManager.getStringResource(R.string.null_command));
-                    handleCommunicationMessage(commandApduIndex, Utils.toHexString(apdu));
+                    handleCommunicationMessage(commandApdu, receivedNanos, apdu, TraceRecorder.SOURCE_RELAY);
                 });
-                Thread sendResponse = new Thread(response);
-                sendResponse.start();
-                Log.d("HostCardEmulatorService", "Async response started");
-                return null;
+                if (isQueued) {
+                    ApduLogger.d(TAG, "Async response queued");
+                    return null;
+                }
+                responseApdu = ISOProtocol.SW_COMMAND_ABORTED;
             }
 
         } else {
-            responseApdu = Utils.hexStringToByteArray(ISOProtocol.SW_COMMAND_ABORTED);
+            responseApdu = ISOProtocol.SW_COMMAND_ABORTED;
         }
 
-        String commandApduInHex = (commandApdu != null) ? (Utils.toHexString(commandApdu)) : (InformationTransferManager.getStringResource(R.string.null_command));
-        handleCommunicationMessage(commandApduInHex, Utils.toHexString(responseApdu));
-        Log.d("HostCardEmulatorService", "Response APDU: " + Utils.toHexString(responseApdu));
+        handleCommunicationMessage(commandApdu, receivedNanos, responseApdu, source);
+        ApduLogger.d(TAG, "Response APDU: ", responseApdu);
         return responseApdu;
     }
 
@@ -67,31 +85,39 @@ public class HostCardEmulatorService extends HostApduService {
      */
     @Override
     public void onDeactivated(int reason) {
-        Utils.showLogDMessage(COM_TAG, "\n" + InformationTransferManager.getStringResource(R.string.communication_ended) + "\n", true);
+        if (ApduLogger.isLoggable(ApduLogger.LEVEL_COMMUNICATION)) {
+            Utils.showLogDMessage(COM_TAG, "\n" + InformationTransferManager.getStringResource(R.string.communication_ended) + "\n", true);
+        }
         isNewCommunication = true;
-        MainScreenFragment.getInstance().showCommunicationMessages();
+        ResponseHandler.onCommunicationEnded();
     }
 
     /**
      * This method handles the communication between the terminal and the emulated card.
      *
-     * @param commandApduInHex  command APDU in hexadecimal format.
-     * @param responseApduInHex response APDU in hexadecimal format.
+     * The APDUs are kept as bytes, they are converted to hexadecimal only when the messages are shown.
+     * Nothing is logged in performance mode, the exchange is still recorded if the trace recording is on.
+     *
+     * @param commandApdu   command APDU in byte array format, or null.
+     * @param receivedNanos time the command was received, from System.nanoTime().
+     * @param responseApdu  response APDU in byte array format.
+     * @param source        where the response comes from, TraceRecorder.SOURCE_FILE, SOURCE_RELAY or SOURCE_CACHE.
      */
-    private void handleCommunicationMessage(String commandApduInHex, String responseApduInHex) {
+    private void handleCommunicationMessage(byte[] commandApdu, long receivedNanos, byte[] responseApdu, int source) {
 
         // check if it is a new communication
         if (isNewCommunication) {
-            Utils.showLogDMessage(COM_TAG, InformationTransferManager.getStringResource(R.string.communication_started) + "\n", true);
+            ResponseHandler.onCommunicationStarted();
+            if (ApduLogger.isLoggable(ApduLogger.LEVEL_COMMUNICATION)) {
+                InformationTransferManager.startCommunicationLog();
+                Utils.showLogDMessage(COM_TAG, InformationTransferManager.getStringResource(R.string.communication_started) + "\n", true);
+            }
             isNewCommunication = false;
         }
 
-        Utils.showLogDMessage(C_TAG, commandApduInHex, true);
+        ResponseHandler.traceExchange(source, commandApdu, receivedNanos, responseApdu);
+        ApduLogger.logExchange(C_TAG, commandApdu, R_TAG, responseApdu);
 //        Utils.showLogDMessage(C_TAG, ResponseHandler.getSelectedInsDescription(), false);
-        Utils.showLogDMessage(R_TAG, responseApduInHex, true);
-
-        InformationTransferManager.appendCardCommunicationMessage(InformationTransferManager.getStringResource(R.string.apdu_c) + commandApduInHex);
-        InformationTransferManager.appendCardCommunicationMessage(InformationTransferManager.getStringResource(R.string.apdu_r) + responseApduInHex + "\n");
 
     }
 
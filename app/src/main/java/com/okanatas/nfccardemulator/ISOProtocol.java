@@ -9,29 +9,33 @@ package com.okanatas.nfccardemulator;
 public class ISOProtocol {
     /* APDU RULE(S) */
     static final int MIN_APDU_LENGTH = 10;
+    /* minimum APDU length in bytes, MIN_APDU_LENGTH counts hexadecimal characters */
+    static final int MIN_APDU_SIZE = MIN_APDU_LENGTH / 2;
+    /* position of the INS byte in a command APDU */
+    static final int INS_INDEX = 1;
 
     /* COMMAND INSTRUCTIONS */
-    static final String INS_SELECT = "A4";
-    static final String INS_READ_BINARY = "B0";
-    static final String INS_READ_RECORD = "B2";
-    static final String INS_READ_NDEF = "C0";
-    static final String INS_WRITE_BINARY = "D0";
-    static final String INS_UPDATE_BINARY = "D6";
-    static final String INS_GET_PROCESSING_OPTIONS = "A8";
-    static final String INS_PERFORM_SECURITY_OPERATION = "2A";
-    static final String INS_GENERATE_APPLICATION_CRYPTOGRAM = "AE";
-    static final String INS_GET_DATA = "CA";
+    static final byte INS_SELECT = (byte) 0xA4;
+    static final byte INS_READ_BINARY = (byte) 0xB0;
+    static final byte INS_READ_RECORD = (byte) 0xB2;
+    static final byte INS_READ_NDEF = (byte) 0xC0;
+    static final byte INS_WRITE_BINARY = (byte) 0xD0;
+    static final byte INS_UPDATE_BINARY = (byte) 0xD6;
+    static final byte INS_GET_PROCESSING_OPTIONS = (byte) 0xA8;
+    static final byte INS_PERFORM_SECURITY_OPERATION = (byte) 0x2A;
+    static final byte INS_GENERATE_APPLICATION_CRYPTOGRAM = (byte) 0xAE;
+    static final byte INS_GET_DATA = (byte) 0xCA;
 
-    /* APDU RESPONSES */
-    static final String SW_FILE_NOT_FOUND = "6A82";
-    static final String SW_FUNC_NOT_SUPPORTED = "6A81";
-    static final String SW_INCORRECT_P1_OR_P2 = "6A86";
-    static final String SW_INS_NOT_SUPPORTED_OR_INVALID = "6D00";
-    static final String SW_COMMAND_SUCCESSFUL = "9000";
-    static final String SW_RECORD_NOT_FOUND = "6A83";
-    static final String SW_INCORRECT_DATA_PARAMETERS = "6A80";
-    static final String SW_WRONG_LENGTH = "6700";
-    static final String SW_WRONG_P1_AND_OR_P2 = "6B00";
-    static final String SW_COMMAND_ABORTED = "6F00";
-    static final String SW_CLASS_NOT_SUPPORTED= "6E00";
+    /* APDU RESPONSES : decoded once and shared, these arrays must not be modified */
+    static final byte[] SW_FILE_NOT_FOUND = {(byte) 0x6A, (byte) 0x82};
+    static final byte[] SW_FUNC_NOT_SUPPORTED = {(byte) 0x6A, (byte) 0x81};
+    static final byte[] SW_INCORRECT_P1_OR_P2 = {(byte) 0x6A, (byte) 0x86};
+    static final byte[] SW_INS_NOT_SUPPORTED_OR_INVALID = {(byte) 0x6D, (byte) 0x00};
+    static final byte[] SW_COMMAND_SUCCESSFUL = {(byte) 0x90, (byte) 0x00};
+    static final byte[] SW_RECORD_NOT_FOUND = {(byte) 0x6A, (byte) 0x83};
+    static final byte[] SW_INCORRECT_DATA_PARAMETERS = {(byte) 0x6A, (byte) 0x80};
+    static final byte[] SW_WRONG_LENGTH = {(byte) 0x67, (byte) 0x00};
+    static final byte[] SW_WRONG_P1_AND_OR_P2 = {(byte) 0x6B, (byte) 0x00};
+    static final byte[] SW_COMMAND_ABORTED = {(byte) 0x6F, (byte) 0x00};
+    static final byte[] SW_CLASS_NOT_SUPPORTED = {(byte) 0x6E, (byte) 0x00};
 }
@@ -12,10 +12,15 @@ import java.io.File;
  */
 public class InformationTransferManager {
 
+    /** Number of log entries kept, the oldest ones are replaced beyond it. */
+    private static final int LOG_CAPACITY = 8192;
+
     /** Log Messages */
-    private static StringBuilder allLogMessages = new StringBuilder();
-    private static StringBuilder communicationLogMessages = new StringBuilder();
-    public static StringBuilder cardCommunicationMessages = new StringBuilder();
+    private static final LogStore logStore = new LogStore(LOG_CAPACITY);
+    /** Sequence number of the first entry of the log messages, the entries before it were cleared. */
+    private static volatile long logMessagesStart = 0;
+    /** Called after each new entry, to update the logs shown on the screen, null if none are shown. */
+    private static volatile Runnable logListener;
 
     private static String selectedFileText = "";
     private static String selectedFileTextCopy = "";
@@ -82,27 +87,12 @@ public class InformationTransferManager {
 
     /**
      * This method gets a list of available files in the application's files folder.
+     * Folders, such as the one of the compiled files, are not listed.
      * @return list of files in File format.
      */
     public static File[] getApplicationFileList(){
         File directory = new File(getAppFilesDirectory() + "");
-        return directory.listFiles();
-    }
-
-    /**
-     * This method appends card dialog messages to StringBuilder.
-     * @param message card dialog message.
-     */
-    public static void appendCardCommunicationMessage(String message){
-        cardCommunicationMessages.append(message).append("\n");
-    }
-
-    /**
-     * This method gets card dialog message (appended Strings).
-     * @return card dialog message (all messages in a String).
-     */
-    public static String getCardCommunicationMessages(){
-        return cardCommunicationMessages.toString();
+        return directory.listFiles(File::isFile);
     }
 
     /**
@@ -138,38 +128,86 @@ public class InformationTransferManager {
     }
 
     /**
-     * This method appends all log messages to StringBuilder.
-     * @param logMessage each log messages.
+     * This method adds a log message, it can be called from any thread.
+     * @param kind LogStore.KIND_MESSAGE, KIND_COMMUNICATION or KIND_FILE_NAME.
+     * @param tag tag of the message.
+     * @param message text of the message.
      */
-    public static void setAllLogMessages(String logMessage){
-        InformationTransferManager.allLogMessages.append(logMessage);
+    public static void appendLogMessage(int kind, String tag, String message){
+        logStore.append(kind, tag, message);
+        notifyLogListener();
     }
 
     /**
-     * This method appends communication log messages to StringBuilder.
-     * @param communicationLogMessage each communication log messages.
+     * This method adds a command or a response APDU to the log messages, it is formatted only when the logs are shown.
+     * @param kind LogStore.KIND_COMMAND or KIND_RESPONSE.
+     * @param tag tag of the APDU.
+     * @param apdu bytes of the APDU, or null if no command was received. The array must not be modified afterwards.
      */
-    public static void setCommunicationLogMessages(String communicationLogMessage){
-        communicationLogMessages.append(communicationLogMessage);
+    public static void appendApduLogMessage(int kind, String tag, byte[] apdu){
+        if (apdu == null) {
+            logStore.append(kind, tag, getStringResource(R.string.null_command));
+        } else {
+            logStore.appendApdu(kind, tag, apdu);
+        }
+        notifyLogListener();
+    }
+
+    /**
+     * This method starts a new communication with the terminal in the log messages.
+     */
+    public static void startCommunicationLog(){
+        logStore.startSession();
+    }
+
+    /**
+     * This method gets the store of the log messages.
+     * @return store of the log messages.
+     */
+    static LogStore getLogStore(){
+        return logStore;
     }
 
     /**
      * This method clears all log messages with different titles.
+     * The entries are kept in the store until they are replaced, they are just not shown anymore.
      */
     public static void clearTotalLogMessages(){
-        allLogMessages.setLength(0);
-        communicationLogMessages.setLength(0);
+        logMessagesStart = logStore.getNextSequence();
+        notifyLogListener();
+    }
+
+    /**
+     * This method gets the sequence number of the first entry of the log messages.
+     * @return sequence number of the first entry that was not cleared.
+     */
+    static long getLogMessagesStart(){
+        return logMessagesStart;
+    }
+
+    /**
+     * This method sets the receiver of the changes of the log messages, it is called on the thread that adds an entry.
+     * @param listener receiver of the changes, it should only schedule the update of the view, or null.
+     */
+    static void setLogListener(Runnable listener){
+        logListener = listener;
+    }
+
+    private static void notifyLogListener(){
+        Runnable listener = logListener;
+        if (listener != null) {
+            listener.run();
+        }
     }
 
     /**
-     * This method gets all log messages with different titles.
-     * @return all log messages with different titles.
+     * This method creates the exporter of all log messages with different titles, see LogExporter.
+     * The messages are written to a file one by one instead of being gathered into a String.
+     * @return exporter of all log messages, without filter.
      */
-    public static String getTotalLogMessages(){
-        return getStringResource(R.string.logs_title_for_all) + "\n\n"
-                + allLogMessages.toString()
-                + "\n" + getStringResource(R.string.logs_title_for_communication) + "\n\n"
-                + (communicationLogMessages.toString().equals("") ? getStringResource(R.string.logs_no_communication) : communicationLogMessages.toString());
+    static LogExporter newLogExporter(){
+        return new LogExporter(getStringResource(R.string.logs_title_for_all), getStringResource(R.string.logs_title_for_communication),
+                getStringResource(R.string.logs_no_communication));
     }
 
     /**
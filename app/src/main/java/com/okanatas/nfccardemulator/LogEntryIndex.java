@@ -0,0 +1,222 @@
+package com.okanatas.nfccardemulator;
+
+import java.util.Arrays;
+
+/**
+ * This class was created to give the communication logs to a list view one row at a time, without formatting them.
+ * It keeps the command and response APDUs of the log store with the communication and the INS byte of each one,
+ * a response takes the INS byte of its command. The rows can be filtered by communication and by INS byte:
+ * the communications only grow, so the rows of a communication are found by a binary search,
+ * and only these rows are checked for the INS byte.
+ * New entries are taken from the store by update, which is called on the thread of the view only.
+ * An entry whose thread has not stored it yet stops the update, it is taken with the ones after it by the next update.
+ */
+final class LogEntryIndex {
+
+    /** Any communication or any INS byte. */
+    static final int ANY = -1;
+    /** INS byte of an APDU too short to have one. */
+    private static final int NO_INS = -2;
+
+    private final LogStore store;
+    private final int mask;
+    private final LogStore.Entry[] entries;
+    private final int[] sessions;
+    private final short[] instructions;
+    /** Number of the first entry kept, counted from the first entry ever added. */
+    private long head = 0;
+    /** Number of the next entry added. */
+    private long tail = 0;
+    /** Sequence number of the next entry to take from the store. */
+    private long nextSequence;
+    private int lastCommandIns = NO_INS;
+    private int lastCommandSession = ANY;
+
+    private int sessionFilter = ANY;
+    private int insFilter = ANY;
+    /** Numbers of the entries that pass the filter, in order, null if there is no filter. */
+    private long[] filtered;
+    private int filteredCount;
+
+    /**
+     * This constructor creates an empty index.
+     * @param store store of the log messages.
+     * @param capacity number of entries kept, rounded up to a power of two, the oldest ones are dropped beyond it.
+     * @param fromSequence sequence number of the first entry of the store to take.
+     */
+    LogEntryIndex(LogStore store, int capacity, long fromSequence) {
+        if (capacity <= 0 || capacity > (1 << 30)) {
+            throw new IllegalArgumentException("Invalid capacity: " + capacity);
+        }
+        int size = Integer.highestOneBit(capacity);
+        if (size < capacity) {
+            size <<= 1;
+        }
+        this.store = store;
+        mask = size - 1;
+        entries = new LogStore.Entry[size];
+        sessions = new int[size];
+        instructions = new short[size];
+        nextSequence = fromSequence;
+    }
+
+    /**
+     * This method takes the APDUs added to the store since the last update.
+     * @param fromSequence sequence number of the first entry to show, the entries before it are dropped when it moves forward.
+     * @return true if the rows have changed.
+     */
+    boolean update(long fromSequence) {
+        boolean isChanged = false;
+        if (fromSequence > nextSequence) {
+            nextSequence = fromSequence;
+        }
+        while (head < tail && entries[(int) (head & mask)].sequence < fromSequence) {
+            entries[(int) (head++ & mask)] = null;
+            isChanged = true;
+        }
+        long end = store.getNextSequence();
+        long sequence = Math.max(nextSequence, end - store.getCapacity());
+        for (; sequence < end; sequence++) {
+            LogStore.Entry entry = store.getEntry(sequence);
+            if (entry == null) {
+                if (store.isPending(sequence)) {
+                    // the APDUs are kept in order, this one and the next ones wait for the next update
+                    break;
+                }
+                // stored in the meantime, or replaced by a newer entry
+                entry = store.getEntry(sequence);
+                if (entry == null) {
+                    continue;
+                }
+            }
+            if (entry.isApdu()) {
+                add(entry);
+                isChanged = true;
+            }
+        }
+        nextSequence = sequence;
+        if (isChanged && filtered != null) {
+            dropFiltered();
+        }
+        return isChanged;
+    }
+
+    /**
+     * This method shows only the rows of a communication and of an INS byte.
+     * @param session number of the communication, or ANY.
+     * @param ins INS byte from 0 to 255, or ANY.
+     */
+    void setFilter(int session, int ins) {
+        sessionFilter = session;
+        insFilter = ins;
+        if (session == ANY && ins == ANY) {
+            filtered = null;
+            return;
+        }
+        filtered = new long[16];
+        filteredCount = 0;
+        long start = (session == ANY) ? head : findFirst(session);
+        long end = (session == ANY) ? tail : findFirst(session + 1);
+        for (long id = start; id < end; id++) {
+            if (ins == ANY || instructions[(int) (id & mask)] == ins) {
+                addFiltered(id);
+            }
+        }
+    }
+
+    /**
+     * This method gets the number of rows that pass the filter.
+     * @return number of rows.
+     */
+    int size() {
+        return (filtered == null) ? (int) (tail - head) : filteredCount;
+    }
+
+    /**
+     * This method gets a row that passes the filter.
+     * @param position position of the row, from 0 to size() - 1.
+     * @return the entry of the row.
+     */
+    LogStore.Entry get(int position) {
+        long id = (filtered == null) ? head + position : filtered[position];
+        return entries[(int) (id & mask)];
+    }
+
+    /**
+     * This method gets the number of the entry of a row, it does not change when the oldest rows are dropped.
+     * @param position position of the row, from 0 to size() - 1.
+     * @return number of the entry, counted from the first entry ever added.
+     */
+    long getId(int position) {
+        return (filtered == null) ? head + position : filtered[position];
+    }
+
+    /**
+     * This method gets the INS byte of a row, the one of its command for a response.
+     * @param position position of the row, from 0 to size() - 1.
+     * @return INS byte from 0 to 255, or a negative value if the command has none.
+     */
+    int getIns(int position) {
+        return instructions[(int) (getId(position) & mask)];
+    }
+
+    private void add(LogStore.Entry entry) {
+        if (tail - head == entries.length) {
+            entries[(int) (head++ & mask)] = null;
+        }
+        int ins;
+        if (entry.kind == LogStore.KIND_COMMAND) {
+            ins = (entry.apdu != null && entry.apdu.length > ISOProtocol.INS_INDEX) ? entry.apdu[ISOProtocol.INS_INDEX] & 0xFF : NO_INS;
+            lastCommandIns = ins;
+            lastCommandSession = entry.session;
+        } else {
+            ins = (lastCommandSession == entry.session) ? lastCommandIns : NO_INS;
+        }
+        int slot = (int) (tail & mask);
+        entries[slot] = entry;
+        sessions[slot] = entry.session;
+        instructions[slot] = (short) ins;
+        if (filtered != null && (sessionFilter == ANY || sessionFilter == entry.session) && (insFilter == ANY || insFilter == ins)) {
+            addFiltered(tail);
+        }
+        tail++;
+    }
+
+    private void addFiltered(long id) {
+        if (filteredCount == filtered.length) {
+            filtered = Arrays.copyOf(filtered, filteredCount * 2);
+        }
+        filtered[filteredCount++] = id;
+    }
+
+    /**
+     * This method removes the rows of the dropped entries from the filtered rows.
+     */
+    private void dropFiltered() {
+        int first = 0;
+        while (first < filteredCount && filtered[first] < head) {
+            first++;
+        }
+        if (first > 0) {
+            System.arraycopy(filtered, first, filtered, 0, filteredCount - first);
+            filteredCount -= first;
+        }
+    }
+
+    /**
+     * This method finds the first entry of a communication, or of the next one if it has no entry.
+     */
+    private long findFirst(int session) {
+        long low = head;
+        long high = tail;
+        while (low < high) {
+            long middle = (low + high) >>> 1;
+            if (sessions[(int) (middle & mask)] < session) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        return low;
+    }
+}
@@ -0,0 +1,231 @@
+package com.okanatas.nfccardemulator;
+
+import android.util.Log;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * This class was created to write the log messages into a compressed file that can be shared, instead of building them into a String.
+ * The entries are read from the log store one by one and written as soon as they are formatted,
+ * so the memory used does not depend on the number of entries. The text is the same as the one of the log messages:
+ * all the messages first, then the communication logs. The entries can be limited to a time range and to a communication.
+ * The store may go on receiving entries during the export, only the entries present when it starts are written,
+ * and the ones replaced in the meantime are skipped.
+ */
+final class LogExporter {
+
+    /** Any communication. */
+    static final int ANY_SESSION = -1;
+    /** Start of the names of the exported files, the previous exports are found by it. */
+    static final String FILE_NAME_PREFIX = "hce_logs_";
+    private static final String TAG = "LogExporter";
+    private static final int WRITE_BUFFER_SIZE = 32 * 1024;
+
+    /** Writes the exports one after the other, off the main thread and apart from the loading of the files. */
+    private static final ExecutorService exportThread = new ThreadPoolExecutor(1, 1, 0L, TimeUnit.MILLISECONDS,
+            new LinkedBlockingQueue<>(), runnable -> {
+                Thread thread = new Thread(runnable, "LogExporter");
+                thread.setDaemon(true);
+                return thread;
+            });
+
+    /**
+     * The receiver of the result of the log messages exported off the main thread, it is called on the export thread.
+     */
+    interface Listener {
+        /**
+         * @param target gzip file holding the log messages.
+         * @param lineCount number of lines written.
+         */
+        void onExportFinished(File target, long lineCount);
+
+        /**
+         * @param target gzip file that was not written.
+         * @param e reason why the log messages could not be exported.
+         */
+        void onExportFailed(File target, IOException e);
+    }
+
+    private final String allTitle;
+    private final String communicationTitle;
+    private final String noCommunicationText;
+    private long fromMillis = Long.MIN_VALUE;
+    private long toMillis = Long.MAX_VALUE;
+    private int session = ANY_SESSION;
+
+    /**
+     * This constructor creates an exporter of all the entries.
+     * @param allTitle title of all the messages.
+     * @param communicationTitle title of the communication logs.
+     * @param noCommunicationText text written when there is no communication log.
+     */
+    LogExporter(String allTitle, String communicationTitle, String noCommunicationText) {
+        this.allTitle = allTitle;
+        this.communicationTitle = communicationTitle;
+        this.noCommunicationText = noCommunicationText;
+    }
+
+    /**
+     * This method keeps only the entries added in a time range.
+     * @param fromMillis time of the first entry, in milliseconds since the epoch.
+     * @param toMillis end of the range, excluded, in milliseconds since the epoch.
+     * @return this exporter.
+     */
+    LogExporter setTimeRange(long fromMillis, long toMillis) {
+        this.fromMillis = fromMillis;
+        this.toMillis = toMillis;
+        return this;
+    }
+
+    /**
+     * This method keeps only the entries added during a communication with the terminal.
+     * @param session number of the communication, or ANY_SESSION.
+     * @return this exporter.
+     */
+    LogExporter setSession(int session) {
+        this.session = session;
+        return this;
+    }
+
+    /**
+     * This method writes the entries into a gzip file without blocking the calling thread.
+     * The previous exports of the directory are deleted first, only the last export is kept.
+     * @param store store of the log messages.
+     * @param fromSequence sequence number of the first entry, the entries before it were cleared.
+     * @param target gzip file, its name starts with FILE_NAME_PREFIX.
+     * @param listener receiver of the result.
+     */
+    void exportInBackground(final LogStore store, final long fromSequence, final File target, final Listener listener) {
+        exportThread.execute(() -> {
+            try {
+                File directory = target.getParentFile();
+                if (directory != null) {
+                    if (!directory.isDirectory() && !directory.mkdirs()) {
+                        throw new IOException("Directory not created: " + directory);
+                    }
+                    deletePreviousExports(directory);
+                }
+                long lineCount = export(store, fromSequence, target);
+                Log.d(TAG, "Log messages exported: " + lineCount + " lines, " + target.length() + " bytes");
+                listener.onExportFinished(target, lineCount);
+            } catch (IOException e) {
+                Log.e(TAG, "Log messages not exported into " + target, e);
+                listener.onExportFailed(target, e);
+            }
+        });
+    }
+
+    /**
+     * This method deletes the files of the previous exports, the other files of the directory are kept.
+     * @param directory directory of the exports.
+     * @return number of files deleted.
+     */
+    static int deletePreviousExports(File directory) {
+        File[] previousExports = directory.listFiles((dir, name) -> name.startsWith(FILE_NAME_PREFIX));
+        int deletedCount = 0;
+        if (previousExports != null) {
+            for (File file : previousExports) {
+                if (file.delete()) {
+                    deletedCount++;
+                } else {
+                    Log.e(TAG, "Previous export not deleted: " + file);
+                }
+            }
+        }
+        return deletedCount;
+    }
+
+    /**
+     * This method writes the entries into a gzip file.
+     * @param store store of the log messages.
+     * @param fromSequence sequence number of the first entry, the entries before it were cleared.
+     * @param target gzip file, it is replaced if it exists.
+     * @return number of lines written, an entry of the communication logs is written in both parts.
+     * @throws IOException if the file cannot be written.
+     */
+    long export(LogStore store, long fromSequence, File target) throws IOException {
+        try (Writer writer = new BufferedWriter(new OutputStreamWriter(
+                new GZIPOutputStream(new FileOutputStream(target), WRITE_BUFFER_SIZE), StandardCharsets.UTF_8), WRITE_BUFFER_SIZE)) {
+            return write(store, fromSequence, writer);
+        }
+    }
+
+    /**
+     * This method writes the entries as text, the writer is not closed.
+     * @param store store of the log messages.
+     * @param fromSequence sequence number of the first entry, the entries before it were cleared.
+     * @param writer destination of the text.
+     * @return number of lines written, an entry of the communication logs is written in both parts.
+     * @throws IOException if the text cannot be written.
+     */
+    long write(LogStore store, long fromSequence, Writer writer) throws IOException {
+        long end = store.getNextSequence();
+        long start = Math.max(fromSequence, end - store.getCapacity());
+        LineBuffer line = new LineBuffer();
+        long count = 0;
+
+        writer.write(allTitle);
+        writer.write("\n\n");
+        for (long sequence = start; sequence < end; sequence++) {
+            LogStore.Entry entry = store.getEntry(sequence);
+            if (entry != null && entry.kind != LogStore.KIND_FILE_NAME && accepts(entry)) {
+                count += writeEntry(entry, line, writer);
+            }
+        }
+
+        writer.write("\n");
+        writer.write(communicationTitle);
+        writer.write("\n\n");
+        long communicationCount = 0;
+        for (long sequence = start; sequence < end; sequence++) {
+            LogStore.Entry entry = store.getEntry(sequence);
+            if (entry != null && entry.isCommunication() && accepts(entry)) {
+                communicationCount += writeEntry(entry, line, writer);
+            }
+        }
+        if (communicationCount == 0) {
+            writer.write(noCommunicationText);
+        }
+        writer.flush();
+        return count + communicationCount;
+    }
+
+    private boolean accepts(LogStore.Entry entry) {
+        return entry.timestamp >= fromMillis && entry.timestamp < toMillis && (session == ANY_SESSION || entry.session == session);
+    }
+
+    /**
+     * This method formats an entry into the reused line and writes it, the line is copied into a reused array
+     * instead of being turned into a String.
+     */
+    private static int writeEntry(LogStore.Entry entry, LineBuffer line, Writer writer) throws IOException {
+        line.text.setLength(0);
+        entry.appendTo(line.text);
+        int length = line.text.length();
+        if (line.chars.length < length) {
+            line.chars = new char[Math.max(length, line.chars.length * 2)];
+        }
+        line.text.getChars(0, length, line.chars, 0);
+        writer.write(line.chars, 0, length);
+        return 1;
+    }
+
+    /**
+     * The line being written, reused for each entry.
+     */
+    private static final class LineBuffer {
+        final StringBuilder text = new StringBuilder(256);
+        char[] chars = new char[256];
+    }
+}
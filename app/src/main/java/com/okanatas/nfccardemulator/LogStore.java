@@ -0,0 +1,230 @@
+package com.okanatas.nfccardemulator;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * This class was created to keep the last log messages in a fixed amount of memory.
+ * The messages are kept as entries in a ring: once the ring is full, each new entry replaces the oldest one.
+ * An entry holds the time, the communication, the kind, the tag and the message or the APDU bytes, nothing is formatted
+ * when it is added, the text is built only when a view or an export asks for it.
+ * Entries are added from any thread without locking: each entry takes the next sequence number, which gives its place in the ring.
+ */
+final class LogStore {
+
+    /** A message of the application, shown in all the logs. */
+    static final int KIND_MESSAGE = 0;
+    /** A message about the communication with the terminal, also shown in the communication logs. */
+    static final int KIND_COMMUNICATION = 1;
+    /** A command APDU received from the terminal. */
+    static final int KIND_COMMAND = 2;
+    /** A response APDU sent to the terminal. */
+    static final int KIND_RESPONSE = 3;
+    /** The file in use when a communication starts, shown in the communication logs only. */
+    static final int KIND_FILE_NAME = 4;
+
+    private final AtomicReferenceArray<Entry> entries;
+    private final int mask;
+    /** Sequence number of the next entry, also the number of entries added so far. */
+    private final AtomicLong nextSequence = new AtomicLong();
+    /** Number of the current communication with the terminal, 0 before the first one. */
+    private volatile int session = 0;
+
+    /**
+     * This constructor creates an empty store.
+     * @param capacity number of entries kept, rounded up to a power of two.
+     */
+    LogStore(int capacity) {
+        if (capacity <= 0 || capacity > (1 << 30)) {
+            throw new IllegalArgumentException("Invalid capacity: " + capacity);
+        }
+        int size = Integer.highestOneBit(capacity);
+        if (size < capacity) {
+            size <<= 1;
+        }
+        entries = new AtomicReferenceArray<>(size);
+        mask = size - 1;
+    }
+
+    /**
+     * This method adds a message.
+     * @param kind KIND_MESSAGE, KIND_COMMUNICATION or KIND_FILE_NAME, or KIND_COMMAND for a text in place of a missing command APDU.
+     * @param tag tag of the message.
+     * @param message text of the message.
+     * @return sequence number of the entry.
+     */
+    long append(int kind, String tag, String message) {
+        return publish(new Entry(nextSequence.getAndIncrement(), System.currentTimeMillis(), session, kind, tag, message, null));
+    }
+
+    /**
+     * This method adds an APDU, its bytes are formatted only when the entry is read as text.
+     * @param kind KIND_COMMAND or KIND_RESPONSE.
+     * @param tag tag of the APDU.
+     * @param apdu bytes of the APDU, the array is kept and must not be modified afterwards.
+     * @return sequence number of the entry.
+     */
+    long appendApdu(int kind, String tag, byte[] apdu) {
+        return publish(new Entry(nextSequence.getAndIncrement(), System.currentTimeMillis(), session, kind, tag, null, apdu));
+    }
+
+    /**
+     * This method starts a new communication with the terminal, the entries added from now on belong to it.
+     * @return number of the communication.
+     */
+    synchronized int startSession() {
+        return ++session;
+    }
+
+    int getSession() {
+        return session;
+    }
+
+    /**
+     * This method gets the sequence number the next entry will take.
+     * @return sequence number of the next entry.
+     */
+    long getNextSequence() {
+        return nextSequence.get();
+    }
+
+    int getCapacity() {
+        return mask + 1;
+    }
+
+    /**
+     * This method gets the number of entries that were replaced by newer ones.
+     * @return number of entries no longer kept.
+     */
+    long getOverwrittenCount() {
+        return Math.max(0, nextSequence.get() - getCapacity());
+    }
+
+    /**
+     * This method gets the entries kept from the given sequence number, in the order they were added.
+     * An entry whose thread has taken its sequence number but has not stored it yet is not returned.
+     * @param fromSequence sequence number of the first entry wanted.
+     * @return the entries, the oldest first.
+     */
+    List<Entry> getEntries(long fromSequence) {
+        long end = nextSequence.get();
+        long start = Math.max(fromSequence, end - getCapacity());
+        List<Entry> result = new ArrayList<>((int) Math.max(0, end - start));
+        for (long sequence = start; sequence < end; sequence++) {
+            Entry entry = getEntry(sequence);
+            if (entry != null) {
+                result.add(entry);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * This method gets an entry by its sequence number, without building a list, so that the entries can be read one by one.
+     * @param sequence sequence number of the entry.
+     * @return the entry, or null if it was replaced or is not stored yet.
+     */
+    Entry getEntry(long sequence) {
+        Entry entry = entries.get((int) (sequence & mask));
+        return (entry != null && entry.sequence == sequence) ? entry : null;
+    }
+
+    /**
+     * This method checks if the thread of an entry has taken its sequence number but has not stored it yet.
+     * Such an entry is returned by getEntry later, unless a newer entry replaces it first.
+     * @param sequence sequence number of the entry.
+     * @return true if the entry is not stored yet, false if it is stored, replaced or not taken.
+     */
+    boolean isPending(long sequence) {
+        if (sequence >= nextSequence.get()) {
+            return false;
+        }
+        Entry entry = entries.get((int) (sequence & mask));
+        return entry == null || entry.sequence < sequence;
+    }
+
+    /**
+     * This method stores an entry at its place in the ring, unless a newer entry is already there.
+     * Two threads may take sequence numbers one ring apart and store them in the reverse order, the newer one is kept.
+     */
+    private long publish(Entry entry) {
+        int slot = (int) (entry.sequence & mask);
+        Entry current;
+        do {
+            current = entries.get(slot);
+            if (current != null && current.sequence > entry.sequence) {
+                return entry.sequence;
+            }
+        } while (!entries.compareAndSet(slot, current, entry));
+        return entry.sequence;
+    }
+
+    /**
+     * A log message or an APDU, it is never modified once it is created.
+     */
+    static final class Entry {
+        final long sequence;
+        /** Time the entry was added, in milliseconds since the epoch. */
+        final long timestamp;
+        /** Number of the communication with the terminal at the time the entry was added. */
+        final int session;
+        final int kind;
+        final String tag;
+        /** Text of a message, or of a missing APDU, null for an APDU. */
+        final String message;
+        /** Bytes of an APDU, null for a message or when no APDU was received. */
+        final byte[] apdu;
+
+        Entry(long sequence, long timestamp, int session, int kind, String tag, String message, byte[] apdu) {
+            this.sequence = sequence;
+            this.timestamp = timestamp;
+            this.session = session;
+            this.kind = kind;
+            this.tag = tag;
+            this.message = message;
+            this.apdu = apdu;
+        }
+
+        boolean isApdu() {
+            return kind == KIND_COMMAND || kind == KIND_RESPONSE;
+        }
+
+        /**
+         * This method checks whether the entry belongs to the communication logs.
+         * @return true for the messages about the communication, the APDUs and the file names.
+         */
+        boolean isCommunication() {
+            return kind != KIND_MESSAGE;
+        }
+
+        /**
+         * This method gets the text of the entry, the APDU bytes are formatted in hexadecimal.
+         * @return text of the message or of the APDU.
+         */
+        String getText() {
+            if (apdu != null) {
+                return Utils.toHexString(apdu);
+            }
+            return (message != null) ? message : "";
+        }
+
+        /**
+         * This method writes the entry as a line of the logs.
+         * @param text destination of the line.
+         * @return the destination.
+         */
+        StringBuilder appendTo(StringBuilder text) {
+            if (kind == KIND_FILE_NAME) {
+                return text.append('\n').append(tag).append(' ').append(getText()).append('\n');
+            }
+            return text.append(tag).append(" : ").append(getText()).append('\n');
+        }
+
+        @Override
+        public String toString() {
+            return appendTo(new StringBuilder()).toString();
+        }
+    }
+}
@@ -1,6 +1,7 @@
 package com.okanatas.nfccardemulator;
 
 import android.annotation.SuppressLint;
+import android.content.ClipData;
 import android.content.Intent;
 import android.net.Uri;
 import android.os.Bundle;
@@ -13,6 +14,7 @@ import androidx.activity.result.ActivityResultLauncher;
 import androidx.activity.result.contract.ActivityResultContracts;
 import androidx.appcompat.app.AlertDialog;
 import androidx.appcompat.app.AppCompatActivity;
+import androidx.core.content.FileProvider;
 import androidx.navigation.NavController;
 import androidx.navigation.Navigation;
 import androidx.navigation.ui.AppBarConfiguration;
@@ -20,11 +22,11 @@ import androidx.navigation.ui.NavigationUI;
 
 import com.okanatas.nfccardemulator.databinding.ActivityMainBinding;
 
-import java.io.BufferedReader;
-import java.io.FileInputStream;
-import java.io.FileOutputStream;
+import java.io.File;
 import java.io.IOException;
-import java.io.InputStreamReader;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.Locale;
 
 /**
  * This class was created to control transitions between fragments
@@ -37,7 +39,12 @@ public class MainActivity extends AppCompatActivity {
 
     private AppBarConfiguration appBarConfiguration;
     AlertDialog.Builder dialogBuilder;
-    public static String FILE_NAME;
+    /** Directory of the cache holding the exported log messages, it is shared through the file provider, see file_paths.xml. */
+    private static final String LOG_EXPORT_DIRECTORY = "logs";
+    private static final long ONE_HOUR_MILLIS = 60 * 60 * 1000L;
+    private static final int EXPORT_ALL_LOGS = 0;
+    private static final int EXPORT_LAST_HOUR = 1;
+    private static final int EXPORT_LAST_COMMUNICATION = 2;
 
     /**
      * When the application is still working, it starts a different activity and the application is informed about the result.
@@ -68,7 +75,7 @@ public class MainActivity extends AppCompatActivity {
         appBarConfiguration = new AppBarConfiguration.Builder(navController.getGraph()).build();
         NavigationUI.setupActionBarWithNavController(this, navController, appBarConfiguration);
 
-        binding.fab.setOnClickListener(v -> startForEmailActivity.launch(getEmailIntent()));
+        binding.fab.setOnClickListener(v -> showDialogForLogExport(v));
 
         // alert dialog for log messages action
         dialogBuilder = new AlertDialog.Builder(this);
@@ -149,84 +156,75 @@ public class MainActivity extends AppCompatActivity {
     }
 
     /**
-     * This method creates an email intent.
-     * @return email intent.
+     * This method creates a dialog box to select the log messages to be shared.
+     * @param view view used to show the result.
      */
-    @SuppressLint("IntentReset")
-    private Intent getEmailIntent(){
-        Utils.showLogDMessage(InformationTransferManager.getStringResource(R.string.share_message_tag),
-                InformationTransferManager.getStringResource(R.string.share_message_text_1), false);
-        String[] TO = {""};
-        String[] CC = {""};
-        Intent emailIntent = new Intent(Intent.ACTION_SEND);
-
-        emailIntent.setData(Uri.parse("mailto:"));
-        emailIntent.setType("text/plain");
-        emailIntent.putExtra(Intent.EXTRA_EMAIL, TO);
-        emailIntent.putExtra(Intent.EXTRA_CC, CC);
-        emailIntent.putExtra(Intent.EXTRA_SUBJECT, InformationTransferManager.getStringResource(R.string.hce_email_title));
-        emailIntent.putExtra(Intent.EXTRA_TEXT, InformationTransferManager.getTotalLogMessages());
-
-        return emailIntent;
+    private void showDialogForLogExport(View view){
+        String[] choices = {
+                InformationTransferManager.getStringResource(R.string.export_all_logs),
+                InformationTransferManager.getStringResource(R.string.export_last_hour),
+                InformationTransferManager.getStringResource(R.string.export_last_communication)};
+        new AlertDialog.Builder(this)
+                .setTitle(InformationTransferManager.getStringResource(R.string.export_dialog_title))
+                .setItems(choices, (dialog, which) -> exportLogMessages(view, which))
+                .show();
     }
 
     /**
-     * This method writes the given text into the target file.
-     * @param targetFileName target file name.
-     * @param text given text.
+     * This method writes the selected log messages into a gzip file in the background, the email intent is started once it is written.
+     * @param view view used to show the result.
+     * @param choice EXPORT_ALL_LOGS, EXPORT_LAST_HOUR or EXPORT_LAST_COMMUNICATION.
      */
-    public void writeToFile(String targetFileName ,String text){
-
-        FileOutputStream fos = null;
+    private void exportLogMessages(View view, int choice){
+        Utils.showLogDMessage(InformationTransferManager.getStringResource(R.string.share_message_tag),
+                InformationTransferManager.getStringResource(R.string.share_message_text_1), false);
+        LogExporter exporter = InformationTransferManager.newLogExporter();
+        if (choice == EXPORT_LAST_HOUR) {
+            exporter.setTimeRange(System.currentTimeMillis() - ONE_HOUR_MILLIS, Long.MAX_VALUE);
+        } else if (choice == EXPORT_LAST_COMMUNICATION) {
+            exporter.setSession(InformationTransferManager.getLogStore().getSession());
+        }
+        String fileName = LogExporter.FILE_NAME_PREFIX + new SimpleDateFormat("yyyyMMdd_HHmmss", Locale.US).format(new Date()) + ".txt.gz";
+        File target = new File(new File(getCacheDir(), LOG_EXPORT_DIRECTORY), fileName);
+
+        exporter.exportInBackground(InformationTransferManager.getLogStore(), InformationTransferManager.getLogMessagesStart(),
+                target, new LogExporter.Listener() {
+            @Override
+            public void onExportFinished(File target, long lineCount) {
+                view.post(() -> startForEmailActivity.launch(getEmailIntent(target)));
+            }
 
-        try {
-            fos = openFileOutput(targetFileName, MODE_PRIVATE);
-            fos.write(text.getBytes());
-        } catch (IOException e) {
-            e.printStackTrace();
-        } finally {
-            if(fos != null){
-                try {
-                    fos.close();
-                } catch (IOException e) {
-                    e.printStackTrace();
-                }
+            @Override
+            public void onExportFailed(File target, IOException e) {
+                view.post(() -> Utils.showSnackBarShort(view, InformationTransferManager.getStringResource(R.string.export_failed)));
             }
-        }
+        });
     }
 
     /**
-     * This method reads the text in the target file and returns it in String format.
-     * @param v View.
-     * @return the text in the target file in String format.
+     * This method creates an email intent, the log messages are attached to it.
+     * @param attachment gzip file holding the log messages.
+     * @return email intent.
      */
-    public String readFromFile(View v){
-        FileInputStream fis = null;
-        StringBuilder sb = new StringBuilder();
-
-        try {
-            fis = openFileInput(FILE_NAME);
-            InputStreamReader isr = new InputStreamReader(fis);
-            BufferedReader br = new BufferedReader(isr);
-
-            String text;
+    @SuppressLint("IntentReset")
+    private Intent getEmailIntent(File attachment){
+        String[] TO = {""};
+        String[] CC = {""};
+        Intent emailIntent = new Intent(Intent.ACTION_SEND);
+        Uri attachmentUri = FileProvider.getUriForFile(this, getPackageName() + ".fileprovider", attachment);
 
-            while ((text = br.readLine()) != null){
-                sb.append(text).append("\n");
-            }
+        emailIntent.setData(Uri.parse("mailto:"));
+        emailIntent.setType("application/gzip");
+        emailIntent.putExtra(Intent.EXTRA_EMAIL, TO);
+        emailIntent.putExtra(Intent.EXTRA_CC, CC);
+        emailIntent.putExtra(Intent.EXTRA_SUBJECT, InformationTransferManager.getStringResource(R.string.hce_email_title));
+        emailIntent.putExtra(Intent.EXTRA_TEXT, InformationTransferManager.getStringResource(R.string.hce_email_text));
+        emailIntent.putExtra(Intent.EXTRA_STREAM, attachmentUri);
+        // the permission is given through the clip data as well, since the extras do not carry it on every version
+        emailIntent.setClipData(ClipData.newRawUri(attachment.getName(), attachmentUri));
+        emailIntent.addFlags(Intent.FLAG_GRANT_READ_URI_PERMISSION);
 
-        } catch (IOException e) {
-            e.printStackTrace();
-        } finally {
-            if (fis != null){
-                try {
-                    fis.close();
-                } catch (IOException e) {
-                    e.printStackTrace();
-                }
-            }
-        }
-        return sb.toString();
+        return emailIntent;
     }
 
     /**
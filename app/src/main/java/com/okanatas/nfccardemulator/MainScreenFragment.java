@@ -3,16 +3,17 @@ package com.okanatas.nfccardemulator;
 import android.annotation.SuppressLint;
 import android.content.res.Resources;
 import android.os.Bundle;
+import android.text.Editable;
+import android.text.TextWatcher;
 import android.view.LayoutInflater;
 import android.view.View;
 import android.view.ViewGroup;
-import android.widget.LinearLayout;
-import android.widget.TextView;
 
 import androidx.annotation.NonNull;
 import androidx.core.content.ContextCompat;
 import androidx.fragment.app.Fragment;
 import androidx.navigation.fragment.NavHostFragment;
+import androidx.recyclerview.widget.LinearLayoutManager;
 
 import com.okanatas.nfccardemulator.databinding.FragmentMainScreenBinding;
 
@@ -26,7 +27,9 @@ public class MainScreenFragment extends Fragment {
 
     private FragmentMainScreenBinding binding;
     public static boolean isServiceActivated = false;
-    LinearLayout communicationLogsLinearLayout;
+    /** Number of APDUs shown in the communication logs, the oldest ones are dropped beyond it. */
+    private static final int SHOWN_LOG_CAPACITY = 8192;
+    private CommunicationLogAdapter communicationLogAdapter;
 
     @SuppressLint("StaticFieldLeak")
     private static MainScreenFragment instance = null;
@@ -59,7 +62,7 @@ public class MainScreenFragment extends Fragment {
 
         binding.buttonManageFile.setOnClickListener(v -> navigateToManageFileScreen());
 
-        communicationLogsLinearLayout = view.findViewById(R.id.comm_text_layout);
+        setCommunicationLogs();
 
         reorganizeStartStopServiceButton();
     }
@@ -70,6 +73,9 @@ public class MainScreenFragment extends Fragment {
     @Override
     public void onDestroyView() {
         super.onDestroyView();
+        InformationTransferManager.setLogListener(null);
+        communicationLogAdapter.stop();
+        communicationLogAdapter = null;
         binding = null;
     }
 
@@ -124,14 +130,52 @@ public class MainScreenFragment extends Fragment {
 
     /**
      * This method was created to display the communication messages (between terminal and emulated card) on the screen.
+     * The list follows the log messages as they are added, it is updated at most once per frame.
      */
-    public void showCommunicationMessages(){
-        communicationLogsLinearLayout.removeAllViews();
-        TextView textView = new TextView(getContext());
-        textView.setText(InformationTransferManager.getCardCommunicationMessages());
-        textView.setTextSize(14);
-        communicationLogsLinearLayout.addView(textView);
-        InformationTransferManager.cardCommunicationMessages.setLength(0);
+    private void setCommunicationLogs(){
+        communicationLogAdapter = new CommunicationLogAdapter(InformationTransferManager.getLogStore(), SHOWN_LOG_CAPACITY,
+                (int) InformationTransferManager.getDimenResource(R.dimen.log_response_spacing));
+        binding.communicationLogs.setLayoutManager(new LinearLayoutManager(requireContext()));
+        binding.communicationLogs.setAdapter(communicationLogAdapter);
+        InformationTransferManager.setLogListener(communicationLogAdapter::requestUpdate);
+        communicationLogAdapter.requestUpdate();
+
+        binding.logFilterBox.addTextChangedListener(new TextWatcher() {
+            @Override
+            public void beforeTextChanged(CharSequence s, int start, int count, int after) { }
+
+            @Override
+            public void onTextChanged(CharSequence s, int start, int before, int count) { }
+
+            @Override
+            public void afterTextChanged(Editable s) {
+                setCommunicationLogsFilter(s.toString());
+            }
+        });
+    }
+
+    /**
+     * This method shows only the communication logs of an INS byte, such as B2, or of a communication, such as #3.
+     * Both can be given, separated by a space. The filter is not changed while the text is not valid.
+     * @param filter text of the filter, empty to show all the logs.
+     */
+    private void setCommunicationLogsFilter(String filter){
+        int session = LogEntryIndex.ANY;
+        int ins = LogEntryIndex.ANY;
+        try {
+            for (String part : filter.trim().split("\\s+")) {
+                if (part.startsWith("#") && part.length() > 1) {
+                    session = Integer.parseInt(part.substring(1));
+                } else if (part.length() == 2) {
+                    ins = Integer.parseInt(part, 16);
+                } else if (!part.isEmpty()) {
+                    return;
+                }
+            }
+        } catch (NumberFormatException e) {
+            return;
+        }
+        communicationLogAdapter.setFilter(session, ins);
     }
 
     /**
@@ -5,6 +5,7 @@ import android.database.Cursor;
 import android.net.Uri;
 import android.os.Bundle;
 import android.provider.MediaStore;
+import android.provider.OpenableColumns;
 import android.view.LayoutInflater;
 import android.view.View;
 import android.view.ViewGroup;
@@ -21,8 +22,10 @@ import com.okanatas.nfccardemulator.databinding.FragmentManageFileScreenBinding;
 
 import java.io.File;
 import java.io.FileNotFoundException;
+import java.io.IOException;
 import java.io.InputStream;
 import java.util.ArrayList;
+import java.util.Collections;
 
 /**
  * This class was created for the manage file screen.
@@ -32,8 +35,14 @@ import java.util.ArrayList;
  */
 public class ManageFileScreenFragment extends Fragment {
 
+    /** Directory of the trace segments within the application files, they are not listed with the txt files. */
+    private static final String TRACE_DIRECTORY = "traces";
+
     private FragmentManageFileScreenBinding binding;
-    private static String streamContent = "";
+    /** The file chosen to be imported, null if there is none. */
+    private static Uri chosenFileUri = null;
+    /** Size of the chosen file in bytes, -1 if it is not known. */
+    private static long chosenFileSize = -1;
     private static String userEnteredFileName = "";
 
     ArrayList<String> fileSpinnerData = new ArrayList<>();
@@ -45,18 +54,22 @@ public class ManageFileScreenFragment extends Fragment {
     ActivityResultLauncher<String> getChosenFileContent = registerForActivityResult(new ActivityResultContracts.GetContent(),
             uri -> {
                 if(uri != null){
-                    try {
-                        // get content of the selected file
-                        InputStream stream = requireContext().getContentResolver().openInputStream(uri);
-                        // convert content to String format
-                        streamContent = Utils.inputStreamToString(stream);
-                        binding.userInputFilename.setText(getFileNameWithoutExtension(uri));
-                        visibilityOfRenameFile();
-                        reorganizeImportButton();
-
-                    } catch (FileNotFoundException e) {
-                        e.printStackTrace();
-                    }
+                    // the content is read only when the file is imported
+                    chosenFileUri = uri;
+                    chosenFileSize = getFileSize(uri);
+                    binding.userInputFilename.setText(getFileNameWithoutExtension(uri));
+                    visibilityOfRenameFile();
+                    reorganizeImportButton();
+                }
+            });
+
+    /**
+     * This is for to start archive chooser activity, the files of the chosen archive are imported right away.
+     */
+    ActivityResultLauncher<String> getChosenArchive = registerForActivityResult(new ActivityResultContracts.GetContent(),
+            uri -> {
+                if(uri != null){
+                    batchImportManager(uri);
                 }
             });
 
@@ -81,10 +94,20 @@ public class ManageFileScreenFragment extends Fragment {
 
         binding.buttonBrowse.setOnClickListener(v -> startBrowse());
         binding.buttonImport.setOnClickListener(this::fileImportManager);
+        binding.buttonBatchImport.setOnClickListener(v -> getChosenArchive.launch("application/zip"));
         binding.buttonSetFile.setOnClickListener(this::useSelectedFile);
         binding.buttonDeleteFile.setOnClickListener(this::deleteSelectedFile);
+        binding.buttonCompactFile.setOnClickListener(this::compactSelectedFile);
         binding.networkSwitch.setChecked(ResponseHandler.isUsingNetwork());
         binding.networkSwitch.setOnCheckedChangeListener((buttonView, isChecked) -> onNetworkSwitchToggled(isChecked));
+        binding.captureSwitch.setEnabled(ResponseHandler.isUsingNetwork());
+        binding.captureSwitch.setChecked(ResponseHandler.isCapturing());
+        binding.captureSwitch.setOnCheckedChangeListener((buttonView, isChecked) -> onCaptureSwitchToggled(buttonView, isChecked));
+        binding.replaySwitch.setChecked(ResponseHandler.isReplayingSequence());
+        binding.replaySwitch.setOnCheckedChangeListener((buttonView, isChecked) -> ResponseHandler.setReplayingSequence(isChecked));
+        setLogLevelSpinner();
+        binding.traceSwitch.setChecked(ResponseHandler.isTracing());
+        binding.traceSwitch.setOnCheckedChangeListener((buttonView, isChecked) -> onTraceSwitchToggled(buttonView, isChecked));
 
         setFilesSpinner();
 
@@ -118,42 +141,258 @@ public class ManageFileScreenFragment extends Fragment {
             ResponseHandler.setNetworkDelay(Float.parseFloat(binding.networkDelayBox.getText().toString()));
             binding.buttonBrowse.setEnabled(false);
             binding.buttonImport.setEnabled(false);
+            binding.buttonBatchImport.setEnabled(false);
             binding.buttonSetFile.setEnabled(false);
             binding.buttonDeleteFile.setEnabled(false);
+            binding.buttonCompactFile.setEnabled(false);
             binding.filesSpinner.setEnabled(false);
             binding.textView3.setEnabled(false);
+            binding.captureSwitch.setEnabled(true);
         } else {
+            // the learn mode records the network exchanges only
+            binding.captureSwitch.setChecked(false);
+            binding.captureSwitch.setEnabled(false);
             binding.buttonBrowse.setEnabled(true);
             binding.buttonImport.setEnabled(true);
+            binding.buttonBatchImport.setEnabled(true);
             binding.buttonSetFile.setEnabled(true);
             binding.buttonDeleteFile.setEnabled(true);
+            binding.buttonCompactFile.setEnabled(true);
             binding.filesSpinner.setEnabled(true);
             binding.textView3.setEnabled(true);
         }
     }
 
+    /**
+     * This method starts or stops recording the network exchanges into a new file.
+     * The file is listed on the spinner right away, and can be used like an imported file.
+     * @param view View.
+     * @param isChecked true to start recording.
+     */
+    private void onCaptureSwitchToggled(View view, boolean isChecked) {
+        if(isChecked){
+            try {
+                File captureFile = ResponseHandler.startCapture(new File(InformationTransferManager.getAppFilesDirectory()));
+                Utils.showLogDMessage(InformationTransferManager.getStringResource(R.string.capture_tag), InformationTransferManager.getStringResource(R.string.capture_started)
+                        + " \"" + captureFile.getName() + "\".", false);
+                setFilesSpinner();
+            } catch (IOException e) {
+                Utils.showSnackBarLong(view, InformationTransferManager.getStringResource(R.string.capture_failed));
+                binding.captureSwitch.setChecked(false);
+            }
+        } else {
+            ProfileRecorder recorder = ResponseHandler.stopCapture();
+            if (recorder != null) {
+                // closing waits for the file to be written, it is done off the main thread
+                FileHandler.closeCaptureInBackground(recorder, file -> view.post(() -> {
+                    Utils.showLogDMessage(InformationTransferManager.getStringResource(R.string.capture_tag), InformationTransferManager.getStringResource(R.string.capture_stopped), false);
+                    if(binding != null){
+                        setFilesSpinner();
+                    }
+                }));
+            }
+        }
+    }
+
+    /**
+     * This method starts or stops the trace recording.
+     * When it stops, the recorded APDUs are converted off the main thread to a txt file that can be selected like an imported file.
+     * @param view View.
+     * @param isChecked true to start the trace recording.
+     */
+    private void onTraceSwitchToggled(View view, boolean isChecked) {
+        String tag = InformationTransferManager.getStringResource(R.string.trace_tag);
+        if(isChecked){
+            try {
+                String traceName = ResponseHandler.startTrace(new File(InformationTransferManager.getAppFilesDirectory(), TRACE_DIRECTORY));
+                Utils.showLogDMessage(tag, InformationTransferManager.getStringResource(R.string.trace_started) + " \"" + traceName + "\".", false);
+            } catch (IOException e) {
+                Utils.showSnackBarLong(view, InformationTransferManager.getStringResource(R.string.trace_failed));
+                binding.traceSwitch.setChecked(false);
+            }
+        } else {
+            TraceRecorder recorder = ResponseHandler.stopTrace();
+            if (recorder == null) {
+                return;
+            }
+            File target = new File(InformationTransferManager.getAppFilesDirectory(), recorder.getBaseName() + ".txt");
+            Utils.showLogDMessage(tag, InformationTransferManager.getStringResource(R.string.trace_stopped) + " \"" + target.getName() + "\".", false);
+            // closing waits for the segments to be written, it is done off the main thread before the conversion
+            FileHandler.convertTraceInBackground(recorder, target, new FileHandler.TraceListener() {
+                @Override
+                public void onTraceConverted(File target, long pairCount) {
+                    view.post(() -> {
+                        if(binding != null){
+                            setFilesSpinner();
+                        }
+                    });
+                }
+
+                @Override
+                public void onTraceFailed(File target, IOException e) {
+                    view.post(() -> Utils.showSnackBarShort(view, InformationTransferManager.getStringResource(R.string.snack_bar_file_not_read)));
+                }
+            });
+        }
+    }
+
     /**
      * This method creates a copy of the selected file within the application files.
+     * The file is copied, checked and compiled off the main thread in a single pass, the progress bar follows the copy.
      * @param view View.
      */
     private void fileImportManager(View view) {
         userEnteredFileName = binding.userInputFilename.getText().toString().trim();
 
         if(validateImport(view)){
+            InputStream stream;
+            try {
+                stream = requireContext().getContentResolver().openInputStream(chosenFileUri);
+            } catch (FileNotFoundException e) {
+                e.printStackTrace();
+                Utils.showSnackBarShort(view, InformationTransferManager.getStringResource(R.string.snack_bar_file_not_read));
+                return;
+            }
+            if(stream == null){
+                Utils.showSnackBarShort(view, InformationTransferManager.getStringResource(R.string.snack_bar_file_not_read));
+                return;
+            }
+
             // create a new file in app files directory
-            File targetFile = new File(InformationTransferManager.getAppFilesDirectory() + "/" + userEnteredFileName + ".txt");
-            // write uri content into the newly created file
-            ((MainActivity) requireActivity()).writeToFile(targetFile.getName(), streamContent);
+            final File targetFile = new File(InformationTransferManager.getAppFilesDirectory() + "/" + userEnteredFileName + ".txt");
+            final String importedFileName = userEnteredFileName;
+            setImportButtonsEnabled(false);
+            binding.importProgress.setProgress(0);
+            binding.importProgress.setIndeterminate(chosenFileSize <= 0);
+            binding.importProgress.setVisibility(View.VISIBLE);
+
+            FileHandler.importProfileInBackground(stream, chosenFileSize, targetFile, new FileHandler.ImportListener() {
+                @Override
+                public void onImportProgress(long importedBytes, long totalBytes) {
+                    if(totalBytes > 0){
+                        final int percent = (int) Math.min(100, importedBytes * 100 / totalBytes);
+                        view.post(() -> {
+                            if(binding != null){
+                                binding.importProgress.setProgress(percent);
+                            }
+                        });
+                    }
+                }
+
+                @Override
+                public void onImportFinished(File target, int pairCount) {
+                    view.post(() -> onImportEnded(view, importedFileName, true));
+                }
+
+                @Override
+                public void onImportFailed(File target, IOException e) {
+                    e.printStackTrace();
+                    view.post(() -> onImportEnded(view, importedFileName, false));
+                }
+            });
+        }
+    }
+
+    /**
+     * This method shows the result of an import.
+     * @param view View.
+     * @param importedFileName name of the imported file, without extension.
+     * @param isImported true if the file is imported.
+     */
+    private void onImportEnded(View view, String importedFileName, boolean isImported){
+        if(binding == null){
+            // the screen was left meanwhile
+            return;
+        }
+        binding.importProgress.setVisibility(View.INVISIBLE);
+        setImportButtonsEnabled(true);
+        if(isImported){
             Utils.showLogDMessage(InformationTransferManager.getStringResource(R.string.import_tag), InformationTransferManager.getStringResource(R.string.import_text_1)
-                    + " \"" + userEnteredFileName + ".txt\".", false);
+                    + " \"" + importedFileName + ".txt\".", false);
             setFilesSpinner();
-            Utils.showSnackBarShort(view, userEnteredFileName + ".txt " + InformationTransferManager.getStringResource(R.string.import_text_2));
+            Utils.showSnackBarShort(view, importedFileName + ".txt " + InformationTransferManager.getStringResource(R.string.import_text_2));
             clearResources();
             visibilityOfRenameFile();
             reorganizeImportButton();
+        }else{
+            Utils.showSnackBarShort(view, InformationTransferManager.getStringResource(R.string.snack_bar_file_not_read));
+        }
+    }
+
+    /**
+     * This method imports all files of the chosen zip archive into the application files.
+     * The files are imported in parallel off the main thread, the progress bar follows the number of files done.
+     * @param uri the chosen archive.
+     */
+    private void batchImportManager(Uri uri) {
+        final View view = binding.getRoot();
+        InputStream stream;
+        try {
+            stream = requireContext().getContentResolver().openInputStream(uri);
+        } catch (FileNotFoundException e) {
+            e.printStackTrace();
+            stream = null;
+        }
+        if(stream == null){
+            Utils.showSnackBarShort(view, InformationTransferManager.getStringResource(R.string.batch_import_text_2));
+            return;
+        }
+
+        setImportButtonsEnabled(false);
+        binding.importProgress.setProgress(0);
+        binding.importProgress.setIndeterminate(false);
+        binding.importProgress.setVisibility(View.VISIBLE);
+
+        FileHandler.importArchiveInBackground(stream, requireContext().getCacheDir(), new FileHandler.BatchImportListener() {
+            @Override
+            public void onFileDone(BatchImporter.FileReport report, int doneCount, int totalCount) {
+                final int percent = doneCount * 100 / totalCount;
+                view.post(() -> {
+                    if(binding != null){
+                        binding.importProgress.setProgress(percent);
+                    }
+                });
+            }
+
+            @Override
+            public void onBatchFinished(BatchImporter.Report report) {
+                view.post(() -> onBatchImportEnded(view, report));
+            }
+
+            @Override
+            public void onBatchFailed(IOException e) {
+                view.post(() -> onBatchImportEnded(view, null));
+            }
+        });
+    }
+
+    /**
+     * This method shows the result of an archive import.
+     * @param view View.
+     * @param report report of the files, null if the archive could not be read.
+     */
+    private void onBatchImportEnded(View view, BatchImporter.Report report){
+        if(binding == null){
+            // the screen was left meanwhile
+            return;
+        }
+        binding.importProgress.setVisibility(View.INVISIBLE);
+        setImportButtonsEnabled(true);
+        if(report != null){
+            setFilesSpinner();
+            Utils.showSnackBarLong(view, report.getImportedCount() + " " + InformationTransferManager.getStringResource(R.string.batch_import_text_1)
+                    + " " + report.getFiles().size() + ".");
+        }else{
+            Utils.showSnackBarShort(view, InformationTransferManager.getStringResource(R.string.batch_import_text_2));
         }
     }
 
+    private void setImportButtonsEnabled(boolean isEnabled){
+        binding.buttonImport.setEnabled(isEnabled);
+        binding.buttonBrowse.setEnabled(isEnabled);
+        binding.buttonBatchImport.setEnabled(isEnabled);
+    }
+
     /**
      * This method validates to import action.
      * @param view View.
@@ -171,7 +410,7 @@ public class ManageFileScreenFragment extends Fragment {
             result = false;
         }
 
-        if (streamContent.equals("")){
+        if (chosenFileUri == null){
             Utils.showSnackBarLong(view, InformationTransferManager.getStringResource(R.string.not_imported_missing_source_file));
             result = false;
         }
@@ -184,7 +423,8 @@ public class ManageFileScreenFragment extends Fragment {
     private void clearResources(){
         // clear
         userEnteredFileName = "";
-        streamContent = "";
+        chosenFileUri = null;
+        chosenFileSize = -1;
         binding.userInputFilename.setText("");
     }
 
@@ -200,7 +440,7 @@ public class ManageFileScreenFragment extends Fragment {
      * This method gives the option to give a new name when a file is selected for import.
      */
     private void visibilityOfRenameFile(){
-        if(streamContent.equals("")){
+        if(chosenFileUri == null){
             binding.renameFileTitle.setVisibility(View.INVISIBLE);
             binding.userInputFilename.setVisibility(View.INVISIBLE);
         }else{
@@ -230,6 +470,26 @@ public class ManageFileScreenFragment extends Fragment {
         return parsedFileName[0];
     }
 
+    /**
+     * This method returns the size of the browsed file.
+     * @return the size in bytes, or -1 if it is not known.
+     */
+    private long getFileSize(Uri uri){
+        long size = -1;
+        String[] projection = {OpenableColumns.SIZE};
+        Cursor metaCursor = requireContext().getContentResolver().query(uri, projection, null, null, null);
+        if (metaCursor != null) {
+            try {
+                if (metaCursor.moveToFirst() && !metaCursor.isNull(0)) {
+                    size = metaCursor.getLong(0);
+                }
+            } finally {
+                metaCursor.close();
+            }
+        }
+        return size;
+    }
+
     /**
      * This method writes the existing filenames on the spinner.
      */
@@ -242,6 +502,27 @@ public class ManageFileScreenFragment extends Fragment {
         reorganizeFileSelectionButtons();
     }
 
+    /**
+     * This method lists the levels of the logging on the APDU path, the level selected is used right away.
+     * The names are in the order of the levels, so the position of a name is its level.
+     */
+    private void setLogLevelSpinner(){
+        ArrayAdapter<String> dataAdapter = new ArrayAdapter<>(getContext(), R.layout.spinner_item,
+                getResources().getStringArray(R.array.log_level_names));
+        dataAdapter.setDropDownViewResource(R.layout.spinner_item);
+        binding.logLevelSpinner.setAdapter(dataAdapter);
+        binding.logLevelSpinner.setSelection(ApduLogger.getLevel());
+        binding.logLevelSpinner.setOnItemSelectedListener(new AdapterView.OnItemSelectedListener() {
+            @Override
+            public void onItemSelected(AdapterView<?> parentView, View selectedItemView, int position, long id) {
+                ApduLogger.setLevel(position);
+            }
+
+            @Override
+            public void onNothingSelected(AdapterView<?> parentView) { }
+        });
+    }
+
     /**
      * This method writes the existing filenames to the ArrayList.
      */
@@ -273,28 +554,46 @@ public class ManageFileScreenFragment extends Fragment {
      */
     private void useSelectedFile(View view){
         if(!fileOnSpinner.equals("")){
-            MainActivity.FILE_NAME = fileOnSpinner;
-            String fileContentInText = ((MainActivity) requireActivity()).readFromFile(view);
-            FileHandler.setCommandsAndResponses(fileContentInText);
-
-            // set command size
-            InformationTransferManager.setCommandSize(FileHandler.commands.size());
-            // set response size
-            InformationTransferManager.setResponseSize(FileHandler.responses.size());
-
-            InformationTransferManager.setSelectedFileText(fileOnSpinner);
-            Utils.showSnackBarShort(view, fileOnSpinner + " " + InformationTransferManager.getStringResource(R.string.snack_bar_message_2));
-            Utils.showLogDMessage(InformationTransferManager.getStringResource(R.string.select_file_tag), "\"" + fileOnSpinner + "\" "
-                    + InformationTransferManager.getStringResource(R.string.snack_bar_message_3) + " "
-                    + InformationTransferManager.getStringResource(R.string.snack_bar_message_4) + " "
-                    + InformationTransferManager.getCommandSize() + " "
-                    + InformationTransferManager.getStringResource(R.string.snack_bar_message_5) + " "
-                    + InformationTransferManager.getResponseSize(), false);
+            final String selectedFile = fileOnSpinner;
+            // the file is loaded off the main thread, the service answers with the former file until the new one is complete
+            FileHandler.loadProfileInBackground(new File(InformationTransferManager.getAppFilesDirectory(), selectedFile), new FileHandler.ProfileLoadListener() {
+                @Override
+                public void onProfileLoaded(File source, ApduProfile profile) {
+                    view.post(() -> onSelectedFileLoaded(view, selectedFile, profile));
+                }
+
+                @Override
+                public void onProfileLoadFailed(File source, IOException e) {
+                    e.printStackTrace();
+                    view.post(() -> Utils.showSnackBarShort(view, InformationTransferManager.getStringResource(R.string.snack_bar_file_not_read)));
+                }
+            });
         }else{
             Utils.showSnackBarShort(view, InformationTransferManager.getStringResource(R.string.snack_bar_no_file_to_select));
         }
     }
 
+    /**
+     * This method shows the file that is now in use.
+     * @param view View.
+     * @param selectedFile name of the file.
+     * @param profile commands and responses of the file.
+     */
+    private void onSelectedFileLoaded(View view, String selectedFile, ApduProfile profile){
+        // each valid command comes with its response
+        InformationTransferManager.setCommandSize(profile.size());
+        InformationTransferManager.setResponseSize(profile.size());
+
+        InformationTransferManager.setSelectedFileText(selectedFile);
+        Utils.showSnackBarShort(view, selectedFile + " " + InformationTransferManager.getStringResource(R.string.snack_bar_message_2));
+        Utils.showLogDMessage(InformationTransferManager.getStringResource(R.string.select_file_tag), "\"" + selectedFile + "\" "
+                + InformationTransferManager.getStringResource(R.string.snack_bar_message_3) + " "
+                + InformationTransferManager.getStringResource(R.string.snack_bar_message_4) + " "
+                + InformationTransferManager.getCommandSize() + " "
+                + InformationTransferManager.getStringResource(R.string.snack_bar_message_5) + " "
+                + InformationTransferManager.getResponseSize(), false);
+    }
+
     /**
      * This method takes over the task of deleting the file selected with the spinner.
      * @param view View.
@@ -302,6 +601,8 @@ public class ManageFileScreenFragment extends Fragment {
     private void deleteSelectedFile(View view){
         if(!fileOnSpinner.equals("")){
             Utils.deleteFile(InformationTransferManager.getAppFilesDirectory(), fileOnSpinner);
+            FileHandler.deleteProfileDataInBackground(new File(InformationTransferManager.getAppFilesDirectory(), fileOnSpinner),
+                    fileOnSpinner.equals(InformationTransferManager.getSelectedFileText()));
             Utils.showSnackBarShort(view, fileOnSpinner + " "
                     + InformationTransferManager.getStringResource(R.string.snack_bar_message_6));
             Utils.showLogDMessage(InformationTransferManager.getStringResource(R.string.delete_file_tag), "\"" + fileOnSpinner + "\" "
@@ -313,14 +614,57 @@ public class ManageFileScreenFragment extends Fragment {
         }
     }
 
+    /**
+     * This method removes the duplicate pairs of the file selected with the spinner, off the main thread.
+     * The commands answered with different responses keep all their responses, they are written to the log messages.
+     * @param view View.
+     */
+    private void compactSelectedFile(View view){
+        if(!fileOnSpinner.equals("")){
+            final String selectedFile = fileOnSpinner;
+            File file = new File(InformationTransferManager.getAppFilesDirectory(), selectedFile);
+            binding.buttonCompactFile.setEnabled(false);
+            FileHandler.mergeProfilesInBackground(Collections.singletonList(file), file, new FileHandler.MergeListener() {
+                @Override
+                public void onMergeFinished(File target, ProfileMerger merger) {
+                    view.post(() -> onCompactEnded(view, selectedFile, merger));
+                }
+
+                @Override
+                public void onMergeFailed(File target, IOException e) {
+                    view.post(() -> onCompactEnded(view, selectedFile, null));
+                }
+            });
+        }else{
+            Utils.showSnackBarShort(view, InformationTransferManager.getStringResource(R.string.snack_bar_no_file_to_compact));
+        }
+    }
+
+    /**
+     * This method shows the result of a compaction.
+     * @param view View.
+     * @param selectedFile name of the file.
+     * @param merger merger holding the totals, null if the file could not be compacted.
+     */
+    private void onCompactEnded(View view, String selectedFile, ProfileMerger merger){
+        if(binding != null){
+            binding.buttonCompactFile.setEnabled(!ResponseHandler.isUsingNetwork());
+        }
+        if(merger != null){
+            String message = selectedFile + " " + InformationTransferManager.getStringResource(R.string.snack_bar_message_7) + " " + merger.getDuplicatePairCount();
+            Utils.showSnackBarShort(view, message);
+            Utils.showLogDMessage(InformationTransferManager.getStringResource(R.string.compact_file_tag), message, false);
+        }else{
+            Utils.showSnackBarShort(view, InformationTransferManager.getStringResource(R.string.snack_bar_file_not_read));
+        }
+    }
+
     /**
      * This method checks whether the currently in use file has been deleted.
      */
     private void checkIfUsingFileDeleted(){
         if(fileOnSpinner.equals(InformationTransferManager.getSelectedFileText())){
-            // clean all commands and responses
-            FileHandler.commands.clear();
-            FileHandler.responses.clear();
+            // the commands and responses are cleaned by FileHandler.deleteProfileDataInBackground
 
             // set selected file for no file
             InformationTransferManager.setSelectedFileText("");
@@ -346,7 +690,7 @@ public class ManageFileScreenFragment extends Fragment {
      * This method reorganizes (color and shape) the import button.
      */
     private void reorganizeImportButton(){
-        if(streamContent.equals("")){
+        if(chosenFileUri == null){
             binding.buttonImport.setBackground(ContextCompat.getDrawable(requireContext(), R.drawable.rounded_corners_color_gray));
         }else{
             binding.buttonImport.setBackground(ContextCompat.getDrawable(requireContext(), R.drawable.rounded_corners_color_blue));
@@ -360,9 +704,11 @@ public class ManageFileScreenFragment extends Fragment {
         if(fileSpinnerData.size() == 0){
             binding.buttonSetFile.setBackground(ContextCompat.getDrawable(requireContext(), R.drawable.rounded_corners_color_gray));
             binding.buttonDeleteFile.setBackground(ContextCompat.getDrawable(requireContext(), R.drawable.rounded_corners_color_gray));
+            binding.buttonCompactFile.setBackground(ContextCompat.getDrawable(requireContext(), R.drawable.rounded_corners_color_gray));
         }else{
             binding.buttonSetFile.setBackground(ContextCompat.getDrawable(requireContext(), R.drawable.rounded_corners_color_blue));
             binding.buttonDeleteFile.setBackground(ContextCompat.getDrawable(requireContext(), R.drawable.rounded_corners_color_blue));
+            binding.buttonCompactFile.setBackground(ContextCompat.getDrawable(requireContext(), R.drawable.rounded_corners_color_blue));
         }
     }
 
@@ -1,126 +1,69 @@
 package com.okanatas.nfccardemulator;
 
-import android.util.Log;
-
-import java.net.Socket;
-
 public class NetworkService {
     private static final String host = "192.168.225.30";
     private static final int port = 12345;
-    private Socket socket_;
-    private boolean isNetworkServiceRunning = false;
-    public NetworkService() {
-    }
+    /** Maximum time to wait for the response of a command from the relay server. */
+    private static final long RESPONSE_TIMEOUT_MILLIS = 5000;
+    /** The non-blocking transport answers faster, the blocking socket is kept as an alternative. */
+    private static final boolean USE_NIO_TRANSPORT = true;
+    private static final long HEARTBEAT_INTERVAL_MILLIS = 2000;
+    private static final long INITIAL_BACKOFF_MILLIS = 250;
+    private static final long MAX_BACKOFF_MILLIS = 10000;
+    private final RelayConnectionManager connectionManager = new RelayConnectionManager(host, port, USE_NIO_TRANSPORT,
+            HEARTBEAT_INTERVAL_MILLIS, INITIAL_BACKOFF_MILLIS, MAX_BACKOFF_MILLIS);
 
-    public boolean connect() {
-        if (!isNetworkServiceRunning) {
-            try {
-                new Thread(()->{
-                    try {
-                        socket_ = new Socket(host, port);
-                        isNetworkServiceRunning = true;
-                    } catch (Exception e) {
-                        Log.e("NetworkService", "Error while creating the socket: " + e.getMessage());
-                        Log.e("NetworkService", "Stack trace: " + Log.getStackTraceString(e));
-                    }
-                }).start();
-            } catch (Exception e) {
-                Log.e("NetworkService", "Error while creating the socket: " + e.getMessage());
-                Log.e("NetworkService", "Stack trace: " + Log.getStackTraceString(e));
-            }
-        }
-        return isNetworkServiceRunning;
+    public NetworkService() {
     }
 
-    public boolean disconnect() {
-        if (isNetworkServiceRunning) {
-            try {
-                new Thread(()->{
-                    try {
-                        socket_.close();
-                        isNetworkServiceRunning = false;
-                    } catch (Exception e) {
-                        Log.e("NetworkService", "Error while closing the socket: " + e.getMessage());
-                        Log.e("NetworkService", "Stack trace: " + Log.getStackTraceString(e));
-                    }
-                }).start();
-            } catch (Exception e) {
-                Log.e("NetworkService", "Error while closing the socket: " + e.getMessage());
-                Log.e("NetworkService", "Stack trace: " + Log.getStackTraceString(e));
-            }
-        }
-        return !isNetworkServiceRunning;
+    /**
+     * This method starts opening the connection to the relay server in the background.
+     * The connection is kept open and opened again if it is lost, until disconnect is called.
+     */
+    public void connect() {
+        connectionManager.start();
     }
 
-    /* destruct function */
-    protected void finalize() {
-        if (isNetworkServiceRunning) {
-            try {
-                new Thread(()->{
-                    try {
-                        socket_.close();
-                        isNetworkServiceRunning = false;
-                    } catch (Exception e) {
-                        Log.e("NetworkService", "Error while closing the socket: " + e.getMessage());
-                        Log.e("NetworkService", "Stack trace: " + Log.getStackTraceString(e));
-                    }
-                }).start();
-            } catch (Exception e) {
-                Log.e("NetworkService", "Error while closing the socket: " + e.getMessage());
-                Log.e("NetworkService", "Stack trace: " + Log.getStackTraceString(e));
-            }
-        }
+    public void disconnect() {
+        connectionManager.stop();
     }
 
+    /**
+     * This method checks if commands can be sent to the relay server, it never blocks.
+     * @return true if the connection is open and the relay server answers.
+     */
     public boolean isNetworkServiceRunning() {
-        return isNetworkServiceRunning;
+        return connectionManager.isReady();
     }
 
-    public boolean sendCommand(byte[] command) {
-        if (!isNetworkServiceRunning) {
-            return false;
-        }
-        try {
-            // send the data length first
-            socket_.getOutputStream().write(command.length);
-            socket_.getOutputStream().write(command);
-            Log.d("NetworkService", "Command: " + Utils.toHexString(command));
-            return true;
-        } catch (Exception e) {
-            Log.e("NetworkService", "Error while sending the command: " + e.getMessage());
-            return false;
-        }
+    /**
+     * This method was created to send a command to the relay server and wait for its response.
+     * Commands are framed with a request id, so that concurrent commands on the same connection
+     * always get their own response.
+     *
+     * @param command command APDU in byte array format.
+     * @return byte array of the response, or null if there is no connection or the response did not arrive in time.
+     */
+    public byte[] sendCommand(byte[] command) {
+        return sendCommand(command, RESPONSE_TIMEOUT_MILLIS);
     }
 
     /**
-     * This method was created to wait for the response from the server. It will block until the full
-     * response with the specified length is received.
+     * This method was created to send a command to the relay server and wait for its response at most the given time.
      *
-     * @return byte array of the response.
+     * @param command command APDU in byte array format.
+     * @param timeoutMillis maximum time to wait for the response.
+     * @return byte array of the response, or null if there is no connection or the response did not arrive in time.
      */
-    public byte[] waitForResponse() {
-        if (!isNetworkServiceRunning) {
+    public byte[] sendCommand(byte[] command, long timeoutMillis) {
+        if (!isNetworkServiceRunning()) {
             return null;
         }
-        int len;
-        // The first byte of the response is the length of the response.
-        try {
-            len = socket_.getInputStream().read();
-        } catch (Exception e) {
-            Log.e("NetworkService", "Error while reading the length of the response: " + e.getMessage());
-            return null;
-        }
-        byte[] response = new byte[len];
-        int read = 0;
-        try {
-            while (read < len) {
-                read += socket_.getInputStream().read(response, read, len - read);
-            }
-            Log.d("NetworkService", "Response: " + Utils.toHexString(response));
-            return response;
-        } catch (Exception e) {
-            Log.e("NetworkService", "Error while receiving the response: " + e.getMessage());
-            return null;
+        ApduLogger.d("NetworkService", "Command: ", command);
+        byte[] response = connectionManager.exchange(command, timeoutMillis);
+        if (response != null) {
+            ApduLogger.d("NetworkService", "Response: ", response);
         }
+        return response;
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,190 @@
+package com.okanatas.nfccardemulator;
+
+import android.util.Log;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.CancelledKeyException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * This class was created to carry relay frames over a non-blocking socket channel.
+ * A single selector thread owns the connection : it reads the responses into a pooled direct buffer and
+ * finishes the writes the socket could not take at once. Each frame is written with one gathering write
+ * of its header and payload, directly by the sending thread when no other frame is waiting.
+ */
+class NioRelayTransport implements RelayTransport {
+
+    /** A read buffer holds at least one complete frame of the largest size. */
+    private static final int READ_BUFFER_SIZE = RelayFrame.HEADER_SIZE + RelayFrame.MAX_PAYLOAD_SIZE;
+    /** Read buffers are shared by the connections, so that reconnecting does not allocate a new one. */
+    private static final DirectBufferPool READ_BUFFER_POOL = new DirectBufferPool(2, READ_BUFFER_SIZE);
+
+    private final SocketChannel channel;
+    private final Selector selector;
+    private final SelectionKey selectionKey;
+    private final Listener listener;
+    private final AtomicBoolean isOpen = new AtomicBoolean(true);
+    private final Queue<RelayFrame> outgoingFrames = new ConcurrentLinkedQueue<>();
+
+    /* guarded by writeLock */
+    private final Object writeLock = new Object();
+    private final ByteBuffer headerBuffer = ByteBuffer.allocateDirect(RelayFrame.HEADER_SIZE);
+    private final ByteBuffer[] writeBuffers = new ByteBuffer[2];
+    private volatile boolean isWritePending = false;
+
+    /**
+     * This constructor connects to the relay server and starts the selector thread.
+     * @param host host name or address of the relay server.
+     * @param port port of the relay server.
+     * @param connectTimeoutMillis maximum time to establish the connection.
+     * @param listener receiver of the frames.
+     * @throws IOException if the connection cannot be established.
+     */
+    NioRelayTransport(String host, int port, int connectTimeoutMillis, Listener listener) throws IOException {
+        this.listener = listener;
+        channel = SocketChannel.open();
+        try {
+            channel.socket().setTcpNoDelay(true);
+            channel.socket().connect(new InetSocketAddress(host, port), connectTimeoutMillis);
+            channel.configureBlocking(false);
+            selector = Selector.open();
+            selectionKey = channel.register(selector, SelectionKey.OP_READ);
+        } catch (IOException e) {
+            channel.close();
+            throw e;
+        }
+
+        Thread selectorThread = new Thread(this::runSelector, "NioRelayTransportSelector");
+        selectorThread.setDaemon(true);
+        selectorThread.start();
+    }
+
+    @Override
+    public void send(RelayFrame frame) throws IOException {
+        if (!isOpen.get()) {
+            throw new IOException("Relay connection is closed");
+        }
+        synchronized (writeLock) {
+            outgoingFrames.add(frame);
+            if (isWritePending || outgoingFrames.size() > 1) {
+                // the selector thread is already waiting for the socket to take more bytes
+                return;
+            }
+            // nothing is waiting, so the frame is written right away instead of waking up the selector thread
+            try {
+                writeFrames();
+            } catch (IOException e) {
+                close();
+                throw e;
+            }
+        }
+        if (isWritePending) {
+            selector.wakeup();
+        }
+    }
+
+    @Override
+    public boolean isOpen() {
+        return isOpen.get();
+    }
+
+    @Override
+    public void close() {
+        if (isOpen.compareAndSet(true, false)) {
+            try {
+                channel.close();
+            } catch (IOException e) {
+                Log.e("NioRelayTransport", "Error while closing the channel: " + e.getMessage());
+            }
+            selector.wakeup();
+            listener.onClosed();
+        }
+    }
+
+    /**
+     * This method runs on the selector thread until the connection is closed.
+     */
+    private void runSelector() {
+        ByteBuffer readBuffer = READ_BUFFER_POOL.acquire();
+        try {
+            while (isOpen.get()) {
+                selector.select();
+                if (selectionKey.isValid() && selectionKey.isReadable()) {
+                    readFrames(readBuffer);
+                }
+                synchronized (writeLock) {
+                    writeFrames();
+                }
+            }
+        } catch (IOException | CancelledKeyException e) {
+            if (isOpen.get()) {
+                Log.e("NioRelayTransport", "Error on the relay connection: " + e.getMessage());
+            }
+        } finally {
+            close();
+            try {
+                selector.close();
+            } catch (IOException e) {
+                Log.e("NioRelayTransport", "Error while closing the selector: " + e.getMessage());
+            }
+            READ_BUFFER_POOL.release(readBuffer);
+        }
+    }
+
+    /**
+     * This method reads the available bytes and passes each complete frame to the listener.
+     * @param readBuffer buffer that keeps the bytes of an incomplete frame between two reads.
+     * @throws IOException if the connection is lost or a frame is not valid.
+     */
+    private void readFrames(ByteBuffer readBuffer) throws IOException {
+        if (channel.read(readBuffer) < 0) {
+            throw new IOException("Relay connection closed by the server");
+        }
+        readBuffer.flip();
+        RelayFrame frame;
+        while ((frame = RelayFrame.read(readBuffer)) != null) {
+            listener.onFrameReceived(frame);
+        }
+        readBuffer.compact();
+    }
+
+    /**
+     * This method writes the queued frames until they are all sent or the socket buffer is full.
+     * It must be called with writeLock held.
+     * @throws IOException if the connection is lost.
+     */
+    private void writeFrames() throws IOException {
+        while (true) {
+            if (!isWritePending) {
+                RelayFrame frame = outgoingFrames.poll();
+                if (frame == null) {
+                    break;
+                }
+                headerBuffer.clear();
+                frame.putHeader(headerBuffer);
+                headerBuffer.flip();
+                writeBuffers[0] = headerBuffer;
+                writeBuffers[1] = ByteBuffer.wrap(frame.payload);
+                isWritePending = true;
+            }
+
+            // header and payload leave in a single system call
+            channel.write(writeBuffers);
+            if (writeBuffers[1].hasRemaining() || writeBuffers[0].hasRemaining()) {
+                // wait until the socket can take more bytes
+                selectionKey.interestOps(SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+                return;
+            }
+            writeBuffers[1] = null;
+            isWritePending = false;
+        }
+        selectionKey.interestOps(SelectionKey.OP_READ);
+    }
+}
@@ -0,0 +1,158 @@
+package com.okanatas.nfccardemulator;
+
+import java.io.File;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+
+/**
+ * This class was created to keep the last profiles in use in memory, so that switching back to a recent file is instant.
+ * The cache holds a bounded number of profiles within a memory budget, the least recently used one is evicted first.
+ * A profile is dropped as soon as the length or the modification time of its txt file changes.
+ */
+class ProfileCache {
+
+    private final int maxEntries;
+    private final long maxBytes;
+
+    /* guarded by this */
+    private final LinkedHashMap<String, Entry> entries;
+    private long residentBytes;
+
+    /* statistics, guarded by this */
+    private long hitCount;
+    private long missCount;
+    private long evictionCount;
+    private long invalidationCount;
+
+    /**
+     * This constructor creates an empty cache.
+     * @param maxEntries maximum number of profiles kept.
+     * @param maxBytes maximum memory used by the profiles kept, in bytes.
+     */
+    ProfileCache(int maxEntries, long maxBytes) {
+        this.maxEntries = maxEntries;
+        this.maxBytes = maxBytes;
+        // access order, so the first entry is the least recently used one
+        entries = new LinkedHashMap<>(16, 0.75f, true);
+    }
+
+    /**
+     * This method gets the profile of a txt file, if the file has not changed since it was loaded.
+     * @param source txt file.
+     * @return the profile, or null if it is not cached or the file has changed.
+     */
+    synchronized ApduProfile get(File source) {
+        String key = source.getAbsolutePath();
+        Entry entry = entries.get(key);
+        if (entry == null) {
+            missCount++;
+            return null;
+        }
+        if (source.length() != entry.sourceLength || source.lastModified() != entry.sourceLastModified) {
+            remove(key);
+            invalidationCount++;
+            missCount++;
+            return null;
+        }
+        hitCount++;
+        return entry.profile;
+    }
+
+    /**
+     * This method keeps the profile of a txt file. A profile larger than the whole budget is not kept.
+     * The length and the modification time should be taken before the file is read,
+     * so that a file modified while it was read is never served from the cache.
+     * @param source txt file.
+     * @param sourceLength length of the txt file the profile was read from.
+     * @param sourceLastModified modification time of the txt file the profile was read from.
+     * @param profile profile of the txt file.
+     */
+    synchronized void put(File source, long sourceLength, long sourceLastModified, ApduProfile profile) {
+        String key = source.getAbsolutePath();
+        remove(key);
+        long bytes = profile.getStorageSize();
+        if (bytes > maxBytes) {
+            return;
+        }
+        entries.put(key, new Entry(profile, bytes, sourceLength, sourceLastModified));
+        residentBytes += bytes;
+
+        Iterator<Entry> iterator = entries.values().iterator();
+        while (entries.size() > maxEntries || residentBytes > maxBytes) {
+            // the profile just added is the last one and fits in the budget, it is never evicted
+            residentBytes -= iterator.next().bytes;
+            iterator.remove();
+            evictionCount++;
+        }
+    }
+
+    /**
+     * This method drops the profile of a txt file, for example when the file is deleted.
+     * @param source txt file.
+     */
+    synchronized void remove(File source) {
+        remove(source.getAbsolutePath());
+    }
+
+    synchronized void clear() {
+        entries.clear();
+        residentBytes = 0;
+    }
+
+    synchronized int size() {
+        return entries.size();
+    }
+
+    synchronized long getResidentBytes() {
+        return residentBytes;
+    }
+
+    synchronized long getHitCount() {
+        return hitCount;
+    }
+
+    synchronized long getMissCount() {
+        return missCount;
+    }
+
+    synchronized long getEvictionCount() {
+        return evictionCount;
+    }
+
+    synchronized long getInvalidationCount() {
+        return invalidationCount;
+    }
+
+    /**
+     * This method gets the statistics of the cache in a single line, for the log messages.
+     * @return statistics of the cache.
+     */
+    synchronized String getStatistics() {
+        long lookups = hitCount + missCount;
+        return String.format(Locale.US, "profiles=%d resident=%d KB hits=%d misses=%d hitRate=%.1f%% evictions=%d invalidations=%d",
+                entries.size(), residentBytes / 1024, hitCount, missCount, (lookups == 0) ? 0.0 : hitCount * 100.0 / lookups,
+                evictionCount, invalidationCount);
+    }
+
+    private void remove(String key) {
+        Entry entry = entries.remove(key);
+        if (entry != null) {
+            residentBytes -= entry.bytes;
+        }
+    }
+
+    private static final class Entry {
+        final ApduProfile profile;
+        final long bytes;
+        final long sourceLength;
+        final long sourceLastModified;
+
+        Entry(ApduProfile profile, long bytes, long sourceLength, long sourceLastModified) {
+            this.profile = profile;
+            this.bytes = bytes;
+            this.sourceLength = sourceLength;
+            this.sourceLastModified = sourceLastModified;
+        }
+    }
+}
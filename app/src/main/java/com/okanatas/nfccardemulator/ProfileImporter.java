@@ -0,0 +1,118 @@
+package com.okanatas.nfccardemulator;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+
+/**
+ * This class was created to import a file in a single pass. The content is copied into the application files in chunks,
+ * each chunk is parsed while it is copied, and the txt file is compiled as soon as it is complete.
+ * Only one chunk of the file is in memory at a time, besides the commands and responses that are kept.
+ * An importer imports one file and writes no log message, so that several files can be imported at the same time.
+ */
+class ProfileImporter {
+
+    /** Size of the chunks copied and parsed at once. */
+    private static final int CHUNK_SIZE = 8192;
+    /** Progress is reported each time this many bytes are imported, at most. */
+    private static final int PROGRESS_STEP = 64 * 1024;
+
+    private final ApduLookupTable.Builder builder = new ApduLookupTable.Builder();
+    private final ProfileParser parser;
+    private long importedBytes;
+    private IOException compileError;
+
+    /**
+     * This constructor creates an importer for the given keywords.
+     * @param commandKeyword keyword of the command lines, such as c-apdu.
+     * @param responseKeyword keyword of the response lines, such as r-apdu.
+     */
+    ProfileImporter(String commandKeyword, String responseKeyword) {
+        parser = new ProfileParser(commandKeyword, responseKeyword, builder::add, builder::addPattern);
+    }
+
+    /**
+     * This method imports the file. The txt file appears when it is complete,
+     * a failed import leaves the former file of the same name unchanged.
+     * A txt file that cannot be compiled is imported anyway, it is read from its text when it is used.
+     * @param input content of the file, it is not closed.
+     * @param totalBytes size of the file, or -1 if it is not known.
+     * @param target txt file to create in the application files.
+     * @param listener receiver of the progress, or null.
+     * @return profile of the imported file.
+     * @throws IOException if the file cannot be read or written.
+     */
+    ApduLookupTable importProfile(InputStream input, long totalBytes, File target, FileHandler.ImportListener listener) throws IOException {
+        File compiledFile = CompiledApduProfile.getCompiledFile(target);
+        File directory = compiledFile.getParentFile();
+        // another importer may create the directory at the same time
+        if (directory != null && !directory.mkdirs() && !directory.isDirectory()) {
+            throw new IOException("Cannot create " + directory);
+        }
+        // written next to the compiled files, so that it is not listed until it is complete
+        File partialFile = new File(directory, target.getName() + ".part");
+
+        byte[] buffer = new byte[CHUNK_SIZE];
+        ByteBuffer chunk = ByteBuffer.wrap(buffer);
+        long reportedBytes = 0;
+        try {
+            try (OutputStream output = new FileOutputStream(partialFile)) {
+                int count;
+                while ((count = input.read(buffer)) != -1) {
+                    output.write(buffer, 0, count);
+                    chunk.clear();
+                    chunk.limit(count);
+                    parser.feed(chunk);
+
+                    importedBytes += count;
+                    if (listener != null && importedBytes - reportedBytes >= PROGRESS_STEP) {
+                        reportedBytes = importedBytes;
+                        listener.onImportProgress(importedBytes, totalBytes);
+                    }
+                }
+                parser.finish();
+            }
+            if (!partialFile.renameTo(target) && (!target.delete() || !partialFile.renameTo(target))) {
+                throw new IOException("Cannot rename " + partialFile + " to " + target);
+            }
+        } finally {
+            if (partialFile.exists() && !partialFile.delete()) {
+                partialFile.deleteOnExit();
+            }
+        }
+        if (listener != null) {
+            listener.onImportProgress(importedBytes, totalBytes);
+        }
+
+        ApduLookupTable table = builder.build();
+        try {
+            CompiledApduProfile.compile(table, target, compiledFile);
+        } catch (IOException e) {
+            compileError = e;
+        }
+        return table;
+    }
+
+    /**
+     * This method gets the parser of the file, with the number of valid pairs and of the values skipped.
+     * @return parser that read the file.
+     */
+    ProfileParser getParser() {
+        return parser;
+    }
+
+    long getImportedBytes() {
+        return importedBytes;
+    }
+
+    /**
+     * This method gets the reason why the txt file was not compiled.
+     * @return the error, or null if the txt file was compiled.
+     */
+    IOException getCompileError() {
+        return compileError;
+    }
+}
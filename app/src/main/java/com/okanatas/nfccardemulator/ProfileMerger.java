@@ -0,0 +1,282 @@
+package com.okanatas.nfccardemulator;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * This class was created to merge recorded sessions into one compact profile.
+ * A pair seen again, in the same trace or in another one, is kept once. A response is stored once whatever the number
+ * of commands it answers. A command answered with different responses is a conflict, its responses are all kept
+ * in the order they were seen, so that the merged profile answers each command like the traces put one after the other.
+ * The conflicts are reported, they are the commands whose response depends on the session, such as GET CHALLENGE.
+ * The commands with wildcards are kept the same way, after the other pairs.
+ */
+class ProfileMerger {
+
+    private final String commandKeyword;
+    private final String responseKeyword;
+
+    private final ApduLookupTable.Builder builder = new ApduLookupTable.Builder();
+    /** The distinct responses of each command, in the order they were seen. */
+    private final Map<ByteBuffer, List<ByteBuffer>> responsesByCommand = new HashMap<>();
+    /** The distinct responses, so that a response answering several commands is held once. */
+    private final Map<ByteBuffer, ByteBuffer> distinctResponses = new HashMap<>();
+    /** The commands answered with different responses, in the order the conflicts were found. */
+    private final Map<ByteBuffer, List<ByteBuffer>> conflicts = new LinkedHashMap<>();
+    /** The distinct responses of each command with wildcards. */
+    private final Map<ApduPattern, List<ByteBuffer>> responsesByPattern = new HashMap<>();
+
+    private int sourceCount = 0;
+    private long inputPairCount = 0;
+    private long duplicatePairCount = 0;
+    private long invalidCount = 0;
+
+    /**
+     * This constructor creates an empty merger for the given keywords.
+     * @param commandKeyword keyword of the command lines, such as c-apdu.
+     * @param responseKeyword keyword of the response lines, such as r-apdu.
+     */
+    ProfileMerger(String commandKeyword, String responseKeyword) {
+        this.commandKeyword = commandKeyword;
+        this.responseKeyword = responseKeyword;
+    }
+
+    /**
+     * This method adds the pairs of a txt file.
+     * @param source txt file.
+     * @return this merger.
+     * @throws IOException if the file cannot be read.
+     */
+    ProfileMerger add(File source) throws IOException {
+        try (Reader reader = new BufferedReader(new InputStreamReader(new FileInputStream(source), StandardCharsets.UTF_8))) {
+            return add(reader);
+        }
+    }
+
+    /**
+     * This method adds the pairs of a trace.
+     * @param reader content of the trace, it is not closed.
+     * @return this merger.
+     * @throws IOException if the trace cannot be read.
+     */
+    ProfileMerger add(Reader reader) throws IOException {
+        ProfileParser parser = new ProfileParser(commandKeyword, responseKeyword, this::addPair, this::addPattern);
+        parser.parse(reader);
+        invalidCount += parser.getInvalidCommandCount() + parser.getInvalidResponseCount() + parser.getUnpairedCount();
+        sourceCount++;
+        return this;
+    }
+
+    /**
+     * This method adds a pair unless the same pair was already added.
+     * The arrays are reused by the parser, they are copied only when the pair is kept.
+     */
+    private void addPair(byte[] commandApdu, int commandLength, byte[] responseApdu, int responseLength) {
+        inputPairCount++;
+        ByteBuffer command = ByteBuffer.wrap(commandApdu, 0, commandLength);
+        ByteBuffer response = ByteBuffer.wrap(responseApdu, 0, responseLength);
+
+        List<ByteBuffer> responses = responsesByCommand.get(command);
+        if (responses != null && responses.contains(response)) {
+            duplicatePairCount++;
+            return;
+        }
+
+        ByteBuffer distinctResponse = distinctResponses.get(response);
+        if (distinctResponse == null) {
+            distinctResponse = copy(response);
+            distinctResponses.put(distinctResponse, distinctResponse);
+        }
+        if (responses == null) {
+            // a single response is the common case, the list grows only on a conflict
+            responses = new ArrayList<>(1);
+            responsesByCommand.put(copy(command), responses);
+        } else if (!conflicts.containsKey(command)) {
+            conflicts.put(copy(command), responses);
+        }
+        responses.add(distinctResponse);
+        builder.add(commandApdu, commandLength, responseApdu, responseLength);
+    }
+
+    /**
+     * This method adds a command with wildcards unless the same pattern was already added with the same response.
+     * The response array is reused by the parser, it is copied only when the pattern is kept.
+     */
+    private void addPattern(ApduPattern pattern, byte[] responseApdu, int responseLength) {
+        inputPairCount++;
+        ByteBuffer response = ByteBuffer.wrap(responseApdu, 0, responseLength);
+        List<ByteBuffer> responses = responsesByPattern.get(pattern);
+        if (responses == null) {
+            responses = new ArrayList<>(1);
+            responsesByPattern.put(pattern, responses);
+        } else if (responses.contains(response)) {
+            duplicatePairCount++;
+            return;
+        }
+        // the first response of a pattern wins, the others are kept like the responses of a conflict
+        responses.add(copy(response));
+        builder.addPattern(pattern, responseApdu, responseLength);
+    }
+
+    /**
+     * This method builds the profile of the pairs added so far.
+     * @return merged profile.
+     */
+    ApduLookupTable build() {
+        return builder.build();
+    }
+
+    /**
+     * This method writes the pairs added so far as a txt file, in the order they were first seen, the patterns last.
+     * The file is written aside and renamed when it is complete, so that the target may be one of the merged files.
+     * @param target txt file.
+     * @return merged profile, the same as build.
+     * @throws IOException if the file cannot be written.
+     */
+    ApduLookupTable writeProfile(File target) throws IOException {
+        ApduLookupTable table = build();
+        File temporary = new File(target.getParentFile(), target.getName() + ".tmp");
+        try {
+            try (Writer writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(temporary), StandardCharsets.UTF_8))) {
+                writeProfile(table, writer);
+            }
+            if (!temporary.renameTo(target) && (!target.delete() || !temporary.renameTo(target))) {
+                throw new IOException("Cannot rename " + temporary + " to " + target);
+            }
+        } finally {
+            if (temporary.exists() && !temporary.delete()) {
+                temporary.deleteOnExit();
+            }
+        }
+        return table;
+    }
+
+    /**
+     * This method writes the pairs of a profile in the format of the txt files.
+     * @param table profile to write.
+     * @param writer destination, it is not closed.
+     * @throws IOException if the profile cannot be written.
+     */
+    void writeProfile(ApduLookupTable table, Writer writer) throws IOException {
+        for (int i = 0; i < table.size(); i++) {
+            writer.write(commandKeyword + " : " + Utils.toHexString(toArray(table.getCommandSlice(i))) + "\n");
+            writer.write(responseKeyword + " : " + Utils.toHexString(toArray(table.getResponseSlice(i))) + "\n\n");
+        }
+        for (int p = 0; p < table.getPatternCount(); p++) {
+            writer.write(commandKeyword + " : " + table.getPattern(p) + "\n");
+            writer.write(responseKeyword + " : " + Utils.toHexString(toArray(table.getPatternResponseSlice(p))) + "\n\n");
+        }
+    }
+
+    int getSourceCount() {
+        return sourceCount;
+    }
+
+    long getInputPairCount() {
+        return inputPairCount;
+    }
+
+    long getDuplicatePairCount() {
+        return duplicatePairCount;
+    }
+
+    /**
+     * This method gets the number of values of the traces that were skipped, invalid or without their command or response.
+     * @return number of values skipped.
+     */
+    long getInvalidCount() {
+        return invalidCount;
+    }
+
+    int getPairCount() {
+        return builder.size();
+    }
+
+    int getResponseCount() {
+        return builder.getResponseCount();
+    }
+
+    int getPatternCount() {
+        return builder.getPatternCount();
+    }
+
+    /**
+     * This method gets the commands answered with different responses.
+     * @return the conflicts, in the order they were found.
+     */
+    List<Conflict> getConflicts() {
+        List<Conflict> result = new ArrayList<>(conflicts.size());
+        for (Map.Entry<ByteBuffer, List<ByteBuffer>> conflict : conflicts.entrySet()) {
+            List<byte[]> responses = new ArrayList<>(conflict.getValue().size());
+            for (ByteBuffer response : conflict.getValue()) {
+                responses.add(toArray(response));
+            }
+            result.add(new Conflict(toArray(conflict.getKey()), responses));
+        }
+        return result;
+    }
+
+    int getConflictCount() {
+        return conflicts.size();
+    }
+
+    /**
+     * This method gets the totals of the merge in a single line, for the log messages.
+     * @return totals of the merge.
+     */
+    String getSummary() {
+        return String.format(Locale.US, "traces=%d pairs=%d duplicates=%d kept=%d patterns=%d responses=%d conflicts=%d skipped=%d",
+                sourceCount, inputPairCount, duplicatePairCount, getPairCount(), getPatternCount(), getResponseCount(),
+                getConflictCount(), invalidCount);
+    }
+
+    private static ByteBuffer copy(ByteBuffer buffer) {
+        return ByteBuffer.wrap(toArray(buffer));
+    }
+
+    private static byte[] toArray(ByteBuffer buffer) {
+        byte[] array = new byte[buffer.remaining()];
+        buffer.duplicate().get(array);
+        return array;
+    }
+
+    /**
+     * A command answered with different responses.
+     */
+    static final class Conflict {
+        final byte[] command;
+        /** The distinct responses of the command, in the order they were seen. */
+        final List<byte[]> responses;
+
+        Conflict(byte[] command, List<byte[]> responses) {
+            this.command = command;
+            this.responses = Collections.unmodifiableList(responses);
+        }
+
+        @Override
+        public String toString() {
+            StringBuilder text = new StringBuilder(Utils.toHexString(command)).append(" ->");
+            for (byte[] response : responses) {
+                text.append(' ').append(Utils.toHexString(response));
+            }
+            return text.toString();
+        }
+    }
+}
@@ -0,0 +1,396 @@
+package com.okanatas.nfccardemulator;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * This class was created to read the commands and responses of a txt file in a single pass, without copying the file.
+ * The text is fed in chunks of any size, from a Reader, a ByteBuffer or char by char. White spaces are ignored,
+ * the keywords are recognized in any case and the hexadecimal values are decoded while they are read.
+ * A pair is emitted when a valid response follows a valid command, any other value is counted and skipped.
+ * Nothing is allocated per pair, the values are decoded into arrays that are reused.
+ * A command may hold wildcards, a ? for any hexadecimal digit and a trailing * for any remaining bytes,
+ * it is then emitted as a pattern if there is a receiver of the patterns, otherwise it is counted as an invalid command.
+ * <pre>
+ * c-apdu : 00A404000E325041592E5359532E444446303100
+ * r-apdu : 6F2B840E325041592E5359532E4444463031A519BF0C1661144F07A0000000031010500A564953412044454249549000
+ * c-apdu : 80AE8000*
+ * r-apdu : 77299F2701809F360200019F2608C2D2E3F4A5B6C7D89F10120110A00003220000000000000000000000FF9000
+ * </pre>
+ */
+class ProfileParser {
+
+    /**
+     * The receiver of the pairs read from the file.
+     */
+    interface PairHandler {
+        /**
+         * The arrays are reused by the parser, their content must be copied before this method returns.
+         * @param commandApdu array holding the command APDU from position 0.
+         * @param commandLength length of the command APDU.
+         * @param responseApdu array holding the response APDU from position 0.
+         * @param responseLength length of the response APDU.
+         */
+        void onPair(byte[] commandApdu, int commandLength, byte[] responseApdu, int responseLength);
+    }
+
+    /**
+     * The receiver of the commands with wildcards read from the file.
+     */
+    interface PatternHandler {
+        /**
+         * The response array is reused by the parser, its content must be copied before this method returns.
+         * @param pattern command with wildcards.
+         * @param responseApdu array holding the response APDU from position 0.
+         * @param responseLength length of the response APDU.
+         */
+        void onPattern(ApduPattern pattern, byte[] responseApdu, int responseLength);
+    }
+
+    /** A value longer than the longest extended APDU is not valid. */
+    static final int MAX_VALUE_SIZE = 65536 + 9;
+    /** A response holds at least its status word. */
+    static final int MIN_RESPONSE_SIZE = 2;
+    private static final int READ_BUFFER_SIZE = 8192;
+
+    private static final int NONE = -1;
+    private static final int COMMAND = 0;
+    private static final int RESPONSE = 1;
+
+    /* STATES */
+    /** Looking for a keyword, anything else is ignored. */
+    private static final int SCANNING = 0;
+    /** A keyword was read, waiting for its separator. */
+    private static final int SEPARATOR = 1;
+    /** Reading the hexadecimal value of a keyword. */
+    private static final int VALUE = 2;
+
+    private final char[][] keywords;
+    private final PairHandler pairHandler;
+    private final PatternHandler patternHandler;
+
+    private int state = SCANNING;
+    /** Number of characters of each keyword matched so far. */
+    private final int[] keywordProgress = new int[2];
+    /** Length of the value, in hexadecimal digits, when each keyword started to match. */
+    private final int[] keywordStart = new int[2];
+    private int valueKeyword = NONE;
+
+    /** Decoded bytes of the value being read, reused for each value. */
+    private byte[] value = new byte[256];
+    /** Fixed bits of each byte of the value, the digits read as ? are 0. */
+    private byte[] valueMask = new byte[256];
+    private int valueDigits;
+    private boolean hasWildcard;
+    /** Number of digits read before the *, or NONE if there is no * in the value. */
+    private int prefixDigits = NONE;
+
+    /** Command waiting for its response, in a reused array, its length is NONE if there is no command waiting. */
+    private byte[] pendingCommand = new byte[256];
+    private int pendingCommandLength = NONE;
+    /** Command with wildcards waiting for its response, or null. */
+    private ApduPattern pendingPattern;
+
+    /* statistics */
+    private int pairCount;
+    private int patternCount;
+    private int invalidCommandCount;
+    private int invalidResponseCount;
+    private int unpairedCount;
+
+    /**
+     * This constructor creates a parser for the given keywords.
+     * @param commandKeyword keyword of the command lines, such as c-apdu.
+     * @param responseKeyword keyword of the response lines, such as r-apdu.
+     * @param pairHandler receiver of the pairs.
+     */
+    ProfileParser(String commandKeyword, String responseKeyword, PairHandler pairHandler) {
+        this(commandKeyword, responseKeyword, pairHandler, null);
+    }
+
+    /**
+     * This constructor creates a parser for the given keywords, that also reads the commands with wildcards.
+     * @param commandKeyword keyword of the command lines, such as c-apdu.
+     * @param responseKeyword keyword of the response lines, such as r-apdu.
+     * @param pairHandler receiver of the pairs.
+     * @param patternHandler receiver of the commands with wildcards and their responses, or null to count them as invalid.
+     */
+    ProfileParser(String commandKeyword, String responseKeyword, PairHandler pairHandler, PatternHandler patternHandler) {
+        keywords = new char[][]{toKeyword(commandKeyword), toKeyword(responseKeyword)};
+        this.pairHandler = pairHandler;
+        this.patternHandler = patternHandler;
+    }
+
+    /**
+     * This method reads the whole text of the reader and ends the parsing, the reader is not closed.
+     * @param reader text of the file.
+     * @throws IOException if the text cannot be read.
+     */
+    void parse(Reader reader) throws IOException {
+        char[] buffer = new char[READ_BUFFER_SIZE];
+        int count;
+        while ((count = reader.read(buffer)) != -1) {
+            feed(buffer, 0, count);
+        }
+        finish();
+    }
+
+    /**
+     * This method reads the next characters of the text.
+     * @param chars characters of the text.
+     * @param offset position of the first character.
+     * @param length number of characters.
+     */
+    void feed(char[] chars, int offset, int length) {
+        for (int i = offset, end = offset + length; i < end; i++) {
+            feed(chars[i]);
+        }
+    }
+
+    /**
+     * This method reads the remaining bytes of the buffer as ASCII text, the position of the buffer is moved to its limit.
+     * @param bytes bytes of the text.
+     */
+    void feed(ByteBuffer bytes) {
+        while (bytes.hasRemaining()) {
+            feed((char) (bytes.get() & 0xFF));
+        }
+    }
+
+    /**
+     * This method reads the next character of the text.
+     * @param c character of the text.
+     */
+    void feed(char c) {
+        if (Character.isWhitespace(c)) {
+            return;
+        }
+        char lower = Character.toLowerCase(c);
+
+        int keyword = matchKeywords(lower);
+        if (keyword != NONE) {
+            if (state == VALUE) {
+                // the value ends where the keyword starts
+                endValue(keywordStart[keyword], true);
+            }
+            valueKeyword = keyword;
+            state = SEPARATOR;
+            return;
+        }
+
+        switch (state) {
+            case SEPARATOR:
+                state = (c == ':') ? VALUE : SCANNING;
+                valueDigits = 0;
+                hasWildcard = false;
+                prefixDigits = NONE;
+                break;
+            case VALUE:
+                int digit = Character.digit(c, 16);
+                if (digit >= 0) {
+                    appendDigit(digit, 0x0F);
+                } else if (c == '?') {
+                    appendDigit(0, 0);
+                    hasWildcard = true;
+                } else if (c == '*' && prefixDigits == NONE) {
+                    // the value must end here, a digit after it makes the value invalid, unless it starts the next keyword
+                    prefixDigits = valueDigits;
+                } else if (keywordProgress[COMMAND] > 0 || keywordProgress[RESPONSE] > 0) {
+                    // maybe the next keyword, a hexadecimal letter that started it is not part of the value
+                    endValue(Math.min(startOf(COMMAND), startOf(RESPONSE)), true);
+                    state = SCANNING;
+                } else {
+                    endValue(valueDigits, false);
+                    state = SCANNING;
+                }
+                break;
+            default:
+                // text out of the values is ignored
+                break;
+        }
+    }
+
+    /**
+     * This method ends the text, the last value is read.
+     */
+    void finish() {
+        if (state == VALUE) {
+            endValue(valueDigits, true);
+        }
+        if (pendingCommandLength != NONE) {
+            unpairedCount++;
+            pendingCommandLength = NONE;
+            pendingPattern = null;
+        }
+        state = SCANNING;
+        keywordProgress[COMMAND] = 0;
+        keywordProgress[RESPONSE] = 0;
+    }
+
+    int getPairCount() {
+        return pairCount;
+    }
+
+    /**
+     * This method gets the number of commands with wildcards emitted with their response.
+     * @return number of patterns.
+     */
+    int getPatternCount() {
+        return patternCount;
+    }
+
+    int getInvalidCommandCount() {
+        return invalidCommandCount;
+    }
+
+    int getInvalidResponseCount() {
+        return invalidResponseCount;
+    }
+
+    /**
+     * This method gets the number of valid values that were skipped, such as a command without response.
+     * @return number of skipped values.
+     */
+    int getUnpairedCount() {
+        return unpairedCount;
+    }
+
+    /**
+     * This method moves the keyword matching forward.
+     * @param lower next character in lower case.
+     * @return COMMAND or RESPONSE if a whole keyword is matched, NONE otherwise.
+     */
+    private int matchKeywords(char lower) {
+        int matched = NONE;
+        for (int k = COMMAND; k <= RESPONSE; k++) {
+            char[] keyword = keywords[k];
+            int progress = keywordProgress[k];
+            if (lower == keyword[progress]) {
+                progress++;
+            } else {
+                progress = (lower == keyword[0]) ? 1 : 0;
+            }
+            if (progress == 1) {
+                keywordStart[k] = valueDigits;
+            }
+            if (progress == keyword.length) {
+                matched = k;
+                progress = 0;
+            }
+            keywordProgress[k] = progress;
+        }
+        if (matched != NONE) {
+            keywordProgress[COMMAND] = 0;
+            keywordProgress[RESPONSE] = 0;
+        }
+        return matched;
+    }
+
+    private int startOf(int keyword) {
+        return (keywordProgress[keyword] > 0) ? keywordStart[keyword] : valueDigits;
+    }
+
+    /**
+     * This method appends a hexadecimal digit to the value.
+     * @param digit value of the digit, 0 for a wildcard.
+     * @param mask 0x0F for a digit, 0 for a wildcard.
+     */
+    private void appendDigit(int digit, int mask) {
+        int index = valueDigits >> 1;
+        if (index >= MAX_VALUE_SIZE) {
+            // too long, only the count goes on so that the value is refused
+            valueDigits++;
+            return;
+        }
+        if (index == value.length) {
+            value = Arrays.copyOf(value, Math.min(value.length * 2, MAX_VALUE_SIZE));
+            valueMask = Arrays.copyOf(valueMask, value.length);
+        }
+        if ((valueDigits & 1) == 0) {
+            value[index] = (byte) (digit << 4);
+            valueMask[index] = (byte) (mask << 4);
+        } else {
+            value[index] |= (byte) digit;
+            valueMask[index] |= (byte) mask;
+        }
+        valueDigits++;
+    }
+
+    /**
+     * This method validates the value that was read and pairs it.
+     * @param digits number of hexadecimal digits of the value.
+     * @param isWellFormed false if the value was followed by a character that is not hexadecimal.
+     */
+    private void endValue(int digits, boolean isWellFormed) {
+        int size = digits >> 1;
+        boolean isPrefix = prefixDigits != NONE;
+        boolean isValid = isWellFormed && (digits & 1) == 0 && size <= MAX_VALUE_SIZE && (!isPrefix || prefixDigits == digits);
+        boolean isPattern = hasWildcard || isPrefix;
+
+        if (valueKeyword == COMMAND) {
+            if (pendingCommandLength != NONE) {
+                // a command without response
+                unpairedCount++;
+            }
+            pendingPattern = null;
+            if (isPattern) {
+                // a prefix needs CLA and INS at least, any other command its whole header
+                if (patternHandler != null && isValid && size <= ApduPattern.MAX_PATTERN_SIZE
+                        && size >= (isPrefix ? ISOProtocol.INS_INDEX + 1 : ISOProtocol.MIN_APDU_SIZE)) {
+                    pendingPattern = new ApduPattern(value, valueMask, size, isPrefix);
+                    pendingCommandLength = size;
+                } else {
+                    pendingCommandLength = NONE;
+                    invalidCommandCount++;
+                }
+            } else if (isValid && size >= ISOProtocol.MIN_APDU_SIZE) {
+                // the value array is reused for the response, the command is kept aside
+                if (pendingCommand.length < size) {
+                    pendingCommand = new byte[value.length];
+                }
+                System.arraycopy(value, 0, pendingCommand, 0, size);
+                pendingCommandLength = size;
+            } else {
+                pendingCommandLength = NONE;
+                invalidCommandCount++;
+            }
+        } else if (valueKeyword == RESPONSE) {
+            if (!isValid || isPattern || size < MIN_RESPONSE_SIZE) {
+                invalidResponseCount++;
+                if (pendingCommandLength != NONE) {
+                    unpairedCount++;
+                }
+            } else if (pendingCommandLength == NONE) {
+                unpairedCount++;
+            } else if (pendingPattern != null) {
+                patternHandler.onPattern(pendingPattern, value, size);
+                patternCount++;
+            } else {
+                pairHandler.onPair(pendingCommand, pendingCommandLength, value, size);
+                pairCount++;
+            }
+            pendingCommandLength = NONE;
+            pendingPattern = null;
+        }
+        valueKeyword = NONE;
+        valueDigits = 0;
+        hasWildcard = false;
+        prefixDigits = NONE;
+    }
+
+    private static char[] toKeyword(String keyword) {
+        StringBuilder lower = new StringBuilder();
+        for (int i = 0; i < keyword.length(); i++) {
+            char c = keyword.charAt(i);
+            if (!Character.isWhitespace(c)) {
+                lower.append(Character.toLowerCase(c));
+            }
+        }
+        if (lower.length() == 0) {
+            throw new IllegalArgumentException("Empty keyword");
+        }
+        return lower.toString().toCharArray();
+    }
+}
@@ -0,0 +1,158 @@
+package com.okanatas.nfccardemulator;
+
+import android.util.Log;
+
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * This class was created to record the commands and responses exchanged with the relay server into a txt file,
+ * in the format read by FileHandler, so that the relayed card can be emulated later without the network.
+ * Recording only queues the exchange, a background thread writes the queued exchanges in batches.
+ */
+class ProfileRecorder implements Closeable {
+
+    /** Maximum number of exchanges waiting to be written, the next ones are dropped. */
+    private static final int MAX_PENDING_EXCHANGES = 4096;
+    private static final long CLOSE_TIMEOUT_MILLIS = 2000;
+    /** Marks the end of the recording in the queue. */
+    private static final byte[][] END_OF_RECORDING = new byte[0][];
+
+    private final File file;
+    private final String commandKeyword;
+    private final String responseKeyword;
+    private final Writer writer;
+    private final BlockingQueue<byte[][]> pendingExchanges = new LinkedBlockingQueue<>(MAX_PENDING_EXCHANGES);
+    private final Thread writerThread;
+    private volatile boolean isClosed = false;
+    /** Number of calls of record between the check of isClosed and the queueing, close waits for them. */
+    private final AtomicInteger recordingCount = new AtomicInteger();
+
+    private final AtomicLong writtenCount = new AtomicLong();
+    private final AtomicLong droppedCount = new AtomicLong();
+
+    /**
+     * This constructor creates the file and starts the writer thread.
+     * @param file txt file to record into, it is replaced if it exists.
+     * @param commandKeyword keyword of the command lines.
+     * @param responseKeyword keyword of the response lines.
+     * @throws IOException if the file cannot be created.
+     */
+    ProfileRecorder(File file, String commandKeyword, String responseKeyword) throws IOException {
+        this.file = file;
+        this.commandKeyword = commandKeyword;
+        this.responseKeyword = responseKeyword;
+        writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(file), "UTF-8"));
+
+        writerThread = new Thread(this::writeExchanges, "ProfileRecorder");
+        writerThread.setDaemon(true);
+        writerThread.start();
+    }
+
+    /**
+     * This method queues an exchange to be written, it does not wait for the file.
+     * The arrays are written later and must not be modified.
+     * @param commandApdu command APDU in byte array format.
+     * @param responseApdu response APDU in byte array format.
+     * @return true if the exchange is queued, false if the recorder is closed or too many exchanges are waiting.
+     */
+    boolean record(byte[] commandApdu, byte[] responseApdu) {
+        if (commandApdu == null || responseApdu == null) {
+            return false;
+        }
+        recordingCount.incrementAndGet();
+        try {
+            if (isClosed) {
+                return false;
+            }
+            if (!pendingExchanges.offer(new byte[][]{commandApdu, responseApdu})) {
+                droppedCount.incrementAndGet();
+                return false;
+            }
+            return true;
+        } finally {
+            recordingCount.decrementAndGet();
+        }
+    }
+
+    File getFile() {
+        return file;
+    }
+
+    long getWrittenCount() {
+        return writtenCount.get();
+    }
+
+    long getDroppedCount() {
+        return droppedCount.get();
+    }
+
+    /**
+     * This method writes the exchanges that are still queued and closes the file.
+     */
+    @Override
+    public void close() {
+        if (isClosed) {
+            return;
+        }
+        isClosed = true;
+        // an exchange accepted by record before it saw isClosed is queued ahead of the end of the recording
+        while (recordingCount.get() > 0) {
+            Thread.yield();
+        }
+        try {
+            if (pendingExchanges.offer(END_OF_RECORDING, CLOSE_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS)) {
+                writerThread.join(CLOSE_TIMEOUT_MILLIS);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * This method runs on the writer thread, each batch of queued exchanges is written and flushed at once,
+     * so the file can be loaded while the recording goes on.
+     */
+    private void writeExchanges() {
+        List<byte[][]> batch = new ArrayList<>();
+        try {
+            while (true) {
+                batch.add(pendingExchanges.take());
+                pendingExchanges.drainTo(batch);
+                for (byte[][] exchange : batch) {
+                    if (exchange == END_OF_RECORDING) {
+                        return;
+                    }
+                    writer.write(commandKeyword + " : " + Utils.toHexString(exchange[0]) + "\n");
+                    writer.write(responseKeyword + " : " + Utils.toHexString(exchange[1]) + "\n\n");
+                    writtenCount.incrementAndGet();
+                }
+                writer.flush();
+                batch.clear();
+            }
+        } catch (IOException e) {
+            Log.e("ProfileRecorder", "Error while writing " + file.getName() + ": " + e.getMessage());
+        } catch (InterruptedException e) {
+            Log.e("ProfileRecorder", "Recording interrupted: " + file.getName());
+        } finally {
+            isClosed = true;
+            try {
+                writer.close();
+            } catch (IOException e) {
+                Log.e("ProfileRecorder", "Error while closing " + file.getName() + ": " + e.getMessage());
+            }
+        }
+    }
+}
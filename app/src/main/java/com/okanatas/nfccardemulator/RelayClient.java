@@ -0,0 +1,219 @@
+package com.okanatas.nfccardemulator;
+
+import android.util.Log;
+
+import java.io.IOException;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * This class was created to exchange APDUs with the relay server over a single connection.
+ * Commands are sent as framed requests with their own request id, several commands can be in flight
+ * at the same time and each response is matched to its command by id, whatever the order of arrival.
+ */
+public class RelayClient implements RelayTransport.Listener {
+
+    private static final int CONNECT_TIMEOUT_MILLIS = 3000;
+
+    private final RelayTransport transport;
+    private final Runnable onClosedListener;
+
+    private final AtomicInteger nextRequestId = new AtomicInteger();
+    private final Map<Integer, PendingResponse> pendingResponses = new ConcurrentHashMap<>();
+    /** Time the last frame was received from the relay server, in milliseconds of the elapsed time clock. */
+    private volatile long lastReceivedMillis;
+
+    /**
+     * This constructor connects to the relay server over a blocking socket.
+     * @param host host name or address of the relay server.
+     * @param port port of the relay server.
+     * @throws IOException if the connection cannot be established.
+     */
+    RelayClient(String host, int port) throws IOException {
+        this(host, port, false);
+    }
+
+    /**
+     * This constructor connects to the relay server and starts reading its responses.
+     * @param host host name or address of the relay server.
+     * @param port port of the relay server.
+     * @param useNio true to use the non-blocking transport, false to use a blocking socket.
+     * @throws IOException if the connection cannot be established.
+     */
+    RelayClient(String host, int port, boolean useNio) throws IOException {
+        this(host, port, useNio, null);
+    }
+
+    /**
+     * This constructor connects to the relay server and starts reading its responses.
+     * @param host host name or address of the relay server.
+     * @param port port of the relay server.
+     * @param useNio true to use the non-blocking transport, false to use a blocking socket.
+     * @param onClosedListener called once when the connection is closed or lost, may be null.
+     * @throws IOException if the connection cannot be established.
+     */
+    RelayClient(String host, int port, boolean useNio, Runnable onClosedListener) throws IOException {
+        this.onClosedListener = onClosedListener;
+        lastReceivedMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime());
+        transport = useNio
+                ? new NioRelayTransport(host, port, CONNECT_TIMEOUT_MILLIS, this)
+                : new SocketRelayTransport(host, port, CONNECT_TIMEOUT_MILLIS, this);
+    }
+
+    /**
+     * This method sends a command to the relay server without waiting for its response.
+     * @param command command APDU in byte array format.
+     * @return the pending response of the command.
+     * @throws IOException if the command cannot be sent.
+     */
+    PendingResponse send(byte[] command) throws IOException {
+        if (!transport.isOpen()) {
+            throw new IOException("Relay connection is closed");
+        }
+        int requestId = nextRequestId.incrementAndGet();
+        PendingResponse pendingResponse = new PendingResponse(requestId);
+        pendingResponses.put(requestId, pendingResponse);
+        if (!transport.isOpen()) {
+            // closed while registering, onClosed may have missed this command
+            pendingResponses.remove(requestId);
+            throw new IOException("Relay connection is closed");
+        }
+
+        try {
+            transport.send(new RelayFrame(RelayFrame.TYPE_COMMAND, requestId, System.currentTimeMillis(), command));
+        } catch (IOException e) {
+            pendingResponses.remove(requestId);
+            throw e;
+        }
+        return pendingResponse;
+    }
+
+    /**
+     * This method sends a command to the relay server and waits for its response.
+     * @param command command APDU in byte array format.
+     * @param timeoutMillis maximum time to wait for the response.
+     * @return response APDU or null if it did not arrive in time or the connection is lost.
+     */
+    byte[] exchange(byte[] command, long timeoutMillis) {
+        try {
+            PendingResponse pendingResponse = send(command);
+            byte[] response = pendingResponse.await(timeoutMillis);
+            if (!pendingResponse.isDone()) {
+                // a late response will be ignored when it arrives
+                pendingResponses.remove(pendingResponse.requestId);
+            }
+            return response;
+        } catch (IOException e) {
+            Log.e("RelayClient", "Error while sending the command: " + e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * This method sends a heartbeat to the relay server, its answer updates the time of the last received frame.
+     * @throws IOException if the heartbeat cannot be sent.
+     */
+    void ping() throws IOException {
+        transport.send(new RelayFrame(RelayFrame.TYPE_PING, nextRequestId.incrementAndGet(), System.currentTimeMillis(), new byte[0]));
+    }
+
+    /**
+     * This method gets the time the last frame was received from the relay server.
+     * @return time in milliseconds of the elapsed time clock, System.nanoTime based.
+     */
+    long getLastReceivedMillis() {
+        return lastReceivedMillis;
+    }
+
+    /**
+     * This method gets the status of the connection.
+     * @return true if the connection is open.
+     */
+    boolean isOpen() {
+        return transport.isOpen();
+    }
+
+    /**
+     * This method gets the number of commands waiting for their response.
+     * @return number of pending responses.
+     */
+    int getPendingCount() {
+        return pendingResponses.size();
+    }
+
+    /**
+     * This method closes the connection, commands waiting for their response are answered with null.
+     */
+    void close() {
+        transport.close();
+    }
+
+    @Override
+    public void onFrameReceived(RelayFrame frame) {
+        // any frame shows that the relay server is still alive
+        lastReceivedMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime());
+        if (frame.type == RelayFrame.TYPE_PONG) {
+            return;
+        }
+        if (frame.type != RelayFrame.TYPE_RESPONSE) {
+            Log.e("RelayClient", "Unexpected frame type: " + frame.type);
+            return;
+        }
+        PendingResponse pendingResponse = pendingResponses.remove(frame.requestId);
+        if (pendingResponse != null) {
+            pendingResponse.complete(frame.payload);
+        }
+    }
+
+    @Override
+    public void onClosed() {
+        for (PendingResponse pendingResponse : pendingResponses.values()) {
+            pendingResponse.complete(null);
+        }
+        pendingResponses.clear();
+        if (onClosedListener != null) {
+            onClosedListener.run();
+        }
+    }
+
+    /**
+     * The response of a command that was sent to the relay server.
+     */
+    static class PendingResponse {
+        final int requestId;
+        private final CountDownLatch latch = new CountDownLatch(1);
+        private volatile byte[] response;
+
+        PendingResponse(int requestId) {
+            this.requestId = requestId;
+        }
+
+        void complete(byte[] response) {
+            this.response = response;
+            latch.countDown();
+        }
+
+        /**
+         * This method waits for the response.
+         * @param timeoutMillis maximum time to wait.
+         * @return response APDU or null if it did not arrive in time or the connection is lost.
+         */
+        byte[] await(long timeoutMillis) {
+            try {
+                if (latch.await(timeoutMillis, TimeUnit.MILLISECONDS)) {
+                    return response;
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            return null;
+        }
+
+        boolean isDone() {
+            return latch.getCount() == 0;
+        }
+    }
+}
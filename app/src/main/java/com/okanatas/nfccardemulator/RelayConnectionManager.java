@@ -0,0 +1,271 @@
+package com.okanatas.nfccardemulator;
+
+import android.util.Log;
+
+import java.io.IOException;
+import java.util.Random;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * This class was created to keep a single connection to the relay server open while the network is used.
+ * The connection is opened in the background before the first command needs it, heartbeats detect a relay
+ * server that stopped answering, and a lost connection is opened again with an exponential backoff and jitter.
+ * The state is kept in a volatile field, so the APDU path can check it without blocking.
+ */
+class RelayConnectionManager {
+
+    enum State {
+        /** The manager is stopped. */
+        STOPPED,
+        /** The connection is being opened. */
+        CONNECTING,
+        /** The connection is open and the relay server answers. */
+        READY,
+        /** The connection was lost or could not be opened, the next attempt is scheduled. */
+        WAITING_TO_RECONNECT
+    }
+
+    /** The relay server is considered dead when nothing is received during this many heartbeat intervals. */
+    private static final int MISSED_HEARTBEATS_LIMIT = 3;
+
+    private final String host;
+    private final int port;
+    private final boolean useNio;
+    private final long heartbeatIntervalMillis;
+    private final long initialBackoffMillis;
+    private final long maxBackoffMillis;
+    private final Random random = new Random();
+
+    private volatile State state = State.STOPPED;
+    private volatile RelayClient relayClient;
+
+    /* guarded by this */
+    private ScheduledThreadPoolExecutor executor;
+    private ScheduledFuture<?> connectFuture;
+    private int failedAttempts;
+
+    private final AtomicInteger connectCount = new AtomicInteger();
+    private final AtomicInteger connectionLostCount = new AtomicInteger();
+
+    /**
+     * This constructor creates the manager, the connection is opened by start.
+     * @param host host name or address of the relay server.
+     * @param port port of the relay server.
+     * @param useNio true to use the non-blocking transport, false to use a blocking socket.
+     * @param heartbeatIntervalMillis time between two heartbeats.
+     * @param initialBackoffMillis time before the first new attempt after a failure, it doubles after each failure.
+     * @param maxBackoffMillis maximum time between two attempts.
+     */
+    RelayConnectionManager(String host, int port, boolean useNio, long heartbeatIntervalMillis,
+                           long initialBackoffMillis, long maxBackoffMillis) {
+        this.host = host;
+        this.port = port;
+        this.useNio = useNio;
+        this.heartbeatIntervalMillis = heartbeatIntervalMillis;
+        this.initialBackoffMillis = initialBackoffMillis;
+        this.maxBackoffMillis = maxBackoffMillis;
+    }
+
+    /**
+     * This method starts opening the connection in the background and returns immediately.
+     * Calling it again while the manager is running does nothing.
+     */
+    synchronized void start() {
+        if (executor != null) {
+            return;
+        }
+        executor = new ScheduledThreadPoolExecutor(1, runnable -> {
+            Thread thread = new Thread(runnable, "RelayConnectionManager");
+            thread.setDaemon(true);
+            return thread;
+        });
+        failedAttempts = 0;
+        state = State.CONNECTING;
+        scheduleConnect(0);
+        executor.scheduleWithFixedDelay(this::checkHeartbeat, heartbeatIntervalMillis, heartbeatIntervalMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * This method closes the connection and stops opening it again.
+     */
+    void stop() {
+        RelayClient client;
+        synchronized (this) {
+            if (executor == null) {
+                return;
+            }
+            executor.shutdownNow();
+            executor = null;
+            connectFuture = null;
+            state = State.STOPPED;
+            client = relayClient;
+            relayClient = null;
+        }
+        if (client != null) {
+            client.close();
+        }
+    }
+
+    /**
+     * This method gets the state of the connection without blocking.
+     * @return state of the connection.
+     */
+    State getState() {
+        return state;
+    }
+
+    /**
+     * This method checks if commands can be sent to the relay server, it never blocks.
+     * @return true if the connection is open and the relay server answers.
+     */
+    boolean isReady() {
+        return state == State.READY;
+    }
+
+    /**
+     * This method sends a command to the relay server and waits for its response.
+     * @param command command APDU in byte array format.
+     * @param timeoutMillis maximum time to wait for the response.
+     * @return response APDU, or null if the connection is not ready or the response did not arrive in time.
+     */
+    byte[] exchange(byte[] command, long timeoutMillis) {
+        RelayClient client = relayClient;
+        if (state != State.READY || client == null) {
+            return null;
+        }
+        return client.exchange(command, timeoutMillis);
+    }
+
+    /**
+     * This method gets the number of times the connection was opened.
+     * @return number of successful connections.
+     */
+    int getConnectCount() {
+        return connectCount.get();
+    }
+
+    /**
+     * This method gets the number of times an open connection was lost.
+     * @return number of lost connections.
+     */
+    int getConnectionLostCount() {
+        return connectionLostCount.get();
+    }
+
+    /**
+     * This method computes the time to wait before the next attempt, doubled after each failure.
+     * A random part spreads the attempts, so that several devices do not reconnect at the same moment.
+     * @param failedAttempts number of failed attempts in a row.
+     * @return delay in milliseconds.
+     */
+    long getBackoffMillis(int failedAttempts) {
+        if (failedAttempts <= 0) {
+            return 0;
+        }
+        long backoff = initialBackoffMillis << Math.min(failedAttempts - 1, 30);
+        if (backoff <= 0 || backoff > maxBackoffMillis) {
+            backoff = maxBackoffMillis;
+        }
+        // between half and all of the backoff
+        return backoff / 2 + (long) (random.nextDouble() * (backoff - backoff / 2));
+    }
+
+    /**
+     * This method schedules an attempt to open the connection, unless one is already scheduled.
+     * It must be called with the lock of this manager held.
+     * @param delayMillis delay before the attempt.
+     */
+    private void scheduleConnect(long delayMillis) {
+        if (executor == null || (connectFuture != null && !connectFuture.isDone())) {
+            return;
+        }
+        connectFuture = executor.schedule(this::connect, delayMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * This method opens the connection, it runs on the thread of the manager.
+     */
+    private void connect() {
+        synchronized (this) {
+            if (executor == null || state == State.READY) {
+                return;
+            }
+            state = State.CONNECTING;
+        }
+
+        RelayClient client = null;
+        try {
+            client = new RelayClient(host, port, useNio, this::onConnectionClosed);
+        } catch (IOException e) {
+            Log.e("RelayConnectionManager", "Error while connecting to the relay server: " + e.getMessage());
+        }
+
+        boolean isStopped;
+        synchronized (this) {
+            isStopped = executor == null;
+            if (!isStopped) {
+                connectFuture = null;
+                if (client != null && client.isOpen()) {
+                    relayClient = client;
+                    failedAttempts = 0;
+                    state = State.READY;
+                    connectCount.incrementAndGet();
+                    Log.d("RelayConnectionManager", "Connected to the relay server");
+                } else {
+                    failedAttempts++;
+                    state = State.WAITING_TO_RECONNECT;
+                    long backoffMillis = getBackoffMillis(failedAttempts);
+                    Log.d("RelayConnectionManager", "Next attempt in " + backoffMillis + " ms");
+                    scheduleConnect(backoffMillis);
+                }
+            }
+        }
+        if (isStopped && client != null) {
+            client.close();
+        }
+    }
+
+    /**
+     * This method is called by the relay client when its connection is closed or lost.
+     */
+    private void onConnectionClosed() {
+        synchronized (this) {
+            if (executor == null || relayClient == null || relayClient.isOpen()) {
+                // stopped, or a connection that is not the current one
+                return;
+            }
+            relayClient = null;
+            state = State.WAITING_TO_RECONNECT;
+            connectionLostCount.incrementAndGet();
+            Log.e("RelayConnectionManager", "Connection to the relay server lost");
+            // the first attempt is made right away, the backoff applies if it fails
+            scheduleConnect(0);
+        }
+    }
+
+    /**
+     * This method sends a heartbeat and closes the connection if the relay server stopped answering.
+     */
+    private void checkHeartbeat() {
+        RelayClient client = relayClient;
+        if (state != State.READY || client == null) {
+            return;
+        }
+        long silentMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime()) - client.getLastReceivedMillis();
+        if (silentMillis > heartbeatIntervalMillis * MISSED_HEARTBEATS_LIMIT) {
+            Log.e("RelayConnectionManager", "No answer from the relay server for " + silentMillis + " ms");
+            // closing calls onConnectionClosed, which schedules a new connection
+            client.close();
+            return;
+        }
+        try {
+            client.ping();
+        } catch (IOException e) {
+            Log.e("RelayConnectionManager", "Error while sending the heartbeat: " + e.getMessage());
+            client.close();
+        }
+    }
+}
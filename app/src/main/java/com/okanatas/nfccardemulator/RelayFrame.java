@@ -0,0 +1,124 @@
+package com.okanatas.nfccardemulator;
+
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * This class represents a message exchanged with the relay server.
+ * Each frame is sent as a fixed size header followed by the payload, all numbers are big endian :
+ * <pre>
+ * version (1) | type (1) | request id (4) | timestamp (8) | payload length (2) | payload
+ * </pre>
+ * The request id of a response is the request id of its command, so that several commands can be
+ * in flight on the same connection and their responses can arrive in any order.
+ */
+public class RelayFrame {
+
+    /** Version of the framing, frames with another version are refused. */
+    static final byte VERSION = 1;
+
+    /* MESSAGE TYPES */
+    static final byte TYPE_COMMAND = 1;
+    static final byte TYPE_RESPONSE = 2;
+    /** Heartbeat sent to the relay server, it is answered with a PONG of the same request id. */
+    static final byte TYPE_PING = 3;
+    static final byte TYPE_PONG = 4;
+
+    static final int HEADER_SIZE = 16;
+    static final int MAX_PAYLOAD_SIZE = 0xFFFF;
+
+    final byte type;
+    final int requestId;
+    /** Time the frame was created by its sender, in milliseconds since the epoch. */
+    final long timestamp;
+    final byte[] payload;
+
+    /**
+     * This constructor creates a frame.
+     * @param type message type.
+     * @param requestId request id of the command this frame belongs to.
+     * @param timestamp creation time in milliseconds since the epoch.
+     * @param payload APDU carried by the frame.
+     */
+    RelayFrame(byte type, int requestId, long timestamp, byte[] payload) {
+        if (payload.length > MAX_PAYLOAD_SIZE) {
+            throw new IllegalArgumentException("Payload too long: " + payload.length + " bytes");
+        }
+        this.type = type;
+        this.requestId = requestId;
+        this.timestamp = timestamp;
+        this.payload = payload;
+    }
+
+    /**
+     * This method writes the header of the frame into the given buffer.
+     * @param buffer buffer with at least HEADER_SIZE bytes remaining.
+     */
+    void putHeader(ByteBuffer buffer) {
+        buffer.put(VERSION)
+                .put(type)
+                .putInt(requestId)
+                .putLong(timestamp)
+                .putShort((short) payload.length);
+    }
+
+    /**
+     * This method encodes the frame in the format sent on the connection.
+     * @return header and payload in a single byte array.
+     */
+    byte[] encode() {
+        ByteBuffer buffer = ByteBuffer.allocate(HEADER_SIZE + payload.length);
+        putHeader(buffer);
+        buffer.put(payload);
+        return buffer.array();
+    }
+
+    /**
+     * This method reads the next frame from a buffer that holds the bytes received so far.
+     * If the whole frame is not in the buffer yet, nothing is consumed.
+     * @param buffer buffer in read mode.
+     * @return the received frame, or null if more bytes are needed.
+     * @throws IOException if the frame is not valid.
+     */
+    static RelayFrame read(ByteBuffer buffer) throws IOException {
+        int start = buffer.position();
+        if (buffer.remaining() < HEADER_SIZE) {
+            return null;
+        }
+        byte version = buffer.get(start);
+        if (version != VERSION) {
+            throw new IOException("Unsupported relay frame version: " + version);
+        }
+        int payloadLength = buffer.getShort(start + HEADER_SIZE - 2) & 0xFFFF;
+        if (buffer.remaining() < HEADER_SIZE + payloadLength) {
+            return null;
+        }
+        byte type = buffer.get(start + 1);
+        int requestId = buffer.getInt(start + 2);
+        long timestamp = buffer.getLong(start + 6);
+        byte[] payload = new byte[payloadLength];
+        buffer.position(start + HEADER_SIZE);
+        buffer.get(payload);
+        return new RelayFrame(type, requestId, timestamp, payload);
+    }
+
+    /**
+     * This method reads the next frame from the connection, it blocks until the whole frame is received.
+     * @param in input stream of the connection.
+     * @return the received frame.
+     * @throws IOException if the connection is closed or the frame is not valid.
+     */
+    static RelayFrame read(DataInputStream in) throws IOException {
+        byte version = in.readByte();
+        if (version != VERSION) {
+            throw new IOException("Unsupported relay frame version: " + version);
+        }
+        byte type = in.readByte();
+        int requestId = in.readInt();
+        long timestamp = in.readLong();
+        byte[] payload = new byte[in.readUnsignedShort()];
+        in.readFully(payload);
+        return new RelayFrame(type, requestId, timestamp, payload);
+    }
+}
@@ -0,0 +1,43 @@
+package com.okanatas.nfccardemulator;
+
+import java.io.IOException;
+
+/**
+ * This interface represents a connection to the relay server that carries relay frames.
+ */
+interface RelayTransport {
+
+    /**
+     * The receiver of the frames that arrive on the connection.
+     */
+    interface Listener {
+        /**
+         * This method is called for each frame received from the relay server.
+         * @param frame the received frame.
+         */
+        void onFrameReceived(RelayFrame frame);
+
+        /**
+         * This method is called once when the connection is closed or lost.
+         */
+        void onClosed();
+    }
+
+    /**
+     * This method sends a frame to the relay server.
+     * @param frame frame to send.
+     * @throws IOException if the connection is closed or the frame cannot be sent.
+     */
+    void send(RelayFrame frame) throws IOException;
+
+    /**
+     * This method gets the status of the connection.
+     * @return true if the connection is open.
+     */
+    boolean isOpen();
+
+    /**
+     * This method closes the connection.
+     */
+    void close();
+}
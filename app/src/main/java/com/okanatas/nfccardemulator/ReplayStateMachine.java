@@ -0,0 +1,130 @@
+package com.okanatas.nfccardemulator;
+
+import java.util.Arrays;
+import java.util.Locale;
+
+/**
+ * This class was created to replay a recorded session in order, when the same command gets different answers
+ * over the session, such as a second READ BINARY or a repeated GET DATA of the transaction counter.
+ * The profile is compiled once into a transition of each step to the step that answers the same command next time.
+ * The state of the machine is the step reached by each command, so each command APDU is a single transition
+ * without any scanning, whatever the length of the session. The last answer of a command is repeated once it is reached.
+ * The machine is never modified once it is compiled, the steps reached belong to a Session.
+ */
+class ReplayStateMachine {
+
+    private final ApduProfile profile;
+    /** For each step, the step that answers the same command next time, or the step itself for the last one. */
+    private final int[] nextStep;
+    private final int commandCount;
+
+    private ReplayStateMachine(ApduProfile profile, int[] nextStep, int commandCount) {
+        this.profile = profile;
+        this.nextStep = nextStep;
+        this.commandCount = commandCount;
+    }
+
+    /**
+     * This method compiles the pairs of a profile, taken as the steps of a recorded session in their order.
+     * @param profile commands and responses of the session.
+     * @return state machine of the session.
+     */
+    static ReplayStateMachine compile(ApduProfile profile) {
+        int size = profile.size();
+        int[] nextStep = new int[size];
+        // the last step reached so far by each command, indexed by the first step of the command
+        int[] lastStep = new int[size];
+        int commandCount = 0;
+        for (int step = 0; step < size; step++) {
+            nextStep[step] = step;
+            int firstStep = profile.indexOf(profile.getCommand(step));
+            if (firstStep == step) {
+                commandCount++;
+            } else {
+                nextStep[lastStep[firstStep]] = step;
+            }
+            lastStep[firstStep] = step;
+        }
+        return new ReplayStateMachine(profile, nextStep, commandCount);
+    }
+
+    ApduProfile getProfile() {
+        return profile;
+    }
+
+    /**
+     * This method gets the number of steps of the session.
+     * @return number of steps.
+     */
+    int getStepCount() {
+        return nextStep.length;
+    }
+
+    /**
+     * This method gets the number of distinct commands of the session.
+     * @return number of distinct commands.
+     */
+    int getCommandCount() {
+        return commandCount;
+    }
+
+    /**
+     * This method starts a session at the first step of each command.
+     * @return a new session.
+     */
+    Session newSession() {
+        return new Session();
+    }
+
+    /**
+     * The steps reached by each command during a communication with the terminal.
+     * A session is used by the thread of the card emulation service, one command APDU after the other.
+     */
+    class Session {
+        /** The step reached by each command, indexed by the first step of the command, valid when its stamp is the generation. */
+        private final int[] currentStep = new int[nextStep.length];
+        private final int[] stamps = new int[nextStep.length];
+        /** Incremented on each reset, so that a reset does not clear the arrays. */
+        private int generation = 1;
+        private long transitionCount = 0;
+        private long resetCount = 0;
+
+        /**
+         * This method gets the step that answers a command and moves the command to its next step.
+         * @param firstStep first step of the command, as found in the profile.
+         * @return step whose response is the answer.
+         */
+        int advance(int firstStep) {
+            int step = (stamps[firstStep] == generation) ? currentStep[firstStep] : firstStep;
+            currentStep[firstStep] = nextStep[step];
+            stamps[firstStep] = generation;
+            transitionCount++;
+            return step;
+        }
+
+        /**
+         * This method goes back to the first step of each command, for a new communication with the terminal.
+         */
+        void reset() {
+            if (++generation == 0) {
+                // the stamps wrapped around, they are cleared once every four billion resets
+                Arrays.fill(stamps, 0);
+                generation = 1;
+            }
+            resetCount++;
+        }
+
+        ReplayStateMachine getStateMachine() {
+            return ReplayStateMachine.this;
+        }
+
+        /**
+         * This method gets the statistics of the session in a single line, for the log messages.
+         * @return statistics of the session.
+         */
+        String getStatistics() {
+            return String.format(Locale.US, "steps=%d commands=%d transitions=%d resets=%d",
+                    nextStep.length, commandCount, transitionCount, resetCount);
+        }
+    }
+}
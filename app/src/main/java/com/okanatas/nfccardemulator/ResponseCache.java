@@ -0,0 +1,248 @@
+package com.okanatas.nfccardemulator;
+
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * This class was created to keep the responses of the relay server for the commands that always get the same answer,
+ * such as READ RECORD and READ BINARY, so that repeated taps are answered from memory.
+ * The cache holds a bounded number of responses, the least recently used one is evicted first
+ * and each response expires after a fixed time. Only the INS marked as cacheable are kept,
+ * SELECT, GET PROCESSING OPTIONS and GENERATE APPLICATION CRYPTOGRAM are never cached.
+ * SELECT always goes to the card, so that the application selected on the card is the one the terminal asked for,
+ * and each response is kept with the last SELECT the card answered, as the records depend on the selected application.
+ */
+class ResponseCache {
+
+    /**
+     * The time the responses expire by.
+     */
+    interface Clock {
+        /**
+         * @return current time in nanoseconds, only the difference between two values is meaningful.
+         */
+        long nanoTime();
+    }
+
+    private static final Clock SYSTEM_CLOCK = System::nanoTime;
+
+    private final int maxEntries;
+    private final long ttlNanos;
+    private final Clock clock;
+    private final boolean[] isCacheableIns = new boolean[256];
+
+    /** Last SELECT the card answered with 9000 in this communication, null if nothing is known to be selected. Guarded by this. */
+    private byte[] selectCommand;
+
+    /* guarded by this */
+    private final LinkedHashMap<CommandKey, Entry> entries;
+
+    /* statistics, guarded by this */
+    private long hitCount;
+    private long missCount;
+    private long evictionCount;
+    private long expirationCount;
+
+    /**
+     * This constructor creates an empty cache, READ RECORD and READ BINARY are cacheable.
+     * @param maxEntries maximum number of responses kept.
+     * @param ttlMillis time a response is kept, in milliseconds.
+     */
+    ResponseCache(int maxEntries, long ttlMillis) {
+        this(maxEntries, ttlMillis, SYSTEM_CLOCK);
+    }
+
+    /**
+     * This constructor creates an empty cache whose responses expire by the given clock.
+     * @param maxEntries maximum number of responses kept.
+     * @param ttlMillis time a response is kept, in milliseconds.
+     * @param clock time the responses expire by.
+     */
+    ResponseCache(int maxEntries, long ttlMillis, Clock clock) {
+        this.maxEntries = maxEntries;
+        this.ttlNanos = TimeUnit.MILLISECONDS.toNanos(ttlMillis);
+        this.clock = clock;
+        // access order, so the first entry is the least recently used one
+        entries = new LinkedHashMap<>(16, 0.75f, true);
+        setCacheable(ISOProtocol.INS_READ_RECORD, true);
+        setCacheable(ISOProtocol.INS_READ_BINARY, true);
+    }
+
+    /**
+     * This method sets if the responses of the commands with the given INS can be cached.
+     * @param ins INS byte.
+     * @param isCacheable true to cache the responses.
+     * @throws IllegalArgumentException if the INS changes the state of the card, such as SELECT,
+     * or computes a new answer each time, such as GPO and GENERATE AC.
+     */
+    synchronized void setCacheable(byte ins, boolean isCacheable) {
+        if (isCacheable && (ins == ISOProtocol.INS_SELECT || ins == ISOProtocol.INS_GET_PROCESSING_OPTIONS
+                || ins == ISOProtocol.INS_GENERATE_APPLICATION_CRYPTOGRAM)) {
+            throw new IllegalArgumentException(String.format(Locale.US, "INS %02X can never be cached", ins));
+        }
+        isCacheableIns[ins & 0xFF] = isCacheable;
+    }
+
+    /**
+     * This method checks if the response of a command can be cached.
+     * @param commandApdu command APDU in byte array format.
+     * @return true if the INS of the command is cacheable.
+     */
+    synchronized boolean isCacheable(byte[] commandApdu) {
+        return commandApdu != null && commandApdu.length >= ISOProtocol.MIN_APDU_SIZE
+                && isCacheableIns[commandApdu[ISOProtocol.INS_INDEX] & 0xFF];
+    }
+
+    /**
+     * This method gets the cached response of a command, answered while the same application was selected.
+     * @param commandApdu command APDU in byte array format.
+     * @return the response, or null if it is not cached or expired, or if nothing is selected.
+     * The returned array is shared and must not be modified.
+     */
+    synchronized byte[] get(byte[] commandApdu) {
+        if (selectCommand == null || !isCacheable(commandApdu)) {
+            return null;
+        }
+        CommandKey key = new CommandKey(selectCommand, commandApdu);
+        Entry entry = entries.get(key);
+        if (entry == null) {
+            missCount++;
+            return null;
+        }
+        if (clock.nanoTime() - entry.createdNanos > ttlNanos) {
+            entries.remove(key);
+            expirationCount++;
+            missCount++;
+            return null;
+        }
+        hitCount++;
+        return entry.response;
+    }
+
+    /**
+     * This method keeps the response of a command, if its INS is cacheable and the command was successful.
+     * It must be called with every command sent to the card, a SELECT changes the application the next responses are kept with.
+     * @param commandApdu command APDU in byte array format.
+     * @param responseApdu response of the relay server, null if it did not answer.
+     */
+    synchronized void put(byte[] commandApdu, byte[] responseApdu) {
+        if (commandApdu != null && commandApdu.length >= ISOProtocol.MIN_APDU_SIZE
+                && commandApdu[ISOProtocol.INS_INDEX] == ISOProtocol.INS_SELECT) {
+            if (responseApdu == null) {
+                // the card may or may not have selected it, nothing is cached until the next SELECT
+                selectCommand = null;
+            } else if (isSuccessful(responseApdu)) {
+                selectCommand = commandApdu.clone();
+            }
+            return;
+        }
+        if (responseApdu == null || selectCommand == null || !isCacheable(commandApdu) || !isSuccessful(responseApdu)) {
+            return;
+        }
+        entries.put(new CommandKey(selectCommand, commandApdu.clone()), new Entry(responseApdu.clone(), clock.nanoTime()));
+        if (entries.size() > maxEntries) {
+            Iterator<CommandKey> iterator = entries.keySet().iterator();
+            iterator.next();
+            iterator.remove();
+            evictionCount++;
+        }
+    }
+
+    /**
+     * This method is called when the communication with the terminal has ended, the card is reset before the next one
+     * and nothing is selected until its first SELECT. The responses are kept for the next communication.
+     */
+    synchronized void startNewSession() {
+        selectCommand = null;
+    }
+
+    /**
+     * This method removes all the responses, the statistics are kept.
+     */
+    synchronized void clear() {
+        entries.clear();
+        selectCommand = null;
+    }
+
+    synchronized int size() {
+        return entries.size();
+    }
+
+    synchronized long getHitCount() {
+        return hitCount;
+    }
+
+    synchronized long getMissCount() {
+        return missCount;
+    }
+
+    synchronized long getEvictionCount() {
+        return evictionCount;
+    }
+
+    synchronized long getExpirationCount() {
+        return expirationCount;
+    }
+
+    /**
+     * This method gets the statistics of the cache in a single line, for the log messages.
+     * @return statistics of the cache.
+     */
+    synchronized String getStatistics() {
+        long lookups = hitCount + missCount;
+        return String.format(Locale.US, "size=%d hits=%d misses=%d hitRate=%.1f%% evictions=%d expirations=%d",
+                entries.size(), hitCount, missCount, (lookups == 0) ? 0.0 : hitCount * 100.0 / lookups,
+                evictionCount, expirationCount);
+    }
+
+    /**
+     * Transient errors of the relay are not kept, only the responses ending with 9000.
+     */
+    private static boolean isSuccessful(byte[] responseApdu) {
+        int length = responseApdu.length;
+        return length >= 2 && responseApdu[length - 2] == (byte) 0x90 && responseApdu[length - 1] == 0x00;
+    }
+
+    /**
+     * Command bytes and the SELECT answered before them, compared by content.
+     */
+    private static final class CommandKey {
+        private final byte[] selectCommand;
+        private final byte[] command;
+        private final int hash;
+
+        CommandKey(byte[] selectCommand, byte[] command) {
+            this.selectCommand = selectCommand;
+            this.command = command;
+            this.hash = 31 * Arrays.hashCode(selectCommand) + Arrays.hashCode(command);
+        }
+
+        @Override
+        public boolean equals(Object other) {
+            if (!(other instanceof CommandKey)) {
+                return false;
+            }
+            CommandKey key = (CommandKey) other;
+            return Arrays.equals(command, key.command) && Arrays.equals(selectCommand, key.selectCommand);
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+    }
+
+    private static final class Entry {
+        final byte[] response;
+        final long createdNanos;
+
+        Entry(byte[] response, long createdNanos) {
+            this.response = response;
+            this.createdNanos = createdNanos;
+        }
+    }
+}
@@ -2,9 +2,11 @@ package com.okanatas.nfccardemulator;
 
 import android.util.Log;
 
-import androidx.annotation.NonNull;
-
-import org.jetbrains.annotations.Contract;
+import java.io.File;
+import java.io.IOException;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.Locale;
 
 /**
  * This class was created to select responses for command APDU.
@@ -15,25 +17,69 @@ import org.jetbrains.annotations.Contract;
  */
 public class ResponseHandler {
 
-    private static String selectedInsDescription;
+    /** String resource of the selected INS description, 0 if there is none. */
+    private static int selectedInsDescription;
 
     private static final NetworkService networkService = new NetworkService();
-    private static boolean isUsingNetwork = false;
+    /** Network commands are answered one by one, in the order they were received. */
+    private static final ApduPipeline networkPipeline = new ApduPipeline(8, "NetworkPipeline");
+    /** Responses of the relay server to the commands that always get the same answer. */
+    private static final ResponseCache networkCache = new ResponseCache(256, 10 * 60 * 1000);
+    /** Time budgets of the network commands, late commands are answered from the file in use. */
+    private static final DeadlineRelay deadlineRelay = createDeadlineRelay();
+    /** Recorder of the network exchanges while the learn mode is on, null otherwise. */
+    private static volatile ProfileRecorder profileRecorder;
+    /** Recorder of the APDUs exchanged with the terminal while the trace recording is on, null otherwise. */
+    private static volatile TraceRecorder traceRecorder;
+    private static final long TRACE_SEGMENT_SIZE = 4L * 1024 * 1024;
+    private static final int MAX_TRACE_SEGMENTS = 16;
+    private static volatile boolean isUsingNetwork = false;
+    /** True to answer the commands in the order of the recorded session, false to answer with the first matching response. */
+    private static volatile boolean isReplayingSequence = false;
+    /** The steps reached in the session of the file in use, used by the thread of the service only. */
+    private static ReplayStateMachine.Session replaySession;
     private static float networkDelay = 0.0f;
 
     public static void setUsingNetwork(boolean isUsingNetwork) {
         ResponseHandler.isUsingNetwork = isUsingNetwork;
         if (isUsingNetwork) {
+            // the relayed card may have changed since the network was last used
+            networkCache.clear();
             networkService.connect();
         } else {
             networkService.disconnect();
         }
     }
 
+    /**
+     * This method is called when the card emulation service is created, before the first command APDU.
+     * The connection to the relay server is opened right away, so the first command does not wait for it.
+     */
+    static void onServiceCreated() {
+        if (isUsingNetwork) {
+            networkService.connect();
+        }
+    }
+
     public static boolean isUsingNetwork() {
         return isUsingNetwork;
     }
 
+    /**
+     * This method chooses how the file in use answers a command that appears several times in it.
+     *
+     * @param isReplayingSequence true to answer with the next response of the recorded session,
+     *                            false to answer with the first matching response.
+     */
+    public static void setReplayingSequence(boolean isReplayingSequence) {
+        ResponseHandler.isReplayingSequence = isReplayingSequence;
+        FileHandler.setReplayCompiled(isReplayingSequence);
+    }
+
+    public static boolean isReplayingSequence() {
+        return isReplayingSequence;
+    }
+
     public static void setNetworkDelay(float networkDelay) {
         ResponseHandler.networkDelay = networkDelay;
     }
@@ -47,283 +93,293 @@ public class ResponseHandler {
     }
 
     /**
-     * This method was created to get the response of the command APDU in asynchronous way in case
-     * the file handler way is used
+     * This method selects the response of the command APDU from the file in use.
+     * It works on the command bytes only and does not allocate memory, the returned array is shared and must not be modified.
      *
-     * @param commandApdu     command APDU in byte array format.
-     * @param responseHandler response handler interface.
-     * @return a runnable object to handle the response asynchronously.
+     * @param commandApdu command APDU in byte array format.
+     * @return response APDU in byte array format.
      */
-    @NonNull
-    @Contract(pure = true)
-    private static Runnable getFileHandlerResponse(byte[] commandApdu, ResponseHandlerInterface responseHandler) {
-        return () -> {
-            byte[] responseApdu;
-
-            if (commandApdu != null) {
-
-                String hexCommandApdu = Utils.toHexString(commandApdu);
-
-                if ((hexCommandApdu.length() < ISOProtocol.MIN_APDU_LENGTH) || (hexCommandApdu.length() % 2 != 0)) {
-                    responseApdu = Utils.hexStringToByteArray(ISOProtocol.SW_COMMAND_ABORTED);
-                    ResponseHandler.setSelectedInsDescription(InformationTransferManager.getStringResource(R.string.command_aborted_with_reason));
-                } else {
-                    /* Switch for INS : this is the index 1 for commandApdu byte array */
-                    switch (hexCommandApdu.substring(2, 4)) {
-                        case ISOProtocol.INS_SELECT:
-                            responseApdu = ResponseHandler.selectCase(hexCommandApdu);
-                            break;
-                        case ISOProtocol.INS_READ_BINARY:
-                            responseApdu = ResponseHandler.readBinaryCase();
-                            break;
-                        case ISOProtocol.INS_WRITE_BINARY:
-                            responseApdu = ResponseHandler.writeBinaryCase();
-                            break;
-                        case ISOProtocol.INS_UPDATE_BINARY:
-                            responseApdu = ResponseHandler.updateBinaryCase();
-                            break;
-                        case ISOProtocol.INS_READ_RECORD:
-                            responseApdu = ResponseHandler.readRecordCase(hexCommandApdu);
-                            break;
-                        case ISOProtocol.INS_READ_NDEF:
-                            responseApdu = ResponseHandler.readNdefCase();
-                            break;
-                        case ISOProtocol.INS_PERFORM_SECURITY_OPERATION:
-                            responseApdu = ResponseHandler.performSecurityOperationCase();
-                            break;
-                        case ISOProtocol.INS_GET_PROCESSING_OPTIONS:
-                            responseApdu = ResponseHandler.getProcessingOptionCase(hexCommandApdu);
-                            break;
-                        case ISOProtocol.INS_GENERATE_APPLICATION_CRYPTOGRAM:
-                            responseApdu = ResponseHandler.generateApplicationCryptogramCase();
-                            break;
-                        case ISOProtocol.INS_GET_DATA:
-                            responseApdu = ResponseHandler.getDataCase();
-                            break;
-                        default:
-                            responseApdu = Utils.hexStringToByteArray(ISOProtocol.SW_INS_NOT_SUPPORTED_OR_INVALID);
-                    }
-                }
-
-            } else {
-                responseApdu = Utils.hexStringToByteArray(ISOProtocol.SW_COMMAND_ABORTED);
-            }
-            responseHandler.onResponseReceived(responseApdu);
-        };
+    static byte[] getFileHandlerResponse(byte[] commandApdu) {
+        if (commandApdu == null || commandApdu.length < ISOProtocol.MIN_APDU_SIZE) {
+            selectedInsDescription = R.string.command_aborted_with_reason;
+        } else {
+            selectedInsDescription = getInsDescription(commandApdu[ISOProtocol.INS_INDEX]);
+        }
+        ApduProfile profile = FileHandler.getActiveProfile();
+        return ApduDispatcher.dispatch(profile, isReplayingSequence ? getReplaySession(profile) : null, commandApdu);
     }
 
     /**
-     * This method was created to get the response of the command APDU in asynchronous way in case
-     * the network way is used
+     * This method gets the steps reached in the session of the file in use.
      *
-     * @param commandApdu     command APDU in byte array format.
-     * @param responseHandler response handler interface.
-     * @return a runnable object to handle the response asynchronously.
+     * @param profile the file in use.
+     * @return steps reached, from the first step of each command if another file was in use.
      */
-    private static Runnable getNetworkResponse(byte[] commandApdu, ResponseHandlerInterface responseHandler) {
-        return () -> {
-            networkService.sendCommand(commandApdu);
-            byte[] responseApdu = networkService.waitForResponse();
-            responseHandler.onResponseReceived(responseApdu);
-        };
-    }
-
-    public static Runnable getResponse(byte[] commandApdu, ResponseHandlerInterface responseHandler) {
-        if (isUsingNetwork) {
-            Log.d("ResponseHandler", "Using network service");
-            Log.d("ResponseHandler", "Sleeping for: " + networkDelay + " seconds");
-            try {
-                Thread.sleep((long) (networkDelay * 1000));
-            } catch (InterruptedException e) {
-                Log.e("ResponseHandler", "Error while sleeping: " + e.getMessage());
-            }
-            return getNetworkResponse(commandApdu, responseHandler);
-        } else {
-            return getFileHandlerResponse(commandApdu, responseHandler);
+    private static ReplayStateMachine.Session getReplaySession(ApduProfile profile) {
+        ReplayStateMachine.Session session = replaySession;
+        if (session == null || session.getStateMachine().getProfile() != profile) {
+            session = FileHandler.getReplayStateMachine(profile).newSession();
+            replaySession = session;
         }
+        return session;
     }
 
     /**
-     * Command APDU - Select Case.
+     * This method gets the response of a network command that was already answered by the relay server.
+     * It does not wait, the returned array is shared and must not be modified.
      *
-     * @param hexCommandApdu command APDU in hexadecimal format.
-     * @return response APDU.
+     * @param commandApdu command APDU in byte array format.
+     * @return the cached response, or null if the command has to be sent to the relay server.
      */
-    private static byte[] selectCase(String hexCommandApdu) {
-        byte[] responseApdu = Utils.hexStringToByteArray(ISOProtocol.SW_FILE_NOT_FOUND);
-        selectedInsDescription = InformationTransferManager.getStringResource(R.string.ins_select_case);
-
-        for (int i = 0; i < FileHandler.commands.size(); i++) {
-            if (hexCommandApdu.equals(FileHandler.commands.get(i))) {
-                responseApdu = Utils.hexStringToByteArray(FileHandler.responses.get(i));
-                break;
-            }
+    static byte[] getCachedNetworkResponse(byte[] commandApdu) {
+        byte[] responseApdu = networkCache.get(commandApdu);
+        if (responseApdu != null) {
+            selectedInsDescription = getInsDescription(commandApdu[ISOProtocol.INS_INDEX]);
+            recordNetworkExchange(commandApdu, responseApdu);
         }
         return responseApdu;
     }
 
     /**
-     * Command APDU - Read Binary Case.
+     * This method starts the learn mode, each exchange with the relay server is recorded into a new txt file
+     * of the app files directory, which can be used later like an imported file.
+     * A recording already on is stopped, its file is closed off the calling thread.
      *
-     * @return response APDU.
+     * @param directory directory of the new file.
+     * @return the file the exchanges are recorded into.
+     * @throws IOException if the file cannot be created.
      */
-    private static byte[] readBinaryCase() {
-        byte[] responseApdu = Utils.hexStringToByteArray(ISOProtocol.SW_RECORD_NOT_FOUND);
-        selectedInsDescription = InformationTransferManager.getStringResource(R.string.ins_read_binary);
-
-        for (int i = 0; i < FileHandler.commands.size(); i++) {
-            if (ISOProtocol.INS_READ_BINARY.equals(FileHandler.commands.get(i).substring(2, 4))) {
-                responseApdu = Utils.hexStringToByteArray(FileHandler.responses.get(i));
-                break;
-            }
+    public static synchronized File startCapture(File directory) throws IOException {
+        ProfileRecorder previousRecorder = stopCapture();
+        if (previousRecorder != null) {
+            FileHandler.closeCaptureInBackground(previousRecorder, null);
         }
-        return responseApdu;
+        String fileName = "capture_" + new SimpleDateFormat("yyyyMMdd_HHmmss", Locale.US).format(new Date()) + ".txt";
+        profileRecorder = new ProfileRecorder(new File(directory, fileName), FileHandler.getCommandKeyword(), FileHandler.getResponseKeyword());
+        Log.d("ResponseHandler", "Learn mode started: " + fileName);
+        return profileRecorder.getFile();
     }
 
     /**
-     * Command APDU - Get Processing Option Case.
+     * This method stops the learn mode, no exchange is recorded anymore. The recorder is not closed here,
+     * closing it waits for the exchanges that are not written yet, see FileHandler.closeCaptureInBackground.
      *
-     * @param hexCommandApdu command APDU in hexadecimal format.
-     * @return response APDU.
+     * @return the recorder to close, or null if the learn mode was not on.
      */
-    private static byte[] getProcessingOptionCase(String hexCommandApdu) {
-        byte[] responseApdu = Utils.hexStringToByteArray(ISOProtocol.SW_COMMAND_ABORTED);
-        selectedInsDescription = InformationTransferManager.getStringResource(R.string.ins_get_processing_option);
-
-        for (int i = 0; i < FileHandler.commands.size(); i++) {
-            if (hexCommandApdu.equals(FileHandler.commands.get(i))) {
-                responseApdu = Utils.hexStringToByteArray(FileHandler.responses.get(i));
-                break;
-            }
-        }
-        return responseApdu;
+    public static synchronized ProfileRecorder stopCapture() {
+        ProfileRecorder recorder = profileRecorder;
+        profileRecorder = null;
+        return recorder;
+    }
+
+    public static boolean isCapturing() {
+        return profileRecorder != null;
     }
 
     /**
-     * Command APDU - Read Record Case.
+     * This method records an answer of the relay server if the learn mode is on, it does not wait for the file.
      *
-     * @param hexCommandApdu command APDU in hexadecimal format.
-     * @return response APDU.
+     * @param commandApdu  command APDU in byte array format.
+     * @param responseApdu response of the relay server, ignored if null.
      */
-    private static byte[] readRecordCase(String hexCommandApdu) {
-        byte[] responseApdu = Utils.hexStringToByteArray(ISOProtocol.SW_RECORD_NOT_FOUND);
-        selectedInsDescription = InformationTransferManager.getStringResource(R.string.ins_read_record);
-
-        for (int i = 0; i < FileHandler.commands.size(); i++) {
-            if (hexCommandApdu.equals(FileHandler.commands.get(i))) {
-                responseApdu = Utils.hexStringToByteArray(FileHandler.responses.get(i));
-                break;
-            }
+    private static void recordNetworkExchange(byte[] commandApdu, byte[] responseApdu) {
+        ProfileRecorder recorder = profileRecorder;
+        if (recorder != null && responseApdu != null) {
+            recorder.record(commandApdu, responseApdu);
         }
-        return responseApdu;
     }
 
     /**
-     * Command APDU - Perform Security Operation Case.
+     * This method starts the trace recording, each APDU exchanged with the terminal is recorded with its time
+     * into binary segments of the given directory, see TraceRecorder.
      *
-     * @return response APDU.
+     * A recording already on is stopped, its segments are closed off the calling thread.
+     *
+     * @param directory directory of the segments.
+     * @return name of the recording, the segments are named after it.
+     * @throws IOException if the first segment cannot be created.
      */
-    private static byte[] performSecurityOperationCase() {
-        byte[] responseApdu = Utils.hexStringToByteArray(ISOProtocol.SW_COMMAND_ABORTED);
-        selectedInsDescription = InformationTransferManager.getStringResource(R.string.ins_perform_security);
-
-        for (int i = 0; i < FileHandler.commands.size(); i++) {
-            if (ISOProtocol.INS_PERFORM_SECURITY_OPERATION.equals(FileHandler.commands.get(i).substring(2, 4))) {
-                responseApdu = Utils.hexStringToByteArray(FileHandler.responses.get(i));
-                break;
-            }
+    public static synchronized String startTrace(File directory) throws IOException {
+        TraceRecorder previousRecorder = stopTrace();
+        if (previousRecorder != null) {
+            FileHandler.closeTraceInBackground(previousRecorder);
         }
-        return responseApdu;
+        String baseName = "trace_" + new SimpleDateFormat("yyyyMMdd_HHmmss", Locale.US).format(new Date());
+        traceRecorder = new TraceRecorder(directory, baseName, TRACE_SEGMENT_SIZE, MAX_TRACE_SEGMENTS);
+        Log.d("ResponseHandler", "Trace recording started: " + baseName);
+        return baseName;
     }
 
     /**
-     * Command APDU - Read NDEF Case.
+     * This method stops the trace recording, no APDU is recorded anymore. The recorder is not closed here,
+     * closing it waits for the APDUs that are not written yet, see FileHandler.convertTraceInBackground.
      *
-     * @return response APDU.
+     * @return the recorder to close, or null if the trace recording was not on.
      */
-    private static byte[] readNdefCase() {
-        byte[] responseApdu = Utils.hexStringToByteArray(ISOProtocol.SW_COMMAND_ABORTED);
-        selectedInsDescription = InformationTransferManager.getStringResource(R.string.ins_read_ndef);
-
-        for (int i = 0; i < FileHandler.commands.size(); i++) {
-            if (ISOProtocol.INS_READ_NDEF.equals(FileHandler.commands.get(i).substring(2, 4))) {
-                responseApdu = Utils.hexStringToByteArray(FileHandler.responses.get(i));
-                break;
-            }
+    public static synchronized TraceRecorder stopTrace() {
+        TraceRecorder recorder = traceRecorder;
+        traceRecorder = null;
+        return recorder;
+    }
+
+    public static boolean isTracing() {
+        return traceRecorder != null;
+    }
+
+    /**
+     * This method is called when a new communication with the terminal starts, before its first APDU is recorded.
+     */
+    static void onCommunicationStarted() {
+        TraceRecorder recorder = traceRecorder;
+        if (recorder != null) {
+            recorder.startSession();
         }
-        return responseApdu;
     }
 
     /**
-     * Command APDU - Write Binary Case.
+     * This method records a command and its response if the trace recording is on, it does not wait for the file.
      *
-     * @return response APDU.
+     * @param source       TraceRecorder.SOURCE_FILE, SOURCE_RELAY or SOURCE_CACHE.
+     * @param commandApdu  command APDU in byte array format, or null.
+     * @param receivedNanos time the command was received, from System.nanoTime().
+     * @param responseApdu response APDU in byte array format.
      */
-    private static byte[] writeBinaryCase() {
-        byte[] responseApdu = Utils.hexStringToByteArray(ISOProtocol.SW_COMMAND_ABORTED);
-        selectedInsDescription = InformationTransferManager.getStringResource(R.string.ins_write_binary);
-
-        for (int i = 0; i < FileHandler.commands.size(); i++) {
-            if (ISOProtocol.INS_WRITE_BINARY.equals(FileHandler.commands.get(i).substring(2, 4))) {
-                responseApdu = Utils.hexStringToByteArray(FileHandler.responses.get(i));
-                break;
-            }
+    static void traceExchange(int source, byte[] commandApdu, long receivedNanos, byte[] responseApdu) {
+        TraceRecorder recorder = traceRecorder;
+        if (recorder != null) {
+            recorder.record(TraceRecorder.DIRECTION_COMMAND, source, receivedNanos, commandApdu);
+            recorder.record(TraceRecorder.DIRECTION_RESPONSE, source, System.nanoTime(), responseApdu);
         }
-        return responseApdu;
     }
 
     /**
-     * Command APDU - Update Binary Case.
+     * This method was created to get the response of the command APDU in asynchronous way in case
+     * the network way is used
      *
-     * @return response APDU.
+     * @param commandApdu     command APDU in byte array format.
+     * @param receivedNanos   time the command was received, from System.nanoTime().
+     * @param delayMillis     network delay waited before the command is sent, the time budget starts after it.
+     * @param responseHandler response handler interface.
+     * @return a runnable object to handle the response asynchronously.
      */
-    private static byte[] updateBinaryCase() {
-        byte[] responseApdu = Utils.hexStringToByteArray(ISOProtocol.SW_COMMAND_ABORTED);
-        selectedInsDescription = InformationTransferManager.getStringResource(R.string.ins_update_binary);
-
-        for (int i = 0; i < FileHandler.commands.size(); i++) {
-            if (ISOProtocol.INS_UPDATE_BINARY.equals(FileHandler.commands.get(i).substring(2, 4))) {
-                responseApdu = Utils.hexStringToByteArray(FileHandler.responses.get(i));
-                break;
-            }
-        }
-        return responseApdu;
+    private static Runnable getNetworkResponse(byte[] commandApdu, long receivedNanos, long delayMillis, ResponseHandlerInterface responseHandler) {
+        return () -> {
+            // the terminal must always get an answer, even if the relay server does not respond in time
+            responseHandler.onResponseReceived(deadlineRelay.exchange(commandApdu, receivedNanos, delayMillis, FileHandler.getActiveProfile()));
+        };
     }
 
     /**
-     * Command APDU - Generate Application Cryptogram Case.
+     * This method was created to get the response of the command APDU from the network in asynchronous way.
+     * Responses from the file in use are returned directly by getFileHandlerResponse.
+     * The command is queued behind the previous ones and the network delay is waited on the pipeline thread.
      *
-     * @return response APDU.
+     * @param commandApdu     command APDU in byte array format.
+     * @param receivedNanos   time the command was received, from System.nanoTime().
+     * @param responseHandler response handler interface.
+     * @return true if the command is queued, false if too many commands are already waiting.
      */
-    private static byte[] generateApplicationCryptogramCase() {
-        byte[] responseApdu = Utils.hexStringToByteArray(ISOProtocol.SW_COMMAND_ABORTED);
-        selectedInsDescription = InformationTransferManager.getStringResource(R.string.ins_generate_app_cryptogram);
-
-        for (int i = 0; i < FileHandler.commands.size(); i++) {
-            if (ISOProtocol.INS_GENERATE_APPLICATION_CRYPTOGRAM.equals(FileHandler.commands.get(i).substring(2, 4))) {
-                responseApdu = Utils.hexStringToByteArray(FileHandler.responses.get(i));
-                break;
-            }
+    public static boolean getResponse(byte[] commandApdu, long receivedNanos, ResponseHandlerInterface responseHandler) {
+        ApduLogger.d("ResponseHandler", () -> "Using network service, delay: " + networkDelay + " seconds");
+        long delayMillis = (long) (networkDelay * 1000);
+        boolean isQueued = networkPipeline.submit(getNetworkResponse(commandApdu, receivedNanos, delayMillis, responseHandler), delayMillis);
+        if (!isQueued) {
+            Log.e("ResponseHandler", "Network pipeline is full: " + networkPipeline.getStatistics());
         }
-        return responseApdu;
+        return isQueued;
     }
 
     /**
-     * Command APDU - Get Data Case.
+     * This method is called when the communication with the terminal has ended.
+     * Network commands of this communication that are still waiting are dropped, the replayed session starts over.
+     */
+    static void onCommunicationEnded() {
+        ReplayStateMachine.Session session = replaySession;
+        if (session != null) {
+            // the next terminal replays the session from its first step
+            session.reset();
+            ApduLogger.d("ResponseHandler", () -> "Sequence replay: " + session.getStatistics());
+        }
+        networkPipeline.startNewSession();
+        // the card is reset for the next terminal, which selects its application again
+        networkCache.startNewSession();
+        // the statistics are built only when they are sent to Logcat
+        ApduLogger.d("ResponseHandler", () -> "Network pipeline: " + networkPipeline.getStatistics());
+        ApduLogger.d("ResponseHandler", () -> "Network deadlines: " + deadlineRelay.getStatistics());
+        ApduLogger.d("ResponseHandler", () -> "Network cache: " + networkCache.getStatistics());
+    }
+
+    /**
+     * This method creates the time budgets of the network commands.
+     * Commands the relay server has to compute on the real card get more time than the ones a profile can answer.
+     *
+     * @return relay with the time budgets of the network commands.
+     */
+    private static DeadlineRelay createDeadlineRelay() {
+        DeadlineRelay relay = new DeadlineRelay((command, timeoutMillis) -> {
+            byte[] responseApdu = networkService.sendCommand(command, timeoutMillis);
+            // only the answers of the relay server are cached and recorded, never the fallback answers,
+            // each SELECT sent to the card is passed too, the responses are kept with the selected application
+            networkCache.put(command, responseApdu);
+            recordNetworkExchange(command, responseApdu);
+            return responseApdu;
+        }, 1000);
+        relay.setBudgetMillis(ISOProtocol.INS_GET_PROCESSING_OPTIONS, 2000);
+        relay.setBudgetMillis(ISOProtocol.INS_GENERATE_APPLICATION_CRYPTOGRAM, 2000);
+        relay.setBudgetMillis(ISOProtocol.INS_PERFORM_SECURITY_OPERATION, 2000);
+        return relay;
+    }
+
+    /**
+     * This method sets the time budget of the network commands with the given INS.
+     *
+     * @param ins          INS byte of the command APDU.
+     * @param budgetMillis time to wait for the relay server in milliseconds.
+     */
+    public static void setNetworkBudgetMillis(byte ins, long budgetMillis) {
+        deadlineRelay.setBudgetMillis(ins, budgetMillis);
+    }
+
+    /**
+     * This method sets the answer of the network commands the relay server did not answer in time.
+     *
+     * @param statusWord status word to answer with, or null to answer from the file in use.
+     */
+    public static void setNetworkFallbackStatusWord(byte[] statusWord) {
+        deadlineRelay.setFallbackStatusWord(statusWord);
+    }
+
+    /**
+     * This method gets the description of the case selected for the INS byte.
      *
-     * @return response APDU.
+     * @param ins INS byte of the command APDU.
+     * @return String resource of the INS description or 0 if the INS is not supported.
      */
-    private static byte[] getDataCase() {
-        byte[] responseApdu = Utils.hexStringToByteArray(ISOProtocol.SW_COMMAND_ABORTED);
-        selectedInsDescription = InformationTransferManager.getStringResource(R.string.ins_get_data);
-
-        for (int i = 0; i < FileHandler.commands.size(); i++) {
-            if (ISOProtocol.INS_GET_DATA.equals(FileHandler.commands.get(i).substring(2, 4))) {
-                responseApdu = Utils.hexStringToByteArray(FileHandler.responses.get(i));
-                break;
-            }
+    private static int getInsDescription(byte ins) {
+        switch (ins) {
+            case ISOProtocol.INS_SELECT:
+                return R.string.ins_select_case;
+            case ISOProtocol.INS_READ_BINARY:
+                return R.string.ins_read_binary;
+            case ISOProtocol.INS_WRITE_BINARY:
+                return R.string.ins_write_binary;
+            case ISOProtocol.INS_UPDATE_BINARY:
+                return R.string.ins_update_binary;
+            case ISOProtocol.INS_READ_RECORD:
+                return R.string.ins_read_record;
+            case ISOProtocol.INS_READ_NDEF:
+                return R.string.ins_read_ndef;
+            case ISOProtocol.INS_PERFORM_SECURITY_OPERATION:
+                return R.string.ins_perform_security;
+            case ISOProtocol.INS_GET_PROCESSING_OPTIONS:
+                return R.string.ins_get_processing_option;
+            case ISOProtocol.INS_GENERATE_APPLICATION_CRYPTOGRAM:
+                return R.string.ins_generate_app_cryptogram;
+            case ISOProtocol.INS_GET_DATA:
+                return R.string.ins_get_data;
+            default:
+                return 0;
         }
-        return responseApdu;
     }
 
     /**
@@ -332,15 +388,16 @@ public class ResponseHandler {
      * @return selected INS description.
      */
     static String getSelectedInsDescription() {
-        return selectedInsDescription;
+        // the description is resolved only when it is asked for, not for each command APDU
+        return (selectedInsDescription == 0) ? null : InformationTransferManager.getStringResource(selectedInsDescription);
     }
 
     /**
      * To set selected INS description.
      *
-     * @param description INS description.
+     * @param description String resource of the INS description.
      */
-    static void setSelectedInsDescription(String description) {
+    static void setSelectedInsDescription(int description) {
         selectedInsDescription = description;
     }
 
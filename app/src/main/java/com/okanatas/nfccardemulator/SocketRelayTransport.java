@@ -0,0 +1,96 @@
+package com.okanatas.nfccardemulator;
+
+import android.util.Log;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * This class was created to carry relay frames over a blocking socket, with a thread that reads the responses.
+ */
+class SocketRelayTransport implements RelayTransport {
+
+    private final Socket socket;
+    private final OutputStream outputStream;
+    private final DataInputStream inputStream;
+    private final Listener listener;
+    private final AtomicBoolean isOpen = new AtomicBoolean(true);
+
+    /**
+     * This constructor connects to the relay server and starts reading its frames.
+     * @param host host name or address of the relay server.
+     * @param port port of the relay server.
+     * @param connectTimeoutMillis maximum time to establish the connection.
+     * @param listener receiver of the frames.
+     * @throws IOException if the connection cannot be established.
+     */
+    SocketRelayTransport(String host, int port, int connectTimeoutMillis, Listener listener) throws IOException {
+        this.listener = listener;
+        socket = new Socket();
+        socket.setTcpNoDelay(true);
+        socket.connect(new InetSocketAddress(host, port), connectTimeoutMillis);
+        outputStream = socket.getOutputStream();
+        inputStream = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+
+        Thread readerThread = new Thread(this::readFrames, "SocketRelayTransportReader");
+        readerThread.setDaemon(true);
+        readerThread.start();
+    }
+
+    @Override
+    public void send(RelayFrame frame) throws IOException {
+        if (!isOpen.get()) {
+            throw new IOException("Relay connection is closed");
+        }
+        // the whole frame is written at once, so that it is not split into several small segments
+        byte[] encodedFrame = frame.encode();
+        try {
+            synchronized (outputStream) {
+                outputStream.write(encodedFrame);
+                outputStream.flush();
+            }
+        } catch (IOException e) {
+            close();
+            throw e;
+        }
+    }
+
+    @Override
+    public boolean isOpen() {
+        return isOpen.get();
+    }
+
+    @Override
+    public void close() {
+        if (isOpen.compareAndSet(true, false)) {
+            try {
+                socket.close();
+            } catch (IOException e) {
+                Log.e("SocketRelayTransport", "Error while closing the socket: " + e.getMessage());
+            }
+            listener.onClosed();
+        }
+    }
+
+    /**
+     * This method runs on the reader thread and passes each received frame to the listener.
+     */
+    private void readFrames() {
+        try {
+            while (isOpen.get()) {
+                listener.onFrameReceived(RelayFrame.read(inputStream));
+            }
+        } catch (IOException e) {
+            if (isOpen.get()) {
+                Log.e("SocketRelayTransport", "Error while receiving a frame: " + e.getMessage());
+            }
+        } finally {
+            close();
+        }
+    }
+}
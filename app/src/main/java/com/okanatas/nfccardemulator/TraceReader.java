@@ -0,0 +1,186 @@
+package com.okanatas.nfccardemulator;
+
+import android.util.Log;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * This class was created to read the trace segments written by TraceRecorder.
+ * The records are read in order through a buffer of a fixed size, the whole segment is never loaded in memory.
+ * The segments can be converted to a txt file in the format read by FileHandler, so that a recorded communication
+ * can be emulated again like an imported file.
+ */
+class TraceReader {
+
+    private static final String TAG = "TraceReader";
+    private static final int READ_BUFFER_SIZE = 64 * 1024;
+
+    /**
+     * The receiver of the records read from a segment.
+     */
+    interface RecordHandler {
+        /**
+         * The array is reused by the reader, its content must be copied before this method returns.
+         * @param session number of the communication with the terminal.
+         * @param timestampNanos time the APDU was received or sent, from System.nanoTime().
+         * @param direction TraceRecorder.DIRECTION_COMMAND or TraceRecorder.DIRECTION_RESPONSE.
+         * @param source TraceRecorder.SOURCE_FILE, SOURCE_RELAY or SOURCE_CACHE.
+         * @param apdu array holding the APDU from position 0.
+         * @param apduLength length of the APDU.
+         */
+        void onRecord(int session, long timestampNanos, int direction, int source, byte[] apdu, int apduLength);
+    }
+
+    private TraceReader() {
+    }
+
+    /**
+     * This method reads the records of a segment in the order they were written.
+     * The reading stops at the end of the written records, a record cut by the end of the file is ignored.
+     * @param segment trace segment.
+     * @param handler receiver of the records.
+     * @return number of records read.
+     * @throws IOException if the file cannot be read or is not a trace segment.
+     */
+    static long read(File segment, RecordHandler handler) throws IOException {
+        try (FileInputStream stream = new FileInputStream(segment)) {
+            FileChannel channel = stream.getChannel();
+            ByteBuffer buffer = ByteBuffer.allocate(READ_BUFFER_SIZE);
+            buffer.flip();
+            if (!fill(channel, buffer, TraceRecorder.SEGMENT_HEADER_SIZE)
+                    || buffer.getInt() != TraceRecorder.MAGIC || buffer.getInt() != TraceRecorder.VERSION) {
+                throw new IOException("Not a trace segment: " + segment.getName());
+            }
+            // the index and the creation times are not needed to read the records
+            buffer.position(buffer.position() + TraceRecorder.SEGMENT_HEADER_SIZE - 8);
+
+            byte[] apdu = new byte[256];
+            long count = 0;
+            while (fill(channel, buffer, 4)) {
+                int length = buffer.getInt();
+                if (length == 0) {
+                    // the reserved end of a segment that was not closed
+                    break;
+                }
+                if (length < TraceRecorder.RECORD_HEADER_SIZE - 4 || length > TraceRecorder.MAX_RECORD_SIZE - 4) {
+                    Log.e(TAG, "Invalid record in " + segment.getName() + " after " + count + " records");
+                    break;
+                }
+                if (length > buffer.capacity()) {
+                    buffer = ByteBuffer.allocate(length).put(buffer);
+                    buffer.flip();
+                }
+                if (!fill(channel, buffer, length)) {
+                    break;
+                }
+                int session = buffer.getInt();
+                long timestampNanos = buffer.getLong();
+                int direction = buffer.get();
+                int source = buffer.get();
+                int apduLength = length - (TraceRecorder.RECORD_HEADER_SIZE - 4);
+                if (apdu.length < apduLength) {
+                    apdu = new byte[Math.max(apduLength, apdu.length * 2)];
+                }
+                buffer.get(apdu, 0, apduLength);
+                handler.onRecord(session, timestampNanos, direction, source, apdu, apduLength);
+                count++;
+            }
+            return count;
+        }
+    }
+
+    /**
+     * This method converts segments to a txt file in the format read by FileHandler.
+     * Each command is written with the response that follows it in the same communication,
+     * a command without a response and a response without a command are skipped.
+     * @param segments trace segments, in the order they were written.
+     * @param target txt file, it is replaced if it exists.
+     * @param commandKeyword keyword of the command lines.
+     * @param responseKeyword keyword of the response lines.
+     * @return number of pairs written.
+     * @throws IOException if a segment cannot be read or the txt file cannot be written.
+     */
+    static long writeProfile(List<File> segments, File target, String commandKeyword, String responseKeyword) throws IOException {
+        try (Writer writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(target), "UTF-8"))) {
+            PairWriter pairWriter = new PairWriter(writer, commandKeyword, responseKeyword);
+            for (File segment : segments) {
+                read(segment, pairWriter);
+                if (pairWriter.error != null) {
+                    throw pairWriter.error;
+                }
+            }
+            return pairWriter.pairCount;
+        }
+    }
+
+    /**
+     * This method reads from the channel until the buffer holds the given number of bytes.
+     * @return false if the end of the file comes first.
+     */
+    private static boolean fill(FileChannel channel, ByteBuffer buffer, int size) throws IOException {
+        if (buffer.remaining() >= size) {
+            return true;
+        }
+        buffer.compact();
+        while (buffer.position() < size) {
+            if (channel.read(buffer) < 0) {
+                buffer.flip();
+                return false;
+            }
+        }
+        buffer.flip();
+        return true;
+    }
+
+    /**
+     * Writes each command followed by its response.
+     */
+    private static final class PairWriter implements RecordHandler {
+        private final Writer writer;
+        private final String commandKeyword;
+        private final String responseKeyword;
+        /** Command waiting for its response, in a reused array, its length is -1 if there is no command waiting. */
+        private byte[] command = new byte[256];
+        private int commandLength = -1;
+        private int commandSession;
+        long pairCount;
+        IOException error;
+
+        PairWriter(Writer writer, String commandKeyword, String responseKeyword) {
+            this.writer = writer;
+            this.commandKeyword = commandKeyword;
+            this.responseKeyword = responseKeyword;
+        }
+
+        @Override
+        public void onRecord(int session, long timestampNanos, int direction, int source, byte[] apdu, int apduLength) {
+            if (direction == TraceRecorder.DIRECTION_COMMAND) {
+                if (command.length < apduLength) {
+                    command = new byte[apduLength];
+                }
+                System.arraycopy(apdu, 0, command, 0, apduLength);
+                commandLength = apduLength;
+                commandSession = session;
+            } else if (commandLength >= 0 && commandSession == session && error == null) {
+                try {
+                    writer.write(commandKeyword + " : " + Utils.toHexString(Arrays.copyOf(command, commandLength)) + "\n");
+                    writer.write(responseKeyword + " : " + Utils.toHexString(Arrays.copyOf(apdu, apduLength)) + "\n\n");
+                    pairCount++;
+                } catch (IOException e) {
+                    error = e;
+                }
+                commandLength = -1;
+            }
+        }
+    }
+}
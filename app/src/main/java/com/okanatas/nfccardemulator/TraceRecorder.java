@@ -0,0 +1,321 @@
+package com.okanatas.nfccardemulator;
+
+import android.util.Log;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * This class was created to record each APDU exchanged with the terminal, with its time in nanoseconds, into binary trace files.
+ * Recording only queues the APDU, a background thread writes the queued records in batches through a FileChannel.
+ * The records are written into segment files of a fixed size, reserved when the segment is created,
+ * a new segment is started when the current one is full and the oldest ones are deleted beyond the given number.
+ * TraceReader reads the segments back and converts them to a txt file in the format read by FileHandler.
+ * <pre>
+ * segment : magic, version, index, creation time in milliseconds, creation time in nanoseconds, records...
+ * record  : length of the rest, session, timestamp in nanoseconds, direction, source, APDU bytes
+ * </pre>
+ * All the numbers are written in big endian order, the timestamps come from System.nanoTime().
+ * The unused end of a segment is cut when the segment is closed, if the application stops before, it is left filled with zeros.
+ */
+class TraceRecorder implements Closeable {
+
+    static final int DIRECTION_COMMAND = 0;
+    static final int DIRECTION_RESPONSE = 1;
+
+    /** The response was found in the file in use, or given by the application itself. */
+    static final int SOURCE_FILE = 0;
+    /** The response was sent by the relay server, or chosen when it did not answer in time. */
+    static final int SOURCE_RELAY = 1;
+    /** The response of the relay server was already in memory. */
+    static final int SOURCE_CACHE = 2;
+
+    static final int MAGIC = 0x4E464354; // NFCT
+    static final int VERSION = 1;
+    static final int SEGMENT_HEADER_SIZE = 4 + 4 + 4 + 8 + 8;
+    /** Size of a record without its APDU bytes, the length itself included. */
+    static final int RECORD_HEADER_SIZE = 4 + 4 + 8 + 1 + 1;
+    static final int MAX_RECORD_SIZE = RECORD_HEADER_SIZE + ProfileParser.MAX_VALUE_SIZE;
+    /** A segment holds the largest record at least. */
+    static final int MIN_SEGMENT_SIZE = SEGMENT_HEADER_SIZE + MAX_RECORD_SIZE;
+    static final String SEGMENT_EXTENSION = ".trace";
+
+    /** Maximum number of records waiting to be written, the next ones are dropped. */
+    private static final int MAX_PENDING_RECORDS = 8192;
+    private static final int WRITE_BUFFER_SIZE = 64 * 1024;
+    private static final long CLOSE_TIMEOUT_MILLIS = 2000;
+    /** Marks the end of the recording in the queue. */
+    private static final Record END_OF_RECORDING = new Record(0, 0, 0, 0, new byte[0]);
+
+    private final File directory;
+    private final String baseName;
+    private final long segmentSize;
+    private final int maxSegments;
+    private final BlockingQueue<Record> pendingRecords = new LinkedBlockingQueue<>(MAX_PENDING_RECORDS);
+    private final Thread writerThread;
+    private volatile boolean isClosed = false;
+    /** Number of calls of record between the check of isClosed and the queueing, close waits for them. */
+    private final AtomicInteger recordingCount = new AtomicInteger();
+
+    /** Segments kept on disk, the oldest first, used by the writer thread only once it is started. */
+    private final Deque<File> segments = new ArrayDeque<>();
+    private int segmentIndex = 0;
+    private RandomAccessFile segmentFile;
+    private FileChannel segmentChannel;
+    private long segmentPosition;
+    private ByteBuffer writeBuffer = ByteBuffer.allocate(WRITE_BUFFER_SIZE);
+
+    private final AtomicInteger session = new AtomicInteger();
+    private final AtomicLong writtenCount = new AtomicLong();
+    private final AtomicLong droppedCount = new AtomicLong();
+
+    /**
+     * This constructor creates the first segment and starts the writer thread.
+     * @param directory directory of the segments, it is created if needed.
+     * @param baseName name of the segments, followed by their number.
+     * @param segmentSize size of each segment in bytes, at least MIN_SEGMENT_SIZE.
+     * @param maxSegments number of segments kept, the oldest ones are deleted.
+     * @throws IOException if the first segment cannot be created.
+     */
+    TraceRecorder(File directory, String baseName, long segmentSize, int maxSegments) throws IOException {
+        if (segmentSize < MIN_SEGMENT_SIZE || maxSegments < 1) {
+            throw new IllegalArgumentException("Invalid segments: " + segmentSize + " bytes, " + maxSegments + " kept");
+        }
+        this.directory = directory;
+        this.baseName = baseName;
+        this.segmentSize = segmentSize;
+        this.maxSegments = maxSegments;
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("Directory not created: " + directory);
+        }
+        startSegment();
+
+        writerThread = new Thread(this::writeRecords, "TraceRecorder");
+        writerThread.setDaemon(true);
+        writerThread.start();
+    }
+
+    /**
+     * This method starts a new communication with the terminal, the records added from now on belong to it.
+     * @return number of the communication.
+     */
+    int startSession() {
+        return session.incrementAndGet();
+    }
+
+    String getBaseName() {
+        return baseName;
+    }
+
+    int getSession() {
+        return session.get();
+    }
+
+    /**
+     * This method queues an APDU to be written, it does not wait for the file.
+     * The array is written later and must not be modified.
+     * @param direction DIRECTION_COMMAND or DIRECTION_RESPONSE.
+     * @param source SOURCE_FILE, SOURCE_RELAY or SOURCE_CACHE.
+     * @param timestampNanos time the APDU was received or sent, from System.nanoTime().
+     * @param apdu APDU in byte array format.
+     * @return true if the APDU is queued, false if the recorder is closed or too many records are waiting.
+     */
+    boolean record(int direction, int source, long timestampNanos, byte[] apdu) {
+        if (apdu == null || apdu.length > ProfileParser.MAX_VALUE_SIZE) {
+            return false;
+        }
+        recordingCount.incrementAndGet();
+        try {
+            if (isClosed) {
+                return false;
+            }
+            if (!pendingRecords.offer(new Record(session.get(), timestampNanos, direction, source, apdu))) {
+                droppedCount.incrementAndGet();
+                return false;
+            }
+            return true;
+        } finally {
+            recordingCount.decrementAndGet();
+        }
+    }
+
+    /**
+     * This method gets the segments written so far.
+     * It should be called once the recorder is closed, the list may change while the recording goes on.
+     * @return the segments kept on disk, the oldest first.
+     */
+    List<File> getSegments() {
+        synchronized (segments) {
+            return new ArrayList<>(segments);
+        }
+    }
+
+    long getWrittenCount() {
+        return writtenCount.get();
+    }
+
+    long getDroppedCount() {
+        return droppedCount.get();
+    }
+
+    /**
+     * This method writes the records that are still queued and closes the current segment.
+     */
+    @Override
+    public void close() {
+        if (isClosed) {
+            return;
+        }
+        isClosed = true;
+        // a record accepted before isClosed was seen is queued ahead of the end of the recording
+        while (recordingCount.get() > 0) {
+            Thread.yield();
+        }
+        try {
+            if (pendingRecords.offer(END_OF_RECORDING, CLOSE_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS)) {
+                writerThread.join(CLOSE_TIMEOUT_MILLIS);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * This method runs on the writer thread, each batch of queued records is encoded into a buffer and written at once.
+     */
+    private void writeRecords() {
+        List<Record> batch = new ArrayList<>();
+        try {
+            while (true) {
+                batch.add(pendingRecords.take());
+                pendingRecords.drainTo(batch);
+                for (Record record : batch) {
+                    if (record == END_OF_RECORDING) {
+                        writeBuffer();
+                        return;
+                    }
+                    int recordSize = RECORD_HEADER_SIZE + record.apdu.length;
+                    if (segmentPosition + writeBuffer.position() + recordSize > segmentSize) {
+                        writeBuffer();
+                        endSegment();
+                        startSegment();
+                    }
+                    if (writeBuffer.remaining() < recordSize) {
+                        writeBuffer();
+                        if (writeBuffer.capacity() < recordSize) {
+                            writeBuffer = ByteBuffer.allocate(recordSize);
+                        }
+                    }
+                    writeBuffer.putInt(recordSize - 4)
+                            .putInt(record.session)
+                            .putLong(record.timestampNanos)
+                            .put((byte) record.direction)
+                            .put((byte) record.source)
+                            .put(record.apdu);
+                    writtenCount.incrementAndGet();
+                }
+                writeBuffer();
+                batch.clear();
+            }
+        } catch (IOException e) {
+            Log.e("TraceRecorder", "Error while writing " + baseName + ": " + e.getMessage());
+        } catch (InterruptedException e) {
+            Log.e("TraceRecorder", "Recording interrupted: " + baseName);
+        } finally {
+            isClosed = true;
+            try {
+                endSegment();
+            } catch (IOException e) {
+                Log.e("TraceRecorder", "Error while closing " + baseName + ": " + e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * This method writes the encoded records to the current segment.
+     */
+    private void writeBuffer() throws IOException {
+        writeBuffer.flip();
+        while (writeBuffer.hasRemaining()) {
+            segmentPosition += segmentChannel.write(writeBuffer, segmentPosition);
+        }
+        writeBuffer.clear();
+    }
+
+    /**
+     * This method creates the next segment with its full size and writes its header, the oldest segment is deleted if needed.
+     */
+    private void startSegment() throws IOException {
+        File file = new File(directory, String.format(Locale.US, "%s_%04d%s", baseName, ++segmentIndex, SEGMENT_EXTENSION));
+        segmentFile = new RandomAccessFile(file, "rw");
+        segmentFile.setLength(segmentSize);
+        segmentChannel = segmentFile.getChannel();
+        ByteBuffer header = ByteBuffer.allocate(SEGMENT_HEADER_SIZE);
+        header.putInt(MAGIC).putInt(VERSION).putInt(segmentIndex).putLong(System.currentTimeMillis()).putLong(System.nanoTime());
+        header.flip();
+        segmentPosition = 0;
+        while (header.hasRemaining()) {
+            segmentPosition += segmentChannel.write(header, segmentPosition);
+        }
+
+        synchronized (segments) {
+            segments.addLast(file);
+            while (segments.size() > maxSegments) {
+                File oldest = segments.removeFirst();
+                if (!oldest.delete()) {
+                    Log.e("TraceRecorder", "Segment not deleted: " + oldest.getName());
+                }
+            }
+        }
+    }
+
+    /**
+     * This method cuts the reserved space that was not used and closes the current segment.
+     */
+    private void endSegment() throws IOException {
+        if (segmentFile == null) {
+            return;
+        }
+        try {
+            segmentChannel.truncate(segmentPosition);
+            segmentChannel.force(false);
+        } finally {
+            segmentFile.close();
+            segmentFile = null;
+            segmentChannel = null;
+        }
+    }
+
+    /**
+     * An APDU waiting to be written.
+     */
+    private static final class Record {
+        final int session;
+        final long timestampNanos;
+        final int direction;
+        final int source;
+        final byte[] apdu;
+
+        Record(int session, long timestampNanos, int direction, int source, byte[] apdu) {
+            this.session = session;
+            this.timestampNanos = timestampNanos;
+            this.direction = direction;
+            this.source = source;
+            this.apdu = apdu;
+        }
+    }
+}
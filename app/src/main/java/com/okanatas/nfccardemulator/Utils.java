@@ -8,9 +8,6 @@ import android.widget.Toast;
 import com.google.android.material.snackbar.Snackbar;
 
 import java.io.File;
-import java.io.InputStream;
-import java.nio.charset.StandardCharsets;
-import java.util.Scanner;
 
 /**
  * The Utils Class
@@ -19,11 +16,11 @@ import java.util.Scanner;
  * created on June 30, 2021
  */
 public class Utils {
-    private static final String HEX_CHARS = "0123456789ABCDEF";
     private static final char[] HEX_CHARS_ARRAY = "0123456789ABCDEF".toCharArray();
 
     /**
      * This method converts Hexadecimal String to byte array.
+     * Both upper case and lower case hexadecimal digits are accepted.
      * @param data hexadecimal String.
      * @return byte array.
      */
@@ -31,8 +28,8 @@ public class Utils {
         byte[] result = new byte[data.length() / 2];
 
         for(int i = 0; i < data.length(); i += 2){
-            int firstIndex = HEX_CHARS.indexOf(data.charAt(i));
-            int secondIndex = HEX_CHARS.indexOf(data.charAt(i+1));
+            int firstIndex = Character.digit(data.charAt(i), 16);
+            int secondIndex = Character.digit(data.charAt(i+1), 16);
 
             int octet = ((firstIndex << 4) | secondIndex);
             result[i >> 1] = (byte)(octet);
@@ -58,19 +55,6 @@ public class Utils {
         return result.toString();
     }
 
-    /**
-     * This method converts input stream to String.
-     * @param inputStream input stream.
-     * @return String.
-     */
-    static String inputStreamToString(InputStream inputStream){
-        String text = null;
-        try (Scanner scanner = new Scanner(inputStream, StandardCharsets.UTF_8.name())) {
-            text = scanner.useDelimiter("\\A").next();
-        }
-        return text;
-    }
-
     /**
      * This method deletes the selected file from the given directory.
      * @param directory given directory.
@@ -95,14 +79,22 @@ public class Utils {
         Log.d(TAG, message);
 
         if(isCommunicationLog){
-            if (!InformationTransferManager.getSelectedFileTextCopy().equals(InformationTransferManager.getSelectedFileText())) {
-                InformationTransferManager.setSelectedFileTextCopy(InformationTransferManager.getSelectedFileText());
-                InformationTransferManager.setCommunicationLogMessages("\n" + InformationTransferManager.getStringResource(R.string.file_name_tag)
-                        + " " + InformationTransferManager.getSelectedFileTextCopy() + "\n");
-            }
-            InformationTransferManager.setCommunicationLogMessages(TAG + " : " + message + "\n");
+            logSelectedFileChange();
+            InformationTransferManager.appendLogMessage(LogStore.KIND_COMMUNICATION, TAG, message);
+        } else {
+            InformationTransferManager.appendLogMessage(LogStore.KIND_MESSAGE, TAG, message);
+        }
+    }
+
+    /**
+     * This method adds the name of the selected file to the communication messages when it has changed.
+     */
+    private static void logSelectedFileChange(){
+        if (!InformationTransferManager.getSelectedFileTextCopy().equals(InformationTransferManager.getSelectedFileText())) {
+            InformationTransferManager.setSelectedFileTextCopy(InformationTransferManager.getSelectedFileText());
+            InformationTransferManager.appendLogMessage(LogStore.KIND_FILE_NAME, InformationTransferManager.getStringResource(R.string.file_name_tag),
+                    InformationTransferManager.getSelectedFileTextCopy());
         }
-        InformationTransferManager.setAllLogMessages(TAG + " : " + message + "\n");
     }
 
     /**
@@ -0,0 +1,74 @@
+package com.okanatas.nfccardemulator;
+
+import org.junit.Test;
+
+import java.lang.management.ManagementFactory;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit tests for the byte level APDU dispatcher.
+ */
+public class ApduDispatcherTest {
+
+    private static final byte[] SELECT_PPSE = {0x00, (byte) 0xA4, 0x04, 0x00, 0x0E, 0x32, 0x50, 0x41, 0x59,
+            0x2E, 0x53, 0x59, 0x53, 0x2E, 0x44, 0x44, 0x46, 0x30, 0x31, 0x00};
+    private static final byte[] READ_RECORD = {0x00, (byte) 0xB2, 0x01, 0x0C, 0x00};
+    private static final byte[] GET_DATA = {(byte) 0x80, (byte) 0xCA, (byte) 0x9F, 0x36, 0x00};
+
+    private static final byte[] SELECT_RESPONSE = {0x6F, 0x01, (byte) 0x90, 0x00};
+    private static final byte[] READ_RECORD_RESPONSE = {0x70, 0x01, (byte) 0x90, 0x00};
+    private static final byte[] GET_DATA_RESPONSE = {(byte) 0x9F, 0x36, 0x02, 0x00, 0x01, (byte) 0x90, 0x00};
+
+    private final ApduLookupTable table = new ApduLookupTable(
+            new byte[][]{SELECT_PPSE, READ_RECORD, GET_DATA},
+            new byte[][]{SELECT_RESPONSE, READ_RECORD_RESPONSE, GET_DATA_RESPONSE});
+
+    @Test
+    public void dispatch_exactMatchCases() {
+        assertArrayEquals(SELECT_RESPONSE, ApduDispatcher.dispatch(table, SELECT_PPSE.clone()));
+        assertArrayEquals(READ_RECORD_RESPONSE, ApduDispatcher.dispatch(table, READ_RECORD.clone()));
+        assertSame(ISOProtocol.SW_RECORD_NOT_FOUND, ApduDispatcher.dispatch(table, new byte[]{0x00, (byte) 0xB2, 0x02, 0x0C, 0x00}));
+        assertSame(ISOProtocol.SW_FILE_NOT_FOUND, ApduDispatcher.dispatch(table, new byte[]{0x00, (byte) 0xA4, 0x04, 0x00, 0x00}));
+    }
+
+    @Test
+    public void dispatch_insOnlyCases() {
+        assertArrayEquals(GET_DATA_RESPONSE, ApduDispatcher.dispatch(table, new byte[]{(byte) 0x80, (byte) 0xCA, (byte) 0x9F, 0x17, 0x00}));
+        assertSame(ISOProtocol.SW_RECORD_NOT_FOUND, ApduDispatcher.dispatch(table, new byte[]{0x00, (byte) 0xB0, 0x00, 0x00, 0x00}));
+        assertSame(ISOProtocol.SW_COMMAND_ABORTED, ApduDispatcher.dispatch(table, new byte[]{(byte) 0x80, (byte) 0xAE, (byte) 0x80, 0x00, 0x00}));
+    }
+
+    @Test
+    public void dispatch_invalidCommands() {
+        assertSame(ISOProtocol.SW_COMMAND_ABORTED, ApduDispatcher.dispatch(table, null));
+        assertSame(ISOProtocol.SW_COMMAND_ABORTED, ApduDispatcher.dispatch(table, new byte[]{0x00, (byte) 0xA4}));
+        assertSame(ISOProtocol.SW_INS_NOT_SUPPORTED_OR_INVALID, ApduDispatcher.dispatch(table, new byte[]{0x00, 0x10, 0x00, 0x00, 0x00}));
+    }
+
+    @Test
+    public void dispatch_doesNotAllocate() {
+        com.sun.management.ThreadMXBean threadBean = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long threadId = Thread.currentThread().getId();
+        byte[][] commands = {SELECT_PPSE, READ_RECORD, GET_DATA, new byte[]{0x00, (byte) 0xB0, 0x00, 0x00, 0x00}};
+
+        // warm up, so that class loading and compilation are not counted
+        int checksum = runDispatches(commands, 200_000);
+
+        long before = threadBean.getThreadAllocatedBytes(threadId);
+        checksum += runDispatches(commands, 1_000_000);
+        long allocated = threadBean.getThreadAllocatedBytes(threadId) - before;
+
+        assertTrue(checksum != 0);
+        // a single allocation per APDU would add up to megabytes, allow only for the measurement itself
+        assertTrue("allocated " + allocated + " bytes", allocated < 1024);
+    }
+
+    private int runDispatches(byte[][] commands, int count) {
+        int checksum = 0;
+        for (int i = 0; i < count; i++) {
+            checksum += ApduDispatcher.dispatch(table, commands[i & 3]).length;
+        }
+        return checksum;
+    }
+}
@@ -0,0 +1,136 @@
+package com.okanatas.nfccardemulator;
+
+import org.junit.After;
+import org.junit.Ignore;
+import org.junit.Test;
+
+import java.lang.management.ManagementFactory;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit tests of the logging levels of the APDU path.
+ */
+public class ApduLoggerTest {
+
+    private static final String TAG = "ApduLoggerTest";
+    private static final byte[] SELECT_PPSE = Utils.hexStringToByteArray("00A404000E325041592E5359532E444446303100");
+    private static final byte[] READ_RECORD = Utils.hexStringToByteArray("00B2010C00");
+    private static final byte[] GET_DATA = Utils.hexStringToByteArray("80CA9F3600");
+
+    private final ApduLookupTable table = new ApduLookupTable.Builder()
+            .add(SELECT_PPSE, Utils.hexStringToByteArray("6F2D840E325041592E5359532E4444463031A51BBF0C1861164F07A0000000031010500B5649534120435245444954879000"))
+            .add(READ_RECORD, Utils.hexStringToByteArray("70815A0A4761739001010010D2512201000000000000009000"))
+            .add(GET_DATA, Utils.hexStringToByteArray("9F360200019000"))
+            .build();
+
+    @After
+    public void restoreLevel() {
+        ApduLogger.setLevel(ApduLogger.LEVEL_DEBUG);
+    }
+
+    @Test
+    public void logExchange_followsTheLevel() {
+        LogStore store = InformationTransferManager.getLogStore();
+
+        ApduLogger.setLevel(ApduLogger.LEVEL_PERFORMANCE);
+        long start = store.getNextSequence();
+        exchange(SELECT_PPSE);
+        assertEquals(start, store.getNextSequence());
+
+        ApduLogger.setLevel(ApduLogger.LEVEL_COMMUNICATION);
+        exchange(SELECT_PPSE);
+        List<LogStore.Entry> entries = store.getEntries(start);
+        assertEquals(2, entries.size());
+        assertEquals(LogStore.KIND_COMMAND, entries.get(0).kind);
+        assertSame(SELECT_PPSE, entries.get(0).apdu);
+        assertEquals(LogStore.KIND_RESPONSE, entries.get(1).kind);
+    }
+
+    @Test
+    public void d_buildsTheMessageOnlyWhenLogged() {
+        final int[] built = new int[1];
+        ApduLogger.Message message = () -> {
+            built[0]++;
+            return "Built";
+        };
+
+        ApduLogger.setLevel(ApduLogger.LEVEL_PERFORMANCE);
+        ApduLogger.d(TAG, message);
+        ApduLogger.setLevel(ApduLogger.LEVEL_COMMUNICATION);
+        ApduLogger.d(TAG, message);
+        assertEquals(0, built[0]);
+
+        ApduLogger.setLevel(ApduLogger.LEVEL_DEBUG);
+        ApduLogger.d(TAG, message);
+        assertEquals(1, built[0]);
+        assertTrue(ApduLogger.isLoggable(ApduLogger.LEVEL_COMMUNICATION));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void setLevel_refusesUnknownLevels() {
+        ApduLogger.setLevel(3);
+    }
+
+    @Test
+    public void exchange_allocatesNothingInPerformanceMode() {
+        com.sun.management.ThreadMXBean threadBean = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long threadId = Thread.currentThread().getId();
+        byte[][] commands = {SELECT_PPSE, READ_RECORD, GET_DATA, Utils.hexStringToByteArray("00B0000000")};
+
+        // warm up, so that class loading is not counted
+        ApduLogger.setLevel(ApduLogger.LEVEL_PERFORMANCE);
+        int checksum = runExchanges(commands, 200_000);
+        long before = threadBean.getThreadAllocatedBytes(threadId);
+        checksum += runExchanges(commands, 1_000_000);
+        long allocated = threadBean.getThreadAllocatedBytes(threadId) - before;
+
+        assertTrue(checksum != 0);
+        // nothing is built in performance mode, allow only for the measurement itself
+        assertTrue("allocated " + allocated + " bytes", allocated < 1024);
+    }
+
+    @Ignore("benchmark, depends on the speed of the machine")
+    @Test
+    public void exchange_costOfEachLevel() {
+        byte[][] commands = {SELECT_PPSE, READ_RECORD, GET_DATA, Utils.hexStringToByteArray("00B0000000")};
+        long[] nanos = new long[3];
+
+        // warm up, so that class loading and compilation are not counted
+        int checksum = 0;
+        for (int level = ApduLogger.LEVEL_PERFORMANCE; level <= ApduLogger.LEVEL_DEBUG; level++) {
+            ApduLogger.setLevel(level);
+            checksum += runExchanges(commands, 200_000);
+        }
+        for (int level = ApduLogger.LEVEL_PERFORMANCE; level <= ApduLogger.LEVEL_DEBUG; level++) {
+            ApduLogger.setLevel(level);
+            long start = System.nanoTime();
+            checksum += runExchanges(commands, 1_000_000);
+            nanos[level] = (System.nanoTime() - start) / 1_000_000;
+        }
+
+        assertTrue(checksum != 0);
+        assertTrue(nanos[ApduLogger.LEVEL_PERFORMANCE] + " ns in performance mode, " + nanos[ApduLogger.LEVEL_DEBUG] + " ns with Logcat",
+                nanos[ApduLogger.LEVEL_PERFORMANCE] < nanos[ApduLogger.LEVEL_DEBUG]);
+    }
+
+    /**
+     * The calls made by the service for each APDU answered from the file in use.
+     */
+    private int exchange(byte[] commandApdu) {
+        ApduLogger.d(TAG, "Got APDU: ", commandApdu);
+        byte[] responseApdu = ApduDispatcher.dispatch(table, commandApdu);
+        ApduLogger.logExchange("C-APDU", commandApdu, "R-APDU", responseApdu);
+        ApduLogger.d(TAG, "Response APDU: ", responseApdu);
+        return responseApdu.length;
+    }
+
+    private int runExchanges(byte[][] commands, int count) {
+        int checksum = 0;
+        for (int i = 0; i < count; i++) {
+            checksum += exchange(commands[i & 3]);
+        }
+        return checksum;
+    }
+}
@@ -0,0 +1,220 @@
+package com.okanatas.nfccardemulator;
+
+import org.junit.Ignore;
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit tests for the APDU lookup table.
+ */
+public class ApduLookupTableTest {
+
+    private static final byte[][] COMMANDS = {
+            {0x00, (byte) 0xA4, 0x04, 0x00, 0x07, (byte) 0xA0, 0x00, 0x00, 0x00, 0x03, 0x10, 0x10},
+            {0x00, (byte) 0xB2, 0x01, 0x0C, 0x00},
+            {0x00, (byte) 0xB2, 0x01, 0x0C, 0x00},
+            {0x00, (byte) 0xB2, 0x02, 0x0C, 0x00},
+    };
+
+    private static final byte[][] RESPONSES = {
+            {0x6F, 0x00, (byte) 0x90, 0x00},
+            {0x70, 0x01, (byte) 0x90, 0x00},
+            {0x70, 0x02, (byte) 0x90, 0x00},
+            {0x70, 0x03, (byte) 0x90, 0x00},
+    };
+
+    @Test
+    public void indexOf_findsExactCommand() {
+        ApduLookupTable table = new ApduLookupTable(COMMANDS, RESPONSES);
+
+        assertEquals(0, table.indexOf(COMMANDS[0].clone()));
+        assertEquals(3, table.indexOf(COMMANDS[3].clone()));
+        assertArrayEquals(RESPONSES[3], table.getResponse(table.indexOf(COMMANDS[3])));
+    }
+
+    @Test
+    public void indexOf_firstDuplicateWins() {
+        ApduLookupTable table = new ApduLookupTable(COMMANDS, RESPONSES);
+
+        assertEquals(1, table.indexOf(COMMANDS[2].clone()));
+    }
+
+    @Test
+    public void indexOf_unknownCommand() {
+        ApduLookupTable table = new ApduLookupTable(COMMANDS, RESPONSES);
+
+        assertEquals(ApduLookupTable.NOT_FOUND, table.indexOf(new byte[]{0x00, (byte) 0xB2, 0x03, 0x0C, 0x00}));
+        assertEquals(ApduLookupTable.NOT_FOUND, ApduLookupTable.EMPTY.indexOf(COMMANDS[0]));
+    }
+
+    @Test
+    public void firstIndexOfIns_findsFirstCommandWithIns() {
+        ApduLookupTable table = new ApduLookupTable(COMMANDS, RESPONSES);
+
+        assertEquals(0, table.firstIndexOfIns((byte) 0xA4));
+        assertEquals(1, table.firstIndexOfIns((byte) 0xB2));
+        assertEquals(ApduLookupTable.NOT_FOUND, table.firstIndexOfIns((byte) 0xB0));
+    }
+
+    @Test
+    public void size_ignoresUnpairedCommands() {
+        ApduLookupTable table = new ApduLookupTable(COMMANDS, new byte[][]{RESPONSES[0]});
+
+        assertEquals(1, table.size());
+        assertEquals(ApduLookupTable.NOT_FOUND, table.indexOf(COMMANDS[1]));
+    }
+
+    @Test
+    public void indexOf_probesStayFewWithProfileSize() {
+        ApduLookupTable smallTable = newTable(10);
+        ApduLookupTable largeTable = newTable(100_000);
+
+        // a linear scan would read up to 100k entries, the table is at most half full so the probe sequences stay short
+        assertTrue("10 entries: " + smallTable.getMaxProbeCount() + " probes", smallTable.getMaxProbeCount() <= 4);
+        assertTrue("100k entries: " + largeTable.getMaxProbeCount() + " probes", largeTable.getMaxProbeCount() <= 32);
+        assertEquals(0, ApduLookupTable.EMPTY.getMaxProbeCount());
+    }
+
+    @Ignore("benchmark, depends on the speed of the machine")
+    @Test
+    public void lookupTime_staysFlatWithProfileSize() {
+        long smallTable = nanosPerLookup(10);
+        long largeTable = nanosPerLookup(100_000);
+
+        // a linear scan would be about 10000 times slower, allow for cache misses on the large table
+        assertTrue("10 entries: " + smallTable + " ns, 100k entries: " + largeTable + " ns",
+                largeTable < Math.max(smallTable, 50) * 20);
+    }
+
+    @Test
+    public void slices_areReadOnlyViewsOfEntries() {
+        ApduLookupTable table = new ApduLookupTable(COMMANDS, RESPONSES);
+
+        ByteBuffer command = table.getCommandSlice(3);
+        ByteBuffer response = table.getResponseSlice(3);
+        byte[] responseBytes = new byte[response.remaining()];
+        response.duplicate().get(responseBytes);
+
+        assertTrue(command.isReadOnly());
+        assertTrue(response.isReadOnly());
+        assertEquals(ByteBuffer.wrap(COMMANDS[3]), command);
+        assertArrayEquals(RESPONSES[3], responseBytes);
+    }
+
+    @Test
+    public void getResponse_isCopiedOutOfArenaOnce() {
+        ApduLookupTable table = new ApduLookupTable(COMMANDS, RESPONSES);
+
+        byte[] first = table.getResponse(0);
+
+        assertSame(first, table.getResponse(0));
+        assertArrayEquals(RESPONSES[0], first);
+    }
+
+    @Test
+    public void builder_copiesGivenLengthOnly() {
+        byte[] reusedCommand = {0x00, (byte) 0xB2, 0x05, 0x0C, 0x00, 0x7F, 0x7F};
+        byte[] reusedResponse = {0x70, 0x00, (byte) 0x90, 0x00, 0x7F};
+        ApduLookupTable table = new ApduLookupTable.Builder().add(reusedCommand, 5, reusedResponse, 4).build();
+
+        assertEquals(0, table.indexOf(new byte[]{0x00, (byte) 0xB2, 0x05, 0x0C, 0x00}));
+        assertArrayEquals(new byte[]{0x70, 0x00, (byte) 0x90, 0x00}, table.getResponse(0));
+    }
+
+    @Test
+    public void builder_storesEachResponseOnce() {
+        ApduLookupTable.Builder builder = new ApduLookupTable.Builder();
+        long rawSize = 0;
+        byte[] response = {0x70, 0x10, 0x5A, 0x08, 0x47, 0x61, 0x73, (byte) 0x90, 0x01, 0x01, 0x00, 0x10, (byte) 0x90, 0x00};
+        // more responses than the initial capacity of the index of the responses
+        for (int i = 0; i < 1000; i++) {
+            byte[] command = {0x00, (byte) 0xB2, (byte) (i >> 8), (byte) i, 0x00};
+            response[1] = (byte) (i % 300);
+            builder.add(command, response);
+            rawSize += command.length + response.length;
+        }
+        ApduLookupTable table = builder.build();
+
+        assertEquals(1000, table.size());
+        assertEquals(256, table.getResponseCount());
+        assertEquals(1000 * 5 + 256 * response.length, table.getArenaSize());
+        assertTrue(table.getArenaSize() < rawSize / 2);
+        for (int i = 0; i < 1000; i++) {
+            response[1] = (byte) (i % 300);
+            assertArrayEquals(response, table.getResponse(table.indexOf(new byte[]{0x00, (byte) 0xB2, (byte) (i >> 8), (byte) i, 0x00})));
+        }
+        // the entries that have the same response share the same array
+        assertSame(table.getResponse(1), table.getResponse(257));
+    }
+
+    @Test
+    public void storage_staysCloseToRawSize() {
+        int size = 100_000;
+        ApduLookupTable.Builder builder = new ApduLookupTable.Builder();
+        long rawSize = 0;
+        byte[] response = new byte[30];
+        response[28] = (byte) 0x90;
+        for (int i = 0; i < size; i++) {
+            byte[] command = {0x00, (byte) 0xB2, (byte) (i >> 8), (byte) i, 0x00};
+            response[0] = (byte) i;
+            builder.add(command, response);
+            rawSize += command.length + response.length;
+        }
+        ApduLookupTable table = builder.build();
+
+        // hexadecimal strings took about 4 times the raw size in UTF-16, plus two objects and two arrays per pair
+        long hexStringSize = 4 * rawSize + size * 2L * (24 + 16);
+        // arena, two boundaries, two hash slots and a reference per pair
+        assertTrue(table.getStorageSize() < rawSize + size * 24L);
+        assertTrue(table.getStorageSize() * 3 < hexStringSize);
+    }
+
+    /**
+     * This method measures the average lookup time of a table with the given number of entries.
+     * @param size number of entries.
+     * @return average time of one lookup in nanoseconds, the best of several rounds.
+     */
+    private static long nanosPerLookup(int size) {
+        byte[][] commands = newCommands(size);
+        ApduLookupTable table = newTable(commands);
+
+        int lookups = 200_000;
+        long best = Long.MAX_VALUE;
+        int found = 0;
+        for (int round = 0; round < 7; round++) {
+            long start = System.nanoTime();
+            for (int i = 0; i < lookups; i++) {
+                found += table.indexOf(commands[(i * 7919) % size]) >= 0 ? 1 : 0;
+            }
+            best = Math.min(best, (System.nanoTime() - start) / lookups);
+        }
+        assertEquals(7 * lookups, found);
+        return best;
+    }
+
+    private static ApduLookupTable newTable(int size) {
+        return newTable(newCommands(size));
+    }
+
+    private static ApduLookupTable newTable(byte[][] commands) {
+        byte[][] responses = new byte[commands.length][];
+        for (int i = 0; i < commands.length; i++) {
+            responses[i] = new byte[]{(byte) 0x90, 0x00};
+        }
+        return new ApduLookupTable(commands, responses);
+    }
+
+    private static byte[][] newCommands(int size) {
+        Random random = new Random(size);
+        byte[][] commands = new byte[size][];
+        for (int i = 0; i < size; i++) {
+            commands[i] = new byte[]{0x00, (byte) 0xB2, (byte) (i >> 16), (byte) (i >> 8), (byte) i,
+                    (byte) random.nextInt(), (byte) random.nextInt(), (byte) random.nextInt()};
+        }
+        return commands;
+    }
+}
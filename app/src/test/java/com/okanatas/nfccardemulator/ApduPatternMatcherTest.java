@@ -0,0 +1,233 @@
+package com.okanatas.nfccardemulator;
+
+import org.junit.Ignore;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit tests of the commands with wildcards and of their matcher.
+ */
+public class ApduPatternMatcherTest {
+
+    private static final byte[] GPO = Utils.hexStringToByteArray("80A8000023832136000000000000000010000000000000097800000000000978230301001122334400");
+
+    @Test
+    public void parse_writesBackTheSameText() {
+        for (String text : new String[]{"80A80000??8321??", "80AE8?00*", "00B2??0C00", "80CA*"}) {
+            assertEquals(text, ApduPattern.parse(text).toString());
+        }
+        assertEquals(ApduPattern.parse("80ae8?00*"), ApduPattern.parse("80AE8?00*"));
+        assertNotEquals(ApduPattern.parse("80AE8?00*"), ApduPattern.parse("80AE8?00"));
+        assertEquals(28, ApduPattern.parse("80AE8?00*").getFixedBitCount());
+    }
+
+    @Test
+    public void match_mostFixedBitsWins() {
+        ApduPatternMatcher matcher = matcher("80A80000*", "80A80000??8321*", "80A80000??83??*");
+
+        assertEquals(1, matcher.match(GPO));
+        assertEquals(2, matcher.match(Utils.hexStringToByteArray("80A80000238322")));
+        assertEquals(0, matcher.match(Utils.hexStringToByteArray("80A80000")));
+        assertEquals(ApduProfile.NOT_FOUND, matcher.match(Utils.hexStringToByteArray("80A800")));
+    }
+
+    @Test
+    public void match_fixedLengthWinsOverPrefix() {
+        ApduPatternMatcher matcher = matcher("80AE8000*", "80AE??00", "80AE8000");
+
+        assertEquals(2, matcher.match(Utils.hexStringToByteArray("80AE8000")));
+        assertEquals(0, matcher.match(Utils.hexStringToByteArray("80AE800000")));
+        assertEquals(1, matcher.match(Utils.hexStringToByteArray("80AE4000")));
+    }
+
+    @Test
+    public void match_firstInFileWinsOnTie() {
+        ApduPatternMatcher matcher = matcher("80CA??36*", "80CA9F??*", "80CA9F??*");
+
+        assertEquals(0, matcher.match(Utils.hexStringToByteArray("80CA9F3600")));
+        assertEquals(1, matcher.match(Utils.hexStringToByteArray("80CA9F1700")));
+    }
+
+    @Test
+    public void match_halfBytes() {
+        ApduPatternMatcher matcher = matcher("80AE?000*", "80AE8?00*");
+
+        assertEquals(0, matcher.match(Utils.hexStringToByteArray("80AE4000")));
+        assertEquals(1, matcher.match(Utils.hexStringToByteArray("80AE8100")));
+        // both have 28 fixed bits, the first one wins
+        assertEquals(0, matcher.match(Utils.hexStringToByteArray("80AE8000")));
+        assertEquals(ApduProfile.NOT_FOUND, matcher.match(Utils.hexStringToByteArray("80AE4100")));
+    }
+
+    @Test
+    public void dispatch_patternsBetweenExactAndInsMatch() {
+        ApduLookupTable table = new ApduLookupTable.Builder()
+                .add(Utils.hexStringToByteArray("80AE800000"), Utils.hexStringToByteArray("9000"))
+                .add(Utils.hexStringToByteArray("80CA9F3600"), Utils.hexStringToByteArray("9F360200019000"))
+                .addPattern(ApduPattern.parse("80A80000??8321*"), Utils.hexStringToByteArray("7781009000"))
+                .addPattern(ApduPattern.parse("80AE8000*"), Utils.hexStringToByteArray("7729009000"))
+                .build();
+
+        // the terminal sends another unpredictable number each time
+        assertArrayEquals(Utils.hexStringToByteArray("7781009000"), ApduDispatcher.dispatch(table, GPO));
+        assertArrayEquals(Utils.hexStringToByteArray("9000"), ApduDispatcher.dispatch(table, Utils.hexStringToByteArray("80AE800000")));
+        assertArrayEquals(Utils.hexStringToByteArray("7729009000"), ApduDispatcher.dispatch(table, Utils.hexStringToByteArray("80AE80001122")));
+        assertArrayEquals(Utils.hexStringToByteArray("9000"), ApduDispatcher.dispatch(table, Utils.hexStringToByteArray("80AE400000")));
+        assertArrayEquals(Utils.hexStringToByteArray("9F360200019000"), ApduDispatcher.dispatch(table, Utils.hexStringToByteArray("80CA9F1700")));
+        assertSame(ISOProtocol.SW_COMMAND_ABORTED, ApduDispatcher.dispatch(table, Utils.hexStringToByteArray("80A80000028300")));
+    }
+
+    @Test
+    public void match_sameAsCheckingEachPattern() {
+        Random random = new Random(20);
+        List<ApduPattern> patterns = randomPatterns(random, 2000);
+        ApduPatternMatcher matcher = new ApduPatternMatcher(patterns);
+
+        for (int i = 0; i < 20_000; i++) {
+            byte[] command = randomCommand(random, patterns);
+            assertEquals(Utils.toHexString(command), linearMatch(patterns, command), matcher.match(command));
+        }
+    }
+
+    @Test
+    public void match_visitsFewNodesOfThousandsOfPatterns() {
+        Random random = new Random(21);
+        List<ApduPattern> patterns = randomPatterns(random, 5000);
+        ApduPatternMatcher matcher = new ApduPatternMatcher(patterns);
+
+        long visited = 0;
+        int maxVisited = 0;
+        for (int i = 0; i < 4096; i++) {
+            int count = matcher.countVisitedNodes(randomCommand(random, patterns));
+            visited += count;
+            maxVisited = Math.max(maxVisited, count);
+        }
+
+        // the branches that cannot match or cannot win are skipped, about 17 nodes on average and 37 at most of 60k
+        assertTrue(matcher.getNodeCount() > 50_000);
+        assertTrue("visited " + visited / 4096 + " nodes on average", visited / 4096 <= 40);
+        assertTrue("visited " + maxVisited + " nodes", maxVisited <= 100);
+    }
+
+    @Ignore("benchmark, the times depend on the machine")
+    @Test
+    public void match_thousandsOfPatterns() {
+        Random random = new Random(21);
+        List<ApduPattern> patterns = randomPatterns(random, 5000);
+        byte[][] commands = new byte[4096][];
+        for (int i = 0; i < commands.length; i++) {
+            commands[i] = randomCommand(random, patterns);
+        }
+
+        ApduPatternMatcher matcher = new ApduPatternMatcher(patterns);
+
+        // warm up, so that compilation is not counted
+        int checksum = runMatches(matcher, commands, 100_000) + runLinearMatches(patterns, commands, 2_000);
+        long start = System.nanoTime();
+        checksum += runMatches(matcher, commands, 200_000);
+        long trieNanos = (System.nanoTime() - start) / 200_000;
+        start = System.nanoTime();
+        checksum += runLinearMatches(patterns, commands, 4_000);
+        long linearNanos = (System.nanoTime() - start) / 4_000;
+
+        assertTrue(checksum != 0);
+        assertTrue(trieNanos + " ns instead of " + linearNanos + " ns", trieNanos * 10 < linearNanos);
+    }
+
+    private static ApduPatternMatcher matcher(String... patterns) {
+        List<ApduPattern> list = new ArrayList<>();
+        for (String pattern : patterns) {
+            list.add(ApduPattern.parse(pattern));
+        }
+        return new ApduPatternMatcher(list);
+    }
+
+    /**
+     * Patterns of GPO, GENERATE AC, GET DATA and READ RECORD commands, with any byte and half byte wildcards.
+     */
+    private static List<ApduPattern> randomPatterns(Random random, int count) {
+        byte[] instructions = {(byte) 0xA8, (byte) 0xAE, (byte) 0xCA, (byte) 0xB2, (byte) 0x88, (byte) 0x2A};
+        List<ApduPattern> patterns = new ArrayList<>(count);
+        for (int p = 0; p < count; p++) {
+            int length = 4 + random.nextInt(24);
+            byte[] value = new byte[length];
+            byte[] mask = new byte[length];
+            random.nextBytes(value);
+            Arrays.fill(mask, (byte) 0xFF);
+            value[0] = (byte) (random.nextBoolean() ? 0x80 : 0x00);
+            value[1] = instructions[random.nextInt(instructions.length)];
+            value[2] = (byte) random.nextInt(4);
+            for (int i = 3; i < length; i++) {
+                int draw = random.nextInt(10);
+                if (draw < 3) {
+                    mask[i] = 0;
+                } else if (draw == 3) {
+                    mask[i] = (byte) 0xF0;
+                }
+            }
+            patterns.add(new ApduPattern(value, mask, length, random.nextInt(3) == 0));
+        }
+        return patterns;
+    }
+
+    /**
+     * A command that matches one of the patterns at least, or a random one from time to time.
+     */
+    private static byte[] randomCommand(Random random, List<ApduPattern> patterns) {
+        ApduPattern pattern = patterns.get(random.nextInt(patterns.size()));
+        int extra = (pattern.isPrefix() || random.nextInt(8) == 0) ? random.nextInt(6) : 0;
+        byte[] command = new byte[pattern.length() + extra];
+        random.nextBytes(command);
+        if (random.nextInt(8) != 0) {
+            for (int i = 0; i < pattern.length(); i++) {
+                command[i] = (byte) ((pattern.getValue(i) & pattern.getMask(i)) | (command[i] & ~pattern.getMask(i)));
+            }
+        }
+        return command;
+    }
+
+    /**
+     * The pattern that wins, found by checking each pattern.
+     */
+    private static int linearMatch(List<ApduPattern> patterns, byte[] command) {
+        int best = ApduProfile.NOT_FOUND;
+        for (int p = 0; p < patterns.size(); p++) {
+            ApduPattern pattern = patterns.get(p);
+            if (!pattern.matches(command)) {
+                continue;
+            }
+            if (best == ApduProfile.NOT_FOUND) {
+                best = p;
+                continue;
+            }
+            ApduPattern bestPattern = patterns.get(best);
+            int difference = pattern.getFixedBitCount() - bestPattern.getFixedBitCount();
+            if (difference > 0 || (difference == 0 && bestPattern.isPrefix() && !pattern.isPrefix())) {
+                best = p;
+            }
+        }
+        return best;
+    }
+
+    private static int runMatches(ApduPatternMatcher matcher, byte[][] commands, int count) {
+        int checksum = 0;
+        for (int i = 0; i < count; i++) {
+            checksum += matcher.match(commands[i & (commands.length - 1)]);
+        }
+        return checksum;
+    }
+
+    private static int runLinearMatches(List<ApduPattern> patterns, byte[][] commands, int count) {
+        int checksum = 0;
+        for (int i = 0; i < count; i++) {
+            checksum += linearMatch(patterns, commands[i & (commands.length - 1)]);
+        }
+        return checksum;
+    }
+}
@@ -0,0 +1,148 @@
+package com.okanatas.nfccardemulator;
+
+import org.junit.After;
+import org.junit.Ignore;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit tests for the asynchronous APDU pipeline.
+ */
+public class ApduPipelineTest {
+
+    private final ApduPipeline pipeline = new ApduPipeline(64, "TestPipeline");
+
+    @After
+    public void tearDown() {
+        pipeline.shutdown();
+    }
+
+    @Test
+    public void submit_keepsOrderWhateverTheDelay() throws InterruptedException {
+        List<Integer> order = Collections.synchronizedList(new ArrayList<>());
+        CountDownLatch done = new CountDownLatch(50);
+
+        for (int i = 0; i < 50; i++) {
+            final int index = i;
+            // earlier commands have longer delays, they must still be answered first
+            assertTrue(pipeline.submit(() -> {
+                order.add(index);
+                done.countDown();
+            }, (50 - i) % 7));
+        }
+
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+        for (int i = 0; i < 50; i++) {
+            assertEquals(Integer.valueOf(i), order.get(i));
+        }
+    }
+
+    @Test(timeout = 5000)
+    public void submit_doesNotBlockTheCaller() {
+        CountDownLatch done = new CountDownLatch(1);
+
+        // waiting this delay on the calling thread would go far beyond the timeout of the test
+        assertTrue(pipeline.submit(done::countDown, 60_000));
+
+        assertEquals(1, done.getCount());
+        pipeline.startNewSession();
+    }
+
+    @Test
+    public void submit_waitsTheDelayOnTheWorker() throws InterruptedException {
+        CountDownLatch done = new CountDownLatch(1);
+        long[] startedAt = new long[1];
+
+        long submittedAt = System.nanoTime();
+        assertTrue(pipeline.submit(() -> {
+            startedAt[0] = System.nanoTime();
+            done.countDown();
+        }, 200));
+
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+        assertTrue(startedAt[0] - submittedAt >= TimeUnit.MILLISECONDS.toNanos(200));
+        assertTrue(pipeline.getMaxWaitMillis() >= 200);
+    }
+
+    @Ignore("timing dependent, the overlap of the delays is measured with the wall clock")
+    @Test
+    public void delays_areCountedFromArrival() throws InterruptedException {
+        CountDownLatch done = new CountDownLatch(5);
+
+        long submittedAt = System.nanoTime();
+        for (int i = 0; i < 5; i++) {
+            pipeline.submit(done::countDown, 100);
+        }
+
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+        // the delays of queued commands overlap instead of adding up to 500 ms
+        assertTrue(System.nanoTime() - submittedAt < TimeUnit.MILLISECONDS.toNanos(400));
+    }
+
+    @Test
+    public void submit_refusesWhenQueueIsFull() throws InterruptedException {
+        ApduPipeline small = new ApduPipeline(2, "SmallPipeline");
+        CountDownLatch release = new CountDownLatch(1);
+        CountDownLatch started = new CountDownLatch(1);
+        try {
+            assertTrue(small.submit(() -> {
+                started.countDown();
+                awaitQuietly(release);
+            }, 0));
+            assertTrue(started.await(5, TimeUnit.SECONDS));
+
+            assertTrue(small.submit(() -> { }, 0));
+            assertTrue(small.submit(() -> { }, 0));
+            assertFalse(small.submit(() -> { }, 0));
+
+            assertEquals(2, small.getQueueDepth());
+            assertEquals(2, small.getMaxQueueDepth());
+            assertEquals(1, small.getRejectedCount());
+        } finally {
+            release.countDown();
+            small.shutdown();
+        }
+    }
+
+    @Test
+    public void startNewSession_dropsWaitingCommands() throws InterruptedException {
+        CountDownLatch release = new CountDownLatch(1);
+        CountDownLatch started = new CountDownLatch(1);
+        List<Integer> answered = Collections.synchronizedList(new ArrayList<>());
+
+        pipeline.submit(() -> {
+            started.countDown();
+            awaitQuietly(release);
+        }, 0);
+        assertTrue(started.await(5, TimeUnit.SECONDS));
+        pipeline.submit(() -> answered.add(1), 0);
+        pipeline.submit(() -> answered.add(2), 0);
+
+        pipeline.startNewSession();
+        CountDownLatch done = new CountDownLatch(1);
+        pipeline.submit(() -> {
+            answered.add(3);
+            done.countDown();
+        }, 0);
+        release.countDown();
+
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+        assertEquals(Collections.singletonList(3), answered);
+        assertEquals(2, pipeline.getDroppedCount());
+    }
+
+    private static void awaitQuietly(CountDownLatch latch) {
+        try {
+            latch.await(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
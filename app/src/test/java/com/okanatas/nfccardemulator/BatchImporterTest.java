@@ -0,0 +1,182 @@
+package com.okanatas.nfccardemulator;
+
+import org.junit.Ignore;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit tests of the files imported from an archive or a directory tree, with a benchmark of the thread count.
+ */
+public class BatchImporterTest {
+
+    private static final String COMMAND_KEYWORD = "c-apdu";
+    private static final String RESPONSE_KEYWORD = "r-apdu";
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void importZip_importsEachTraceFile() throws IOException {
+        ByteArrayOutputStream archive = new ByteArrayOutputStream();
+        try (ZipOutputStream zip = new ZipOutputStream(archive)) {
+            addEntry(zip, "visa.txt", trace(3));
+            addEntry(zip, "cards/mastercard.log", trace(5));
+            addEntry(zip, "cards/", null);
+            addEntry(zip, "Visa.txt", trace(1));
+            addEntry(zip, ".hidden.txt", trace(1));
+            addEntry(zip, "__MACOSX/._visa.txt", "metadata");
+        }
+        File target = folder.newFolder("files");
+        final List<Integer> doneCounts = Collections.synchronizedList(new ArrayList<>());
+
+        BatchImporter.Report report = new BatchImporter(target, COMMAND_KEYWORD, RESPONSE_KEYWORD, 2)
+                .importZip(new ByteArrayInputStream(archive.toByteArray()), folder.newFolder("cache"),
+                        (file, doneCount, totalCount) -> doneCounts.add(doneCount * 10 + totalCount));
+
+        List<BatchImporter.FileReport> files = report.getFiles();
+        assertEquals(3, files.size());
+        assertEquals("visa.txt", files.get(0).fileName);
+        assertEquals("cards_mastercard.txt", files.get(1).fileName);
+        // the same name in another case would be the same file on some file systems
+        assertEquals("Visa_2.txt", files.get(2).fileName);
+        assertEquals(3, files.get(0).pairCount);
+        assertEquals(5, files.get(1).pairCount);
+        assertEquals(9, report.getPairCount());
+        assertEquals(3, report.getImportedCount());
+        assertEquals(3, doneCounts.size());
+        assertTrue(doneCounts.contains(33));
+
+        for (BatchImporter.FileReport file : files) {
+            File imported = new File(target, file.fileName);
+            assertTrue(imported.isFile());
+            assertTrue(CompiledApduProfile.open(CompiledApduProfile.getCompiledFile(imported)).isCompiledFrom(imported));
+        }
+        assertEquals(3, target.listFiles(File::isFile).length);
+        // the copy of the archive is deleted
+        assertEquals(0, new File(folder.getRoot(), "cache").listFiles().length);
+    }
+
+    @Test
+    public void importDirectory_reportsTheFilesThatFail() throws IOException {
+        File source = folder.newFolder("traces");
+        writeFile(new File(source, "amex.txt"), trace(2));
+        File nested = new File(source, "2021/june");
+        assertTrue(nested.mkdirs());
+        writeFile(new File(nested, "visa.txt"), trace(4) + "c-apdu : 00B2\nr-apdu : ZZ\n");
+        File target = folder.newFolder("files");
+        // a directory of the same name cannot be replaced by the imported file
+        assertTrue(new File(target, "amex.txt").mkdir());
+        writeFile(new File(target, "amex.txt/kept.txt"), "kept");
+
+        BatchImporter.Report report = new BatchImporter(target, COMMAND_KEYWORD, RESPONSE_KEYWORD).importDirectory(source, null);
+
+        assertEquals(2, report.getFiles().size());
+        assertEquals(1, report.getImportedCount());
+        assertEquals(1, report.getFailedCount());
+        for (BatchImporter.FileReport file : report.getFiles()) {
+            if (file.fileName.equals("amex.txt")) {
+                assertFalse(file.isImported());
+                assertTrue(file.toString().contains("FAILED"));
+            } else {
+                assertEquals("2021_june_visa.txt", file.fileName);
+                assertEquals(4, file.pairCount);
+                // the command is too short and the response is not hexadecimal
+                assertEquals(2, file.invalidCount);
+            }
+        }
+        assertTrue(report.getSummary().contains("imported=1 failed=1"));
+    }
+
+    @Test(expected = IOException.class)
+    public void importDirectory_missingDirectory() throws IOException {
+        new BatchImporter(folder.getRoot(), COMMAND_KEYWORD, RESPONSE_KEYWORD).importDirectory(new File(folder.getRoot(), "missing"), null);
+    }
+
+    @Test
+    public void importDirectory_sameResultWithAnyThreadCount() throws IOException {
+        File source = folder.newFolder("traces");
+        String content = trace(2_000);
+        for (int i = 0; i < 8; i++) {
+            writeFile(new File(source, "trace" + i + ".txt"), content);
+        }
+
+        for (int threads : new int[]{1, 4}) {
+            BatchImporter.Report report = new BatchImporter(folder.newFolder("files" + threads), COMMAND_KEYWORD, RESPONSE_KEYWORD, threads)
+                    .importDirectory(source, null);
+            assertEquals(8, report.getImportedCount());
+            assertEquals(8 * 2_000L, report.getPairCount());
+        }
+    }
+
+    @Ignore("benchmark, the speedup depends on the cores of the machine")
+    @Test
+    public void importDirectory_scalesWithTheThreads() throws IOException {
+        File source = folder.newFolder("traces");
+        String content = trace(20_000);
+        for (int i = 0; i < 32; i++) {
+            writeFile(new File(source, "trace" + i + ".txt"), content);
+        }
+        int cores = Runtime.getRuntime().availableProcessors();
+
+        // warm up, so that compilation is not counted
+        new BatchImporter(folder.newFolder("warmup"), COMMAND_KEYWORD, RESPONSE_KEYWORD, cores).importDirectory(source, null);
+
+        BatchImporter.Report single = new BatchImporter(folder.newFolder("single"), COMMAND_KEYWORD, RESPONSE_KEYWORD, 1)
+                .importDirectory(source, null);
+        BatchImporter.Report parallel = new BatchImporter(folder.newFolder("parallel"), COMMAND_KEYWORD, RESPONSE_KEYWORD, cores)
+                .importDirectory(source, null);
+        double speedup = (double) single.getElapsedNanos() / parallel.getElapsedNanos();
+
+        String result = String.format(Locale.US, "Batch import of %.1f MB: %.1f MB/s with 1 thread, %.1f MB/s with %d threads, speedup %.2f",
+                single.getBytes() / (1024.0 * 1024.0), megabytesPerSecond(single), megabytesPerSecond(parallel), cores, speedup);
+        System.out.println(result);
+        assertEquals(single.getPairCount(), parallel.getPairCount());
+        if (cores > 1) {
+            // the files are parsed on each core, at least a third of each added core is expected
+            assertTrue(result, speedup > 1 + (cores - 1) / 3.0);
+        }
+    }
+
+    private static double megabytesPerSecond(BatchImporter.Report report) {
+        return report.getBytes() / (1024.0 * 1024.0) / (report.getElapsedNanos() / 1e9);
+    }
+
+    private static String trace(int pairs) {
+        StringBuilder text = new StringBuilder("Sample trace\n");
+        for (int i = 0; i < pairs; i++) {
+            text.append(COMMAND_KEYWORD).append(" : 00B2").append(String.format("%04X", i)).append("00\n")
+                    .append(RESPONSE_KEYWORD).append(" : 70145A0847617390010100109F1F08").append(String.format("%08X", i)).append("9000\n\n");
+        }
+        return text.toString();
+    }
+
+    private static void addEntry(ZipOutputStream zip, String name, String content) throws IOException {
+        zip.putNextEntry(new ZipEntry(name));
+        if (content != null) {
+            zip.write(content.getBytes(StandardCharsets.UTF_8));
+        }
+        zip.closeEntry();
+    }
+
+    private static void writeFile(File file, String content) throws IOException {
+        try (FileOutputStream output = new FileOutputStream(file)) {
+            output.write(content.getBytes(StandardCharsets.UTF_8));
+        }
+    }
+}
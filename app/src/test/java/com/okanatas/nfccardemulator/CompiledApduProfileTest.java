@@ -0,0 +1,198 @@
+package com.okanatas.nfccardemulator;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit tests of the compiled files mapped from the disk.
+ */
+public class CompiledApduProfileTest {
+
+    private static final byte[][] COMMANDS = {
+            {0x00, (byte) 0xA4, 0x04, 0x00, 0x07, (byte) 0xA0, 0x00, 0x00, 0x00, 0x03, 0x10, 0x10},
+            {0x00, (byte) 0xB2, 0x01, 0x0C, 0x00},
+            {0x00, (byte) 0xB2, 0x01, 0x0C, 0x00},
+            {0x00, (byte) 0xB2, 0x02, 0x0C, 0x00},
+    };
+
+    private static final byte[][] RESPONSES = {
+            {0x6F, 0x00, (byte) 0x90, 0x00},
+            {0x70, 0x01, (byte) 0x90, 0x00},
+            {0x70, 0x02, (byte) 0x90, 0x00},
+            {0x70, 0x03, (byte) 0x90, 0x00},
+    };
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void open_answersLikeTheTable() throws IOException {
+        ApduLookupTable table = new ApduLookupTable(COMMANDS, RESPONSES);
+        CompiledApduProfile profile = compileAndOpen(table, writeSource("visa.txt", "source"));
+
+        assertEquals(table.size(), profile.size());
+        for (byte[] command : COMMANDS) {
+            assertEquals(table.indexOf(command), profile.indexOf(command.clone()));
+        }
+        assertEquals(1, profile.indexOf(COMMANDS[2]));
+        assertEquals(ApduProfile.NOT_FOUND, profile.indexOf(new byte[]{0x00, (byte) 0xB2, 0x03, 0x0C, 0x00}));
+
+        assertEquals(0, profile.firstIndexOfIns((byte) 0xA4));
+        assertEquals(1, profile.firstIndexOfIns((byte) 0xB2));
+        assertEquals(ApduProfile.NOT_FOUND, profile.firstIndexOfIns((byte) 0xB0));
+
+        for (int i = 0; i < RESPONSES.length; i++) {
+            assertArrayEquals(RESPONSES[i], profile.getResponse(i));
+            assertEquals(RESPONSES[i].length, profile.getResponseSlice(i).remaining());
+        }
+        assertSame(profile.getResponse(3), profile.getResponse(3));
+    }
+
+    @Test
+    public void open_dispatchesLikeTheTable() throws IOException {
+        ApduLookupTable table = new ApduLookupTable(COMMANDS, RESPONSES);
+        CompiledApduProfile profile = compileAndOpen(table, writeSource("visa.txt", "source"));
+
+        byte[][] commands = {COMMANDS[0], COMMANDS[1], {0x00, (byte) 0xB2, 0x05, 0x0C, 0x00}, {0x00, (byte) 0xCA, (byte) 0x9F, 0x36, 0x00}};
+        for (byte[] command : commands) {
+            assertArrayEquals(ApduDispatcher.dispatch(table, command), ApduDispatcher.dispatch(profile, command));
+        }
+    }
+
+    @Test
+    public void open_storesEachResponseOnce() throws IOException {
+        byte[][] responses = {RESPONSES[3], RESPONSES[0], RESPONSES[3], RESPONSES[3]};
+        ApduLookupTable table = new ApduLookupTable(COMMANDS, responses);
+        File source = writeSource("visa.txt", "source");
+        CompiledApduProfile profile = compileAndOpen(table, source);
+
+        assertEquals(2, profile.getResponseCount());
+        for (int i = 0; i < responses.length; i++) {
+            assertArrayEquals(responses[i], profile.getResponse(i));
+        }
+        assertSame(profile.getResponse(0), profile.getResponse(3));
+        assertEquals(CompiledApduProfile.HEADER_SIZE + 4 * (256 + table.getSlotCount() + 5 + 4 + 3) + table.getArenaSize(),
+                CompiledApduProfile.getCompiledFile(source).length());
+    }
+
+    @Test
+    public void open_keepsThePatterns() throws IOException {
+        ApduLookupTable.Builder builder = ApduLookupTable.Builder.of(COMMANDS, RESPONSES);
+        builder.addPattern(ApduPattern.parse("80A80000??8321????????*"), RESPONSES[3]);
+        builder.addPattern(ApduPattern.parse("80AE8?00*"), new byte[]{0x69, (byte) 0x85});
+        ApduLookupTable table = builder.build();
+        CompiledApduProfile profile = compileAndOpen(table, writeSource("visa.txt", "source"));
+
+        assertEquals(2, profile.getPatternCount());
+        assertEquals(table.getResponseCount(), profile.getResponseCount());
+        byte[][] commands = {Utils.hexStringToByteArray("80A8000023832136A0000000000000"), Utils.hexStringToByteArray("80AE800011223344"),
+                Utils.hexStringToByteArray("80AE4000"), COMMANDS[1]};
+        for (byte[] command : commands) {
+            assertEquals(table.matchPattern(command), profile.matchPattern(command));
+            assertArrayEquals(ApduDispatcher.dispatch(table, command), ApduDispatcher.dispatch(profile, command));
+        }
+        assertArrayEquals(RESPONSES[3], profile.getPatternResponse(0));
+    }
+
+    @Test
+    public void open_emptyTable() throws IOException {
+        CompiledApduProfile profile = compileAndOpen(ApduLookupTable.EMPTY, writeSource("empty.txt", ""));
+
+        assertEquals(0, profile.size());
+        assertEquals(ApduProfile.NOT_FOUND, profile.indexOf(COMMANDS[0]));
+        assertEquals(ApduProfile.NOT_FOUND, profile.firstIndexOfIns((byte) 0xA4));
+    }
+
+    @Test
+    public void isCompiledFrom_falseOnceTheSourceChanges() throws IOException {
+        File source = writeSource("visa.txt", "source");
+        CompiledApduProfile profile = compileAndOpen(new ApduLookupTable(COMMANDS, RESPONSES), source);
+        assertTrue(profile.isCompiledFrom(source));
+
+        writeSource("visa.txt", "source changed");
+        assertFalse(profile.isCompiledFrom(source));
+
+        writeSource("visa.txt", "source");
+        assertTrue(source.setLastModified(source.lastModified() + 2000));
+        assertFalse(profile.isCompiledFrom(source));
+    }
+
+    @Test
+    public void compile_replacesTheCompiledFile() throws IOException {
+        File source = writeSource("visa.txt", "source");
+        File target = CompiledApduProfile.getCompiledFile(source);
+        CompiledApduProfile.compile(new ApduLookupTable(COMMANDS, RESPONSES), source, target);
+        CompiledApduProfile.compile(new ApduLookupTable(new byte[][]{COMMANDS[3]}, new byte[][]{RESPONSES[3]}), source, target);
+
+        CompiledApduProfile profile = CompiledApduProfile.open(target);
+        assertEquals(1, profile.size());
+        assertEquals(0, profile.indexOf(COMMANDS[3]));
+        assertEquals(1, target.getParentFile().listFiles().length);
+    }
+
+    @Test(expected = IOException.class)
+    public void open_refusesOtherFiles() throws IOException {
+        File file = writeSource("visa.txt", "c-apdu : 00A4040000\nr-apdu : 9000\nc-apdu : 00A4040000\nr-apdu : 9000\n");
+        CompiledApduProfile.open(file);
+    }
+
+    @Test(expected = IOException.class)
+    public void open_refusesTruncatedFiles() throws IOException {
+        File source = writeSource("visa.txt", "source");
+        File target = CompiledApduProfile.getCompiledFile(source);
+        CompiledApduProfile.compile(new ApduLookupTable(COMMANDS, RESPONSES), source, target);
+        try (RandomAccessFile file = new RandomAccessFile(target, "rw")) {
+            file.setLength(file.length() - 1);
+        }
+        CompiledApduProfile.open(target);
+    }
+
+    @Test
+    public void open_largeProfile_findsEveryPair() throws IOException {
+        int pairs = 100_000;
+        ApduLookupTable.Builder builder = new ApduLookupTable.Builder();
+        StringBuilder text = new StringBuilder();
+        for (int i = 0; i < pairs; i++) {
+            byte[] command = {0x00, (byte) 0xB2, (byte) i, (byte) (i >> 8), (byte) (i >> 16), 0x00};
+            byte[] response = {0x70, 0x04, 0x5A, 0x02, (byte) i, (byte) (i >> 8), (byte) 0x90, 0x00};
+            builder.add(command, response);
+            text.append("c-apdu : ").append(Utils.toHexString(command)).append("\nr-apdu : ").append(Utils.toHexString(response)).append("\n\n");
+        }
+        ApduLookupTable table = builder.build();
+        File source = writeSource("large.txt", text.toString());
+        File target = CompiledApduProfile.getCompiledFile(source);
+        CompiledApduProfile.compile(table, source, target);
+
+        CompiledApduProfile profile = CompiledApduProfile.open(target);
+
+        assertEquals(pairs, profile.size());
+        for (int i = 0; i < pairs; i += 997) {
+            byte[] command = {0x00, (byte) 0xB2, (byte) i, (byte) (i >> 8), (byte) (i >> 16), 0x00};
+            assertEquals(i, profile.indexOf(command));
+            assertArrayEquals(table.getResponse(i), profile.getResponse(i));
+        }
+    }
+
+    private File writeSource(String name, String text) throws IOException {
+        File file = new File(folder.getRoot(), name);
+        try (FileOutputStream output = new FileOutputStream(file)) {
+            output.write(text.getBytes(StandardCharsets.UTF_8));
+        }
+        return file;
+    }
+
+    private static CompiledApduProfile compileAndOpen(ApduLookupTable table, File source) throws IOException {
+        File target = CompiledApduProfile.getCompiledFile(source);
+        CompiledApduProfile.compile(table, source, target);
+        return CompiledApduProfile.open(target);
+    }
+}
@@ -0,0 +1,160 @@
+package com.okanatas.nfccardemulator;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit tests of the per INS deadlines of the relay, against a local stand-in server that injects latency.
+ */
+public class DeadlineRelayTest {
+
+    private static final byte[] SELECT = Utils.hexStringToByteArray("00A4040007A0000000031010");
+    private static final byte[] SELECT_RESPONSE = Utils.hexStringToByteArray("6F0A840700000000031010A5009000");
+    private static final byte[] GPO = Utils.hexStringToByteArray("80A8000002830000");
+    private static final byte[] GPO_RESPONSE = Utils.hexStringToByteArray("77069F1003AABBCC9000");
+
+    private RelayTestServer server;
+    private RelayConnectionManager manager;
+    private ApduLookupTable profile;
+
+    @Before
+    public void setUp() throws IOException {
+        // the relay server answers with the command followed by 9000, so its answers differ from the profile
+        server = new RelayTestServer(command -> {
+            byte[] response = Arrays.copyOf(command, command.length + 2);
+            response[command.length] = (byte) 0x90;
+            return response;
+        });
+        manager = new RelayConnectionManager("127.0.0.1", server.getPort(), true, 10000, 20, 200);
+        manager.start();
+        long deadline = System.currentTimeMillis() + 2000;
+        while (!manager.isReady() && System.currentTimeMillis() < deadline) {
+            Thread.yield();
+        }
+        assertTrue(manager.isReady());
+
+        profile = new ApduLookupTable(new byte[][]{SELECT, GPO}, new byte[][]{SELECT_RESPONSE, GPO_RESPONSE});
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        manager.stop();
+        server.close();
+    }
+
+    @Test
+    public void fastServer_answersFromRelay() {
+        DeadlineRelay relay = new DeadlineRelay(manager::exchange, 500);
+
+        byte[] response = relay.exchange(SELECT, System.nanoTime(), profile);
+
+        assertEquals((byte) 0x90, response[response.length - 2]);
+        assertEquals(SELECT.length + 2, response.length);
+        assertEquals(0, relay.getDeadlineMissCount());
+    }
+
+    @Test
+    public void slowServer_answersFromProfileWithinBudget() {
+        server.setResponseLatencyMillis(1000);
+        DeadlineRelay relay = new DeadlineRelay(manager::exchange, 100);
+
+        long start = System.nanoTime();
+        byte[] response = relay.exchange(SELECT, start, profile);
+
+        // the answer of the profile, not the one of the relay server, after the whole budget
+        assertArrayEquals(SELECT_RESPONSE, response);
+        assertTrue(System.nanoTime() - start >= 100_000_000L);
+        assertEquals(1, relay.getDeadlineMissCount());
+        assertEquals(1, relay.getDeadlineMissCount(ISOProtocol.INS_SELECT));
+        assertEquals(0, relay.getDeadlineMissCount(ISOProtocol.INS_GET_PROCESSING_OPTIONS));
+        assertTrue(relay.getStatistics().contains("missesByIns=A4:1"));
+    }
+
+    @Test
+    public void budget_isPerIns() {
+        server.setResponseLatencyMillis(300);
+        DeadlineRelay relay = new DeadlineRelay(manager::exchange, 100);
+        relay.setBudgetMillis(ISOProtocol.INS_GET_PROCESSING_OPTIONS, 2000);
+
+        byte[] selectResponse = relay.exchange(SELECT, System.nanoTime(), profile);
+        byte[] gpoResponse = relay.exchange(GPO, System.nanoTime(), profile);
+
+        assertArrayEquals(SELECT_RESPONSE, selectResponse);
+        assertEquals(GPO.length + 2, gpoResponse.length);
+        assertEquals(1, relay.getDeadlineMissCount());
+        assertEquals(2, relay.getExchangeCount());
+    }
+
+    @Test
+    public void slowServer_answersWithFallbackStatusWord() {
+        server.setResponseLatencyMillis(1000);
+        DeadlineRelay relay = new DeadlineRelay(manager::exchange, 100);
+        relay.setFallbackStatusWord(ISOProtocol.SW_COMMAND_ABORTED);
+
+        assertArrayEquals(ISOProtocol.SW_COMMAND_ABORTED, relay.exchange(SELECT, System.nanoTime(), profile));
+        assertEquals(1, relay.getDeadlineMissCount());
+    }
+
+    @Test
+    public void slowServer_commandMissingFromProfile_answersNotFound() {
+        server.setResponseLatencyMillis(1000);
+        DeadlineRelay relay = new DeadlineRelay(manager::exchange, 100);
+
+        assertArrayEquals(ISOProtocol.SW_FILE_NOT_FOUND, relay.exchange(SELECT, System.nanoTime(), ApduLookupTable.EMPTY));
+    }
+
+    @Test
+    public void budget_countsTheTimeBeforeTheExchange() {
+        final int[] sentCount = {0};
+        final long[] timeouts = new long[2];
+        DeadlineRelay relay = new DeadlineRelay((command, timeoutMillis) -> {
+            timeouts[sentCount[0]++] = timeoutMillis;
+            return null;
+        }, 10_000);
+        long now = System.nanoTime();
+
+        // the command waited longer than its budget behind the previous ones, it is not sent
+        assertArrayEquals(SELECT_RESPONSE, relay.exchange(SELECT, now - 15_000_000_000L, profile));
+        assertEquals(0, sentCount[0]);
+        assertEquals(1, relay.getDeadlineMissCount());
+
+        // only the rest of the budget is waited for
+        relay.exchange(SELECT, now - 6_000_000_000L, profile);
+        assertEquals(1, sentCount[0]);
+        assertTrue("waited " + timeouts[0] + " ms", timeouts[0] > 0 && timeouts[0] <= 4000);
+    }
+
+    @Test
+    public void budget_startsAfterTheNetworkDelay() {
+        final int[] sentCount = {0};
+        final long[] timeouts = new long[1];
+        DeadlineRelay relay = new DeadlineRelay((command, timeoutMillis) -> {
+            timeouts[sentCount[0]++] = timeoutMillis;
+            return GPO_RESPONSE;
+        }, 10_000);
+
+        // a delay much longer than the budget was waited, the command is still sent with its whole budget
+        assertArrayEquals(GPO_RESPONSE, relay.exchange(GPO, System.nanoTime() - 61_000_000_000L, 60_000, profile));
+        assertEquals(1, sentCount[0]);
+        assertTrue("waited " + timeouts[0] + " ms", timeouts[0] > 0 && timeouts[0] <= 9000);
+        assertEquals(0, relay.getDeadlineMissCount());
+    }
+
+    @Test
+    public void noConnection_answersRightAwayAndIsNotAMiss() {
+        manager.stop();
+        DeadlineRelay relay = new DeadlineRelay(manager::exchange, 1000);
+
+        assertArrayEquals(SELECT_RESPONSE, relay.exchange(SELECT, System.nanoTime(), profile));
+
+        // answered before the end of the budget, so it is not counted as a miss
+        assertEquals(0, relay.getDeadlineMissCount());
+        assertEquals(1, relay.getUnavailableCount());
+    }
+}
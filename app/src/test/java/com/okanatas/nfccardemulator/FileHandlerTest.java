@@ -0,0 +1,318 @@
+package com.okanatas.nfccardemulator;
+
+import org.junit.After;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit tests of the profile in use, replaced while command APDUs are answered.
+ */
+public class FileHandlerTest {
+
+    private static final byte[] SELECT = {0x00, (byte) 0xA4, 0x04, 0x00, 0x07, (byte) 0xA0, 0x00, 0x00, 0x00, 0x03, 0x10, 0x10};
+    private static final byte[] READ_RECORD = {0x00, (byte) 0xB2, 0x01, 0x0C, 0x00};
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @After
+    public void tearDown() {
+        FileHandler.clearCommandsAndResponses();
+    }
+
+    @Test
+    public void setActiveProfile_readersNeverSeeAMixedProfile() throws InterruptedException {
+        final AtomicBoolean isRunning = new AtomicBoolean(true);
+        final AtomicReference<String> failure = new AtomicReference<>();
+        final AtomicLong swapCount = new AtomicLong();
+        final AtomicLong dispatchCount = new AtomicLong();
+        FileHandler.setActiveProfile(buildProfile(0));
+
+        // each profile is built by the swapping thread and published while the readers dispatch
+        Thread swapper = new Thread(() -> {
+            for (int generation = 1; isRunning.get(); generation++) {
+                FileHandler.setActiveProfile(buildProfile(generation));
+                swapCount.incrementAndGet();
+            }
+        });
+
+        Thread[] readers = new Thread[3];
+        for (int r = 0; r < readers.length; r++) {
+            readers[r] = new Thread(() -> {
+                while (isRunning.get()) {
+                    ApduProfile profile = FileHandler.getActiveProfile();
+                    byte[] selectResponse = ApduDispatcher.dispatch(profile, SELECT);
+                    byte[] readRecordResponse = ApduDispatcher.dispatch(profile, READ_RECORD);
+                    String error = check(profile, selectResponse, readRecordResponse);
+                    if (error != null) {
+                        failure.compareAndSet(null, error);
+                        return;
+                    }
+                    dispatchCount.incrementAndGet();
+                }
+            });
+        }
+
+        swapper.start();
+        for (Thread reader : readers) {
+            reader.start();
+        }
+        Thread.sleep(1000);
+        isRunning.set(false);
+        swapper.join(5000);
+        for (Thread reader : readers) {
+            reader.join(5000);
+        }
+
+        assertNull(failure.get(), failure.get());
+        assertTrue(swapCount.get() > 100);
+        assertTrue(dispatchCount.get() > 100);
+    }
+
+    @Test
+    public void loadProfileInBackground_replacesTheProfileInUse() throws IOException, InterruptedException {
+        FileHandler.setActiveProfile(buildProfile(1));
+        File source = new File(folder.getRoot(), "visa.txt");
+        writeProfile(source, "7003570101 9000");
+
+        final CountDownLatch loaded = new CountDownLatch(1);
+        final AtomicReference<ApduProfile> result = new AtomicReference<>();
+        FileHandler.loadProfileInBackground(source, new FileHandler.ProfileLoadListener() {
+            @Override
+            public void onProfileLoaded(File source, ApduProfile profile) {
+                result.set(profile);
+                loaded.countDown();
+            }
+
+            @Override
+            public void onProfileLoadFailed(File source, IOException e) {
+                loaded.countDown();
+            }
+        });
+
+        assertTrue(loaded.await(5, TimeUnit.SECONDS));
+        assertSame(result.get(), FileHandler.getActiveProfile());
+        assertEquals(1, FileHandler.getPairCount());
+        assertArrayEquals(Utils.hexStringToByteArray("70035701019000"), ApduDispatcher.dispatch(FileHandler.getActiveProfile(), READ_RECORD));
+        assertTrue(CompiledApduProfile.getCompiledFile(source).isFile());
+    }
+
+    @Test
+    public void loadProfile_recentFileTakenFromMemory() throws IOException {
+        File source = new File(folder.getRoot(), "mastercard.txt");
+        writeProfile(source, "9000");
+        ApduProfile profile = FileHandler.loadProfile(source);
+
+        FileHandler.setActiveProfile(buildProfile(1));
+        assertSame(profile, FileHandler.loadProfile(source));
+
+        // a longer file, read again
+        writeProfile(source, "6A829000");
+        ApduProfile changedProfile = FileHandler.loadProfile(source);
+        assertNotSame(profile, changedProfile);
+        assertArrayEquals(Utils.hexStringToByteArray("6A829000"), ApduDispatcher.dispatch(changedProfile, READ_RECORD));
+    }
+
+    @Test
+    public void loadProfileInBackground_keepsTheProfileInUseOnFailure() throws InterruptedException {
+        ApduProfile profile = buildProfile(1);
+        FileHandler.setActiveProfile(profile);
+
+        final CountDownLatch failed = new CountDownLatch(1);
+        FileHandler.loadProfileInBackground(new File(folder.getRoot(), "missing.txt"), new FileHandler.ProfileLoadListener() {
+            @Override
+            public void onProfileLoaded(File source, ApduProfile profile) {
+            }
+
+            @Override
+            public void onProfileLoadFailed(File source, IOException e) {
+                failed.countDown();
+            }
+        });
+
+        assertTrue(failed.await(5, TimeUnit.SECONDS));
+        assertSame(profile, FileHandler.getActiveProfile());
+    }
+
+    @Test
+    public void deleteProfileDataInBackground_runsAfterTheQueuedLoad() throws IOException, InterruptedException {
+        File source = new File(folder.getRoot(), "amex.txt");
+        writeProfile(source, "9000");
+        final AtomicReference<ApduProfile> loadedProfile = new AtomicReference<>();
+        FileHandler.loadProfileInBackground(source, new FileHandler.ProfileLoadListener() {
+            @Override
+            public void onProfileLoaded(File source, ApduProfile profile) {
+                loadedProfile.set(profile);
+            }
+
+            @Override
+            public void onProfileLoadFailed(File source, IOException e) {
+            }
+        });
+        FileHandler.deleteProfileDataInBackground(source, true);
+
+        // the files are handled one after the other, this load ends after the delete
+        final CountDownLatch done = new CountDownLatch(1);
+        FileHandler.loadProfileInBackground(new File(folder.getRoot(), "missing.txt"), new FileHandler.ProfileLoadListener() {
+            @Override
+            public void onProfileLoaded(File source, ApduProfile profile) {
+            }
+
+            @Override
+            public void onProfileLoadFailed(File source, IOException e) {
+                done.countDown();
+            }
+        });
+
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+        assertNotNull(loadedProfile.get());
+        assertSame(ApduLookupTable.EMPTY, FileHandler.getActiveProfile());
+        assertFalse(CompiledApduProfile.getCompiledFile(source).exists());
+    }
+
+    @Test
+    public void importProfile_copiesParsesAndCompilesInOnePass() throws IOException {
+        StringBuilder text = new StringBuilder("Imported sample\n");
+        for (int i = 0; i < 5000; i++) {
+            text.append(FileHandler.getCommandKeyword()).append(" : 00B2").append(String.format("%04X", i)).append("00\n")
+                    .append(FileHandler.getResponseKeyword()).append(" : 7002").append(String.format("%04X", i)).append("9000\n\n");
+        }
+        byte[] content = text.toString().getBytes(StandardCharsets.UTF_8);
+        File target = new File(folder.getRoot(), "imported.txt");
+        final List<Long> progress = new ArrayList<>();
+
+        ApduLookupTable table = FileHandler.importProfile(new ByteArrayInputStream(content), content.length, target, new RecordingImportListener(progress));
+
+        assertEquals(5000, table.size());
+        assertArrayEquals(content, readAll(target));
+        assertEquals(Long.valueOf(content.length), progress.get(progress.size() - 1));
+        assertTrue(progress.size() > 1);
+        assertEquals(1, folder.getRoot().listFiles(File::isFile).length);
+
+        CompiledApduProfile compiledProfile = CompiledApduProfile.open(CompiledApduProfile.getCompiledFile(target));
+        assertTrue(compiledProfile.isCompiledFrom(target));
+        assertEquals(4999, compiledProfile.indexOf(Utils.hexStringToByteArray("00B2138700")));
+    }
+
+    @Test
+    public void importProfile_failureKeepsTheFormerFile() throws IOException {
+        File target = new File(folder.getRoot(), "imported.txt");
+        writeProfile(target, "9000");
+        byte[] former = readAll(target);
+
+        InputStream failing = new InputStream() {
+            private int count = 0;
+
+            @Override
+            public int read() throws IOException {
+                if (count++ >= 100) {
+                    throw new IOException("Document no longer available");
+                }
+                return 'A';
+            }
+        };
+        try {
+            FileHandler.importProfile(failing, -1, target, new RecordingImportListener(new ArrayList<>()));
+            fail("The import should fail");
+        } catch (IOException expected) {
+            // the former file is kept
+        }
+
+        assertArrayEquals(former, readAll(target));
+        File[] leftovers = CompiledApduProfile.getCompiledFile(target).getParentFile().listFiles();
+        assertTrue(leftovers == null || leftovers.length == 0);
+    }
+
+    private static byte[] readAll(File file) throws IOException {
+        try (InputStream input = new FileInputStream(file)) {
+            byte[] content = new byte[(int) file.length()];
+            int offset = 0;
+            int count;
+            while (offset < content.length && (count = input.read(content, offset, content.length - offset)) != -1) {
+                offset += count;
+            }
+            return Arrays.copyOf(content, offset);
+        }
+    }
+
+    /**
+     * Keeps the progress reported by an import.
+     */
+    private static class RecordingImportListener implements FileHandler.ImportListener {
+        private final List<Long> progress;
+
+        RecordingImportListener(List<Long> progress) {
+            this.progress = progress;
+        }
+
+        @Override
+        public void onImportProgress(long importedBytes, long totalBytes) {
+            progress.add(importedBytes);
+        }
+
+        @Override
+        public void onImportFinished(File target, int pairCount) {
+        }
+
+        @Override
+        public void onImportFailed(File target, IOException e) {
+        }
+    }
+
+    private static void writeProfile(File source, String response) throws IOException {
+        try (FileOutputStream output = new FileOutputStream(source)) {
+            output.write((FileHandler.getCommandKeyword() + " : 00B2010C00\n"
+                    + FileHandler.getResponseKeyword() + " : " + response + "\n").getBytes(StandardCharsets.UTF_8));
+        }
+    }
+
+    /**
+     * This method builds a profile whose responses and size all depend on the generation.
+     */
+    private static ApduProfile buildProfile(int generation) {
+        byte mark = (byte) generation;
+        ApduLookupTable.Builder builder = new ApduLookupTable.Builder()
+                .add(SELECT, new byte[]{0x6F, mark, (byte) 0x90, 0x00})
+                .add(READ_RECORD, new byte[]{0x70, mark, (byte) 0x90, 0x00});
+        for (int i = 0; i < expectedExtraPairs(mark); i++) {
+            builder.add(new byte[]{0x00, (byte) 0xB2, (byte) (i + 2), 0x0C, 0x00}, new byte[]{0x70, mark, (byte) 0x90, 0x00});
+        }
+        return builder.build();
+    }
+
+    private static int expectedExtraPairs(byte mark) {
+        return (mark & 0xFF) % 7;
+    }
+
+    private static String check(ApduProfile profile, byte[] selectResponse, byte[] readRecordResponse) {
+        if (selectResponse.length != 4 || readRecordResponse.length != 4) {
+            return "Command not found";
+        }
+        if (selectResponse[1] != readRecordResponse[1]) {
+            return "Responses of two profiles";
+        }
+        if (profile.size() != 2 + expectedExtraPairs(selectResponse[1])) {
+            return "Size of another profile";
+        }
+        return null;
+    }
+}
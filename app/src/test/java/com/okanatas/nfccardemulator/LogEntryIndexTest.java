@@ -0,0 +1,163 @@
+package com.okanatas.nfccardemulator;
+
+import org.junit.Test;
+
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit tests of the rows of the communication logs.
+ */
+public class LogEntryIndexTest {
+
+    private static final byte[] SELECT_PPSE = Utils.hexStringToByteArray("00A404000E325041592E5359532E444446303100");
+    private static final byte[] READ_RECORD = Utils.hexStringToByteArray("00B2010C00");
+    private static final byte[] OK = {(byte) 0x90, 0x00};
+
+    @Test
+    public void update_keepsTheApdusOnly() {
+        LogStore store = new LogStore(64);
+        LogEntryIndex index = new LogEntryIndex(store, 64, 0);
+        store.append(LogStore.KIND_MESSAGE, "Manage File", "File selected");
+        store.startSession();
+        store.append(LogStore.KIND_COMMUNICATION, "Communication", "Started");
+        addExchange(store, SELECT_PPSE);
+
+        assertTrue(index.update(0));
+        assertEquals(2, index.size());
+        assertSame(SELECT_PPSE, index.get(0).apdu);
+        assertEquals(0xA4, index.getIns(0));
+        // a response takes the INS byte of its command
+        assertEquals(0xA4, index.getIns(1));
+        assertFalse(index.update(0));
+
+        addExchange(store, READ_RECORD);
+        assertTrue(index.update(0));
+        assertEquals(4, index.size());
+        assertEquals(0xB2, index.getIns(3));
+    }
+
+    @Test
+    public void setFilter_bySessionAndIns() {
+        LogStore store = new LogStore(256);
+        LogEntryIndex index = new LogEntryIndex(store, 256, 0);
+        for (int session = 1; session <= 3; session++) {
+            store.startSession();
+            addExchange(store, SELECT_PPSE);
+            addExchange(store, READ_RECORD);
+            addExchange(store, READ_RECORD);
+        }
+        index.update(0);
+
+        index.setFilter(2, LogEntryIndex.ANY);
+        assertEquals(6, index.size());
+        assertEquals(2, index.get(0).session);
+        assertEquals(2, index.get(5).session);
+
+        index.setFilter(LogEntryIndex.ANY, 0xB2);
+        assertEquals(12, index.size());
+        index.setFilter(3, 0xA4);
+        assertEquals(2, index.size());
+        assertEquals(3, index.get(0).session);
+        index.setFilter(4, LogEntryIndex.ANY);
+        assertEquals(0, index.size());
+
+        // the new rows that pass the filter are added to it
+        index.setFilter(LogEntryIndex.ANY, 0xA4);
+        store.startSession();
+        addExchange(store, SELECT_PPSE);
+        addExchange(store, READ_RECORD);
+        index.update(0);
+        assertEquals(8, index.size());
+        assertEquals(4, index.get(7).session);
+
+        index.setFilter(LogEntryIndex.ANY, LogEntryIndex.ANY);
+        assertEquals(22, index.size());
+    }
+
+    @Test
+    public void update_dropsTheOldestRows() {
+        LogStore store = new LogStore(64);
+        LogEntryIndex index = new LogEntryIndex(store, 8, 0);
+        index.setFilter(LogEntryIndex.ANY, 0xB2);
+        for (int i = 0; i < 10; i++) {
+            addExchange(store, (i % 2 == 0) ? SELECT_PPSE : READ_RECORD);
+        }
+        index.update(0);
+        // 8 rows are kept, the last 4 exchanges, and 2 of them are READ RECORD
+        assertEquals(4, index.size());
+        assertEquals(14, index.getId(0));
+
+        index.setFilter(LogEntryIndex.ANY, LogEntryIndex.ANY);
+        assertEquals(8, index.size());
+        assertEquals(12, index.getId(0));
+
+        // the logs were cleared
+        long cleared = store.getNextSequence();
+        addExchange(store, READ_RECORD);
+        assertTrue(index.update(cleared));
+        assertEquals(2, index.size());
+        assertSame(READ_RECORD, index.get(0).apdu);
+    }
+
+    @Test
+    public void update_missesNoApduAddedMeanwhile() throws InterruptedException {
+        final int threads = 4;
+        final int perThread = 50_000;
+        final LogStore store = new LogStore(1 << 20);
+        LogEntryIndex index = new LogEntryIndex(store, 1 << 20, 0);
+        Thread[] producers = new Thread[threads];
+        for (int t = 0; t < threads; t++) {
+            producers[t] = new Thread(() -> {
+                for (int i = 0; i < perThread; i++) {
+                    store.appendApdu(LogStore.KIND_COMMAND, "C-APDU", READ_RECORD);
+                }
+            });
+            producers[t].start();
+        }
+        // the view takes the entries while they are added, some of them have their sequence number but are not stored yet
+        boolean isRunning = true;
+        while (isRunning) {
+            isRunning = false;
+            for (Thread producer : producers) {
+                isRunning |= producer.isAlive();
+            }
+            index.update(0);
+        }
+        index.update(0);
+
+        assertEquals(threads * perThread, index.size());
+        for (int position = 0; position < index.size(); position++) {
+            assertEquals(position, index.get(position).sequence);
+        }
+    }
+
+    @Test
+    public void update_oneFrameOfALongSession() {
+        LogStore store = new LogStore(1 << 20);
+        LogEntryIndex index = new LogEntryIndex(store, 8192, 0);
+        byte[][] commands = {SELECT_PPSE, READ_RECORD, Utils.hexStringToByteArray("80A8000002830000"), Utils.hexStringToByteArray("80AE8000")};
+        int frames = 2000;
+        int exchangesPerFrame = 50;
+        for (int frame = 0; frame < frames; frame++) {
+            if (frame % 25 == 0) {
+                store.startSession();
+            }
+            for (int i = 0; i < exchangesPerFrame; i++) {
+                addExchange(store, commands[i & 3]);
+            }
+            index.update(0);
+        }
+
+        index.setFilter(store.getSession() - 1, 0xB2);
+        // 13 READ RECORD exchanges in each of the 25 frames of the communication
+        assertEquals(2 * 13 * 25, index.size());
+        index.setFilter(LogEntryIndex.ANY, LogEntryIndex.ANY);
+        assertEquals(8192, index.size());
+    }
+
+    private static void addExchange(LogStore store, byte[] command) {
+        store.appendApdu(LogStore.KIND_COMMAND, "C-APDU", command);
+        store.appendApdu(LogStore.KIND_RESPONSE, "R-APDU", OK);
+    }
+}
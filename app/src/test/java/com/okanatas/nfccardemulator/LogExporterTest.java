@@ -0,0 +1,197 @@
+package com.okanatas.nfccardemulator;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.GZIPInputStream;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit tests of the export of the log messages.
+ */
+public class LogExporterTest {
+
+    private static final byte[] SELECT_PPSE = Utils.hexStringToByteArray("00A404000E325041592E5359532E444446303100");
+    private static final byte[] OK = {(byte) 0x90, 0x00};
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void write_allMessagesThenTheCommunicationLogs() throws IOException {
+        LogStore store = new LogStore(64);
+        store.append(LogStore.KIND_MESSAGE, "Manage File", "File selected");
+        store.startSession();
+        store.append(LogStore.KIND_FILE_NAME, "File:", "visa.txt");
+        store.appendApdu(LogStore.KIND_COMMAND, "C-APDU", SELECT_PPSE);
+        store.appendApdu(LogStore.KIND_RESPONSE, "R-APDU", OK);
+
+        StringWriter text = new StringWriter();
+        assertEquals(6, newExporter().write(store, 0, text));
+        assertEquals("All\n\n"
+                + "Manage File : File selected\n"
+                + "C-APDU : 00A404000E325041592E5359532E444446303100\n"
+                + "R-APDU : 9000\n"
+                + "\nCommunication\n\n"
+                + "\nFile: visa.txt\n"
+                + "C-APDU : 00A404000E325041592E5359532E444446303100\n"
+                + "R-APDU : 9000\n", text.toString());
+
+        // the logs were cleared
+        text = new StringWriter();
+        assertEquals(0, newExporter().write(store, store.getNextSequence(), text));
+        assertEquals("All\n\n\nCommunication\n\nNone", text.toString());
+    }
+
+    @Test
+    public void write_keepsTheSelectedEntries() throws IOException {
+        LogStore store = new LogStore(64);
+        for (int session = 1; session <= 3; session++) {
+            store.startSession();
+            store.appendApdu(LogStore.KIND_COMMAND, "C-APDU", SELECT_PPSE);
+            store.appendApdu(LogStore.KIND_RESPONSE, "R-APDU", OK);
+        }
+
+        StringWriter text = new StringWriter();
+        assertEquals(4, newExporter().setSession(2).write(store, 0, text));
+        assertEquals(2, count(text.toString(), "C-APDU"));
+
+        long now = System.currentTimeMillis();
+        assertEquals(12, newExporter().setTimeRange(now - 60_000, now + 60_000).write(store, 0, new StringWriter()));
+        text = new StringWriter();
+        assertEquals(0, newExporter().setTimeRange(now + 60_000, Long.MAX_VALUE).write(store, 0, text));
+        assertTrue(text.toString().endsWith("None"));
+    }
+
+    @Test
+    public void export_writesTheSameTextCompressed() throws IOException {
+        LogStore store = new LogStore(1024);
+        store.startSession();
+        for (int i = 0; i < 500; i++) {
+            store.appendApdu(LogStore.KIND_COMMAND, "C-APDU", SELECT_PPSE);
+            store.appendApdu(LogStore.KIND_RESPONSE, "R-APDU", OK);
+        }
+        StringWriter text = new StringWriter();
+        newExporter().write(store, 0, text);
+
+        File target = new File(folder.getRoot(), "logs.txt.gz");
+        assertEquals(2000, newExporter().export(store, 0, target));
+        assertTrue(target.length() < text.toString().length() / 10);
+        ByteArrayOutputStream unzipped = new ByteArrayOutputStream();
+        try (InputStream input = new GZIPInputStream(new FileInputStream(target))) {
+            byte[] buffer = new byte[8192];
+            int length;
+            while ((length = input.read(buffer)) > 0) {
+                unzipped.write(buffer, 0, length);
+            }
+        }
+        assertEquals(text.toString(), unzipped.toString("UTF-8"));
+    }
+
+    @Test
+    public void exportInBackground_replacesOnlyThePreviousExports() throws IOException, InterruptedException {
+        LogStore store = new LogStore(64);
+        store.startSession();
+        store.appendApdu(LogStore.KIND_COMMAND, "C-APDU", SELECT_PPSE);
+        store.appendApdu(LogStore.KIND_RESPONSE, "R-APDU", OK);
+        File directory = folder.newFolder("logs");
+        File previous = new File(directory, LogExporter.FILE_NAME_PREFIX + "1.txt.gz");
+        File other = new File(directory, "trace.gz");
+        assertTrue(previous.createNewFile());
+        assertTrue(other.createNewFile());
+
+        final CountDownLatch done = new CountDownLatch(1);
+        final AtomicLong lines = new AtomicLong(-1);
+        File target = new File(directory, LogExporter.FILE_NAME_PREFIX + "2.txt.gz");
+        newExporter().exportInBackground(store, 0, target, new LogExporter.Listener() {
+            @Override
+            public void onExportFinished(File target, long lineCount) {
+                lines.set(lineCount);
+                done.countDown();
+            }
+
+            @Override
+            public void onExportFailed(File target, IOException e) {
+                done.countDown();
+            }
+        });
+
+        assertTrue(done.await(10, TimeUnit.SECONDS));
+        assertEquals(4, lines.get());
+        assertTrue(target.isFile());
+        assertFalse(previous.exists());
+        assertTrue(other.exists());
+    }
+
+    @Test
+    public void export_aMillionEntriesWithConstantMemory() throws IOException {
+        int count = 1 << 20;
+        LogStore store = new LogStore(count);
+        for (int i = 0; i < count / 2; i++) {
+            if (i % 1000 == 0) {
+                store.startSession();
+            }
+            store.appendApdu(LogStore.KIND_COMMAND, "C-APDU", SELECT_PPSE);
+            store.appendApdu(LogStore.KIND_RESPONSE, "R-APDU", OK);
+        }
+
+        // the memory in use is sampled while the entries are written
+        final long[] maxUsed = {0};
+        final long[] written = {0};
+        Writer sink = new Writer() {
+            @Override
+            public void write(char[] chars, int offset, int length) {
+                written[0] += length;
+                if ((written[0] & 0xFFFFF) < length) {
+                    maxUsed[0] = Math.max(maxUsed[0], usedMemory());
+                }
+            }
+
+            @Override
+            public void flush() { }
+
+            @Override
+            public void close() { }
+        };
+        long usedBefore = usedMemory();
+        newExporter().write(store, 0, sink);
+        long growth = maxUsed[0] - usedBefore;
+
+        File target = new File(folder.getRoot(), "logs.txt.gz");
+        assertEquals(2L * count, newExporter().export(store, 0, target));
+
+        // the text is more than 50 MB, the memory used while writing it does not grow with it
+        assertTrue(written[0] > 50L * 1024 * 1024);
+        assertTrue("heap growth " + growth, growth < 4L * 1024 * 1024);
+    }
+
+    private static LogExporter newExporter() {
+        return new LogExporter("All", "Communication", "None");
+    }
+
+    private static int count(String text, String part) {
+        int count = 0;
+        for (int index = text.indexOf(part); index >= 0; index = text.indexOf(part, index + 1)) {
+            count++;
+        }
+        return count;
+    }
+
+    private static long usedMemory() {
+        Runtime runtime = Runtime.getRuntime();
+        System.gc();
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+}
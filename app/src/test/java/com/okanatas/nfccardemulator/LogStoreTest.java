@@ -0,0 +1,104 @@
+package com.okanatas.nfccardemulator;
+
+import org.junit.Test;
+
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit tests of the ring of log entries.
+ */
+public class LogStoreTest {
+
+    private static final byte[] SELECT_PPSE = Utils.hexStringToByteArray("00A404000E325041592E5359532E444446303100");
+
+    @Test
+    public void append_keepsTheEntriesInOrder() {
+        LogStore store = new LogStore(16);
+        store.append(LogStore.KIND_MESSAGE, "Manage File", "File selected");
+        store.startSession();
+        store.append(LogStore.KIND_FILE_NAME, "File name:", "visa.txt");
+        store.appendApdu(LogStore.KIND_COMMAND, "C-APDU", SELECT_PPSE);
+        store.appendApdu(LogStore.KIND_RESPONSE, "R-APDU", new byte[]{(byte) 0x90, 0x00});
+
+        List<LogStore.Entry> entries = store.getEntries(0);
+        assertEquals(4, entries.size());
+        assertEquals("Manage File : File selected\n", entries.get(0).toString());
+        assertEquals("\nFile name: visa.txt\n", entries.get(1).toString());
+        assertEquals("C-APDU : 00A404000E325041592E5359532E444446303100\n", entries.get(2).toString());
+        assertSame(SELECT_PPSE, entries.get(2).apdu);
+        assertEquals(0, entries.get(0).session);
+        assertEquals(1, entries.get(3).session);
+        assertFalse(entries.get(0).isCommunication());
+        assertTrue(entries.get(1).isCommunication() && !entries.get(1).isApdu());
+        assertTrue(entries.get(3).isApdu());
+        assertEquals(2, store.getEntries(2).size());
+    }
+
+    @Test
+    public void append_replacesTheOldestEntries() {
+        LogStore store = new LogStore(5);
+        for (int i = 0; i < 20; i++) {
+            store.append(LogStore.KIND_MESSAGE, "Tag", "message " + i);
+        }
+
+        List<LogStore.Entry> entries = store.getEntries(0);
+        assertEquals(8, store.getCapacity());
+        assertEquals(8, entries.size());
+        assertEquals("message 12", entries.get(0).getText());
+        assertEquals("message 19", entries.get(7).getText());
+        assertEquals(12, store.getOverwrittenCount());
+        assertEquals(3, store.getEntries(17).size());
+        assertTrue(store.getEntries(20).isEmpty());
+    }
+
+    @Test
+    public void isPending_onlyForTakenEntriesNotStored() {
+        LogStore store = new LogStore(4);
+        for (int i = 0; i < 6; i++) {
+            store.append(LogStore.KIND_MESSAGE, "Tag", "message " + i);
+        }
+
+        // replaced, stored, and not taken yet
+        assertFalse(store.isPending(1));
+        assertFalse(store.isPending(5));
+        assertFalse(store.isPending(6));
+    }
+
+    @Test
+    public void append_fromSeveralThreads() throws InterruptedException {
+        final int threads = 4;
+        final int perThread = 200_000;
+        final LogStore store = new LogStore(1024);
+        final CountDownLatch start = new CountDownLatch(1);
+        Thread[] producers = new Thread[threads];
+        for (int t = 0; t < threads; t++) {
+            final String tag = "T" + t;
+            producers[t] = new Thread(() -> {
+                try {
+                    start.await();
+                } catch (InterruptedException e) {
+                    return;
+                }
+                for (int i = 0; i < perThread; i++) {
+                    store.appendApdu(LogStore.KIND_COMMAND, tag, SELECT_PPSE);
+                }
+            });
+            producers[t].start();
+        }
+        start.countDown();
+        for (Thread producer : producers) {
+            producer.join();
+        }
+
+        List<LogStore.Entry> entries = store.getEntries(0);
+        assertEquals((long) threads * perThread, store.getNextSequence());
+        // all the threads are done, the last ring of entries is complete and in order
+        assertEquals(1024, entries.size());
+        for (int i = 0; i < entries.size(); i++) {
+            assertEquals(store.getNextSequence() - 1024 + i, entries.get(i).sequence);
+        }
+    }
+}
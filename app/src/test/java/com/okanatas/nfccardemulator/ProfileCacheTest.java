@@ -0,0 +1,127 @@
+package com.okanatas.nfccardemulator;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit tests of the recent profiles kept in memory.
+ */
+public class ProfileCacheTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void get_hitUntilTheFileChanges() throws IOException {
+        ProfileCache cache = new ProfileCache(4, 1024 * 1024);
+        File source = writeSource("visa.txt", "visa");
+        ApduProfile profile = buildProfile(1);
+        put(cache, source, profile);
+
+        assertSame(profile, cache.get(source));
+        assertEquals(1, cache.getHitCount());
+
+        writeSource("visa.txt", "visa changed");
+        assertNull(cache.get(source));
+        assertEquals(1, cache.getInvalidationCount());
+        assertEquals(0, cache.size());
+        assertEquals(0, cache.getResidentBytes());
+    }
+
+    @Test
+    public void get_missOnceTheFileIsTouched() throws IOException {
+        ProfileCache cache = new ProfileCache(4, 1024 * 1024);
+        File source = writeSource("visa.txt", "visa");
+        put(cache, source, buildProfile(1));
+
+        assertTrue(source.setLastModified(source.lastModified() + 2000));
+        assertNull(cache.get(source));
+        assertEquals(1, cache.getInvalidationCount());
+    }
+
+    @Test
+    public void put_evictsTheLeastRecentlyUsedProfile() throws IOException {
+        ProfileCache cache = new ProfileCache(2, 1024 * 1024);
+        File visa = writeSource("visa.txt", "visa");
+        File mastercard = writeSource("mastercard.txt", "mastercard");
+        File amex = writeSource("amex.txt", "amex");
+        put(cache, visa, buildProfile(1));
+        put(cache, mastercard, buildProfile(1));
+
+        assertNotNull(cache.get(visa));
+        put(cache, amex, buildProfile(1));
+
+        assertNull(cache.get(mastercard));
+        assertNotNull(cache.get(visa));
+        assertNotNull(cache.get(amex));
+        assertEquals(1, cache.getEvictionCount());
+    }
+
+    @Test
+    public void put_staysWithinTheBudget() throws IOException {
+        long profileSize = buildProfile(10).getStorageSize();
+        ProfileCache cache = new ProfileCache(8, profileSize * 2 + profileSize / 2);
+        File[] sources = new File[4];
+        for (int i = 0; i < sources.length; i++) {
+            sources[i] = writeSource("profile" + i + ".txt", "profile" + i);
+            put(cache, sources[i], buildProfile(10));
+            assertTrue(cache.getResidentBytes() <= profileSize * 2 + profileSize / 2);
+        }
+
+        assertEquals(2, cache.size());
+        assertEquals(profileSize * 2, cache.getResidentBytes());
+        assertNull(cache.get(sources[1]));
+        assertNotNull(cache.get(sources[3]));
+    }
+
+    @Test
+    public void put_skipsProfilesLargerThanTheBudget() throws IOException {
+        ApduProfile large = buildProfile(100);
+        ProfileCache cache = new ProfileCache(8, large.getStorageSize() - 1);
+        File source = writeSource("large.txt", "large");
+        put(cache, source, large);
+
+        assertEquals(0, cache.size());
+        assertNull(cache.get(source));
+    }
+
+    @Test
+    public void remove_forgetsTheProfile() throws IOException {
+        ProfileCache cache = new ProfileCache(4, 1024 * 1024);
+        File source = writeSource("visa.txt", "visa");
+        put(cache, source, buildProfile(1));
+
+        cache.remove(source);
+        assertNull(cache.get(source));
+        assertEquals(0, cache.getResidentBytes());
+        assertTrue(cache.getStatistics().contains("misses=1"));
+    }
+
+    private static void put(ProfileCache cache, File source, ApduProfile profile) {
+        cache.put(source, source.length(), source.lastModified(), profile);
+    }
+
+    private static ApduProfile buildProfile(int pairs) {
+        ApduLookupTable.Builder builder = new ApduLookupTable.Builder();
+        for (int i = 0; i < pairs; i++) {
+            builder.add(new byte[]{0x00, (byte) 0xB2, (byte) i, 0x0C, 0x00}, new byte[]{0x70, (byte) i, (byte) 0x90, 0x00});
+        }
+        return builder.build();
+    }
+
+    private File writeSource(String name, String text) throws IOException {
+        File file = new File(folder.getRoot(), name);
+        try (FileOutputStream output = new FileOutputStream(file)) {
+            output.write(text.getBytes(StandardCharsets.UTF_8));
+        }
+        return file;
+    }
+}
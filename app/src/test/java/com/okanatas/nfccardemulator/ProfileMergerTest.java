@@ -0,0 +1,181 @@
+package com.okanatas.nfccardemulator;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit tests of the recorded sessions merged into one compact profile.
+ */
+public class ProfileMergerTest {
+
+    private static final String COMMAND_KEYWORD = "c-apdu";
+    private static final String RESPONSE_KEYWORD = "r-apdu";
+
+    private static final String SESSION_1 = "c-apdu : 00A404000E325041592E5359532E444446303100\n"
+            + "r-apdu : 6F1A840E325041592E5359532E4444463031A5088801025F2D02656E9000\n\n"
+            + "c-apdu : 00B2010C00\n"
+            + "r-apdu : 70145A0847617390010100109F1F08303030303030303030\n\n"
+            + "c-apdu : 0084000008\n"
+            + "r-apdu : 11223344556677889000\n\n";
+
+    private static final String SESSION_2 = "c-apdu : 00A404000E325041592E5359532E444446303100\n"
+            + "r-apdu : 6F1A840E325041592E5359532E4444463031A5088801025F2D02656E9000\n\n"
+            + "c-apdu : 00B2010C00\n"
+            + "r-apdu : 70145A0847617390010100109F1F08303030303030303030\n\n"
+            + "c-apdu : 0084000008\n"
+            + "r-apdu : 88776655443322119000\n\n"
+            + "c-apdu : 00B2020C00\n"
+            + "r-apdu : 70145A0847617390010100109F1F08303030303030303030\n\n";
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void add_keepsEachPairOnce() throws IOException {
+        ProfileMerger merger = new ProfileMerger(COMMAND_KEYWORD, RESPONSE_KEYWORD)
+                .add(new StringReader(SESSION_1)).add(new StringReader(SESSION_2)).add(new StringReader(SESSION_1));
+
+        assertEquals(3, merger.getSourceCount());
+        assertEquals(10, merger.getInputPairCount());
+        assertEquals(5, merger.getDuplicatePairCount());
+        assertEquals(5, merger.getPairCount());
+        // the two READ RECORD commands have the same response
+        assertEquals(4, merger.getResponseCount());
+        assertEquals(4, merger.build().getResponseCount());
+        assertTrue(merger.getSummary().contains("duplicates=5 kept=5"));
+    }
+
+    @Test
+    public void add_reportsTheConflicts() throws IOException {
+        ProfileMerger merger = new ProfileMerger(COMMAND_KEYWORD, RESPONSE_KEYWORD)
+                .add(new StringReader(SESSION_1)).add(new StringReader(SESSION_2)).add(new StringReader(SESSION_2));
+
+        List<ProfileMerger.Conflict> conflicts = merger.getConflicts();
+        assertEquals(1, conflicts.size());
+        assertArrayEquals(Utils.hexStringToByteArray("0084000008"), conflicts.get(0).command);
+        assertEquals(2, conflicts.get(0).responses.size());
+        assertArrayEquals(Utils.hexStringToByteArray("11223344556677889000"), conflicts.get(0).responses.get(0));
+        assertArrayEquals(Utils.hexStringToByteArray("88776655443322119000"), conflicts.get(0).responses.get(1));
+        assertEquals("0084000008 -> 11223344556677889000 88776655443322119000", conflicts.get(0).toString());
+    }
+
+    @Test
+    public void build_answersLikeTheTracesPutTogether() throws IOException {
+        ApduLookupTable merged = new ProfileMerger(COMMAND_KEYWORD, RESPONSE_KEYWORD)
+                .add(new StringReader(SESSION_1)).add(new StringReader(SESSION_2)).build();
+        ApduLookupTable concatenated = parse(SESSION_1 + SESSION_2);
+
+        for (int i = 0; i < concatenated.size(); i++) {
+            byte[] command = toArray(concatenated.getCommandSlice(i));
+            assertArrayEquals(ApduDispatcher.dispatch(concatenated, command), ApduDispatcher.dispatch(merged, command));
+        }
+        // the second response of the conflict is kept after the first one
+        assertEquals(2, merged.indexOf(Utils.hexStringToByteArray("0084000008")));
+        assertArrayEquals(Utils.hexStringToByteArray("88776655443322119000"), merged.getResponse(3));
+    }
+
+    @Test
+    public void writeProfile_replacesOneOfTheMergedFiles() throws IOException {
+        File first = writeFile("first.txt", SESSION_1 + SESSION_1);
+        File second = writeFile("second.txt", SESSION_2);
+
+        ApduLookupTable table = new ProfileMerger(COMMAND_KEYWORD, RESPONSE_KEYWORD).add(first).add(second).writeProfile(first);
+
+        ApduLookupTable reread = new ProfileMerger(COMMAND_KEYWORD, RESPONSE_KEYWORD).add(first).build();
+        assertEquals(5, table.size());
+        assertEquals(table.size(), reread.size());
+        for (int i = 0; i < table.size(); i++) {
+            assertEquals(table.getCommandSlice(i), reread.getCommandSlice(i));
+            assertArrayEquals(table.getResponse(i), reread.getResponse(i));
+        }
+        assertEquals(2, folder.getRoot().listFiles().length);
+    }
+
+    @Test
+    public void writeProfile_keepsThePatterns() throws IOException {
+        String patterns = "c-apdu : 80A80000??8321*\nr-apdu : 7781009000\n\nc-apdu : 80AE8?00*\nr-apdu : 6985\n\n";
+        ProfileMerger merger = new ProfileMerger(COMMAND_KEYWORD, RESPONSE_KEYWORD)
+                .add(new StringReader(SESSION_1 + patterns)).add(new StringReader(patterns + SESSION_2));
+        StringWriter mergedText = new StringWriter();
+        merger.writeProfile(merger.build(), mergedText);
+
+        assertEquals(2, merger.getPatternCount());
+        assertTrue(merger.getSummary().contains("duplicates=4 kept=5 patterns=2"));
+        assertTrue(mergedText.toString().endsWith(patterns));
+    }
+
+    @Test
+    public void mergeProfiles_compilesTheMergedFile() throws IOException {
+        File source = writeFile("sessions.txt", (SESSION_1 + SESSION_2 + SESSION_1)
+                .replace(COMMAND_KEYWORD, FileHandler.getCommandKeyword()).replace(RESPONSE_KEYWORD, FileHandler.getResponseKeyword()));
+
+        ProfileMerger merger = FileHandler.mergeProfiles(Arrays.asList(source), source);
+
+        assertEquals(5, merger.getDuplicatePairCount());
+        CompiledApduProfile compiledProfile = CompiledApduProfile.open(CompiledApduProfile.getCompiledFile(source));
+        assertTrue(compiledProfile.isCompiledFrom(source));
+        assertEquals(5, compiledProfile.size());
+        assertEquals(4, compiledProfile.getResponseCount());
+    }
+
+    @Test
+    public void merge_shrinksWithTheRedundancy() throws IOException {
+        int sessions = 200;
+        StringBuilder text = new StringBuilder();
+        for (int s = 0; s < sessions; s++) {
+            for (int record = 0; record < 50; record++) {
+                text.append("c-apdu : 00B2").append(String.format("%02X", record)).append("0C00\n")
+                        .append("r-apdu : 70145A0847617390010100109F1F08").append(String.format("%08X", record)).append("9000\n\n");
+            }
+            // the challenge is new in each session
+            text.append("c-apdu : 0084000008\nr-apdu : ").append(String.format("%016X", s)).append("9000\n\n");
+        }
+        String concatenatedText = text.toString();
+
+        ProfileMerger merger = new ProfileMerger(COMMAND_KEYWORD, RESPONSE_KEYWORD).add(new StringReader(concatenatedText));
+        StringWriter mergedText = new StringWriter();
+        merger.writeProfile(merger.build(), mergedText);
+
+        ApduLookupTable concatenated = parse(concatenatedText);
+        ApduLookupTable merged = parse(mergedText.toString());
+
+        assertEquals(sessions * 51, concatenated.size());
+        assertEquals(50 + sessions, merged.size());
+        assertEquals(1, merger.getConflictCount());
+        // about 40 times fewer pairs, the memory and the text shrink as much
+        assertTrue(merged.getStorageSize() * 10 < concatenated.getStorageSize());
+        assertTrue(mergedText.toString().length() * 10 < concatenatedText.length());
+    }
+
+    private static ApduLookupTable parse(String text) throws IOException {
+        ApduLookupTable.Builder builder = new ApduLookupTable.Builder();
+        new ProfileParser(COMMAND_KEYWORD, RESPONSE_KEYWORD, builder::add).parse(new StringReader(text));
+        return builder.build();
+    }
+
+    private static byte[] toArray(java.nio.ByteBuffer buffer) {
+        byte[] array = new byte[buffer.remaining()];
+        buffer.duplicate().get(array);
+        return array;
+    }
+
+    private File writeFile(String name, String text) throws IOException {
+        File file = new File(folder.getRoot(), name);
+        try (FileOutputStream output = new FileOutputStream(file)) {
+            output.write(text.getBytes(StandardCharsets.UTF_8));
+        }
+        return file;
+    }
+}
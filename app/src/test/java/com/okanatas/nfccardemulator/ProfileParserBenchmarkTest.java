@@ -0,0 +1,87 @@
+package com.okanatas.nfccardemulator;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.lang.management.ManagementFactory;
+
+import static org.junit.Assert.*;
+
+/**
+ * Allocation check of the streaming parser on a synthetic file of one million command and response pairs.
+ * The file is generated while it is read, so that only the parser allocates.
+ */
+public class ProfileParserBenchmarkTest {
+
+    private static final int PAIRS = 1_000_000;
+
+    @Test
+    public void parse_millionPairs() throws IOException {
+        com.sun.management.ThreadMXBean threadBean = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long threadId = Thread.currentThread().getId();
+
+        // warm up, so that compilation is not counted
+        parse(new SyntheticProfileReader(50_000));
+
+        SyntheticProfileReader reader = new SyntheticProfileReader(PAIRS);
+        long allocatedBefore = threadBean.getThreadAllocatedBytes(threadId);
+        ProfileParser parser = parse(reader);
+        long allocated = threadBean.getThreadAllocatedBytes(threadId) - allocatedBefore;
+
+        assertEquals(PAIRS, parser.getPairCount());
+        assertEquals(0, parser.getInvalidCommandCount() + parser.getInvalidResponseCount() + parser.getUnpairedCount());
+        // the values are decoded into reused arrays, neither the text nor the pairs are copied
+        assertTrue("allocated " + allocated + " bytes", allocated < 1024 * 1024);
+    }
+
+    private static ProfileParser parse(Reader reader) throws IOException {
+        final long[] checksum = new long[1];
+        ProfileParser parser = new ProfileParser("c-apdu", "r-apdu",
+                (commandApdu, commandLength, responseApdu, responseLength) -> checksum[0] += commandApdu[3] + responseLength);
+        parser.parse(reader);
+        assertTrue(checksum[0] != 0);
+        return parser;
+    }
+
+    /**
+     * A txt file of READ RECORD commands and their responses, generated while it is read.
+     */
+    private static class SyntheticProfileReader extends Reader {
+        private static final char[] HEX = "0123456789ABCDEF".toCharArray();
+        private final char[] pair = ("c-apdu : 00B2XX0C00\n"
+                + "r-apdu : 70145A0847617390010100109F1F0830303030303030309000\n\n").toCharArray();
+        private final int recordIndex = new String(pair).indexOf("XX");
+        private final int pairs;
+        private int pairIndex = 0;
+        private int charIndex = 0;
+
+        SyntheticProfileReader(int pairs) {
+            this.pairs = pairs;
+        }
+
+        @Override
+        public int read(char[] buffer, int offset, int length) {
+            if (pairIndex == pairs) {
+                return -1;
+            }
+            int count = 0;
+            while (count < length && pairIndex < pairs) {
+                if (charIndex == 0) {
+                    pair[recordIndex] = HEX[(pairIndex >> 4) & 0xF];
+                    pair[recordIndex + 1] = HEX[pairIndex & 0xF];
+                }
+                buffer[offset + count++] = pair[charIndex++];
+                if (charIndex == pair.length) {
+                    charIndex = 0;
+                    pairIndex++;
+                }
+            }
+            return count;
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+}
@@ -0,0 +1,189 @@
+package com.okanatas.nfccardemulator;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit tests of the streaming parser of the txt files.
+ */
+public class ProfileParserTest {
+
+    private final List<String> pairs = new ArrayList<>();
+    private final ProfileParser parser = new ProfileParser("c-apdu", "r-apdu",
+            (commandApdu, commandLength, responseApdu, responseLength) -> pairs.add(
+                    Utils.toHexString(Arrays.copyOf(commandApdu, commandLength)) + "/" + Utils.toHexString(Arrays.copyOf(responseApdu, responseLength))));
+
+    @Test
+    public void parse_readsPairs() throws IOException {
+        parse("Visa sample\n"
+                + "c-apdu : 00A404000E325041592E5359532E444446303100\n"
+                + "r-apdu : 6F10840E325041592E5359532E44444630319000\n"
+                + "\n"
+                + "C-APDU: 00b2010c00\r\n"
+                + "R-Apdu :70035a0101 9000\r\n");
+
+        assertEquals(2, pairs.size());
+        assertEquals("00A404000E325041592E5359532E444446303100/6F10840E325041592E5359532E44444630319000", pairs.get(0));
+        assertEquals("00B2010C00/70035A01019000", pairs.get(1));
+        assertEquals(2, parser.getPairCount());
+    }
+
+    @Test
+    public void parse_ignoresWhiteSpacesEverywhere() throws IOException {
+        parse("c - apdu\t:\n00 A4 04 00\n 07 A0 00 00 00 03 10 10\nr-apdu : 90 00");
+
+        assertEquals(1, pairs.size());
+        assertEquals("00A4040007A0000000031010/9000", pairs.get(0));
+    }
+
+    @Test
+    public void parse_keywordRightAfterValue() throws IOException {
+        // the value ends with hexadecimal digits and the next keyword starts with one
+        parse("c-apdu:00A4040000r-apdu:9000c-apdu:00B2010C00r-apdu:6A83");
+
+        assertEquals(2, pairs.size());
+        assertEquals("00A4040000/9000", pairs.get(0));
+        assertEquals("00B2010C00/6A83", pairs.get(1));
+    }
+
+    @Test
+    public void parse_refusesOddCommands() throws IOException {
+        // long enough but with an odd number of digits, this was accepted before
+        parse("c-apdu : 00A4040007A00000000310100\nr-apdu : 9000\n");
+
+        assertEquals(0, pairs.size());
+        assertEquals(1, parser.getInvalidCommandCount());
+        assertEquals(1, parser.getUnpairedCount());
+    }
+
+    @Test
+    public void parse_refusesShortCommands() throws IOException {
+        parse("c-apdu : 00A404\nr-apdu : 9000\n");
+
+        assertEquals(0, pairs.size());
+        assertEquals(1, parser.getInvalidCommandCount());
+    }
+
+    @Test
+    public void parse_refusesNonHexadecimalValues() throws IOException {
+        parse("c-apdu : 00A4040000\nr-apdu : 90ZZ\n"
+                + "c-apdu : 00B2010C00\nr-apdu : 9000\n");
+
+        assertEquals(1, pairs.size());
+        assertEquals("00B2010C00/9000", pairs.get(0));
+        assertEquals(1, parser.getInvalidResponseCount());
+    }
+
+    @Test
+    public void parse_refusesOddAndEmptyResponses() throws IOException {
+        parse("c-apdu : 00A4040000\nr-apdu : 900\n"
+                + "c-apdu : 00A4040000\nr-apdu :\n");
+
+        assertEquals(0, pairs.size());
+        assertEquals(2, parser.getInvalidResponseCount());
+    }
+
+    @Test
+    public void parse_skipsCommandsWithoutResponse() throws IOException {
+        parse("c-apdu : 00A4040000\n"
+                + "c-apdu : 00B2010C00\nr-apdu : 9000\n"
+                + "r-apdu : 6A82\n"
+                + "c-apdu : 00B2020C00\n");
+
+        assertEquals(1, pairs.size());
+        assertEquals("00B2010C00/9000", pairs.get(0));
+        assertEquals(3, parser.getUnpairedCount());
+    }
+
+    @Test
+    public void parse_refusesValuesLongerThanMaximum() throws IOException {
+        StringBuilder text = new StringBuilder("c-apdu : 00A4040000\nr-apdu : ");
+        for (int i = 0; i <= ProfileParser.MAX_VALUE_SIZE; i++) {
+            text.append("AB");
+        }
+        parse(text.toString());
+
+        assertEquals(0, pairs.size());
+        assertEquals(1, parser.getInvalidResponseCount());
+    }
+
+    @Test
+    public void feed_inChunksOfAnySize() {
+        String text = "c-apdu : 00A404000E325041592E5359532E444446303100\nr-apdu : 6F009000\n"
+                + "c-apdu : 00B2010C00\nr-apdu : 70009000\n";
+
+        for (char c : text.toCharArray()) {
+            parser.feed(c);
+        }
+        parser.finish();
+
+        ByteBuffer bytes = ByteBuffer.wrap(text.getBytes(StandardCharsets.US_ASCII));
+        for (int end = 7; bytes.hasRemaining(); end = Math.min(end + 7, bytes.capacity())) {
+            ByteBuffer chunk = bytes.duplicate();
+            chunk.limit(end);
+            parser.feed(chunk);
+            bytes.position(end);
+        }
+        parser.finish();
+
+        assertEquals(4, pairs.size());
+        assertEquals(pairs.subList(0, 2), pairs.subList(2, 4));
+    }
+
+    @Test
+    public void parse_readsPatterns() throws IOException {
+        List<String> patterns = new ArrayList<>();
+        ProfileParser patternParser = new ProfileParser("c-apdu", "r-apdu",
+                (commandApdu, commandLength, responseApdu, responseLength) -> pairs.add(Utils.toHexString(Arrays.copyOf(commandApdu, commandLength))),
+                (pattern, responseApdu, responseLength) -> patterns.add(pattern + "/" + Utils.toHexString(Arrays.copyOf(responseApdu, responseLength))));
+
+        patternParser.parse(new StringReader("c-apdu : 80A80000 0B 83 09 ?? ?? ?? ?? 0978 ?? ?? ?? ?? 00\n"
+                + "r-apdu : 770A82021980940418010100 9000\n"
+                + "c-apdu : 80AE8?00*\n"
+                + "r-apdu : 6985\n"
+                + "c-apdu:00B2010C00r-apdu:9000c-apdu:80CA*r-apdu:6A88"));
+
+        assertEquals(Arrays.asList("80A800000B8309????????0978????????00/770A820219809404180101009000", "80AE8?00*/6985", "80CA*/6A88"), patterns);
+        assertEquals(Arrays.asList("00B2010C00"), pairs);
+        assertEquals(3, patternParser.getPatternCount());
+        assertEquals(1, patternParser.getPairCount());
+    }
+
+    @Test
+    public void parse_refusesMisplacedWildcards() throws IOException {
+        ProfileParser patternParser = new ProfileParser("c-apdu", "r-apdu",
+                (commandApdu, commandLength, responseApdu, responseLength) -> pairs.add(Utils.toHexString(Arrays.copyOf(commandApdu, commandLength))),
+                (pattern, responseApdu, responseLength) -> pairs.add(pattern.toString()));
+
+        // digits after *, a prefix without INS, a short pattern without *, and a wildcard in a response
+        patternParser.parse(new StringReader("c-apdu : 80AE*00\nr-apdu : 9000\n"
+                + "c-apdu : 80*\nr-apdu : 9000\n"
+                + "c-apdu : 80?E\nr-apdu : 9000\n"
+                + "c-apdu : 80AE800000\nr-apdu : 90??\n"));
+
+        assertTrue(pairs.isEmpty());
+        assertEquals(3, patternParser.getInvalidCommandCount());
+        assertEquals(1, patternParser.getInvalidResponseCount());
+    }
+
+    @Test
+    public void parse_patternsAreInvalidWithoutTheirReceiver() throws IOException {
+        parse("c-apdu : 80AE8000*\nr-apdu : 9000\nc-apdu : 00B2010C00\nr-apdu : 9000\n");
+
+        assertEquals(Arrays.asList("00B2010C00/9000"), pairs);
+        assertEquals(1, parser.getInvalidCommandCount());
+    }
+
+    private void parse(String text) throws IOException {
+        parser.parse(new StringReader(text));
+    }
+}
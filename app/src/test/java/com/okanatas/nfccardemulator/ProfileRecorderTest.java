@@ -0,0 +1,143 @@
+package com.okanatas.nfccardemulator;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit tests of the recorder of the learn mode.
+ */
+public class ProfileRecorderTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void close_writesExchangesInFileHandlerFormat() throws IOException {
+        File file = folder.newFile("capture.txt");
+        ProfileRecorder recorder = new ProfileRecorder(file, "c-apdu", "r-apdu");
+
+        assertTrue(recorder.record(Utils.hexStringToByteArray("00A404000E325041592E5359532E444446303100"), Utils.hexStringToByteArray("6F009000")));
+        assertTrue(recorder.record(Utils.hexStringToByteArray("00B2010C00"), Utils.hexStringToByteArray("70009000")));
+        recorder.close();
+
+        List<String> lines = readLines(file);
+        assertEquals(6, lines.size());
+        assertEquals("c-apdu : 00A404000E325041592E5359532E444446303100", lines.get(0));
+        assertEquals("r-apdu : 6F009000", lines.get(1));
+        assertEquals("", lines.get(2));
+        assertEquals("c-apdu : 00B2010C00", lines.get(3));
+        assertEquals("r-apdu : 70009000", lines.get(4));
+        assertEquals(2, recorder.getWrittenCount());
+    }
+
+    @Test
+    public void recordedFile_isReadBackIntoLookupTable() throws IOException {
+        File file = folder.newFile("capture.txt");
+        ProfileRecorder recorder = new ProfileRecorder(file, "c-apdu", "r-apdu");
+        byte[] command = Utils.hexStringToByteArray("00B2020C00");
+        byte[] response = Utils.hexStringToByteArray("70035A01029000");
+
+        recorder.record(command, response);
+        recorder.close();
+
+        // the same split on the keyword separator as FileHandler
+        List<String> commands = new ArrayList<>();
+        List<String> responses = new ArrayList<>();
+        for (String line : readLines(file)) {
+            String[] parsedLine = line.replaceAll("\\s", "").split(":");
+            if (parsedLine[0].equalsIgnoreCase("c-apdu")) {
+                commands.add(parsedLine[1]);
+            } else if (parsedLine[0].equalsIgnoreCase("r-apdu")) {
+                responses.add(parsedLine[1]);
+            }
+        }
+        ApduLookupTable table = ApduLookupTable.fromHexStrings(commands, responses);
+
+        assertArrayEquals(response, table.getResponse(table.indexOf(command)));
+    }
+
+    @Test
+    public void record_fromSeveralThreads_writesEveryExchange() throws Exception {
+        File file = folder.newFile("capture.txt");
+        ProfileRecorder recorder = new ProfileRecorder(file, "c-apdu", "r-apdu");
+        int threads = 4;
+        int exchangesPerThread = 500;
+
+        Thread[] recorders = new Thread[threads];
+        for (int t = 0; t < threads; t++) {
+            final int thread = t;
+            recorders[t] = new Thread(() -> {
+                for (int i = 0; i < exchangesPerThread; i++) {
+                    recorder.record(new byte[]{0x00, (byte) 0xB2, (byte) thread, (byte) i, 0x00}, new byte[]{(byte) 0x90, 0x00});
+                    if (i % 50 == 0) {
+                        // leave time to the writer, so that the queue never fills up
+                        Thread.yield();
+                    }
+                }
+            });
+            recorders[t].start();
+        }
+        for (Thread thread : recorders) {
+            thread.join();
+        }
+        recorder.close();
+
+        long exchanges = recorder.getWrittenCount() + recorder.getDroppedCount();
+        assertEquals(threads * exchangesPerThread, exchanges);
+        assertEquals(recorder.getWrittenCount() * 3, readLines(file).size());
+    }
+
+    @Test
+    public void record_duringClose_isWrittenOrRefused() throws Exception {
+        for (int round = 0; round < 200; round++) {
+            final ProfileRecorder recorder = new ProfileRecorder(folder.newFile("capture" + round + ".txt"), "c-apdu", "r-apdu");
+            final long[] acceptedCount = {0};
+            Thread thread = new Thread(() -> {
+                for (int i = 0; recorder.record(new byte[]{0x00, (byte) 0xB2, (byte) i, 0x0C, 0x00}, new byte[]{(byte) 0x90, 0x00}); i++) {
+                    acceptedCount[0]++;
+                    if (i % 50 == 0) {
+                        // leave time to the writer, so that the queue never fills up
+                        Thread.yield();
+                    }
+                }
+            });
+            thread.start();
+            recorder.close();
+            thread.join();
+
+            // an exchange is either refused or written, never accepted and lost
+            assertEquals(acceptedCount[0], recorder.getWrittenCount());
+        }
+    }
+
+    @Test
+    public void record_afterClose_isRefused() throws IOException {
+        ProfileRecorder recorder = new ProfileRecorder(folder.newFile("capture.txt"), "c-apdu", "r-apdu");
+        recorder.close();
+
+        assertFalse(recorder.record(new byte[]{0x00, (byte) 0xA4, 0x04, 0x00, 0x00}, new byte[]{(byte) 0x90, 0x00}));
+        assertFalse(recorder.record(null, null));
+    }
+
+    private static List<String> readLines(File file) throws IOException {
+        List<String> lines = new ArrayList<>();
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(file), "UTF-8"))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                lines.add(line);
+            }
+        }
+        return lines;
+    }
+}
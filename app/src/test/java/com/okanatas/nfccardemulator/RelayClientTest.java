@@ -0,0 +1,171 @@
+package com.okanatas.nfccardemulator;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.Parameterized;
+
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit tests for the framed relay protocol, run against a local stand-in server
+ * with both the blocking and the non-blocking transport.
+ */
+@RunWith(Parameterized.class)
+public class RelayClientTest {
+
+    @Parameterized.Parameters(name = "useNio={0}")
+    public static Collection<Object[]> transports() {
+        return Arrays.asList(new Object[][]{{false}, {true}});
+    }
+
+    private final boolean useNio;
+    private RelayTestServer server;
+    private RelayClient client;
+
+    public RelayClientTest(boolean useNio) {
+        this.useNio = useNio;
+    }
+
+    @Before
+    public void setUp() throws IOException {
+        // the response is the command with its bytes inverted, so that it can be checked by the client
+        server = new RelayTestServer(RelayClientTest::invert);
+        client = new RelayClient("127.0.0.1", server.getPort(), useNio);
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        client.close();
+        server.close();
+    }
+
+    @Test
+    public void frame_encodeAndRead() throws IOException {
+        byte[] payload = new byte[300];
+        Arrays.fill(payload, (byte) 0x5A);
+        RelayFrame frame = new RelayFrame(RelayFrame.TYPE_COMMAND, 42, 1234567890123L, payload);
+
+        byte[] encoded = frame.encode();
+        assertEquals(RelayFrame.HEADER_SIZE + 300, encoded.length);
+
+        RelayFrame read = RelayFrame.read(new DataInputStream(new ByteArrayInputStream(encoded)));
+        assertEquals(RelayFrame.TYPE_COMMAND, read.type);
+        assertEquals(42, read.requestId);
+        assertEquals(1234567890123L, read.timestamp);
+        assertArrayEquals(payload, read.payload);
+    }
+
+    @Test(expected = IOException.class)
+    public void frame_refusesUnknownVersion() throws IOException {
+        byte[] encoded = new RelayFrame(RelayFrame.TYPE_COMMAND, 1, 0, new byte[]{1}).encode();
+        encoded[0] = 99;
+        RelayFrame.read(new DataInputStream(new ByteArrayInputStream(encoded)));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void frame_refusesOversizedPayload() {
+        new RelayFrame(RelayFrame.TYPE_COMMAND, 1, 0, new byte[RelayFrame.MAX_PAYLOAD_SIZE + 1]);
+    }
+
+    @Test
+    public void exchange_returnsResponse() {
+        byte[] command = {0x00, (byte) 0xA4, 0x04, 0x00, 0x00};
+
+        assertArrayEquals(invert(command), client.exchange(command, 2000));
+    }
+
+    @Test
+    public void exchange_longApdu() {
+        // longer than the single length byte of the former protocol could describe
+        byte[] command = new byte[1000];
+        for (int i = 0; i < command.length; i++) {
+            command[i] = (byte) i;
+        }
+
+        assertArrayEquals(invert(command), client.exchange(command, 2000));
+    }
+
+    @Test
+    public void send_matchesOutOfOrderResponsesById() throws IOException {
+        server.setReverseBatchSize(4);
+        List<RelayClient.PendingResponse> pendingResponses = new ArrayList<>();
+        List<byte[]> commands = new ArrayList<>();
+
+        for (int i = 0; i < 4; i++) {
+            byte[] command = {0x00, (byte) 0xB2, (byte) i, 0x0C, 0x00};
+            commands.add(command);
+            pendingResponses.add(client.send(command));
+        }
+
+        for (int i = 0; i < 4; i++) {
+            assertArrayEquals(invert(commands.get(i)), pendingResponses.get(i).await(2000));
+        }
+        assertEquals(0, client.getPendingCount());
+    }
+
+    @Test
+    public void close_answersPendingCommandsWithNull() throws IOException {
+        server.setReverseBatchSize(2);
+        RelayClient.PendingResponse pendingResponse = client.send(new byte[]{0x00, (byte) 0xB2, 0x01, 0x0C, 0x00});
+
+        client.close();
+
+        assertTrue(pendingResponse.isDone());
+        assertNull(pendingResponse.await(100));
+        assertNull(client.exchange(new byte[]{0x00, (byte) 0xB2, 0x01, 0x0C, 0x00}, 100));
+    }
+
+    @Test
+    public void soak_pipelinedCommandsFromSeveralThreads() throws Exception {
+        int threads = 8;
+        int commandsPerThread = 5000;
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        List<Future<Integer>> results = new ArrayList<>();
+
+        for (int t = 0; t < threads; t++) {
+            final int thread = t;
+            results.add(executor.submit(() -> {
+                int matched = 0;
+                for (int i = 0; i < commandsPerThread; i++) {
+                    byte[] command = {(byte) 0x80, (byte) 0xCA, (byte) thread, (byte) (i >> 8), (byte) i, (byte) (i * 31)};
+                    if (Arrays.equals(invert(command), client.exchange(command, 5000))) {
+                        matched++;
+                    }
+                }
+                return matched;
+            }));
+        }
+
+        int matched = 0;
+        for (Future<Integer> result : results) {
+            matched += result.get(60, TimeUnit.SECONDS);
+        }
+        executor.shutdown();
+
+        assertEquals(threads * commandsPerThread, matched);
+        assertEquals(threads * commandsPerThread, server.getCommandCount());
+        assertEquals(0, client.getPendingCount());
+    }
+
+    private static byte[] invert(byte[] command) {
+        byte[] response = new byte[command.length];
+        for (int i = 0; i < command.length; i++) {
+            response[i] = (byte) ~command[i];
+        }
+        return response;
+    }
+}
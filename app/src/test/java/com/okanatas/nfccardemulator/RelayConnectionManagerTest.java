@@ -0,0 +1,164 @@
+package com.okanatas.nfccardemulator;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.net.ServerSocket;
+
+import static org.junit.Assert.*;
+
+/**
+ * Failure injection tests of the relay connection manager, the local stand-in server is killed and restarted.
+ */
+public class RelayConnectionManagerTest {
+
+    private static final long HEARTBEAT_INTERVAL_MILLIS = 50;
+    private static final long INITIAL_BACKOFF_MILLIS = 20;
+    private static final long MAX_BACKOFF_MILLIS = 200;
+    private static final byte[] COMMAND = {0x00, (byte) 0xA4, 0x04, 0x00, 0x00};
+
+    private RelayTestServer server;
+    private RelayConnectionManager manager;
+
+    @After
+    public void tearDown() throws IOException {
+        if (manager != null) {
+            manager.stop();
+        }
+        if (server != null) {
+            server.close();
+        }
+    }
+
+    @Test
+    public void start_opensConnectionInBackground() throws IOException {
+        server = new RelayTestServer(apdu -> apdu);
+        manager = newManager(server.getPort());
+
+        manager.start();
+
+        assertTrue(waitFor(() -> manager.isReady(), 2000));
+        assertArrayEquals(COMMAND, manager.exchange(COMMAND, 1000));
+        assertEquals(1, server.getAcceptedCount());
+    }
+
+    @Test(timeout = 5000)
+    public void exchange_whenNotReady_returnsNullWithoutWaiting() {
+        manager = newManager(findFreePort());
+
+        // waiting this timeout would go far beyond the timeout of the test
+        assertNull(manager.exchange(COMMAND, 60_000));
+        assertEquals(RelayConnectionManager.State.STOPPED, manager.getState());
+    }
+
+    @Test
+    public void serverKilledAndRestarted_reconnects() throws IOException {
+        server = new RelayTestServer(apdu -> apdu);
+        int port = server.getPort();
+        manager = newManager(port);
+        manager.start();
+        assertTrue(waitFor(() -> manager.isReady(), 2000));
+
+        server.close();
+        assertTrue(waitFor(() -> !manager.isReady(), 2000));
+        assertNull(manager.exchange(COMMAND, 1000));
+
+        server = new RelayTestServer(apdu -> apdu, port);
+        assertTrue(waitFor(() -> manager.isReady(), 2000));
+        assertArrayEquals(COMMAND, manager.exchange(COMMAND, 1000));
+        assertEquals(1, manager.getConnectionLostCount());
+        assertEquals(2, manager.getConnectCount());
+    }
+
+    @Test
+    public void serverDownAtStart_keepsTrying() throws IOException {
+        int port = findFreePort();
+        manager = newManager(port);
+        manager.start();
+
+        assertTrue(waitFor(() -> manager.getState() == RelayConnectionManager.State.WAITING_TO_RECONNECT, 2000));
+        assertFalse(manager.isReady());
+
+        server = new RelayTestServer(apdu -> apdu, port);
+        assertTrue(waitFor(() -> manager.isReady(), 2000));
+        assertArrayEquals(COMMAND, manager.exchange(COMMAND, 1000));
+    }
+
+    @Test
+    public void silentServer_isDetectedByHeartbeats() throws IOException {
+        server = new RelayTestServer(apdu -> apdu);
+        manager = newManager(server.getPort());
+        manager.start();
+        assertTrue(waitFor(() -> manager.isReady(), 2000));
+        assertTrue(waitFor(() -> server.getPingCount() > 2, 2000));
+        assertEquals(0, manager.getConnectionLostCount());
+
+        // the connection stays open but nothing comes back, as with a peer that is gone
+        server.setAnswersPings(false);
+        assertTrue(waitFor(() -> manager.getConnectionLostCount() >= 1, 2000));
+
+        server.setAnswersPings(true);
+        assertTrue(waitFor(() -> manager.isReady(), 2000));
+        assertTrue(server.getAcceptedCount() >= 2);
+    }
+
+    @Test
+    public void stop_closesConnection() throws IOException {
+        server = new RelayTestServer(apdu -> apdu);
+        manager = newManager(server.getPort());
+        manager.start();
+        assertTrue(waitFor(() -> manager.isReady(), 2000));
+
+        manager.stop();
+
+        assertEquals(RelayConnectionManager.State.STOPPED, manager.getState());
+        assertNull(manager.exchange(COMMAND, 1000));
+        assertEquals(0, manager.getConnectionLostCount());
+    }
+
+    @Test
+    public void backoff_growsWithJitterUpToMaximum() {
+        manager = newManager(findFreePort());
+
+        assertEquals(0, manager.getBackoffMillis(0));
+        for (int attempt = 1; attempt <= 40; attempt++) {
+            long backoff = Math.min(MAX_BACKOFF_MILLIS, INITIAL_BACKOFF_MILLIS << Math.min(attempt - 1, 30));
+            long delay = manager.getBackoffMillis(attempt);
+            assertTrue("attempt " + attempt + ": " + delay, delay >= backoff / 2 && delay <= backoff);
+        }
+    }
+
+    private static RelayConnectionManager newManager(int port) {
+        return new RelayConnectionManager("127.0.0.1", port, true,
+                HEARTBEAT_INTERVAL_MILLIS, INITIAL_BACKOFF_MILLIS, MAX_BACKOFF_MILLIS);
+    }
+
+    private static int findFreePort() {
+        try (ServerSocket socket = new ServerSocket(0)) {
+            return socket.getLocalPort();
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private interface Condition {
+        boolean isMet();
+    }
+
+    private static boolean waitFor(Condition condition, long timeoutMillis) {
+        long deadline = System.currentTimeMillis() + timeoutMillis;
+        while (!condition.isMet()) {
+            if (System.currentTimeMillis() > deadline) {
+                return false;
+            }
+            try {
+                Thread.sleep(5);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return false;
+            }
+        }
+        return true;
+    }
+}
@@ -0,0 +1,156 @@
+package com.okanatas.nfccardemulator;
+
+import java.io.BufferedInputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A local stand-in for the relay server, used by the unit tests.
+ * It answers each command frame with the response given by its handler.
+ */
+class RelayTestServer implements Closeable {
+
+    interface Handler {
+        byte[] respond(byte[] command);
+    }
+
+    private final ServerSocket serverSocket;
+    private final Handler handler;
+    private final List<Socket> connections = new CopyOnWriteArrayList<>();
+    private final AtomicInteger acceptedCount = new AtomicInteger();
+    private final AtomicInteger commandCount = new AtomicInteger();
+
+    /** When false, heartbeats are not answered, as if the server was hanging. */
+    private volatile boolean answersPings = true;
+    private final AtomicInteger pingCount = new AtomicInteger();
+
+    /** Artificial latency added before each response, in milliseconds. */
+    private volatile long responseLatencyMillis = 0;
+
+    /** Responses are held back until this many commands are received, then sent in reverse order. */
+    private volatile int reverseBatchSize = 1;
+
+    RelayTestServer(Handler handler) throws IOException {
+        this(handler, 0);
+    }
+
+    RelayTestServer(Handler handler, int port) throws IOException {
+        this.handler = handler;
+        serverSocket = new ServerSocket();
+        serverSocket.setReuseAddress(true);
+        serverSocket.bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), port));
+        Thread acceptThread = new Thread(this::acceptConnections, "RelayTestServerAccept");
+        acceptThread.setDaemon(true);
+        acceptThread.start();
+    }
+
+    int getPort() {
+        return serverSocket.getLocalPort();
+    }
+
+    int getAcceptedCount() {
+        return acceptedCount.get();
+    }
+
+    int getCommandCount() {
+        return commandCount.get();
+    }
+
+    int getPingCount() {
+        return pingCount.get();
+    }
+
+    void setAnswersPings(boolean answersPings) {
+        this.answersPings = answersPings;
+    }
+
+    void setResponseLatencyMillis(long responseLatencyMillis) {
+        this.responseLatencyMillis = responseLatencyMillis;
+    }
+
+    void setReverseBatchSize(int reverseBatchSize) {
+        this.reverseBatchSize = reverseBatchSize;
+    }
+
+    @Override
+    public void close() throws IOException {
+        serverSocket.close();
+        for (Socket connection : connections) {
+            connection.close();
+        }
+    }
+
+    private void acceptConnections() {
+        while (!serverSocket.isClosed()) {
+            try {
+                Socket connection = serverSocket.accept();
+                connection.setTcpNoDelay(true);
+                connections.add(connection);
+                acceptedCount.incrementAndGet();
+                Thread connectionThread = new Thread(() -> serve(connection), "RelayTestServerConnection");
+                connectionThread.setDaemon(true);
+                connectionThread.start();
+            } catch (IOException e) {
+                return;
+            }
+        }
+    }
+
+    private void serve(Socket connection) {
+        List<RelayFrame> heldBack = new ArrayList<>();
+        try {
+            DataInputStream in = new DataInputStream(new BufferedInputStream(connection.getInputStream()));
+            OutputStream out = connection.getOutputStream();
+            while (true) {
+                RelayFrame frame = RelayFrame.read(in);
+                if (frame.type == RelayFrame.TYPE_PING) {
+                    pingCount.incrementAndGet();
+                    if (answersPings) {
+                        out.write(new RelayFrame(RelayFrame.TYPE_PONG, frame.requestId, System.currentTimeMillis(), new byte[0]).encode());
+                        out.flush();
+                    }
+                    continue;
+                }
+                if (frame.type != RelayFrame.TYPE_COMMAND) {
+                    continue;
+                }
+                commandCount.incrementAndGet();
+                if (responseLatencyMillis > 0) {
+                    try {
+                        Thread.sleep(responseLatencyMillis);
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                }
+                heldBack.add(new RelayFrame(RelayFrame.TYPE_RESPONSE, frame.requestId,
+                        System.currentTimeMillis(), handler.respond(frame.payload)));
+                if (heldBack.size() >= reverseBatchSize) {
+                    for (int i = heldBack.size() - 1; i >= 0; i--) {
+                        out.write(heldBack.get(i).encode());
+                    }
+                    out.flush();
+                    heldBack.clear();
+                }
+            }
+        } catch (IOException e) {
+            // the connection is closed
+        } finally {
+            connections.remove(connection);
+            try {
+                connection.close();
+            } catch (IOException ignored) {
+                // already closed
+            }
+        }
+    }
+}
@@ -0,0 +1,142 @@
+package com.okanatas.nfccardemulator;
+
+import org.junit.Ignore;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+/**
+ * Round trip benchmark of the blocking and the non-blocking relay transports against a loopback echo server,
+ * compared with the first relay protocol: a length byte and the APDU written separately on a plain socket.
+ * It depends on the load of the machine, so it is not part of the unit tests and is run by hand.
+ */
+public class RelayTransportBenchmarkTest {
+
+    private static final int WARM_UP_EXCHANGES = 2000;
+    private static final int MEASURED_EXCHANGES = 20000;
+    /** The first protocol may wait for delayed acknowledgements on each exchange, so it is measured on fewer of them. */
+    private static final int BASELINE_WARM_UP_EXCHANGES = 20;
+    private static final int MEASURED_BASELINE_EXCHANGES = 200;
+
+    @Ignore("benchmark, depends on the load of the machine")
+    @Test
+    public void roundTrip_blockingVersusNio() throws IOException {
+        long[] baseline = measureBaselineRoundTrips();
+        long[] blocking = measureRoundTrips(false);
+        long[] nio = measureRoundTrips(true);
+
+        String result = describe("length byte socket", baseline) + "\n" + describe("blocking socket", blocking) + "\n" + describe("nio channel", nio);
+        System.out.println(result);
+        // a single write per frame without Nagle answers sooner than the length byte and the APDU written apart
+        assertTrue(result, percentile(nio, 50) < percentile(baseline, 50));
+        assertTrue(result, percentile(nio, 99) < percentile(baseline, 99));
+        // the selector thread costs less than a millisecond of the time a terminal waits for a response
+        assertTrue(result, percentile(nio, 50) < percentile(blocking, 50) + TimeUnit.MILLISECONDS.toNanos(1));
+    }
+
+    /**
+     * This method measures sequential round trips of a typical READ RECORD sized APDU.
+     * @param useNio true to use the non-blocking transport.
+     * @return sorted round trip times in nanoseconds.
+     */
+    private static long[] measureRoundTrips(boolean useNio) throws IOException {
+        byte[] command = {0x00, (byte) 0xB2, 0x01, 0x0C, 0x00};
+        long[] roundTrips = new long[MEASURED_EXCHANGES];
+
+        try (RelayTestServer server = new RelayTestServer(apdu -> apdu)) {
+            RelayClient client = new RelayClient("127.0.0.1", server.getPort(), useNio);
+            try {
+                for (int i = 0; i < WARM_UP_EXCHANGES; i++) {
+                    assertNotNull(client.exchange(command, 2000));
+                }
+                for (int i = 0; i < MEASURED_EXCHANGES; i++) {
+                    long start = System.nanoTime();
+                    byte[] response = client.exchange(command, 2000);
+                    roundTrips[i] = System.nanoTime() - start;
+                    assertArrayEquals(command, response);
+                }
+            } finally {
+                client.close();
+            }
+        }
+        Arrays.sort(roundTrips);
+        return roundTrips;
+    }
+
+    /**
+     * This method measures sequential round trips of the same APDU with the first relay protocol,
+     * the length byte and the APDU are written with two calls and each response is read into a new array.
+     * @return sorted round trip times in nanoseconds.
+     */
+    private static long[] measureBaselineRoundTrips() throws IOException {
+        byte[] command = {0x00, (byte) 0xB2, 0x01, 0x0C, 0x00};
+        long[] roundTrips = new long[MEASURED_BASELINE_EXCHANGES];
+
+        try (ServerSocket server = new ServerSocket(0, 1, InetAddress.getLoopbackAddress())) {
+            Thread echo = new Thread(() -> {
+                try (Socket connection = server.accept()) {
+                    InputStream in = connection.getInputStream();
+                    OutputStream out = connection.getOutputStream();
+                    int length;
+                    while ((length = in.read()) >= 0) {
+                        byte[] apdu = readFully(in, length);
+                        out.write(length);
+                        out.write(apdu);
+                    }
+                } catch (IOException ignored) {
+                    // the client closed the connection
+                }
+            }, "BaselineEcho");
+            echo.start();
+
+            try (Socket socket = new Socket(InetAddress.getLoopbackAddress(), server.getLocalPort())) {
+                InputStream in = socket.getInputStream();
+                OutputStream out = socket.getOutputStream();
+                for (int i = 0; i < BASELINE_WARM_UP_EXCHANGES + MEASURED_BASELINE_EXCHANGES; i++) {
+                    long start = System.nanoTime();
+                    out.write(command.length);
+                    out.write(command);
+                    byte[] response = readFully(in, in.read());
+                    if (i >= BASELINE_WARM_UP_EXCHANGES) {
+                        roundTrips[i - BASELINE_WARM_UP_EXCHANGES] = System.nanoTime() - start;
+                    }
+                    assertArrayEquals(command, response);
+                }
+            }
+        }
+        Arrays.sort(roundTrips);
+        return roundTrips;
+    }
+
+    private static byte[] readFully(InputStream in, int length) throws IOException {
+        byte[] bytes = new byte[length];
+        int read = 0;
+        while (read < length) {
+            int count = in.read(bytes, read, length - read);
+            if (count < 0) {
+                throw new IOException("connection closed");
+            }
+            read += count;
+        }
+        return bytes;
+    }
+
+    private static long percentile(long[] sorted, int percentile) {
+        return sorted[Math.min(sorted.length - 1, sorted.length * percentile / 100)];
+    }
+
+    private static String describe(String name, long[] sorted) {
+        return String.format(Locale.US, "Relay round trip, %s : p50=%.1fus p99=%.1fus max=%.1fus",
+                name, percentile(sorted, 50) / 1000.0, percentile(sorted, 99) / 1000.0, sorted[sorted.length - 1] / 1000.0);
+    }
+}
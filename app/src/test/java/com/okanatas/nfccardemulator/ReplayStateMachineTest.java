@@ -0,0 +1,141 @@
+package com.okanatas.nfccardemulator;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit tests of the recorded sessions replayed in order.
+ */
+public class ReplayStateMachineTest {
+
+    private static final byte[] SELECT = Utils.hexStringToByteArray("00A4040007A0000000031010");
+    private static final byte[] GET_ATC = Utils.hexStringToByteArray("80CA9F3600");
+    private static final byte[] GET_PIN_TRY_COUNTER = Utils.hexStringToByteArray("80CA9F1700");
+    private static final byte[] READ_BINARY = Utils.hexStringToByteArray("00B0000010");
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void dispatch_answersEachCommandWithItsNextStep() {
+        ApduLookupTable table = session();
+        ReplayStateMachine.Session replay = ReplayStateMachine.compile(table).newSession();
+
+        assertArrayEquals(hex("6F009000"), ApduDispatcher.dispatch(table, replay, SELECT));
+        assertArrayEquals(hex("9F360200019000"), ApduDispatcher.dispatch(table, replay, GET_ATC));
+        assertArrayEquals(hex("0102030405069000"), ApduDispatcher.dispatch(table, replay, READ_BINARY));
+        // matched exactly although GET DATA is matched by INS without a session
+        assertArrayEquals(hex("9F1701039000"), ApduDispatcher.dispatch(table, replay, GET_PIN_TRY_COUNTER));
+        assertArrayEquals(hex("9F360200029000"), ApduDispatcher.dispatch(table, replay, GET_ATC));
+        assertArrayEquals(hex("0708090A0B0C9000"), ApduDispatcher.dispatch(table, replay, READ_BINARY));
+        // the last answer is repeated
+        assertArrayEquals(hex("9F360200039000"), ApduDispatcher.dispatch(table, replay, GET_ATC));
+        assertArrayEquals(hex("9F360200039000"), ApduDispatcher.dispatch(table, replay, GET_ATC));
+        assertArrayEquals(hex("6F009000"), ApduDispatcher.dispatch(table, replay, SELECT));
+        assertArrayEquals(ISOProtocol.SW_FILE_NOT_FOUND, ApduDispatcher.dispatch(table, replay, hex("00A4040007A0000000041010")));
+    }
+
+    @Test
+    public void dispatch_firstResponseWithoutSession() {
+        ApduLookupTable table = session();
+
+        assertArrayEquals(hex("9F360200019000"), ApduDispatcher.dispatch(table, GET_ATC));
+        assertArrayEquals(hex("9F360200019000"), ApduDispatcher.dispatch(table, GET_ATC));
+        assertArrayEquals(hex("9F360200019000"), ApduDispatcher.dispatch(table, GET_PIN_TRY_COUNTER));
+    }
+
+    @Test
+    public void reset_startsTheSessionOver() {
+        ApduLookupTable table = session();
+        ReplayStateMachine.Session replay = ReplayStateMachine.compile(table).newSession();
+        ApduDispatcher.dispatch(table, replay, GET_ATC);
+        ApduDispatcher.dispatch(table, replay, GET_ATC);
+
+        replay.reset();
+
+        assertArrayEquals(hex("9F360200019000"), ApduDispatcher.dispatch(table, replay, GET_ATC));
+        assertArrayEquals(hex("0102030405069000"), ApduDispatcher.dispatch(table, replay, READ_BINARY));
+        assertTrue(replay.getStatistics().contains("transitions=4 resets=1"));
+    }
+
+    @Test
+    public void compile_sameStepsFromTheCompiledFile() throws IOException {
+        ApduLookupTable table = session();
+        File source = new File(folder.getRoot(), "session.txt");
+        try (FileOutputStream output = new FileOutputStream(source)) {
+            output.write('x');
+        }
+        File compiledFile = CompiledApduProfile.getCompiledFile(source);
+        CompiledApduProfile.compile(table, source, compiledFile);
+        CompiledApduProfile profile = CompiledApduProfile.open(compiledFile);
+
+        ReplayStateMachine.Session tableReplay = ReplayStateMachine.compile(table).newSession();
+        ReplayStateMachine.Session profileReplay = ReplayStateMachine.compile(profile).newSession();
+        assertEquals(4, profileReplay.getStateMachine().getCommandCount());
+        for (byte[] command : new byte[][]{GET_ATC, READ_BINARY, GET_ATC, SELECT, READ_BINARY, GET_ATC, GET_ATC}) {
+            assertArrayEquals(ApduDispatcher.dispatch(table, tableReplay, command), ApduDispatcher.dispatch(profile, profileReplay, command));
+        }
+    }
+
+    @Test
+    public void replay_longSessionWithoutScanning() {
+        int steps = 10_000;
+        int commands = 100;
+        ApduLookupTable.Builder builder = new ApduLookupTable.Builder();
+        for (int step = 0; step < steps; step++) {
+            int record = step % commands;
+            builder.add(new byte[]{0x00, (byte) 0xB2, (byte) record, 0x0C, 0x00},
+                    new byte[]{0x70, 0x02, (byte) (step >> 8), (byte) step, (byte) 0x90, 0x00});
+        }
+        ApduLookupTable table = builder.build();
+
+        ReplayStateMachine replay = ReplayStateMachine.compile(table);
+        ReplayStateMachine.Session session = replay.newSession();
+
+        byte[][] sent = new byte[steps][];
+        for (int step = 0; step < steps; step++) {
+            sent[step] = table.getCommand(step);
+        }
+        // a first replay, then the session starts again
+        for (int step = 0; step < steps; step++) {
+            ApduDispatcher.dispatch(table, session, sent[step]);
+        }
+        session.reset();
+
+        for (int step = 0; step < steps; step++) {
+            byte[] response = ApduDispatcher.dispatch(table, session, sent[step]);
+            assertEquals((byte) step, response[3]);
+            assertEquals((byte) (step >> 8), response[2]);
+        }
+
+        assertEquals(commands, replay.getCommandCount());
+        // the last step of each command is repeated
+        assertEquals((byte) (steps - commands), ApduDispatcher.dispatch(table, session, sent[0])[3]);
+    }
+
+    /**
+     * A session where the terminal reads the transaction counter three times and a file twice.
+     */
+    private static ApduLookupTable session() {
+        return new ApduLookupTable.Builder()
+                .add(SELECT, hex("6F009000"))
+                .add(GET_ATC, hex("9F360200019000"))
+                .add(READ_BINARY, hex("0102030405069000"))
+                .add(GET_PIN_TRY_COUNTER, hex("9F1701039000"))
+                .add(GET_ATC, hex("9F360200029000"))
+                .add(READ_BINARY, hex("0708090A0B0C9000"))
+                .add(GET_ATC, hex("9F360200039000"))
+                .build();
+    }
+
+    private static byte[] hex(String text) {
+        return Utils.hexStringToByteArray(text);
+    }
+}
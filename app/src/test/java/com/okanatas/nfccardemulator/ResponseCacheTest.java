@@ -0,0 +1,208 @@
+package com.okanatas.nfccardemulator;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit tests of the response cache of the relay mode.
+ */
+public class ResponseCacheTest {
+
+    private static final byte[] SELECT_PPSE = Utils.hexStringToByteArray("00A404000E325041592E5359532E444446303100");
+    private static final byte[] SELECT_PPSE_RESPONSE = Utils.hexStringToByteArray("6F10840E325041592E5359532E44444630319000");
+    private static final byte[] SELECT_VISA = Utils.hexStringToByteArray("00A4040007A000000003101000");
+    private static final byte[] SELECT_MASTERCARD = Utils.hexStringToByteArray("00A4040007A000000004101000");
+    private static final byte[] READ_RECORD = Utils.hexStringToByteArray("00B2010C00");
+    private static final byte[] READ_RECORD_RESPONSE = Utils.hexStringToByteArray("70035A01019000");
+    private static final byte[] GPO = Utils.hexStringToByteArray("80A8000002830000");
+    private static final byte[] GENERATE_AC = Utils.hexStringToByteArray("80AE80001D0000000010000000000000000000");
+    private static final byte[] OK = {(byte) 0x90, 0x00};
+
+    @Test
+    public void get_returnsCachedResponse() {
+        ResponseCache cache = new ResponseCache(16, 60000);
+        cache.put(SELECT_VISA, OK);
+        cache.put(READ_RECORD, READ_RECORD_RESPONSE);
+
+        // a new array with the same command bytes, as each tap brings its own
+        assertArrayEquals(READ_RECORD_RESPONSE, cache.get(READ_RECORD.clone()));
+        assertNull(cache.get(Utils.hexStringToByteArray("00B2021400")));
+        assertEquals(1, cache.getHitCount());
+        assertEquals(1, cache.getMissCount());
+    }
+
+    @Test
+    public void select_isNeverServedFromTheCache() {
+        ResponseCache cache = new ResponseCache(16, 60000);
+        cache.put(SELECT_PPSE, SELECT_PPSE_RESPONSE);
+
+        // the SELECT of the next tap is sent to the card again
+        assertNull(cache.get(SELECT_PPSE));
+        assertEquals(0, cache.size());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void setCacheable_refusesSelect() {
+        new ResponseCache(16, 60000).setCacheable(ISOProtocol.INS_SELECT, true);
+    }
+
+    @Test
+    public void get_keepsTheResponsesOfEachSelectedApplication() {
+        ResponseCache cache = new ResponseCache(16, 60000);
+        byte[] visaRecord = Utils.hexStringToByteArray("70035A01419000");
+        byte[] mastercardRecord = Utils.hexStringToByteArray("70035A01519000");
+        cache.put(SELECT_VISA, OK);
+        cache.put(READ_RECORD, visaRecord);
+        cache.put(SELECT_MASTERCARD, OK);
+
+        // the same READ RECORD reads another application
+        assertNull(cache.get(READ_RECORD));
+        cache.put(READ_RECORD, mastercardRecord);
+        assertArrayEquals(mastercardRecord, cache.get(READ_RECORD));
+        cache.put(SELECT_VISA, OK);
+        assertArrayEquals(visaRecord, cache.get(READ_RECORD));
+    }
+
+    @Test
+    public void get_nothingSelected() {
+        ResponseCache cache = new ResponseCache(16, 60000);
+        cache.put(SELECT_VISA, OK);
+        cache.put(READ_RECORD, READ_RECORD_RESPONSE);
+
+        // the card is reset between two communications
+        cache.startNewSession();
+        assertNull(cache.get(READ_RECORD));
+        // a SELECT the relay server did not answer may or may not have been done
+        cache.put(SELECT_VISA, OK);
+        cache.put(SELECT_VISA, null);
+        assertNull(cache.get(READ_RECORD));
+        // a SELECT the card refused keeps the previous application
+        cache.put(SELECT_VISA, OK);
+        cache.put(SELECT_MASTERCARD, ISOProtocol.SW_FILE_NOT_FOUND);
+        assertArrayEquals(READ_RECORD_RESPONSE, cache.get(READ_RECORD));
+    }
+
+    @Test
+    public void gpoAndGenerateAc_areNeverCached() {
+        ResponseCache cache = new ResponseCache(16, 60000);
+        cache.put(SELECT_VISA, OK);
+
+        cache.put(GPO, OK);
+        cache.put(GENERATE_AC, OK);
+
+        assertNull(cache.get(GPO));
+        assertNull(cache.get(GENERATE_AC));
+        assertEquals(0, cache.size());
+        // commands that are never cached do not count as misses
+        assertEquals(0, cache.getMissCount());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void setCacheable_refusesGenerateAc() {
+        new ResponseCache(16, 60000).setCacheable(ISOProtocol.INS_GENERATE_APPLICATION_CRYPTOGRAM, true);
+    }
+
+    @Test
+    public void setCacheable_disablesIns() {
+        ResponseCache cache = new ResponseCache(16, 60000);
+        cache.setCacheable(ISOProtocol.INS_READ_RECORD, false);
+        cache.put(SELECT_VISA, OK);
+
+        cache.put(READ_RECORD, READ_RECORD_RESPONSE);
+
+        assertNull(cache.get(READ_RECORD));
+    }
+
+    @Test
+    public void put_ignoresErrorsAndNull() {
+        ResponseCache cache = new ResponseCache(16, 60000);
+        cache.put(SELECT_VISA, OK);
+
+        cache.put(READ_RECORD, ISOProtocol.SW_FILE_NOT_FOUND);
+        cache.put(READ_RECORD, null);
+
+        assertEquals(0, cache.size());
+    }
+
+    @Test
+    public void put_evictsLeastRecentlyUsed() {
+        ResponseCache cache = new ResponseCache(2, 60000);
+        cache.put(SELECT_VISA, OK);
+        byte[] record1 = Utils.hexStringToByteArray("00B2010C00");
+        byte[] record2 = Utils.hexStringToByteArray("00B2020C00");
+        byte[] record3 = Utils.hexStringToByteArray("00B2030C00");
+
+        cache.put(record1, OK);
+        cache.put(record2, OK);
+        // record1 becomes the most recently used one
+        assertNotNull(cache.get(record1));
+        cache.put(record3, OK);
+
+        assertEquals(2, cache.size());
+        assertNotNull(cache.get(record1));
+        assertNull(cache.get(record2));
+        assertNotNull(cache.get(record3));
+        assertEquals(1, cache.getEvictionCount());
+    }
+
+    @Test
+    public void get_dropsExpiredResponses() {
+        final long[] now = {0};
+        ResponseCache cache = new ResponseCache(16, 50, () -> now[0]);
+        cache.put(SELECT_VISA, OK);
+        cache.put(READ_RECORD, READ_RECORD_RESPONSE);
+        now[0] = TimeUnit.MILLISECONDS.toNanos(50);
+        assertNotNull(cache.get(READ_RECORD));
+
+        now[0] = TimeUnit.MILLISECONDS.toNanos(51);
+
+        assertNull(cache.get(READ_RECORD));
+        assertEquals(0, cache.size());
+        assertEquals(1, cache.getExpirationCount());
+    }
+
+    @Test
+    public void cachedResponse_isNotChangedByCaller() {
+        ResponseCache cache = new ResponseCache(16, 60000);
+        cache.put(SELECT_VISA, OK);
+        byte[] response = READ_RECORD_RESPONSE.clone();
+        cache.put(READ_RECORD, response);
+
+        response[0] = 0;
+
+        assertArrayEquals(READ_RECORD_RESPONSE, cache.get(READ_RECORD));
+    }
+
+    @Test
+    public void repeatedTaps_forwardTheSelectsAndAnswerTheRecords() {
+        ResponseCache cache = new ResponseCache(16, 60000);
+        byte[][] tap = {SELECT_PPSE, SELECT_VISA, GPO, READ_RECORD, Utils.hexStringToByteArray("00B2021400"), GENERATE_AC};
+        List<byte[]> forwarded = new ArrayList<>();
+        for (int t = 0; t < 10; t++) {
+            for (byte[] command : tap) {
+                // as in the service, a command not answered from memory is sent to the card
+                if (cache.get(command) == null) {
+                    forwarded.add(command);
+                    cache.put(command, (command == SELECT_PPSE) ? SELECT_PPSE_RESPONSE : READ_RECORD_RESPONSE);
+                }
+            }
+            cache.startNewSession();
+        }
+
+        // the SELECT commands reach the card on each tap, so the GPO and GENERATE AC that follow find the application selected
+        assertEquals(2 + 4 * 10, forwarded.size());
+        for (int t = 1; t < 10; t++) {
+            assertSame(SELECT_PPSE, forwarded.get(2 + 4 * t));
+            assertSame(SELECT_VISA, forwarded.get(3 + 4 * t));
+            assertSame(GPO, forwarded.get(4 + 4 * t));
+        }
+        assertEquals(18, cache.getHitCount());
+        assertEquals(2, cache.getMissCount());
+        assertTrue(cache.getStatistics().contains("hitRate=90.0%"));
+    }
+}
@@ -0,0 +1,209 @@
+package com.okanatas.nfccardemulator;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.RandomAccessFile;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit tests of the binary trace recording and of its conversion to a txt file.
+ */
+public class TraceRecorderTest {
+
+    private static final byte[] SELECT_PPSE = Utils.hexStringToByteArray("00A404000E325041592E5359532E444446303100");
+    private static final byte[] SELECT_RESPONSE = Utils.hexStringToByteArray("6F009000");
+    private static final byte[] GPO = Utils.hexStringToByteArray("80A8000002830000");
+    private static final byte[] GPO_RESPONSE = Utils.hexStringToByteArray("7781009000");
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void read_givesBackTheRecords() throws IOException {
+        TraceRecorder recorder = new TraceRecorder(folder.getRoot(), "trace", TraceRecorder.MIN_SEGMENT_SIZE, 4);
+        recorder.startSession();
+        assertTrue(recorder.record(TraceRecorder.DIRECTION_COMMAND, TraceRecorder.SOURCE_FILE, 1000, SELECT_PPSE));
+        assertTrue(recorder.record(TraceRecorder.DIRECTION_RESPONSE, TraceRecorder.SOURCE_FILE, 1500, SELECT_RESPONSE));
+        recorder.startSession();
+        assertTrue(recorder.record(TraceRecorder.DIRECTION_COMMAND, TraceRecorder.SOURCE_RELAY, 2000, GPO));
+        assertTrue(recorder.record(TraceRecorder.DIRECTION_RESPONSE, TraceRecorder.SOURCE_CACHE, 2700, GPO_RESPONSE));
+        recorder.close();
+
+        List<String> records = readRecords(recorder.getSegments());
+        assertEquals(Arrays.asList(
+                "1 1000 0 0 00A404000E325041592E5359532E444446303100",
+                "1 1500 1 0 6F009000",
+                "2 2000 0 1 80A8000002830000",
+                "2 2700 1 2 7781009000"), records);
+        assertEquals(4, recorder.getWrittenCount());
+        assertFalse(recorder.record(TraceRecorder.DIRECTION_COMMAND, TraceRecorder.SOURCE_FILE, 3000, GPO));
+        // the reserved space that was not used is cut
+        File segment = recorder.getSegments().get(0);
+        assertEquals(TraceRecorder.SEGMENT_HEADER_SIZE + 4 * TraceRecorder.RECORD_HEADER_SIZE + 20 + 4 + 8 + 5, segment.length());
+    }
+
+    @Test
+    public void writeProfile_pairsEachCommandWithItsResponse() throws IOException {
+        TraceRecorder recorder = new TraceRecorder(folder.getRoot(), "trace", TraceRecorder.MIN_SEGMENT_SIZE, 4);
+        recorder.startSession();
+        recorder.record(TraceRecorder.DIRECTION_COMMAND, TraceRecorder.SOURCE_FILE, 1, SELECT_PPSE);
+        recorder.record(TraceRecorder.DIRECTION_RESPONSE, TraceRecorder.SOURCE_FILE, 2, SELECT_RESPONSE);
+        // the communication ended before the response
+        recorder.record(TraceRecorder.DIRECTION_COMMAND, TraceRecorder.SOURCE_RELAY, 3, GPO);
+        recorder.startSession();
+        // no command was received
+        recorder.record(TraceRecorder.DIRECTION_RESPONSE, TraceRecorder.SOURCE_FILE, 4, ISOProtocol.SW_COMMAND_ABORTED);
+        recorder.record(TraceRecorder.DIRECTION_COMMAND, TraceRecorder.SOURCE_RELAY, 5, GPO);
+        recorder.record(TraceRecorder.DIRECTION_RESPONSE, TraceRecorder.SOURCE_RELAY, 6, GPO_RESPONSE);
+        recorder.close();
+
+        File target = new File(folder.getRoot(), "trace.txt");
+        assertEquals(2, TraceReader.writeProfile(recorder.getSegments(), target, "c-apdu", "r-apdu"));
+
+        ApduLookupTable.Builder builder = new ApduLookupTable.Builder();
+        ProfileParser parser = new ProfileParser("c-apdu", "r-apdu", builder::add);
+        try (Reader reader = new InputStreamReader(new FileInputStream(target), "UTF-8")) {
+            parser.parse(reader);
+        }
+        ApduLookupTable table = builder.build();
+        assertEquals(2, parser.getPairCount());
+        assertArrayEquals(SELECT_RESPONSE, table.getResponse(table.indexOf(SELECT_PPSE)));
+        assertArrayEquals(GPO_RESPONSE, table.getResponse(table.indexOf(GPO)));
+    }
+
+    @Test
+    public void record_rotatesTheSegments() throws IOException, InterruptedException {
+        int segmentSize = TraceRecorder.MIN_SEGMENT_SIZE;
+        TraceRecorder recorder = new TraceRecorder(folder.getRoot(), "trace", segmentSize, 2);
+        int count = 6000;
+        for (int i = 0; i < count; i++) {
+            byte[] command = Arrays.copyOf(GPO, 24);
+            command[4] = (byte) (i >> 8);
+            command[5] = (byte) i;
+            assertTrue(recorder.record(TraceRecorder.DIRECTION_COMMAND, TraceRecorder.SOURCE_FILE, i, command));
+            if (i % 1000 == 0) {
+                // leave time to the writer, so that the queue never fills up
+                Thread.sleep(5);
+            }
+        }
+        recorder.close();
+
+        // 6000 records of 42 bytes fill 4 segments, the 2 oldest are deleted
+        List<File> segments = recorder.getSegments();
+        assertEquals(2, segments.size());
+        assertEquals("trace_0003.trace", segments.get(0).getName());
+        assertEquals("trace_0004.trace", segments.get(1).getName());
+        assertEquals(2, folder.getRoot().listFiles().length);
+        assertTrue(segments.get(0).length() <= segmentSize);
+
+        List<String> records = readRecords(segments);
+        int recordsPerSegment = (segmentSize - TraceRecorder.SEGMENT_HEADER_SIZE) / (TraceRecorder.RECORD_HEADER_SIZE + 24);
+        assertEquals(count - 2 * recordsPerSegment, records.size());
+        assertTrue(records.get(records.size() - 1).startsWith("0 " + (count - 1) + " "));
+    }
+
+    @Test
+    public void read_stopsAtTheEndOfTheRecords() throws IOException {
+        TraceRecorder recorder = new TraceRecorder(folder.getRoot(), "trace", TraceRecorder.MIN_SEGMENT_SIZE, 4);
+        recorder.record(TraceRecorder.DIRECTION_COMMAND, TraceRecorder.SOURCE_FILE, 1, SELECT_PPSE);
+        recorder.record(TraceRecorder.DIRECTION_RESPONSE, TraceRecorder.SOURCE_FILE, 2, SELECT_RESPONSE);
+        recorder.close();
+        File segment = recorder.getSegments().get(0);
+
+        // a record cut by the end of the file
+        try (RandomAccessFile file = new RandomAccessFile(segment, "rw")) {
+            file.seek(file.length());
+            file.writeInt(40);
+            file.writeInt(1);
+        }
+        assertEquals(2, TraceReader.read(segment, (session, timestampNanos, direction, source, apdu, apduLength) -> { }));
+
+        // the zeros of a segment that was not closed
+        try (RandomAccessFile file = new RandomAccessFile(segment, "rw")) {
+            file.setLength(TraceRecorder.SEGMENT_HEADER_SIZE + 2 * TraceRecorder.RECORD_HEADER_SIZE + 24);
+            file.setLength(TraceRecorder.MIN_SEGMENT_SIZE);
+        }
+        assertEquals(2, TraceReader.read(segment, (session, timestampNanos, direction, source, apdu, apduLength) -> { }));
+
+        try {
+            TraceReader.read(folder.newFile("empty.trace"), (session, timestampNanos, direction, source, apdu, apduLength) -> { });
+            fail();
+        } catch (IOException e) {
+            assertTrue(e.getMessage().startsWith("Not a trace segment"));
+        }
+    }
+
+    @Test
+    public void record_duringClose_isWrittenOrRefused() throws Exception {
+        for (int round = 0; round < 200; round++) {
+            final TraceRecorder recorder = new TraceRecorder(folder.newFolder("round" + round), "trace", 1024 * 1024, 4);
+            final long[] acceptedCount = {0};
+            Thread thread = new Thread(() -> {
+                for (int i = 0; recorder.record(TraceRecorder.DIRECTION_COMMAND, TraceRecorder.SOURCE_FILE, System.nanoTime(), GPO); i++) {
+                    acceptedCount[0]++;
+                    if (i % 50 == 0) {
+                        // leave time to the writer, so that the queue never fills up
+                        Thread.yield();
+                    }
+                }
+            });
+            thread.start();
+            recorder.close();
+            thread.join();
+
+            // an APDU is either refused or written, never accepted and lost
+            assertEquals(acceptedCount[0], recorder.getWrittenCount());
+        }
+    }
+
+    @Test
+    public void record_burstsWithoutDropping() throws IOException {
+        TraceRecorder recorder = new TraceRecorder(folder.getRoot(), "trace", 4L * 1024 * 1024, 64);
+        int bursts = 200;
+        int burstSize = 1000;
+        for (int b = 0; b < bursts; b++) {
+            // a burst of communications, then the writer catches up as it does between two taps
+            for (int i = 0; i < burstSize; i++) {
+                recorder.record(i % 2 == 0 ? TraceRecorder.DIRECTION_COMMAND : TraceRecorder.DIRECTION_RESPONSE,
+                        TraceRecorder.SOURCE_FILE, System.nanoTime(), (i % 2 == 0) ? SELECT_PPSE : SELECT_RESPONSE);
+            }
+            while (recorder.getWrittenCount() + recorder.getDroppedCount() < (long) (b + 1) * burstSize) {
+                Thread.yield();
+            }
+        }
+        recorder.close();
+        int count = bursts * burstSize;
+
+        assertEquals(count, recorder.getWrittenCount());
+        assertEquals(0, recorder.getDroppedCount());
+        long read = 0;
+        for (File segment : recorder.getSegments()) {
+            read += TraceReader.read(segment, (session, timestampNanos, direction, source, apdu, apduLength) -> { });
+        }
+        assertEquals(count, read);
+    }
+
+    /**
+     * The records of the segments, as session, timestamp, direction, source and APDU.
+     */
+    private static List<String> readRecords(List<File> segments) throws IOException {
+        final List<String> records = new ArrayList<>();
+        for (File segment : segments) {
+            TraceReader.read(segment, (session, timestampNanos, direction, source, apdu, apduLength) ->
+                    records.add(session + " " + timestampNanos + " " + direction + " " + source + " "
+                            + Utils.toHexString(Arrays.copyOf(apdu, apduLength))));
+        }
+        return records;
+    }
+}